@@ -16,24 +16,21 @@
  */
 package com.github.db;
 
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.Arrays;
 
 import javax.sql.DataSource;
 
+import com.github.db.ParameterBinder.NullTypes;
+
 /**
  * The base class for QueryRunner &amp; AsyncQueryRunner. This class is thread safe.
  *
@@ -41,10 +38,24 @@ import javax.sql.DataSource;
  */
 public abstract class AbstractQueryRunner {
     /**
-     * Is {@link ParameterMetaData#getParameterType(int)} broken (have we tried
-     * it yet)?
+     * Is {@link ParameterMetaData#getParameterType(int)} known to be broken
+     * for every driver this runner is used with?  Drivers found to be broken
+     * at runtime are remembered per driver in {@link #pmdCache}.
+     */
+    private final boolean pmdKnownBroken;
+
+    /**
+     * Parameter counts and types per SQL string, and the drivers whose
+     * {@code ParameterMetaData} doesn't work.
+     */
+    private final ParameterMetaDataCache pmdCache =
+            new ParameterMetaDataCache(ParameterMetaDataCache.DEFAULT_MAX_SIZE);
+
+    /**
+     * Binds every {@code null} as {@code VARCHAR}, which works with many
+     * drivers regardless of the actual column type.
      */
-    private volatile boolean pmdKnownBroken = false;
+    private static final NullTypes VARCHAR_NULLS = index -> Types.VARCHAR;
 
     /**
      * The DataSource to retrieve connections from.
@@ -58,12 +69,19 @@ public abstract class AbstractQueryRunner {
      */
     private final StatementConfiguration stmtConfig;
 
+    /**
+     * Prepared statements kept open for reuse, or null when caching is off.
+     */
+    private final StatementCache stmtCache;
+
     /**
      * Default constructor, sets pmdKnownBroken to false, ds to null and stmtConfig to null.
      */
     public AbstractQueryRunner() {
+        this.pmdKnownBroken = false;
         ds = null;
         this.stmtConfig = null;
+        this.stmtCache = null;
     }
 
     /**
@@ -80,6 +98,7 @@ public abstract class AbstractQueryRunner {
         this.pmdKnownBroken = pmdKnownBroken;
         ds = null;
         this.stmtConfig = null;
+        this.stmtCache = null;
     }
 
     /**
@@ -91,8 +110,10 @@ public abstract class AbstractQueryRunner {
      *            The {@code DataSource} to retrieve connections from.
      */
     public AbstractQueryRunner(final DataSource ds) {
+        this.pmdKnownBroken = false;
         this.ds = ds;
         this.stmtConfig = null;
+        this.stmtCache = null;
     }
 
     /**
@@ -114,6 +135,7 @@ public abstract class AbstractQueryRunner {
         this.pmdKnownBroken = pmdKnownBroken;
         this.ds = ds;
         this.stmtConfig = null;
+        this.stmtCache = null;
     }
 
     /**
@@ -131,6 +153,7 @@ public abstract class AbstractQueryRunner {
         this.pmdKnownBroken = pmdKnownBroken;
         this.ds = ds;
         this.stmtConfig = stmtConfig;
+        this.stmtCache = newStatementCache(stmtConfig);
     }
 
     /**
@@ -143,8 +166,10 @@ public abstract class AbstractQueryRunner {
      * @param stmtConfig The configuration to apply to statements when they are prepared.
      */
     public AbstractQueryRunner(final DataSource ds, final StatementConfiguration stmtConfig) {
+        this.pmdKnownBroken = false;
         this.ds = ds;
         this.stmtConfig = stmtConfig;
+        this.stmtCache = newStatementCache(stmtConfig);
     }
 
     /**
@@ -154,14 +179,24 @@ public abstract class AbstractQueryRunner {
      * @param stmtConfig The configuration to apply to statements when they are prepared.
      */
     public AbstractQueryRunner(final StatementConfiguration stmtConfig) {
+        this.pmdKnownBroken = false;
         this.ds = null;
         this.stmtConfig = stmtConfig;
+        this.stmtCache = newStatementCache(stmtConfig);
+    }
+
+    private static StatementCache newStatementCache(final StatementConfiguration stmtConfig) {
+        if (stmtConfig != null && stmtConfig.isStatementCacheSizeSet()) {
+            return new StatementCache(stmtConfig.getStatementCacheSize());
+        }
+        return null;
     }
 
     /**
      * Close a {@code Connection}. This implementation avoids closing if
      * null and does <strong>not</strong> suppress any exceptions. Subclasses
      * can override to provide special handling like logging.
+     * Statements cached for the connection are closed first.
      *
      * @param conn
      *            Connection to close
@@ -170,6 +205,9 @@ public abstract class AbstractQueryRunner {
      * @since DbUtils 1.1
      */
     protected void close(final Connection conn) throws SQLException {
+        if (stmtCache != null) {
+            stmtCache.evict(conn);
+        }
         DbUtils.close(conn);
     }
 
@@ -204,12 +242,16 @@ public abstract class AbstractQueryRunner {
     }
 
     /**
-     * Calls {@link DbUtils#closeQuietly(Connection)}.
+     * Calls {@link DbUtils#closeQuietly(Connection)}, after closing the
+     * statements cached for the connection.
      *
      * @param conn Connection to close.
      * @since 2.0
      */
     protected void closeQuietly(final Connection conn) {
+        if (stmtCache != null) {
+            stmtCache.evict(conn);
+        }
         DbUtils.closeQuietly(conn);
     }
 
@@ -233,6 +275,37 @@ public abstract class AbstractQueryRunner {
         DbUtils.closeQuietly(statement);
     }
 
+    /**
+     * Give a statement back once a call is done with it.  Statements that
+     * came from the statement cache have their parameters cleared and stay
+     * open; all others are passed to {@link #close(Statement)}.
+     *
+     * @param stmt
+     *            Statement to release
+     * @throws SQLException
+     *             if a database access error occurs
+     */
+    protected void release(final Statement stmt) throws SQLException {
+        if (stmtCache != null && stmt != null && stmtCache.release(stmt)) {
+            return;
+        }
+        close(stmt);
+    }
+
+    /**
+     * Like {@link #release(Statement)} but hides any SQLExceptions.
+     *
+     * @param stmt
+     *            Statement to release
+     */
+    protected void releaseQuietly(final Statement stmt) {
+        try {
+            release(stmt);
+        } catch (final SQLException e) { // NOPMD
+            // quiet
+        }
+    }
+
     private void configureStatement(final Statement stmt) throws SQLException {
 
         if (stmtConfig != null) {
@@ -258,6 +331,65 @@ public abstract class AbstractQueryRunner {
         }
     }
 
+    /**
+     * Set the fetch size learned for the SQL, when fetches are sized adaptively.
+     *
+     * @param stmt The statement about to execute the SQL.
+     * @param sql The SQL.
+     * @throws SQLException if the driver rejects the fetch size
+     */
+    void adviseFetchSize(final Statement stmt, final String sql) throws SQLException {
+        if (stmtConfig != null && stmtConfig.isAdaptiveFetchSizeSet()) {
+            stmtConfig.getFetchSizeAdvisor().apply(stmt, sql);
+        }
+    }
+
+    /**
+     * Measure the reads from a query's result set, when fetches are sized adaptively.
+     *
+     * @param sql The SQL of the query.
+     * @param rs Its result set.
+     * @return The result set, measured if fetches are sized adaptively.
+     */
+    ResultSet observeFetches(final String sql, final ResultSet rs) {
+        if (stmtConfig != null && stmtConfig.isAdaptiveFetchSizeSet()) {
+            return stmtConfig.getFetchSizeAdvisor().observe(sql, rs);
+        }
+        return rs;
+    }
+
+    /**
+     * Get the cache of query results.
+     *
+     * @return The cache, or null if results are not cached.
+     */
+    ResultCache resultCache() {
+        return stmtConfig != null ? stmtConfig.getResultCache() : null;
+    }
+
+    /**
+     * Drop the cached results of queries that read a table written by a statement.
+     *
+     * @param sql The statement that was run.
+     */
+    void invalidateResults(final String sql) {
+        final ResultCache cache = resultCache();
+        if (cache != null && sql != null) {
+            cache.invalidate(sql);
+        }
+    }
+
+    // JDBC takes the type and concurrency together; fill in the defaults
+    private int resultSetType() {
+        final Integer type = stmtConfig.getResultSetType();
+        return type != null ? type : ResultSet.TYPE_FORWARD_ONLY;
+    }
+
+    private int resultSetConcurrency() {
+        final Integer concurrency = stmtConfig.getResultSetConcurrency();
+        return concurrency != null ? concurrency : ResultSet.CONCUR_READ_ONLY;
+    }
+
     /**
      * Fill the {@code PreparedStatement} replacement parameters with the
      * given objects.
@@ -272,27 +404,46 @@ public abstract class AbstractQueryRunner {
      */
     public void fillStatement(final PreparedStatement stmt, final Object... params)
             throws SQLException {
+        fillStatement(null, stmt, params);
+    }
+
+    /**
+     * Fill the {@code PreparedStatement} replacement parameters with the
+     * given objects.  The parameter count and the SQL types used to bind
+     * {@code null} values are looked up once per SQL string and remembered,
+     * so repeated calls for the same SQL don't touch
+     * {@code ParameterMetaData} again.  Values of the common JDBC types are
+     * bound with their typed setter, such as {@code setInt} or
+     * {@code setTimestamp}, following a per-SQL plan of the classes seen at
+     * each position; other values are bound with {@code setObject}.
+     *
+     * @param sql
+     *            The SQL the statement was prepared with; {@code null}
+     *            disables the metadata cache for this call.
+     * @param stmt
+     *            PreparedStatement to fill
+     * @param params
+     *            Query replacement parameters; {@code null} is a valid
+     *            value to pass in.
+     * @throws SQLException
+     *             if a database access error occurs
+     */
+    public void fillStatement(final String sql, final PreparedStatement stmt, final Object... params)
+            throws SQLException {
 
         // check the parameter count, if we can
-        ParameterMetaData pmd = null;
+        ParameterMetaDataCache.Entry pmd = null;
         if (!pmdKnownBroken) {
-            try {
-                pmd = stmt.getParameterMetaData();
-                if (pmd == null) { // can be returned by implementations that don't support the method
-                    pmdKnownBroken = true;
-                } else {
-                    final int stmtCount = pmd.getParameterCount();
-                    final int paramsCount = params == null ? 0 : params.length;
-
-                    if (stmtCount != paramsCount) {
-                        throw new SQLException("Wrong number of parameters: expected "
-                                + stmtCount + ", was given " + paramsCount);
-                    }
+            pmd = pmdCache.lookup(sql, stmt);
+            if (pmd != null) {
+                final int stmtCount = pmd.getParameterCount();
+                final int paramsCount = params == null ? 0 : params.length;
+
+                if (stmtCount != paramsCount) {
+                    throw new SQLException("Wrong number of parameters: expected "
+                            + stmtCount + ", was given " + paramsCount);
                 }
-            } catch (final SQLFeatureNotSupportedException ex) {
-                pmdKnownBroken = true;
             }
-            // TODO see DBUTILS-117: would it make sense to catch any other SQLEx types here?
         }
 
         // nothing to do here
@@ -310,25 +461,17 @@ public abstract class AbstractQueryRunner {
                 if (call != null && params[i] instanceof OutParameter) {
                     ((OutParameter)params[i]).register(call, i + 1);
                 } else {
-                    stmt.setObject(i + 1, params[i]);
+                    final ParameterBinder binder = pmd != null ? pmd.binder(i, params[i])
+                            : ParameterBinder.forValue(params[i]);
+                    binder.bind(stmt, i + 1, params[i]);
                 }
             } else {
                 // VARCHAR works with many drivers regardless
                 // of the actual column type. Oddly, NULL and
                 // OTHER don't work with Oracle's drivers.
                 int sqlType = Types.VARCHAR;
-                if (!pmdKnownBroken) {
-                    // TODO see DBUTILS-117: does it make sense to catch SQLEx here?
-                    try {
-                        /*
-                         * It's not possible for pmdKnownBroken to change from
-                         * true to false, (once true, always true) so pmd cannot
-                         * be null here.
-                         */
-                        sqlType = pmd.getParameterType(i + 1);
-                    } catch (final SQLException e) {
-                        pmdKnownBroken = true;
-                    }
+                if (pmd != null) {
+                    sqlType = pmdCache.parameterType(pmd, stmt, i, Types.VARCHAR);
                 }
                 stmt.setNull(i + 1, sqlType);
             }
@@ -351,27 +494,7 @@ public abstract class AbstractQueryRunner {
      */
     public void fillStatementWithBean(final PreparedStatement stmt, final Object bean,
                                       final PropertyDescriptor[] properties) throws SQLException {
-        final Object[] params = new Object[properties.length];
-        for (int i = 0; i < properties.length; i++) {
-            final PropertyDescriptor property = properties[i];
-            Object value = null;
-            final Method method = property.getReadMethod();
-            if (method == null) {
-                throw new RuntimeException("No read method for bean property "
-                        + bean.getClass() + " " + property.getName());
-            }
-            try {
-                value = method.invoke(bean);
-            } catch (final IllegalArgumentException e) {
-                throw new RuntimeException(
-                        "Couldn't invoke method with 0 arguments: " + method, e);
-            } catch (final InvocationTargetException | IllegalAccessException e) {
-                throw new RuntimeException("Couldn't invoke method: " + method,
-                        e);
-            }
-            params[i] = value;
-        }
-        fillStatement(stmt, params);
+        fillStatementWithBean(null, stmt, bean, BeanBinder.of(bean.getClass(), properties));
     }
 
     /**
@@ -391,35 +514,68 @@ public abstract class AbstractQueryRunner {
      */
     public void fillStatementWithBean(final PreparedStatement stmt, final Object bean,
                                       final String... propertyNames) throws SQLException {
-        PropertyDescriptor[] descriptors;
-        try {
-            descriptors = Introspector.getBeanInfo(bean.getClass())
-                    .getPropertyDescriptors();
-        } catch (final IntrospectionException e) {
-            throw new RuntimeException("Couldn't introspect bean "
-                    + bean.getClass().toString(), e);
+        fillStatementWithBean(null, stmt, bean, propertyNames);
+    }
+
+    /**
+     * Fill the {@code PreparedStatement} replacement parameters with the
+     * given object's bean property values.  The getters are resolved once
+     * per bean class and property list, and primitive properties are bound
+     * with the matching typed setter.  Like
+     * {@link #fillStatement(String, PreparedStatement, Object...)}, the
+     * parameter count is checked against metadata remembered per SQL string.
+     *
+     * @param sql
+     *            The SQL the statement was prepared with; {@code null}
+     *            disables the metadata cache for this call.
+     * @param stmt
+     *            PreparedStatement to fill
+     * @param bean
+     *            A JavaBean object
+     * @param propertyNames
+     *            An ordered array of property names (these should match the
+     *            getters/setters); this gives the order to insert values in the
+     *            statement
+     * @throws SQLException
+     *             If a database access error occurs
+     */
+    public void fillStatementWithBean(final String sql, final PreparedStatement stmt, final Object bean,
+                                      final String... propertyNames) throws SQLException {
+        fillStatementWithBean(sql, stmt, bean, BeanBinder.of(bean.getClass(), propertyNames));
+    }
+
+    /**
+     * Check that a statement takes as many parameters as will be bound, if
+     * the driver can tell, and get the SQL types for binding nulls to it.
+     *
+     * @param sql The SQL the statement was prepared with, or {@code null}.
+     * @param stmt The statement about to be filled.
+     * @param paramsCount The number of parameters that will be bound.
+     * @return The SQL types for nulls: the driver's, or {@code VARCHAR}.
+     * @throws SQLException if the count is wrong or a database access error occurs
+     */
+    NullTypes prepareFill(final String sql, final PreparedStatement stmt, final int paramsCount)
+            throws SQLException {
+        if (pmdKnownBroken) {
+            return VARCHAR_NULLS;
         }
-        final PropertyDescriptor[] sorted = new PropertyDescriptor[propertyNames.length];
-        for (int i = 0; i < propertyNames.length; i++) {
-            final String propertyName = propertyNames[i];
-            if (propertyName == null) {
-                throw new NullPointerException("propertyName can't be null: "
-                        + i);
-            }
-            boolean found = false;
-            for (final PropertyDescriptor descriptor : descriptors) {
-                if (propertyName.equals(descriptor.getName())) {
-                    sorted[i] = descriptor;
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                throw new RuntimeException("Couldn't find bean property: "
-                        + bean.getClass() + " " + propertyName);
-            }
+        final ParameterMetaDataCache.Entry pmd = pmdCache.lookup(sql, stmt);
+        if (pmd == null) {
+            return VARCHAR_NULLS;
         }
-        fillStatementWithBean(stmt, bean, sorted);
+        if (pmd.getParameterCount() != paramsCount) {
+            throw new SQLException("Wrong number of parameters: expected "
+                    + pmd.getParameterCount() + ", was given " + paramsCount);
+        }
+        return index -> pmdCache.parameterType(pmd, stmt, index - 1, Types.VARCHAR);
+    }
+
+    /**
+     * Fill the statement from a bean with an already resolved binder.
+     */
+    void fillStatementWithBean(final String sql, final PreparedStatement stmt, final Object bean,
+                               final BeanBinder binder) throws SQLException {
+        binder.bind(stmt, bean, 0, prepareFill(sql, stmt, binder.getParameterCount()));
     }
 
     /**
@@ -433,12 +589,22 @@ public abstract class AbstractQueryRunner {
         return this.ds;
     }
 
+    /**
+     * Returns the statement cache this runner is using.
+     *
+     * @return The cache, or {@code null} if statement caching is not
+     *         enabled in the {@code StatementConfiguration}
+     */
+    public StatementCache getStatementCache() {
+        return stmtCache;
+    }
+
     /**
      * Some drivers don't support
      * {@link ParameterMetaData#getParameterType(int) }; if
      * {@code pmdKnownBroken} is set to true, we won't even try it; if
      * false, we'll try it, and if it breaks, we'll remember not to use it
-     * again.
+     * again with that driver.
      *
      * @return the flag to skip (or not)
      *         {@link ParameterMetaData#getParameterType(int) }
@@ -471,6 +637,43 @@ public abstract class AbstractQueryRunner {
         return conn.prepareCall(sql);
     }
 
+    /**
+     * Factory method that creates and initializes a {@code Statement}
+     * object for SQL without replacement parameters.
+     * {@code QueryRunner} query methods call this method so that the
+     * {@code StatementConfiguration}, e.g. the fetch size and result set
+     * type a streaming cursor needs, applies to them too.
+     *
+     * @param conn
+     *            The {@code Connection} used to create the
+     *            {@code Statement}
+     * @return An initialized {@code Statement}.
+     * @throws SQLException
+     *             if a database access error occurs
+     */
+    protected Statement createStatement(final Connection conn) throws SQLException {
+        @SuppressWarnings("resource")
+        final
+        Statement stmt;
+        if (stmtConfig != null && stmtConfig.isResultSetOptionsSet()) {
+            if (stmtConfig.getResultSetHoldability() != null) {
+                stmt = conn.createStatement(resultSetType(), resultSetConcurrency(),
+                        stmtConfig.getResultSetHoldability());
+            } else {
+                stmt = conn.createStatement(resultSetType(), resultSetConcurrency());
+            }
+        } else {
+            stmt = conn.createStatement();
+        }
+        try {
+            configureStatement(stmt);
+        } catch (final SQLException e) {
+            stmt.close();
+            throw e;
+        }
+        return stmt;
+    }
+
     /**
      * Factory method that creates and initializes a {@code Connection}
      * object. {@code QueryRunner} methods always call this method to
@@ -498,7 +701,10 @@ public abstract class AbstractQueryRunner {
      * {@code QueryRunner} methods always call this method to prepare
      * statements for them. Subclasses can override this method to provide
      * special PreparedStatement configuration if needed. This implementation
-     * simply calls {@code conn.prepareStatement(sql)}.
+     * calls {@code conn.prepareStatement(sql)}, passing the result set type,
+     * concurrency and holdability when the {@code StatementConfiguration}
+     * sets them, or hands out a statement from the statement cache when one
+     * is enabled.
      *
      * @param conn
      *            The {@code Connection} used to create the
@@ -512,15 +718,35 @@ public abstract class AbstractQueryRunner {
     protected PreparedStatement prepareStatement(final Connection conn, final String sql)
             throws SQLException {
 
+        if (stmtCache != null) {
+            final PreparedStatement cached = stmtCache.take(conn, sql, StatementCache.NO_GENERATED_KEYS_FLAG);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         @SuppressWarnings("resource")
         final
-        PreparedStatement ps = conn.prepareStatement(sql);
+        PreparedStatement ps;
+        if (stmtConfig != null && stmtConfig.isResultSetOptionsSet()) {
+            if (stmtConfig.getResultSetHoldability() != null) {
+                ps = conn.prepareStatement(sql, resultSetType(), resultSetConcurrency(),
+                        stmtConfig.getResultSetHoldability());
+            } else {
+                ps = conn.prepareStatement(sql, resultSetType(), resultSetConcurrency());
+            }
+        } else {
+            ps = conn.prepareStatement(sql);
+        }
         try {
             configureStatement(ps);
         } catch (final SQLException e) {
             ps.close();
             throw e;
         }
+        if (stmtCache != null) {
+            stmtCache.put(conn, sql, StatementCache.NO_GENERATED_KEYS_FLAG, ps);
+        }
         return ps;
     }
 
@@ -530,7 +756,8 @@ public abstract class AbstractQueryRunner {
      * {@code QueryRunner} methods always call this method to prepare
      * statements for them. Subclasses can override this method to provide
      * special PreparedStatement configuration if needed. This implementation
-     * simply calls {@code conn.prepareStatement(sql, returnedKeys)}
+     * calls {@code conn.prepareStatement(sql, returnedKeys)}, or hands out a
+     * statement from the statement cache when one is enabled,
      * which will result in the ability to retrieve the automatically-generated
      * keys from an auto_increment column.
      *
@@ -550,6 +777,13 @@ public abstract class AbstractQueryRunner {
     protected PreparedStatement prepareStatement(final Connection conn, final String sql, final int returnedKeys)
             throws SQLException {
 
+        if (stmtCache != null) {
+            final PreparedStatement cached = stmtCache.take(conn, sql, returnedKeys);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         @SuppressWarnings("resource")
         final
         PreparedStatement ps = conn.prepareStatement(sql, returnedKeys);
@@ -559,6 +793,9 @@ public abstract class AbstractQueryRunner {
             ps.close();
             throw e;
         }
+        if (stmtCache != null) {
+            stmtCache.put(conn, sql, returnedKeys, ps);
+        }
         return ps;
     }
 
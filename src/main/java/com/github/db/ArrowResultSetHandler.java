@@ -0,0 +1,558 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TimeMilliVector;
+import org.apache.arrow.vector.TimeStampMicroVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.ipc.ArrowWriter;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+/**
+ * A {@code ResultSetHandler} that converts a {@code ResultSet} into Arrow
+ * record batches and writes them in the Arrow IPC stream or file format,
+ * returning the number of rows written.  The vectors are allocated once
+ * from the given allocator, off-heap, and reused for every batch.
+ * <p>
+ * JDBC types are mapped to Arrow types as follows: integer types to
+ * signed integers of the same width (unsigned ones to the next wider
+ * width, and {@code BIGINT UNSIGNED} to {@code Decimal(20, 0)}), {@code REAL} to
+ * single and {@code FLOAT}/{@code DOUBLE} to double precision,
+ * {@code DECIMAL}/{@code NUMERIC} with a precision up to 38 to
+ * {@code Decimal}, {@code BIT}/{@code BOOLEAN} to {@code Bool},
+ * {@code DATE} to {@code Date(DAY)}, {@code TIME} to
+ * {@code Time(MILLISECOND)}, {@code TIMESTAMP} to a
+ * {@code Timestamp(MICROSECOND)} without time zone holding the local date
+ * and time, binary types to {@code Binary}, and everything else to
+ * {@code Utf8} from {@code getString}.
+ * <p>
+ * On Java 9 and later, Arrow's memory module needs
+ * {@code --add-opens=java.base/java.nio=ALL-UNNAMED} on the command line,
+ * or {@code Add-Opens: java.base/java.nio} in the manifest of the jar run
+ * with {@code java -jar}, as in the shaded jar this project builds.
+ * Instances are not thread safe.
+ */
+public class ArrowResultSetHandler implements ResultSetHandler<Long> {
+
+    /**
+     * The default number of rows in a record batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /**
+     * The Arrow IPC formats.
+     */
+    public enum Format {
+        /**
+         * The streaming format: the schema, then the batches.
+         */
+        STREAM,
+
+        /**
+         * The random access file format, with a footer.
+         */
+        FILE
+    }
+
+    private static final int MAX_DECIMAL_PRECISION = 38;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private final BufferAllocator allocator;
+    private final WritableByteChannel out;
+    private final Format format;
+    private final int batchSize;
+
+    /**
+     * Constructor for {@code ArrowResultSetHandler} that writes the stream
+     * format in batches of {@link #DEFAULT_BATCH_SIZE} rows.
+     *
+     * @param allocator Allocates the vectors; it is not closed.
+     * @param out Where to write; it is not closed.
+     */
+    public ArrowResultSetHandler(final BufferAllocator allocator, final WritableByteChannel out) {
+        this(allocator, out, Format.STREAM, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor for {@code ArrowResultSetHandler}.
+     *
+     * @param allocator Allocates the vectors; it is not closed.
+     * @param out Where to write; it is not closed.
+     * @param format The IPC format.
+     * @param batchSize The maximum number of rows in a record batch.
+     */
+    public ArrowResultSetHandler(final BufferAllocator allocator, final WritableByteChannel out,
+                                 final Format format, final int batchSize) {
+        if (allocator == null || out == null || format == null) {
+            throw new NullPointerException("allocator, out and format can't be null");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.allocator = allocator;
+        this.out = out;
+        this.format = format;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Build the Arrow schema for a result.
+     *
+     * @param rsmd The result's metadata.
+     * @return The schema, with a nullable field per column.
+     * @throws SQLException if a database access error occurs
+     */
+    public static Schema schema(final ResultSetMetaData rsmd) throws SQLException {
+        final int cols = rsmd.getColumnCount();
+        final List<Field> fields = new ArrayList<>(cols);
+        for (int i = 1; i <= cols; i++) {
+            String label = rsmd.getColumnLabel(i);
+            if (null == label || 0 == label.length()) {
+                label = rsmd.getColumnName(i);
+            }
+            fields.add(new Field(label, FieldType.nullable(arrowType(rsmd, i)), Collections.<Field>emptyList()));
+        }
+        return new Schema(fields);
+    }
+
+    private static ArrowType arrowType(final ResultSetMetaData rsmd, final int column) throws SQLException {
+        switch (rsmd.getColumnType(column)) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return ArrowType.Bool.INSTANCE;
+            case Types.TINYINT:
+                // MySQL's TINYINT UNSIGNED goes up to 255
+                return new ArrowType.Int(rsmd.isSigned(column) ? 8 : 16, true);
+            case Types.SMALLINT:
+                return new ArrowType.Int(rsmd.isSigned(column) ? 16 : 32, true);
+            case Types.INTEGER:
+                // MySQL's INT UNSIGNED doesn't fit in an int
+                return new ArrowType.Int(rsmd.isSigned(column) ? 32 : 64, true);
+            case Types.BIGINT:
+                return rsmd.isSigned(column) ? new ArrowType.Int(64, true) : new ArrowType.Decimal(20, 0, 128);
+            case Types.REAL:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+            case Types.DECIMAL:
+            case Types.NUMERIC: {
+                // Oracle reports NUMBER without a precision as 0 and -127
+                final int precision = rsmd.getPrecision(column);
+                final int scale = rsmd.getScale(column);
+                if (precision > 0 && precision <= MAX_DECIMAL_PRECISION && scale >= 0 && scale <= precision) {
+                    return new ArrowType.Decimal(precision, scale, 128);
+                }
+                return ArrowType.Utf8.INSTANCE;
+            }
+            case Types.DATE:
+                return new ArrowType.Date(DateUnit.DAY);
+            case Types.TIME:
+                return new ArrowType.Time(TimeUnit.MILLISECOND, 32);
+            case Types.TIMESTAMP:
+                return new ArrowType.Timestamp(TimeUnit.MICROSECOND, null);
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return ArrowType.Binary.INSTANCE;
+            default:
+                return ArrowType.Utf8.INSTANCE;
+        }
+    }
+
+    /**
+     * Write the remaining rows of a {@code ResultSet} as record batches.
+     *
+     * @param rs The {@code ResultSet} to convert.
+     * @return The number of rows written.
+     * @throws SQLException if a database access error occurs, or if writing
+     * fails, with the {@code IOException} as its cause
+     */
+    @Override
+    public Long handle(final ResultSet rs) throws SQLException {
+        final Schema schema = schema(rs.getMetaData());
+        try (VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator);
+             ArrowWriter writer = format == Format.FILE
+                     ? new ArrowFileWriter(root, null, out)
+                     : new ArrowStreamWriter(root, null, out)) {
+            final List<FieldVector> vectors = root.getFieldVectors();
+            final ColumnWriter[] columns = new ColumnWriter[vectors.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = columnWriter(vectors.get(i));
+            }
+            root.allocateNew();
+            writer.start();
+
+            long total = 0;
+            int rows = 0;
+            while (rs.next()) {
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i].set(rs, i + 1, rows);
+                }
+                if (++rows == batchSize) {
+                    writeBatch(root, writer, rows);
+                    total += rows;
+                    rows = 0;
+                }
+            }
+            if (rows > 0) {
+                writeBatch(root, writer, rows);
+                total += rows;
+            }
+            writer.end();
+            return total;
+        } catch (final IOException e) {
+            throw new SQLException("Couldn't write Arrow " + format + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeBatch(final VectorSchemaRoot root, final ArrowWriter writer, final int rows)
+            throws IOException {
+        root.setRowCount(rows);
+        writer.writeBatch();
+        // Keep the buffers for the next batch
+        for (final FieldVector vector : root.getFieldVectors()) {
+            vector.reset();
+        }
+    }
+
+    private static ColumnWriter columnWriter(final FieldVector vector) {
+        if (vector instanceof BitVector) {
+            return new BitWriter((BitVector) vector);
+        } else if (vector instanceof TinyIntVector) {
+            return new TinyIntWriter((TinyIntVector) vector);
+        } else if (vector instanceof SmallIntVector) {
+            return new SmallIntWriter((SmallIntVector) vector);
+        } else if (vector instanceof IntVector) {
+            return new IntWriter((IntVector) vector);
+        } else if (vector instanceof BigIntVector) {
+            return new BigIntWriter((BigIntVector) vector);
+        } else if (vector instanceof Float4Vector) {
+            return new Float4Writer((Float4Vector) vector);
+        } else if (vector instanceof Float8Vector) {
+            return new Float8Writer((Float8Vector) vector);
+        } else if (vector instanceof DecimalVector) {
+            return new DecimalWriter((DecimalVector) vector);
+        } else if (vector instanceof DateDayVector) {
+            return new DateDayWriter((DateDayVector) vector);
+        } else if (vector instanceof TimeMilliVector) {
+            return new TimeMilliWriter((TimeMilliVector) vector);
+        } else if (vector instanceof TimeStampMicroVector) {
+            return new TimeStampMicroWriter((TimeStampMicroVector) vector);
+        } else if (vector instanceof VarBinaryVector) {
+            return new VarBinaryWriter((VarBinaryVector) vector);
+        }
+        return new VarCharWriter((VarCharVector) vector);
+    }
+
+    /**
+     * Copies one column of the current row into its vector.
+     */
+    private interface ColumnWriter {
+        void set(ResultSet rs, int index, int row) throws SQLException;
+    }
+
+    private static final class BitWriter implements ColumnWriter {
+        private final BitVector vector;
+
+        BitWriter(final BitVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final boolean value = rs.getBoolean(index);
+            if (rs.wasNull()) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, value ? 1 : 0);
+            }
+        }
+    }
+
+    private static final class TinyIntWriter implements ColumnWriter {
+        private final TinyIntVector vector;
+
+        TinyIntWriter(final TinyIntVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final byte value = rs.getByte(index);
+            if (rs.wasNull()) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, value);
+            }
+        }
+    }
+
+    private static final class SmallIntWriter implements ColumnWriter {
+        private final SmallIntVector vector;
+
+        SmallIntWriter(final SmallIntVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final short value = rs.getShort(index);
+            if (rs.wasNull()) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, value);
+            }
+        }
+    }
+
+    private static final class IntWriter implements ColumnWriter {
+        private final IntVector vector;
+
+        IntWriter(final IntVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final int value = rs.getInt(index);
+            if (rs.wasNull()) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, value);
+            }
+        }
+    }
+
+    private static final class BigIntWriter implements ColumnWriter {
+        private final BigIntVector vector;
+
+        BigIntWriter(final BigIntVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final long value = rs.getLong(index);
+            if (rs.wasNull()) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, value);
+            }
+        }
+    }
+
+    private static final class Float4Writer implements ColumnWriter {
+        private final Float4Vector vector;
+
+        Float4Writer(final Float4Vector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final float value = rs.getFloat(index);
+            if (rs.wasNull()) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, value);
+            }
+        }
+    }
+
+    private static final class Float8Writer implements ColumnWriter {
+        private final Float8Vector vector;
+
+        Float8Writer(final Float8Vector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final double value = rs.getDouble(index);
+            if (rs.wasNull()) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, value);
+            }
+        }
+    }
+
+    private static final class DecimalWriter implements ColumnWriter {
+        private final DecimalVector vector;
+        private final int scale;
+
+        DecimalWriter(final DecimalVector vector) {
+            this.vector = vector;
+            this.scale = vector.getScale();
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final BigDecimal value = rs.getBigDecimal(index);
+            if (value == null) {
+                vector.setNull(row);
+            } else {
+                // The vector only takes values of its own scale
+                vector.setSafe(row, value.scale() == scale ? value : value.setScale(scale, RoundingMode.HALF_UP));
+            }
+        }
+    }
+
+    private static final class DateDayWriter implements ColumnWriter {
+        private final DateDayVector vector;
+
+        DateDayWriter(final DateDayVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final Date value = rs.getDate(index);
+            if (value == null) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, (int) value.toLocalDate().toEpochDay());
+            }
+        }
+    }
+
+    private static final class TimeMilliWriter implements ColumnWriter {
+        private final TimeMilliVector vector;
+
+        TimeMilliWriter(final TimeMilliVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final Time value = rs.getTime(index);
+            if (value == null) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, millisOfDay(value));
+            }
+        }
+    }
+
+    /**
+     * The local time of day of a {@code Time}, in milliseconds.
+     * {@code toLocalTime()} drops the milliseconds, so the time is read from
+     * the instant, in the default time zone as {@code getHours()} and the
+     * drivers use.
+     */
+    static int millisOfDay(final Time value) {
+        final long millis = value.getTime();
+        return (int) Math.floorMod(millis + TimeZone.getDefault().getOffset(millis), MILLIS_PER_DAY);
+    }
+
+    private static final class TimeStampMicroWriter implements ColumnWriter {
+        private final TimeStampMicroVector vector;
+
+        TimeStampMicroWriter(final TimeStampMicroVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final Timestamp value = rs.getTimestamp(index);
+            if (value == null) {
+                vector.setNull(row);
+            } else {
+                final long seconds = value.toLocalDateTime().toEpochSecond(ZoneOffset.UTC);
+                vector.setSafe(row, seconds * 1000000L + value.getNanos() / 1000);
+            }
+        }
+    }
+
+    private static final class VarBinaryWriter implements ColumnWriter {
+        private final VarBinaryVector vector;
+
+        VarBinaryWriter(final VarBinaryVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final byte[] value = rs.getBytes(index);
+            if (value == null) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, value);
+            }
+        }
+    }
+
+    private static final class VarCharWriter implements ColumnWriter {
+        private final VarCharVector vector;
+
+        VarCharWriter(final VarCharVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public void set(final ResultSet rs, final int index, final int row) throws SQLException {
+            final String value = rs.getString(index);
+            if (value == null) {
+                vector.setNull(row);
+            } else {
+                vector.setSafe(row, value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,612 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+/**
+ * Runs {@link QueryRunner} calls on an executor and returns a
+ * {@code CompletableFuture} for each, so a caller can have many independent
+ * statements in flight at once.
+ * <p>
+ * Every call borrows its own connection from the {@code DataSource} and
+ * closes it when done.  At most {@code maxInFlight} calls run at a time,
+ * by default the size of a {@link PooledDataSource}, so calls never wait
+ * inside the pool; the rest queue in submission order without holding a
+ * thread.
+ * <p>
+ * Cancelling a returned future calls {@link Statement#cancel()} on the
+ * statement the call is running, or drops the call if it hasn't started.
+ * A call given a timeout is cancelled the same way once the timeout, counted
+ * from submission, runs out, and its future completes with a
+ * {@link SQLTimeoutException}.  Other failures complete the future with the
+ * {@code SQLException} the runner threw.
+ * <p>
+ * The default executor uses virtual threads where the runtime has them, see
+ * {@link QueryExecutors}, and every call also takes a permit from the
+ * {@link QueryExecutors#permits(DataSource) semaphore} of its
+ * {@code DataSource}, if it has one, which bounds the calls of all runners
+ * sharing it.
+ * This class is thread safe.
+ *
+ * @see Builder
+ */
+public class AsyncQueryRunner implements AutoCloseable {
+
+    /**
+     * Work done with the runner on a borrowed connection.
+     *
+     * @param <T> The type of the result.
+     */
+    public interface Work<T> {
+
+        /**
+         * Run the work.
+         *
+         * @param runner The runner to call.
+         * @param conn The connection to call it with; closed afterwards.
+         * @return The result of the work.
+         * @throws SQLException if a database access error occurs
+         */
+        T run(QueryRunner runner, Connection conn) throws SQLException;
+    }
+
+    private final QueryRunner runner;
+    private final DataSource ds;
+    private final Executor executor;
+    private final ScheduledExecutorService timer;
+    private final Limiter limiter;
+    private final long timeoutMillis;
+    private final boolean owner;
+    private final ExecutorService ownedExecutor;
+
+    private AsyncQueryRunner(final Builder builder) {
+        this.runner = builder.runner;
+        this.ds = builder.ds;
+        this.limiter = new Limiter(builder.maxInFlight);
+        this.timeoutMillis = builder.timeoutMillis;
+        this.owner = true;
+
+        if (builder.executor != null) {
+            this.executor = builder.executor;
+            this.ownedExecutor = null;
+        } else {
+            this.ownedExecutor = QueryExecutors.newExecutor("async-query-runner", builder.maxInFlight);
+            this.executor = ownedExecutor;
+        }
+
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread t = new Thread(r, "async-query-runner-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.timer = scheduler;
+    }
+
+    private AsyncQueryRunner(final AsyncQueryRunner parent, final long timeoutMillis) {
+        this.runner = parent.runner;
+        this.ds = parent.ds;
+        this.executor = parent.executor;
+        this.timer = parent.timer;
+        this.limiter = parent.limiter;
+        this.timeoutMillis = timeoutMillis;
+        this.owner = false;
+        this.ownedExecutor = null;
+    }
+
+    /**
+     * Get a runner that shares this one's executor, connections and
+     * in-flight limit, with another timeout for its calls.  Closing it does
+     * nothing; close this runner instead.
+     *
+     * @param timeoutMillis The timeout per call, or 0 for none.
+     * @return The runner with the timeout.
+     */
+    public AsyncQueryRunner withTimeout(final long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis can't be negative: " + timeoutMillis);
+        }
+        return new AsyncQueryRunner(this, timeoutMillis);
+    }
+
+    /**
+     * Execute an SQL SELECT query.
+     *
+     * @param <T> The type of object that the handler returns
+     * @param sql The SQL statement to execute.
+     * @param rsh The handler used to create the result object from the {@code ResultSet}.
+     * @param params Initialize the PreparedStatement's IN parameters with this array.
+     * @return A future for the object generated by the handler.
+     * @see QueryRunner#query(Connection, String, ResultSetHandler, Object...)
+     */
+    public <T> CompletableFuture<T> query(final String sql, final ResultSetHandler<T> rsh, final Object... params) {
+        return submit((run, conn) -> run.query(conn, sql, rsh, params));
+    }
+
+    /**
+     * Execute an SQL INSERT, UPDATE, or DELETE query.
+     *
+     * @param sql The SQL statement to execute.
+     * @param params Initializes the PreparedStatement's IN (i.e. '?') parameters.
+     * @return A future for the number of rows updated.
+     * @see QueryRunner#update(Connection, String, Object...)
+     */
+    public CompletableFuture<Integer> update(final String sql, final Object... params) {
+        return submit((run, conn) -> run.update(conn, sql, params));
+    }
+
+    /**
+     * Execute a batch of SQL INSERT, UPDATE, or DELETE queries.
+     *
+     * @param sql The SQL statement to execute.
+     * @param params An array of query replacement parameters.  Each row in
+     * this array is one set of batch replacement values.
+     * @return A future for the number of rows updated per statement.
+     * @see QueryRunner#batch(Connection, String, Object[][])
+     */
+    public CompletableFuture<int[]> batch(final String sql, final Object[][] params) {
+        return submit((run, conn) -> run.batch(conn, sql, params));
+    }
+
+    /**
+     * Execute an SQL INSERT query.
+     *
+     * @param <T> The type of object that the handler returns
+     * @param sql The SQL statement to execute.
+     * @param rsh The handler used to create the result object from
+     * the {@code ResultSet} of auto-generated keys.
+     * @param params The query replacement parameters.
+     * @return A future for the object generated by the handler.
+     * @see QueryRunner#insert(Connection, String, ResultSetHandler, Object...)
+     */
+    public <T> CompletableFuture<T> insert(final String sql, final ResultSetHandler<T> rsh, final Object... params) {
+        return submit((run, conn) -> run.insert(conn, sql, rsh, params));
+    }
+
+    /**
+     * Execute an SQL statement, including a stored procedure call, which
+     * does not return any result sets.
+     *
+     * @param sql The SQL statement to execute.
+     * @param params The query replacement parameters.
+     * @return A future for the number of rows updated.
+     * @see QueryRunner#execute(Connection, String, Object...)
+     */
+    public CompletableFuture<Integer> execute(final String sql, final Object... params) {
+        return submit((run, conn) -> run.execute(conn, sql, params));
+    }
+
+    /**
+     * Execute an SQL statement, including a stored procedure call, which
+     * returns one or more result sets.
+     *
+     * @param <T> The type of object that the handler returns
+     * @param sql The SQL statement to execute.
+     * @param rsh The result set handler
+     * @param params The query replacement parameters.
+     * @return A future for the objects generated by the handler.
+     * @see QueryRunner#execute(Connection, String, ResultSetHandler, Object...)
+     */
+    public <T> CompletableFuture<List<T>> execute(final String sql, final ResultSetHandler<T> rsh,
+                                                  final Object... params) {
+        return submit((run, conn) -> run.execute(conn, sql, rsh, params));
+    }
+
+    /**
+     * Run any work with the runner on a borrowed connection, e.g. several
+     * statements in one transaction.
+     *
+     * @param <T> The type of the result.
+     * @param work The work.
+     * @return A future for the result of the work.
+     */
+    public <T> CompletableFuture<T> submit(final Work<T> work) {
+        final Call<T> call = new Call<>(work);
+        if (timeoutMillis > 0) {
+            try {
+                call.timeout = timer.schedule(call::expire, timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException e) {
+                call.fail(new SQLException("AsyncQueryRunner is closed"));
+                return call.future;
+            }
+        }
+        limiter.submit(call);
+        return call.future;
+    }
+
+    /**
+     * Get the number of calls running.
+     *
+     * @return The calls in flight.
+     */
+    public int getInFlight() {
+        return limiter.getInFlight();
+    }
+
+    /**
+     * Get the number of calls waiting for a slot.
+     *
+     * @return The queued calls.
+     */
+    public int getQueued() {
+        return limiter.getQueued();
+    }
+
+    /**
+     * Stop accepting calls, fail the queued ones and let the running ones
+     * finish.  Only the runner built by the {@link Builder} closes anything.
+     */
+    @Override
+    public void close() {
+        if (!owner) {
+            return;
+        }
+        limiter.close();
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * One submitted call.
+     */
+    private final class Call<T> implements Runnable {
+        private final Work<T> work;
+        private final CompletableFuture<T> future;
+        private volatile ScheduledFuture<?> timeout;
+
+        /**
+         * The statement running, guarded by this call; null once the work is
+         * done, so a late cancel can't reach a statement the connection runs
+         * for someone else.
+         */
+        private Statement statement;
+        private boolean finished;
+
+        Call(final Work<T> work) {
+            this.work = work;
+            this.future = new CompletableFuture<T>() {
+                @Override
+                public boolean cancel(final boolean mayInterruptIfRunning) {
+                    final boolean cancelled = super.cancel(mayInterruptIfRunning);
+                    if (cancelled) {
+                        stop();
+                    }
+                    return cancelled;
+                }
+            };
+        }
+
+        @Override
+        public void run() {
+            Semaphore permits = null;
+            Connection conn = null;
+            try {
+                if (future.isDone()) {
+                    // cancelled or timed out while queued
+                    return;
+                }
+                final Semaphore connections = QueryExecutors.permits(ds);
+                if (connections != null) {
+                    try {
+                        connections.acquire();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        future.completeExceptionally(new SQLException("Interrupted while waiting for a connection", e));
+                        return;
+                    }
+                    permits = connections;
+                }
+                if (!future.isDone()) {
+                    conn = watch(ds.getConnection());
+                    future.complete(work.run(runner, conn));
+                }
+            } catch (final Throwable t) { // NOPMD
+                // an Error too, or the caller waits forever
+                future.completeExceptionally(t);
+            } finally {
+                synchronized (this) {
+                    finished = true;
+                    statement = null;
+                }
+                if (conn != null) {
+                    runner.closeQuietly(conn);
+                }
+                if (permits != null) {
+                    permits.release();
+                }
+                stop();
+                limiter.done();
+            }
+        }
+
+        void fail(final Throwable t) {
+            if (future.completeExceptionally(t)) {
+                stop();
+            }
+        }
+
+        private void expire() {
+            if (future.completeExceptionally(new SQLTimeoutException("Call timed out after " + timeoutMillis + "ms"))) {
+                stop();
+            }
+        }
+
+        /**
+         * Cancel the running statement, if any, and the timeout.
+         */
+        private void stop() {
+            final ScheduledFuture<?> t = timeout;
+            if (t != null) {
+                t.cancel(false);
+            }
+            cancelStatement();
+        }
+
+        private synchronized void cancelStatement() {
+            if (statement != null && !finished) {
+                try {
+                    statement.cancel();
+                } catch (final SQLException e) { // NOPMD
+                    // the statement may be done already
+                }
+                statement = null;
+            }
+        }
+
+        private synchronized void running(final Statement stmt) {
+            if (!finished) {
+                statement = stmt;
+            }
+        }
+
+        /**
+         * Wrap the connection so the statements the runner creates on it can
+         * be cancelled.
+         */
+        private Connection watch(final Connection conn) {
+            return (Connection) Proxy.newProxyInstance(AsyncQueryRunner.class.getClassLoader(),
+                    new Class<?>[] {Connection.class}, new Watcher(conn));
+        }
+
+        /**
+         * Invocation handler behind a watched connection.
+         */
+        private final class Watcher implements InvocationHandler {
+            private final Connection conn;
+
+            Watcher(final Connection conn) {
+                this.conn = conn;
+            }
+
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                final String name = method.getName();
+                switch (name) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        break;
+                }
+
+                final Object result;
+                try {
+                    result = method.invoke(conn, args);
+                } catch (final InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (result instanceof Statement) {
+                    final Statement stmt = (Statement) result;
+                    running(stmt);
+                    if (future.isDone()) {
+                        // cancelled before this statement ran, maybe while the
+                        // connection was borrowed: cancel() would be a no-op
+                        synchronized (Call.this) {
+                            statement = null;
+                        }
+                        stmt.close();
+                        throw new SQLException("Call was cancelled or timed out before the statement ran");
+                    }
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Hands calls to the executor, at most {@code maxInFlight} at a time.
+     */
+    private final class Limiter {
+        private final int maxInFlight;
+        private final Queue<Call<?>> queued = new ArrayDeque<>();
+        private int inFlight;
+        private boolean closed;
+
+        Limiter(final int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        void submit(final Call<?> call) {
+            synchronized (this) {
+                if (closed) {
+                    call.fail(new SQLException("AsyncQueryRunner is closed"));
+                    return;
+                }
+                queued.add(call);
+            }
+            drain();
+        }
+
+        void done() {
+            synchronized (this) {
+                inFlight--;
+            }
+            drain();
+        }
+
+        private void drain() {
+            while (true) {
+                final Call<?> call;
+                synchronized (this) {
+                    if (inFlight >= maxInFlight || queued.isEmpty()) {
+                        return;
+                    }
+                    call = queued.poll();
+                    inFlight++;
+                }
+                try {
+                    executor.execute(call);
+                } catch (final RejectedExecutionException e) {
+                    synchronized (this) {
+                        inFlight--;
+                    }
+                    call.fail(new SQLException("Executor rejected the call", e));
+                }
+            }
+        }
+
+        void close() {
+            final Call<?>[] dropped;
+            synchronized (this) {
+                closed = true;
+                dropped = queued.toArray(new Call<?>[0]);
+                queued.clear();
+            }
+            for (final Call<?> call : dropped) {
+                call.fail(new SQLException("AsyncQueryRunner is closed"));
+            }
+        }
+
+        synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        synchronized int getQueued() {
+            return queued.size();
+        }
+    }
+
+    /**
+     * Builder class for {@code AsyncQueryRunner} for more flexible construction.
+     */
+    public static final class Builder {
+        private QueryRunner runner;
+        private DataSource ds;
+        private Executor executor;
+        private int maxInFlight;
+        private long timeoutMillis;
+
+        /**
+         * @param runner The runner to call; its {@code StatementConfiguration} applies.
+         * @return This builder for chaining.
+         */
+        public Builder runner(final QueryRunner runner) {
+            this.runner = runner;
+            return this;
+        }
+
+        /**
+         * @param ds Where each call gets its connection.  Defaults to the
+         * runner's {@code DataSource}.
+         * @return This builder for chaining.
+         */
+        public Builder dataSource(final DataSource ds) {
+            this.ds = ds;
+            return this;
+        }
+
+        /**
+         * @param executor The executor calls run on; not shut down by
+         * {@link AsyncQueryRunner#close()}.  Defaults to
+         * {@link QueryExecutors#newExecutor(String, int)} with
+         * {@code maxInFlight} platform threads.
+         * @return This builder for chaining.
+         */
+        public Builder executor(final Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @param maxInFlight The most calls running at once.  Defaults to the
+         * maximum size of a {@link PooledDataSource}, otherwise 10.
+         * @return This builder for chaining.
+         */
+        public Builder maxInFlight(final int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * @param timeoutMillis The timeout per call, counted from submission,
+         * or 0 for none.  Defaults to 0.
+         * @return This builder for chaining.
+         * @see AsyncQueryRunner#withTimeout(long)
+         */
+        public Builder timeoutMillis(final long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * @return A new {@link AsyncQueryRunner}.
+         */
+        public AsyncQueryRunner build() {
+            if (runner == null) {
+                throw new IllegalStateException("runner is required");
+            }
+            if (ds == null) {
+                ds = runner.getDataSource();
+                if (ds == null) {
+                    throw new IllegalStateException("a DataSource is required");
+                }
+            }
+            if (maxInFlight == 0) {
+                maxInFlight = ds instanceof PooledDataSource ? ((PooledDataSource) ds).getMaxSize() : 10;
+            }
+            if (maxInFlight < 1 || timeoutMillis < 0) {
+                throw new IllegalArgumentException("maxInFlight must be positive and timeoutMillis not negative");
+            }
+            return new AsyncQueryRunner(this);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+/**
+ * Configuration options for the chunked batch methods of {@code QueryRunner},
+ * such as {@link QueryRunner#batch(java.sql.Connection, String, java.util.Iterator, BatchConfiguration)}.
+ */
+public class BatchConfiguration {
+
+    /**
+     * The chunk size used when none is configured.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final int chunkSize;
+    private final boolean commitPerChunk;
+    private final Dialect rewriteDialect;
+    private final Integer maxParameters;
+    private final Integer maxStatementBytes;
+
+    /**
+     * Constructor for {@code BatchConfiguration}.  For more flexibility, use {@link Builder}.
+     *
+     * @param chunkSize The number of rows sent to the database per {@code executeBatch()}.
+     * @param commitPerChunk Whether to commit after every chunk when the connection is not in auto-commit mode.
+     */
+    public BatchConfiguration(final int chunkSize, final boolean commitPerChunk) {
+        this(chunkSize, commitPerChunk, null, null, null);
+    }
+
+    /**
+     * Constructor for {@code BatchConfiguration}.  For more flexibility, use {@link Builder}.
+     *
+     * @param chunkSize The number of rows sent to the database per {@code executeBatch()}.
+     * @param commitPerChunk Whether to commit after every chunk when the connection is not in auto-commit mode.
+     * @param rewriteDialect The dialect to rewrite simple INSERT statements for, or null to not rewrite.
+     * @param maxParameters The most parameter markers in one rewritten statement, or null for the dialect's limit.
+     * @param maxStatementBytes The largest rewritten statement in bytes, or null for the dialect's limit.
+     */
+    public BatchConfiguration(final int chunkSize, final boolean commitPerChunk, final Dialect rewriteDialect,
+                              final Integer maxParameters, final Integer maxStatementBytes) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.commitPerChunk = commitPerChunk;
+        this.rewriteDialect = rewriteDialect;
+        this.maxParameters = maxParameters;
+        this.maxStatementBytes = maxStatementBytes;
+    }
+
+    /**
+     * Get the chunk size.
+     *
+     * @return The number of rows sent to the database per {@code executeBatch()}.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Whether to commit after every chunk.  Only applies to connections that
+     * are not in auto-commit mode.
+     *
+     * @return true if every chunk is committed, false otherwise.
+     */
+    public boolean isCommitPerChunk() {
+        return commitPerChunk;
+    }
+
+    /**
+     * Get the dialect simple INSERT statements are rewritten for.  When set,
+     * a batch of {@code INSERT INTO t (a, b) VALUES (?, ?)} is sent as
+     * multi-row statements, {@code VALUES (?, ?), (?, ?), ...} or Oracle's
+     * {@code INSERT ALL}, each holding as many rows as the chunk size and
+     * the parameter and size limits allow.  Each such statement counts as
+     * one chunk.  Statements that are not simple single-row inserts are
+     * batched as usual.
+     *
+     * @return The dialect or null if inserts are not rewritten.
+     */
+    public Dialect getRewriteDialect() {
+        return rewriteDialect;
+    }
+
+    /**
+     * Get the most parameter markers put in one rewritten statement.
+     *
+     * @return The configured limit, or the rewrite dialect's limit if not set.
+     */
+    public int getMaxParameters() {
+        if (maxParameters != null) {
+            return maxParameters;
+        }
+        return rewriteDialect == null ? Integer.MAX_VALUE : rewriteDialect.getMaxParameters();
+    }
+
+    /**
+     * Get the largest rewritten statement, in bytes as estimated from its
+     * text and, for MySQL, its inlined values.
+     *
+     * @return The configured limit, or the rewrite dialect's limit if not set.
+     */
+    public int getMaxStatementBytes() {
+        if (maxStatementBytes != null) {
+            return maxStatementBytes;
+        }
+        return rewriteDialect == null ? Integer.MAX_VALUE : rewriteDialect.getMaxStatementBytes();
+    }
+
+    /**
+     * Builder class for {@code BatchConfiguration} for more flexible construction.
+     */
+    public static final class Builder {
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private boolean commitPerChunk = false;
+        private Dialect rewriteDialect;
+        private Integer maxParameters;
+        private Integer maxStatementBytes;
+
+        /**
+         * @param chunkSize The number of rows sent to the database per {@code executeBatch()}.
+         * Defaults to {@value BatchConfiguration#DEFAULT_CHUNK_SIZE}.
+         * @return This builder for chaining.
+         * @see BatchConfiguration#getChunkSize()
+         */
+        public Builder chunkSize(final int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param commitPerChunk Whether to commit after every chunk. Defaults to false.
+         * @return This builder for chaining.
+         * @see BatchConfiguration#isCommitPerChunk()
+         */
+        public Builder commitPerChunk(final boolean commitPerChunk) {
+            this.commitPerChunk = commitPerChunk;
+            return this;
+        }
+
+        /**
+         * @param rewriteDialect The dialect to rewrite simple INSERT statements for.
+         * @return This builder for chaining.
+         * @see BatchConfiguration#getRewriteDialect()
+         */
+        public Builder rewriteInserts(final Dialect rewriteDialect) {
+            this.rewriteDialect = rewriteDialect;
+            return this;
+        }
+
+        /**
+         * @param maxParameters The most parameter markers in one rewritten statement.
+         * @return This builder for chaining.
+         * @see BatchConfiguration#getMaxParameters()
+         */
+        public Builder maxParameters(final Integer maxParameters) {
+            this.maxParameters = maxParameters;
+            return this;
+        }
+
+        /**
+         * @param maxStatementBytes The largest rewritten statement in bytes, e.g. MySQL's
+         * {@code max_allowed_packet} when it is not the default.
+         * @return This builder for chaining.
+         * @see BatchConfiguration#getMaxStatementBytes()
+         */
+        public Builder maxStatementBytes(final Integer maxStatementBytes) {
+            this.maxStatementBytes = maxStatementBytes;
+            return this;
+        }
+
+        /**
+         * @return A new and configured {@link BatchConfiguration}.
+         */
+        public BatchConfiguration build() {
+            return new BatchConfiguration(chunkSize, commitPerChunk, rewriteDialect, maxParameters,
+                    maxStatementBytes);
+        }
+    }
+}
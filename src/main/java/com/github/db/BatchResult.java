@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregated outcome of a chunked batch: how many rows were sent, how many
+ * chunks it took, the summed update counts and, for inserts, the generated
+ * keys of every chunk.
+ *
+ * @param <T> the type the generated keys of one chunk are converted to;
+ * {@code Void} for batches that don't retrieve keys.
+ */
+public class BatchResult<T> {
+    private long rowCount;
+    private long updateCount;
+    private long noInfoCount;
+    private int chunkCount;
+    private final List<T> generatedKeys = new ArrayList<>();
+
+    /**
+     * Record one executed chunk.
+     *
+     * @param rows The number of rows in the chunk.
+     * @param counts The update counts returned by {@code executeBatch()}.
+     */
+    void addChunk(final int rows, final int[] counts) {
+        rowCount += rows;
+        chunkCount++;
+        if (counts == null) {
+            return;
+        }
+        for (final int count : counts) {
+            if (count >= 0) {
+                updateCount += count;
+            } else if (count == Statement.SUCCESS_NO_INFO) {
+                noInfoCount++;
+            }
+        }
+    }
+
+    void addGeneratedKeys(final T keys) {
+        generatedKeys.add(keys);
+    }
+
+    /**
+     * Get the number of rows sent to the database.
+     *
+     * @return The row count.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the sum of the update counts the driver reported.
+     *
+     * @return The number of rows updated.
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Get the number of statements the driver reported as
+     * {@link Statement#SUCCESS_NO_INFO}, which are not part of
+     * {@link #getUpdateCount()}.
+     *
+     * @return The number of statements without an update count.
+     */
+    public long getNoInfoCount() {
+        return noInfoCount;
+    }
+
+    /**
+     * Get the number of chunks executed.
+     *
+     * @return The chunk count.
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Get the generated keys, one handler result per chunk, in chunk order.
+     *
+     * @return The generated keys; empty if keys were not requested.
+     */
+    public List<T> getGeneratedKeys() {
+        return Collections.unmodifiableList(generatedKeys);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult[rows=" + rowCount + ", chunks=" + chunkCount + ", updated=" + updateCount
+                + ", noInfo=" + noInfoCount + "]";
+    }
+}
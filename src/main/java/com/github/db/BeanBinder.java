@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.db.ParameterBinder.NullTypes;
+
+/**
+ * Binds the properties of a bean class, in a fixed order, to statement
+ * parameters.  The getters are looked up once per bean class and property
+ * list and turned into {@link MethodHandle}s, and primitive properties are
+ * bound with the matching typed setter, so binding a bean neither
+ * introspects nor boxes.  Binders are cached and thread safe.
+ */
+final class BeanBinder {
+
+    private static final ConcurrentHashMap<Key, BeanBinder> BINDERS = new ConcurrentHashMap<>();
+
+    private final Class<?> beanClass;
+    private final Property[] properties;
+
+    private BeanBinder(final Class<?> beanClass, final Property[] properties) {
+        this.beanClass = beanClass;
+        this.properties = properties;
+    }
+
+    /**
+     * Get the binder for the named properties of a bean class.
+     *
+     * @param type The bean class.
+     * @param propertyNames The property names, in parameter order.
+     * @return The cached binder.
+     */
+    static BeanBinder of(final Class<?> type, final String... propertyNames) {
+        final Key key = new Key(type, propertyNames);
+        BeanBinder binder = BINDERS.get(key);
+        if (binder == null) {
+            binder = compile(type, propertyNames);
+            final BeanBinder raced = BINDERS.putIfAbsent(key, binder);
+            if (raced != null) {
+                binder = raced;
+            }
+        }
+        return binder;
+    }
+
+    /**
+     * Get the binder for the given properties of a bean class.
+     *
+     * @param type The bean class.
+     * @param descriptors The properties, in parameter order.
+     * @return The cached binder.
+     */
+    static BeanBinder of(final Class<?> type, final PropertyDescriptor[] descriptors) {
+        final Method[] getters = new Method[descriptors.length];
+        for (int i = 0; i < descriptors.length; i++) {
+            getters[i] = descriptors[i].getReadMethod();
+            if (getters[i] == null) {
+                throw new RuntimeException("No read method for bean property "
+                        + type + " " + descriptors[i].getName());
+            }
+        }
+        final Key key = new Key(type, getters);
+        BeanBinder binder = BINDERS.get(key);
+        if (binder == null) {
+            final Property[] properties = new Property[getters.length];
+            for (int i = 0; i < getters.length; i++) {
+                properties[i] = property(getters[i]);
+            }
+            binder = new BeanBinder(type, properties);
+            final BeanBinder raced = BINDERS.putIfAbsent(key, binder);
+            if (raced != null) {
+                binder = raced;
+            }
+        }
+        return binder;
+    }
+
+    private static BeanBinder compile(final Class<?> type, final String[] propertyNames) {
+        final PropertyDescriptor[] descriptors;
+        try {
+            descriptors = Introspector.getBeanInfo(type).getPropertyDescriptors();
+        } catch (final IntrospectionException e) {
+            throw new RuntimeException("Couldn't introspect bean " + type.toString(), e);
+        }
+        final Property[] properties = new Property[propertyNames.length];
+        for (int i = 0; i < propertyNames.length; i++) {
+            final String propertyName = propertyNames[i];
+            if (propertyName == null) {
+                throw new NullPointerException("propertyName can't be null: " + i);
+            }
+            PropertyDescriptor found = null;
+            for (final PropertyDescriptor descriptor : descriptors) {
+                if (propertyName.equals(descriptor.getName())) {
+                    found = descriptor;
+                    break;
+                }
+            }
+            if (found == null) {
+                throw new RuntimeException("Couldn't find bean property: " + type + " " + propertyName);
+            }
+            final Method method = found.getReadMethod();
+            if (method == null) {
+                throw new RuntimeException("No read method for bean property " + type + " " + propertyName);
+            }
+            properties[i] = property(method);
+        }
+        return new BeanBinder(type, properties);
+    }
+
+    private static Property property(final Method method) {
+        MethodHandle getter;
+        try {
+            getter = MethodHandles.publicLookup().unreflect(method);
+        } catch (final IllegalAccessException e) {
+            // public getter of a non-public class
+            try {
+                method.setAccessible(true);
+                getter = MethodHandles.lookup().unreflect(method);
+            } catch (final IllegalAccessException | RuntimeException e2) {
+                e2.addSuppressed(e);
+                throw new RuntimeException("Couldn't invoke method: " + method, e2);
+            }
+        }
+
+        final Class<?> type = method.getReturnType();
+        if (type.isPrimitive()) {
+            getter = getter.asType(MethodType.methodType(type, Object.class));
+            if (type == int.class) {
+                return new IntProperty(method, getter);
+            } else if (type == long.class) {
+                return new LongProperty(method, getter);
+            } else if (type == double.class) {
+                return new DoubleProperty(method, getter);
+            } else if (type == boolean.class) {
+                return new BooleanProperty(method, getter);
+            } else if (type == float.class) {
+                return new FloatProperty(method, getter);
+            } else if (type == short.class) {
+                return new ShortProperty(method, getter);
+            } else if (type == byte.class) {
+                return new ByteProperty(method, getter);
+            }
+            // char: bound as a one character string
+            getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+            return new ObjectProperty(method, getter, Types.CHAR);
+        }
+        getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+        if (type == String.class) {
+            return new StringProperty(method, getter);
+        }
+        return new ObjectProperty(method, getter, sqlType(type));
+    }
+
+    /**
+     * The SQL type used to bind a {@code null} of a Java type, or
+     * {@link ParameterMetaDataCache#UNKNOWN_TYPE} if the type says nothing.
+     */
+    private static int sqlType(final Class<?> type) {
+        if (type == String.class || type == Character.class) {
+            return Types.VARCHAR;
+        } else if (type == Integer.class) {
+            return Types.INTEGER;
+        } else if (type == Long.class) {
+            return Types.BIGINT;
+        } else if (type == Short.class) {
+            return Types.SMALLINT;
+        } else if (type == Byte.class) {
+            return Types.TINYINT;
+        } else if (type == Boolean.class) {
+            return Types.BIT;
+        } else if (type == Double.class) {
+            return Types.DOUBLE;
+        } else if (type == Float.class) {
+            return Types.REAL;
+        } else if (type == BigDecimal.class || type == BigInteger.class) {
+            return Types.NUMERIC;
+        } else if (type == java.sql.Date.class) {
+            return Types.DATE;
+        } else if (type == Time.class) {
+            return Types.TIME;
+        } else if (type == Timestamp.class || type == java.util.Date.class) {
+            return Types.TIMESTAMP;
+        } else if (type == byte[].class) {
+            return Types.VARBINARY;
+        }
+        return ParameterMetaDataCache.UNKNOWN_TYPE;
+    }
+
+    /**
+     * Get the bean class this binder reads.
+     *
+     * @return The bean class.
+     */
+    Class<?> getBeanClass() {
+        return beanClass;
+    }
+
+    /**
+     * Get the number of parameters this binder fills.
+     *
+     * @return The property count.
+     */
+    int getParameterCount() {
+        return properties.length;
+    }
+
+    /**
+     * Bind a bean's properties to consecutive parameters.
+     *
+     * @param stmt The statement to fill.
+     * @param bean The bean to read.
+     * @param offset The number of parameters before the first one filled.
+     * @param nullTypes Supplies the SQL type for {@code null} values of
+     *                  properties whose Java type doesn't tell.
+     * @throws SQLException if a database access error occurs
+     */
+    void bind(final PreparedStatement stmt, final Object bean, final int offset, final NullTypes nullTypes)
+            throws SQLException {
+        for (int i = 0; i < properties.length; i++) {
+            final Property property = properties[i];
+            try {
+                property.bind(stmt, offset + i + 1, bean, nullTypes);
+            } catch (final SQLException | RuntimeException | Error e) {
+                throw e;
+            } catch (final Throwable e) {
+                throw new RuntimeException("Couldn't invoke method: " + property.method, e);
+            }
+        }
+    }
+
+    private abstract static class Property {
+        final Method method;
+        final MethodHandle getter;
+
+        Property(final Method method, final MethodHandle getter) {
+            this.method = method;
+            this.getter = getter;
+        }
+
+        abstract void bind(PreparedStatement stmt, int index, Object bean, NullTypes nullTypes) throws Throwable;
+    }
+
+    private static final class IntProperty extends Property {
+        IntProperty(final Method method, final MethodHandle getter) {
+            super(method, getter);
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object bean, final NullTypes nullTypes)
+                throws Throwable {
+            stmt.setInt(index, (int) getter.invokeExact(bean));
+        }
+    }
+
+    private static final class LongProperty extends Property {
+        LongProperty(final Method method, final MethodHandle getter) {
+            super(method, getter);
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object bean, final NullTypes nullTypes)
+                throws Throwable {
+            stmt.setLong(index, (long) getter.invokeExact(bean));
+        }
+    }
+
+    private static final class DoubleProperty extends Property {
+        DoubleProperty(final Method method, final MethodHandle getter) {
+            super(method, getter);
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object bean, final NullTypes nullTypes)
+                throws Throwable {
+            stmt.setDouble(index, (double) getter.invokeExact(bean));
+        }
+    }
+
+    private static final class BooleanProperty extends Property {
+        BooleanProperty(final Method method, final MethodHandle getter) {
+            super(method, getter);
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object bean, final NullTypes nullTypes)
+                throws Throwable {
+            stmt.setBoolean(index, (boolean) getter.invokeExact(bean));
+        }
+    }
+
+    private static final class FloatProperty extends Property {
+        FloatProperty(final Method method, final MethodHandle getter) {
+            super(method, getter);
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object bean, final NullTypes nullTypes)
+                throws Throwable {
+            stmt.setFloat(index, (float) getter.invokeExact(bean));
+        }
+    }
+
+    private static final class ShortProperty extends Property {
+        ShortProperty(final Method method, final MethodHandle getter) {
+            super(method, getter);
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object bean, final NullTypes nullTypes)
+                throws Throwable {
+            stmt.setShort(index, (short) getter.invokeExact(bean));
+        }
+    }
+
+    private static final class ByteProperty extends Property {
+        ByteProperty(final Method method, final MethodHandle getter) {
+            super(method, getter);
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object bean, final NullTypes nullTypes)
+                throws Throwable {
+            stmt.setByte(index, (byte) getter.invokeExact(bean));
+        }
+    }
+
+    private static final class StringProperty extends Property {
+        StringProperty(final Method method, final MethodHandle getter) {
+            super(method, getter);
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object bean, final NullTypes nullTypes)
+                throws Throwable {
+            final Object value = getter.invokeExact(bean);
+            if (value == null) {
+                stmt.setNull(index, Types.VARCHAR);
+            } else {
+                stmt.setString(index, (String) value);
+            }
+        }
+    }
+
+    private static final class ObjectProperty extends Property {
+        private final int nullType;
+
+        ObjectProperty(final Method method, final MethodHandle getter, final int nullType) {
+            super(method, getter);
+            this.nullType = nullType;
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object bean, final NullTypes nullTypes)
+                throws Throwable {
+            final Object value = getter.invokeExact(bean);
+            if (value != null) {
+                stmt.setObject(index, value instanceof Character ? value.toString() : value);
+            } else if (nullType != ParameterMetaDataCache.UNKNOWN_TYPE) {
+                stmt.setNull(index, nullType);
+            } else {
+                stmt.setNull(index, nullTypes.sqlType(index));
+            }
+        }
+    }
+
+    private static final class Key {
+        private final Class<?> type;
+        private final Object[] properties;
+        private final int hash;
+
+        Key(final Class<?> type, final Object[] properties) {
+            this.type = type;
+            this.properties = properties.clone();
+            this.hash = type.hashCode() * 31 + Arrays.hashCode(this.properties);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return type == other.type && Arrays.equals(properties, other.properties);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,593 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLNonTransientException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+/**
+ * Loads rows into a table over several connections at once.
+ * <p>
+ * The caller's thread reads the row source and cuts it into chunks of
+ * {@link BatchConfiguration#getChunkSize()} rows, which are handed through a
+ * bounded queue to {@code parallelism} workers.  Each worker borrows one
+ * connection for the whole load and runs every chunk it takes as one
+ * transaction through
+ * {@link QueryRunner#batch(Connection, String, Iterator, BatchConfiguration)},
+ * so the runner's {@code StatementConfiguration} and statement cache apply.
+ * A worker holds a permit of the
+ * {@link QueryExecutors#permits(DataSource) semaphore} of the
+ * {@code DataSource}, if it has one, while it holds its connection.
+ * A failed chunk is rolled back and retried on a fresh connection, unless the
+ * failure is one a retry can't fix, such as a constraint violation.
+ * Progress is reported in chunk order, however the chunks complete.
+ * <p>
+ * Chunks committed before a failure stay committed.
+ *
+ * @see Builder
+ */
+public class BulkLoader {
+
+    /**
+     * Receives progress reports, one per chunk, in chunk order.  Calls are
+     * serialized but may come from any worker thread.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called once the chunk and every chunk before it are committed.
+         *
+         * @param progress The progress so far.
+         */
+        void onProgress(Progress progress);
+    }
+
+    /**
+     * A snapshot of how far a load has got.
+     */
+    public static final class Progress {
+        private final long chunkIndex;
+        private final long rows;
+        private final long elapsedMillis;
+
+        Progress(final long chunkIndex, final long rows, final long elapsedMillis) {
+            this.chunkIndex = chunkIndex;
+            this.rows = rows;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return The zero-based index of the chunk just reported.
+         */
+        public long getChunkIndex() {
+            return chunkIndex;
+        }
+
+        /**
+         * @return The number of rows committed in this and all earlier chunks.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return The time since the load started.
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return The average load rate so far.
+         */
+        public double getRowsPerSecond() {
+            return rowsPerSecond(rows, elapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("chunk %d, %d rows, %.1f rows/sec", chunkIndex, rows, getRowsPerSecond());
+        }
+    }
+
+    /**
+     * The outcome of a completed load.
+     */
+    public static final class Result {
+        private final long rows;
+        private final long chunks;
+        private final long updateCount;
+        private final int retries;
+        private final long elapsedMillis;
+
+        Result(final long rows, final long chunks, final long updateCount, final int retries,
+               final long elapsedMillis) {
+            this.rows = rows;
+            this.chunks = chunks;
+            this.updateCount = updateCount;
+            this.retries = retries;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return The number of rows loaded.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return The number of chunks committed.
+         */
+        public long getChunks() {
+            return chunks;
+        }
+
+        /**
+         * @return The sum of the update counts the driver reported.
+         */
+        public long getUpdateCount() {
+            return updateCount;
+        }
+
+        /**
+         * @return The number of chunk attempts that failed and were retried.
+         */
+        public int getRetries() {
+            return retries;
+        }
+
+        /**
+         * @return The wall-clock duration of the load.
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return The average load rate.
+         */
+        public double getRowsPerSecond() {
+            return rowsPerSecond(rows, elapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows in %d chunks, %d ms, %.1f rows/sec, %d retries",
+                    rows, chunks, elapsedMillis, getRowsPerSecond(), retries);
+        }
+    }
+
+    private static final Object[][] END_OF_INPUT = new Object[0][];
+
+    private final QueryRunner runner;
+    private final DataSource ds;
+    private final String sql;
+    private final BatchConfiguration batchConfig;
+    private final int parallelism;
+    private final int queueCapacity;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final ProgressListener listener;
+
+    private BulkLoader(final Builder builder) {
+        this.runner = builder.runner;
+        this.ds = builder.ds;
+        this.sql = builder.sql;
+        this.batchConfig = builder.batchConfig;
+        this.parallelism = builder.parallelism;
+        this.queueCapacity = builder.queueCapacity;
+        this.maxRetries = builder.maxRetries;
+        this.retryBackoffMillis = builder.retryBackoffMillis;
+        this.listener = builder.listener;
+    }
+
+    /**
+     * Load every row of the source.  Returns once all chunks are committed,
+     * or throws once a chunk has failed for good and the workers have
+     * stopped.
+     *
+     * @param rows The rows to insert, one parameter array per row.
+     * @return The totals of the load.
+     * @throws SQLException if a chunk could not be loaded
+     */
+    public Result load(final Iterator<Object[]> rows) throws SQLException {
+        final Run run = new Run();
+        final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(queueCapacity);
+        final ExecutorService workers = QueryExecutors.newExecutor("bulk-loader", parallelism);
+
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                workers.execute(() -> work(queue, run));
+            }
+
+            final int chunkSize = batchConfig.getChunkSize();
+            long index = 0;
+            while (rows.hasNext() && !run.isFailed()) {
+                final Object[][] chunk = new Object[chunkSize][];
+                int size = 0;
+                while (size < chunkSize && rows.hasNext()) {
+                    chunk[size++] = rows.next();
+                }
+                put(queue, new Chunk(index++, size == chunkSize ? chunk : Arrays.copyOf(chunk, size)), run);
+            }
+            for (int i = 0; i < parallelism; i++) {
+                put(queue, new Chunk(-1, END_OF_INPUT), run);
+            }
+
+            workers.shutdown();
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting; workers stop on their own once the queue is drained
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.fail(new SQLException("Interrupted while loading", e));
+        } finally {
+            workers.shutdownNow();
+        }
+
+        return run.finish();
+    }
+
+    private void put(final BlockingQueue<Chunk> queue, final Chunk chunk, final Run run)
+            throws InterruptedException {
+        while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            if (run.isFailed() && chunk.rows != END_OF_INPUT) {
+                return;
+            }
+        }
+    }
+
+    private void work(final BlockingQueue<Chunk> queue, final Run run) {
+        final Semaphore permits = QueryExecutors.permits(ds);
+        Connection conn = null;
+        try {
+            while (true) {
+                final Chunk chunk = queue.take();
+                if (chunk.rows == END_OF_INPUT) {
+                    return;
+                }
+                if (run.isFailed()) {
+                    continue;
+                }
+                int attempt = 0;
+                while (true) {
+                    try {
+                        if (conn == null) {
+                            conn = borrow(permits);
+                        }
+                        final BatchResult<Void> result =
+                                runner.batch(conn, sql, Arrays.asList(chunk.rows).iterator(), batchConfig);
+                        conn.commit();
+                        run.complete(chunk.index, chunk.rows.length, result.getUpdateCount());
+                        break;
+                    } catch (final SQLException e) {
+                        discard(conn, permits, e);
+                        conn = null;
+                        if (attempt >= maxRetries || !isRetryable(e)) {
+                            run.fail(e);
+                            break;
+                        }
+                        attempt++;
+                        run.retried();
+                        Thread.sleep(retryBackoffMillis * attempt);
+                    } catch (final RuntimeException e) {
+                        // a converter or driver bug; a retry would fail the same way.  The worker
+                        // keeps draining the queue so the producer sees the failure and stops
+                        final SQLException failure = new SQLException(
+                                "Chunk " + chunk.index + " failed: " + e, e);
+                        discard(conn, permits, failure);
+                        conn = null;
+                        run.fail(failure);
+                        break;
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.fail(new SQLException("Interrupted while loading", e));
+        } finally {
+            if (conn != null) {
+                runner.closeQuietly(conn);
+                release(permits);
+            }
+        }
+    }
+
+    /**
+     * Take a permit and a connection for a worker.
+     */
+    private Connection borrow(final Semaphore permits) throws SQLException, InterruptedException {
+        if (permits != null) {
+            permits.acquire();
+        }
+        try {
+            final Connection conn = ds.getConnection();
+            try {
+                conn.setAutoCommit(false);
+            } catch (final SQLException e) {
+                runner.closeQuietly(conn);
+                throw e;
+            }
+            return conn;
+        } catch (final SQLException | RuntimeException e) {
+            release(permits);
+            throw e;
+        }
+    }
+
+    private static void release(final Semaphore permits) {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Roll back and close a worker's connection after a failed chunk, and
+     * give its permit back.
+     */
+    private void discard(final Connection conn, final Semaphore permits, final SQLException e) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.rollback();
+        } catch (final SQLException re) {
+            e.addSuppressed(re);
+        }
+        runner.closeQuietly(conn);
+        release(permits);
+    }
+
+    /**
+     * Retrying helps when the connection or the server had a problem, not
+     * when the data or the SQL is wrong.  The whole chain of causes and next
+     * exceptions is searched, since {@code QueryRunner.rethrow} and the
+     * drivers wrap the original error: a connection failure (SQLState class
+     * 08) anywhere in it is retried; otherwise a batch failure, a data
+     * exception (22), a constraint violation (23), a syntax or access error
+     * (42) or another non-transient error is not.
+     */
+    static boolean isRetryable(final SQLException e) {
+        boolean connectionFailure = false;
+        boolean dataError = false;
+        for (final SQLException link : chain(e)) {
+            final String state = link.getSQLState();
+            final String stateClass = state != null && state.length() >= 2 ? state.substring(0, 2) : "";
+            if ("08".equals(stateClass) || link instanceof SQLNonTransientConnectionException
+                    || link instanceof SQLTransientConnectionException) {
+                connectionFailure = true;
+            } else if (link instanceof BatchUpdateException || link instanceof SQLNonTransientException
+                    || "22".equals(stateClass) || "23".equals(stateClass) || "42".equals(stateClass)) {
+                dataError = true;
+            }
+        }
+        return connectionFailure || !dataError;
+    }
+
+    /**
+     * The exception and every {@code SQLException} reachable from it through
+     * {@code getNextException()} and {@code getCause()}, each once.
+     */
+    static List<SQLException> chain(final SQLException e) {
+        final List<SQLException> links = new ArrayList<>();
+        final Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Deque<Throwable> pending = new ArrayDeque<>();
+        pending.add(e);
+        while (!pending.isEmpty()) {
+            final Throwable t = pending.poll();
+            if (t == null || !seen.add(t)) {
+                continue;
+            }
+            if (t instanceof SQLException) {
+                links.add((SQLException) t);
+                final SQLException next = ((SQLException) t).getNextException();
+                if (next != null) {
+                    pending.add(next);
+                }
+            }
+            if (t.getCause() != null) {
+                pending.add(t.getCause());
+            }
+        }
+        return links;
+    }
+
+    private static double rowsPerSecond(final long rows, final long elapsedMillis) {
+        return elapsedMillis <= 0 ? rows : rows * 1000.0 / elapsedMillis;
+    }
+
+    private static final class Chunk {
+        private final long index;
+        private final Object[][] rows;
+
+        Chunk(final long index, final Object[][] rows) {
+            this.index = index;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Shared state of one {@link #load(Iterator)} call.
+     */
+    private final class Run {
+        private final long startMillis = System.currentTimeMillis();
+        private final Map<Long, long[]> completedOutOfOrder = new HashMap<>();
+        private long nextToReport = 0;
+        private long rows = 0;
+        private long updateCount = 0;
+        private int retries = 0;
+        private volatile SQLException failure;
+
+        synchronized void complete(final long index, final int chunkRows, final long chunkUpdates) {
+            completedOutOfOrder.put(index, new long[] {chunkRows, chunkUpdates});
+            long[] next;
+            while ((next = completedOutOfOrder.remove(nextToReport)) != null) {
+                rows += next[0];
+                updateCount += next[1];
+                if (listener != null) {
+                    listener.onProgress(new Progress(nextToReport, rows,
+                            System.currentTimeMillis() - startMillis));
+                }
+                nextToReport++;
+            }
+        }
+
+        synchronized void retried() {
+            retries++;
+        }
+
+        synchronized void fail(final SQLException e) {
+            if (failure == null) {
+                failure = e;
+            } else if (failure != e) {
+                failure.addSuppressed(e);
+            }
+        }
+
+        boolean isFailed() {
+            return failure != null;
+        }
+
+        synchronized Result finish() throws SQLException {
+            if (failure != null) {
+                throw failure;
+            }
+            return new Result(rows, nextToReport, updateCount, retries,
+                    System.currentTimeMillis() - startMillis);
+        }
+    }
+
+    /**
+     * Builder class for {@code BulkLoader}.
+     */
+    public static final class Builder {
+        private final QueryRunner runner;
+        private final DataSource ds;
+        private final String sql;
+        private BatchConfiguration batchConfig = new BatchConfiguration.Builder().build();
+        private int parallelism = 4;
+        private int queueCapacity = 8;
+        private int maxRetries = 2;
+        private long retryBackoffMillis = 500;
+        private ProgressListener listener;
+
+        /**
+         * @param runner The runner that executes each chunk.
+         * @param ds The {@code DataSource} the workers borrow their connections
+         * from, typically a {@link PooledDataSource} with at least
+         * {@code parallelism} connections.
+         * @param sql The INSERT statement, with one replacement parameter per column.
+         */
+        public Builder(final QueryRunner runner, final DataSource ds, final String sql) {
+            this.runner = runner;
+            this.ds = ds;
+            this.sql = sql;
+        }
+
+        /**
+         * @param batchConfig The chunk size, and any other batch options, used for every chunk.
+         * @return This builder for chaining.
+         */
+        public Builder batchConfiguration(final BatchConfiguration batchConfig) {
+            this.batchConfig = batchConfig;
+            return this;
+        }
+
+        /**
+         * @param parallelism The number of connections loading at once. Defaults to 4.
+         * @return This builder for chaining.
+         */
+        public Builder parallelism(final int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param queueCapacity The number of chunks read ahead of the workers. Defaults to 8.
+         * @return This builder for chaining.
+         */
+        public Builder queueCapacity(final int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * @param maxRetries How many times a failed chunk is retried. Defaults to 2.
+         * @return This builder for chaining.
+         */
+        public Builder maxRetries(final int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * @param retryBackoffMillis The pause before the first retry; later
+         * retries wait proportionally longer. Defaults to 500.
+         * @return This builder for chaining.
+         */
+        public Builder retryBackoffMillis(final long retryBackoffMillis) {
+            this.retryBackoffMillis = retryBackoffMillis;
+            return this;
+        }
+
+        /**
+         * @param listener Receives a report after every chunk, in chunk order.
+         * @return This builder for chaining.
+         */
+        public Builder progressListener(final ProgressListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @return A new and configured {@link BulkLoader}.
+         */
+        public BulkLoader build() {
+            if (runner == null || ds == null || sql == null) {
+                throw new IllegalArgumentException("runner, ds and sql are required");
+            }
+            if (parallelism < 1 || queueCapacity < 1 || maxRetries < 0) {
+                throw new IllegalArgumentException("parallelism and queueCapacity must be positive, "
+                        + "maxRetries must not be negative");
+            }
+            return new BulkLoader(this);
+        }
+    }
+}
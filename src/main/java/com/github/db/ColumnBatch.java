@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.db.ParameterBinder.NullTypes;
+
+/**
+ * Batch parameters stored column by column, for
+ * {@link QueryRunner#batch(java.sql.Connection, String, ColumnBatch, BatchConfiguration)}.
+ * Primitive columns are bound with {@code setInt}, {@code setLong} and
+ * {@code setDouble} straight from their arrays, so large numeric batches
+ * are sent without boxing a value per cell.  Columns are added in
+ * parameter order and must all hold the same number of rows.
+ * <p>
+ * The arrays are not copied; don't change them while a batch runs.  This
+ * class is not thread safe; run one batch from it at a time.
+ */
+public class ColumnBatch {
+
+    private final int rowCount;
+    private final List<Column> columns = new ArrayList<>();
+
+    /**
+     * Constructor for {@code ColumnBatch}.
+     *
+     * @param rowCount The number of rows every column holds.
+     */
+    public ColumnBatch(final int rowCount) {
+        if (rowCount < 0) {
+            throw new IllegalArgumentException("rowCount can't be negative: " + rowCount);
+        }
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Add a column of {@code int} values, none of them {@code null}.
+     *
+     * @param values The values, one per row.
+     * @return This batch for chaining.
+     */
+    public ColumnBatch addColumn(final int[] values) {
+        checkLength(values.length);
+        columns.add(new IntColumn(values));
+        return this;
+    }
+
+    /**
+     * Add a column of {@code long} values, none of them {@code null}.
+     *
+     * @param values The values, one per row.
+     * @return This batch for chaining.
+     */
+    public ColumnBatch addColumn(final long[] values) {
+        checkLength(values.length);
+        columns.add(new LongColumn(values));
+        return this;
+    }
+
+    /**
+     * Add a column of {@code double} values, none of them {@code null}.
+     *
+     * @param values The values, one per row.
+     * @return This batch for chaining.
+     */
+    public ColumnBatch addColumn(final double[] values) {
+        checkLength(values.length);
+        columns.add(new DoubleColumn(values));
+        return this;
+    }
+
+    /**
+     * Add a column of objects, which may contain {@code null}.  Values are
+     * bound with the typed setter for their class where there is one.
+     *
+     * @param values The values, one per row.
+     * @return This batch for chaining.
+     */
+    public ColumnBatch addColumn(final Object[] values) {
+        checkLength(values.length);
+        columns.add(new ObjectColumn(values));
+        return this;
+    }
+
+    private void checkLength(final int length) {
+        if (length != rowCount) {
+            throw new IllegalArgumentException("Column " + (columns.size() + 1) + " has " + length
+                    + " rows, expected " + rowCount);
+        }
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return The row count.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the number of columns, which is the number of parameters per row.
+     *
+     * @return The column count.
+     */
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    /**
+     * Bind one row to the statement's parameters.
+     *
+     * @param stmt The statement to fill.
+     * @param row The 0-based row.
+     * @param nullTypes Supplies the SQL type for {@code null} values.
+     * @throws SQLException if a database access error occurs
+     */
+    void bind(final PreparedStatement stmt, final int row, final NullTypes nullTypes) throws SQLException {
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i).bind(stmt, i + 1, row, nullTypes);
+        }
+    }
+
+    /**
+     * Box one row, for error messages.
+     *
+     * @param row The 0-based row.
+     * @return The row's values.
+     */
+    Object[] row(final int row) {
+        final Object[] values = new Object[columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = columns.get(i).value(row);
+        }
+        return values;
+    }
+
+    private abstract static class Column {
+        abstract void bind(PreparedStatement stmt, int index, int row, NullTypes nullTypes) throws SQLException;
+
+        abstract Object value(int row);
+    }
+
+    private static final class IntColumn extends Column {
+        private final int[] values;
+
+        IntColumn(final int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final int row, final NullTypes nullTypes)
+                throws SQLException {
+            stmt.setInt(index, values[row]);
+        }
+
+        @Override
+        Object value(final int row) {
+            return values[row];
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        private final long[] values;
+
+        LongColumn(final long[] values) {
+            this.values = values;
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final int row, final NullTypes nullTypes)
+                throws SQLException {
+            stmt.setLong(index, values[row]);
+        }
+
+        @Override
+        Object value(final int row) {
+            return values[row];
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+        private final double[] values;
+
+        DoubleColumn(final double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final int row, final NullTypes nullTypes)
+                throws SQLException {
+            stmt.setDouble(index, values[row]);
+        }
+
+        @Override
+        Object value(final int row) {
+            return values[row];
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+        private final Object[] values;
+        /**
+         * The binder the previous value needed; columns are usually of one class.
+         */
+        private ParameterBinder binder = ParameterBinder.OBJECT;
+
+        ObjectColumn(final Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final int row, final NullTypes nullTypes)
+                throws SQLException {
+            final Object value = values[row];
+            if (value == null) {
+                stmt.setNull(index, nullTypes.sqlType(index));
+                return;
+            }
+            if (binder == ParameterBinder.OBJECT || !binder.accepts(value)) {
+                binder = ParameterBinder.forValue(value);
+            }
+            binder.bind(stmt, index, value);
+        }
+
+        @Override
+        Object value(final int row) {
+            return values[row];
+        }
+    }
+}
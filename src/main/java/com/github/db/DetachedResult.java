@@ -0,0 +1,824 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * A query result read once from a {@code ResultSet} and kept in memory,
+ * column by column, after the statement and connection are gone.  Integer
+ * and floating point columns are stored in primitive arrays with a null
+ * bitmap.  A floating point column prints its values in the style the
+ * driver's text showed for its first values, keeping the text per value
+ * only for drivers no style matches; all other columns are stored as the strings
+ * {@code getString} returned.  The result can be rendered as a table or exported as
+ * delimited text without another copy.
+ * <p>
+ * Instances are created by {@link #handler()} and are not modified
+ * afterwards, so they can be read from any thread.
+ */
+public final class DetachedResult {
+
+    private static final ResultSetHandler<DetachedResult> HANDLER = DetachedResult::read;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String[] labels;
+    private final int[] sqlTypes;
+    private final Column[] columns;
+    private final int rowCount;
+
+    private DetachedResult(final String[] labels, final int[] sqlTypes, final Column[] columns,
+                           final int rowCount) {
+        this.labels = labels;
+        this.sqlTypes = sqlTypes;
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Get a handler that reads the whole {@code ResultSet} into a
+     * {@code DetachedResult}.
+     *
+     * @return The handler; it is stateless and can be shared.
+     */
+    public static ResultSetHandler<DetachedResult> handler() {
+        return HANDLER;
+    }
+
+    /**
+     * Read the remaining rows of a {@code ResultSet}.
+     *
+     * @param rs The result set, positioned before the first row to read.
+     * @return The detached result.
+     * @throws SQLException if a database access error occurs
+     */
+    public static DetachedResult read(final ResultSet rs) throws SQLException {
+        final ResultSetMetaData rsmd = rs.getMetaData();
+        final int cols = rsmd.getColumnCount();
+        final String[] labels = new String[cols];
+        final int[] sqlTypes = new int[cols];
+        final Column[] columns = new Column[cols];
+        for (int i = 0; i < cols; i++) {
+            String label = rsmd.getColumnLabel(i + 1);
+            if (null == label || 0 == label.length()) {
+                label = rsmd.getColumnName(i + 1);
+            }
+            labels[i] = label;
+            sqlTypes[i] = rsmd.getColumnType(i + 1);
+            columns[i] = newColumn(sqlTypes[i], rsmd.isSigned(i + 1));
+        }
+
+        int rows = 0;
+        while (rs.next()) {
+            for (int i = 0; i < cols; i++) {
+                columns[i].read(rs, i + 1, rows);
+            }
+            rows++;
+        }
+        for (final Column column : columns) {
+            column.trim(rows);
+        }
+        return new DetachedResult(labels, sqlTypes, columns, rows);
+    }
+
+    private static Column newColumn(final int sqlType, final boolean signed) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+                return new IntColumn();
+            case Types.INTEGER:
+                // MySQL's INT UNSIGNED doesn't fit in an int
+                return signed ? new IntColumn() : new LongColumn();
+            case Types.BIGINT:
+                return signed ? new LongColumn() : new StringColumn();
+            case Types.DOUBLE:
+            case Types.FLOAT:
+                return new DoubleColumn();
+            default:
+                return new StringColumn();
+        }
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return The row count.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the number of columns.
+     *
+     * @return The column count.
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Estimate the heap this result takes, for caches that budget memory.
+     *
+     * @return The approximate size in bytes.
+     */
+    long estimateBytes() {
+        long bytes = 64;
+        for (int i = 0; i < columns.length; i++) {
+            bytes += 40 + 2L * labels[i].length() + 4 + columns[i].estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Get a column's label, or its name if it has no label.
+     *
+     * @param column The 0-based column.
+     * @return The label.
+     */
+    public String getColumnLabel(final int column) {
+        return labels[column];
+    }
+
+    /**
+     * Get a column's SQL type as reported by the driver.
+     *
+     * @param column The 0-based column.
+     * @return The type from {@link java.sql.Types}.
+     */
+    public int getColumnType(final int column) {
+        return sqlTypes[column];
+    }
+
+    /**
+     * Check whether a value is SQL {@code NULL}.
+     *
+     * @param row The 0-based row.
+     * @param column The 0-based column.
+     * @return True if the value is {@code NULL}.
+     */
+    public boolean isNull(final int row, final int column) {
+        checkRow(row);
+        return columns[column].isNull(row);
+    }
+
+    /**
+     * Get a value as a string: the driver's {@code getString} text, or for
+     * numeric columns the number formatted by Java the same way.
+     *
+     * @param row The 0-based row.
+     * @param column The 0-based column.
+     * @return The value, or {@code null} for SQL {@code NULL}.
+     */
+    public String getString(final int row, final int column) {
+        checkRow(row);
+        return columns[column].getString(row);
+    }
+
+    /**
+     * Get a value as a {@code long}.  Only integer columns hold primitive
+     * values; other columns are parsed from their string.
+     *
+     * @param row The 0-based row.
+     * @param column The 0-based column.
+     * @return The value, or 0 for SQL {@code NULL}.
+     */
+    public long getLong(final int row, final int column) {
+        checkRow(row);
+        return columns[column].getLong(row);
+    }
+
+    /**
+     * Get a value as a {@code double}.
+     *
+     * @param row The 0-based row.
+     * @param column The 0-based column.
+     * @return The value, or 0 for SQL {@code NULL}.
+     */
+    public double getDouble(final int row, final int column) {
+        checkRow(row);
+        return columns[column].getDouble(row);
+    }
+
+    /**
+     * Get a value as an object: an {@code Integer}, {@code Long} or
+     * {@code Double} for numeric columns, a {@code String} otherwise.
+     *
+     * @param row The 0-based row.
+     * @param column The 0-based column.
+     * @return The value, or {@code null} for SQL {@code NULL}.
+     */
+    public Object getObject(final int row, final int column) {
+        checkRow(row);
+        return columns[column].getObject(row);
+    }
+
+    private void checkRow(final int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + rowCount);
+        }
+    }
+
+    /**
+     * Write the result as a table with a header row, in the layout of
+     * {@link TableListing}: every column left justified and as wide as its
+     * longest value plus one, {@code NULL} shown as an empty cell.
+     *
+     * @param out Where to write.
+     * @throws IOException if writing fails
+     */
+    public void render(final Appendable out) throws IOException {
+        final int cols = columns.length;
+        final int[] widths = new int[cols];
+        for (int i = 0; i < cols; i++) {
+            widths[i] = Math.max(labels[i].length(), columns[i].maxLength(rowCount)) + 1;
+        }
+
+        final StringBuilder cell = new StringBuilder();
+        for (int i = 0; i < cols; i++) {
+            if (i > 0) {
+                out.append(' ');
+            }
+            out.append(labels[i]);
+            pad(out, widths[i] - labels[i].length());
+        }
+        out.append('\n');
+        for (int row = 0; row < rowCount; row++) {
+            for (int i = 0; i < cols; i++) {
+                if (i > 0) {
+                    out.append(' ');
+                }
+                cell.setLength(0);
+                columns[i].appendTo(cell, row);
+                out.append(cell);
+                pad(out, widths[i] - cell.length());
+            }
+            out.append('\n');
+        }
+    }
+
+    private static void pad(final Appendable out, final int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.append(' ');
+        }
+    }
+
+    /**
+     * Write the result as delimited text with a header line.  Values that
+     * contain the delimiter, a double quote or a line break are quoted as
+     * in RFC 4180; {@code NULL} is written as an empty field.
+     *
+     * @param out Where to write.
+     * @param delimiter The field delimiter, e.g. {@code ','} or {@code '\t'}.
+     * @throws IOException if writing fails
+     */
+    public void export(final Appendable out, final char delimiter) throws IOException {
+        final int cols = columns.length;
+        final StringBuilder cell = new StringBuilder();
+        for (int i = 0; i < cols; i++) {
+            if (i > 0) {
+                out.append(delimiter);
+            }
+            appendField(out, labels[i], delimiter);
+        }
+        out.append('\n');
+        for (int row = 0; row < rowCount; row++) {
+            for (int i = 0; i < cols; i++) {
+                if (i > 0) {
+                    out.append(delimiter);
+                }
+                cell.setLength(0);
+                columns[i].appendTo(cell, row);
+                appendField(out, cell, delimiter);
+            }
+            out.append('\n');
+        }
+    }
+
+    private static void appendField(final Appendable out, final CharSequence value, final char delimiter)
+            throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            final char c = value.charAt(i);
+            quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    /**
+     * Render the result as a table.
+     *
+     * @see #render(Appendable)
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            render(sb);
+        } catch (final IOException e) {
+            // StringBuilder doesn't throw
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Storage for one column.  Primitive columns mark nulls in a bitmap.
+     */
+    private abstract static class Column {
+        private long[] nulls = new long[1];
+
+        abstract void read(ResultSet rs, int index, int row) throws SQLException;
+
+        abstract void trim(int rows);
+
+        abstract String getString(int row);
+
+        abstract Object getObject(int row);
+
+        long getLong(final int row) {
+            final String value = getString(row);
+            return value == null ? 0L : Long.parseLong(value.trim());
+        }
+
+        double getDouble(final int row) {
+            final String value = getString(row);
+            return value == null ? 0d : Double.parseDouble(value.trim());
+        }
+
+        /**
+         * Append the value's text to a buffer; nothing for {@code NULL}.
+         */
+        abstract void appendTo(StringBuilder sb, int row);
+
+        /**
+         * The length of the longest value's text.
+         */
+        abstract int maxLength(int rows);
+
+        /**
+         * The approximate heap size of the values and the null bitmap.
+         */
+        abstract long estimateBytes();
+
+        long bitmapBytes() {
+            return 16 + 8L * nulls.length;
+        }
+
+        void setNull(final int row) {
+            final int word = row >>> 6;
+            if (word >= nulls.length) {
+                nulls = Arrays.copyOf(nulls, Math.max(word + 1, nulls.length * 2));
+            }
+            nulls[word] |= 1L << row;
+        }
+
+        boolean isNull(final int row) {
+            final int word = row >>> 6;
+            return word < nulls.length && (nulls[word] & (1L << row)) != 0;
+        }
+
+        static int capacity(final int length, final int row) {
+            return row < length ? length : Math.max(INITIAL_CAPACITY, length * 2);
+        }
+    }
+
+    private static final class IntColumn extends Column {
+        private int[] values = new int[0];
+
+        @Override
+        long estimateBytes() {
+            return bitmapBytes() + 16 + 4L * values.length;
+        }
+
+        @Override
+        void read(final ResultSet rs, final int index, final int row) throws SQLException {
+            values = row < values.length ? values : Arrays.copyOf(values, capacity(values.length, row));
+            values[row] = rs.getInt(index);
+            if (values[row] == 0 && rs.wasNull()) {
+                setNull(row);
+            }
+        }
+
+        @Override
+        void trim(final int rows) {
+            values = Arrays.copyOf(values, rows);
+        }
+
+        @Override
+        String getString(final int row) {
+            return isNull(row) ? null : Integer.toString(values[row]);
+        }
+
+        @Override
+        Object getObject(final int row) {
+            return isNull(row) ? null : Integer.valueOf(values[row]);
+        }
+
+        @Override
+        long getLong(final int row) {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(final int row) {
+            return values[row];
+        }
+
+        @Override
+        void appendTo(final StringBuilder sb, final int row) {
+            if (!isNull(row)) {
+                sb.append(values[row]);
+            }
+        }
+
+        @Override
+        int maxLength(final int rows) {
+            int max = 0;
+            for (int row = 0; row < rows; row++) {
+                if (!isNull(row)) {
+                    max = Math.max(max, stringSize(values[row]));
+                }
+            }
+            return max;
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        private long[] values = new long[0];
+
+        @Override
+        long estimateBytes() {
+            return bitmapBytes() + 16 + 8L * values.length;
+        }
+
+        @Override
+        void read(final ResultSet rs, final int index, final int row) throws SQLException {
+            values = row < values.length ? values : Arrays.copyOf(values, capacity(values.length, row));
+            values[row] = rs.getLong(index);
+            if (values[row] == 0 && rs.wasNull()) {
+                setNull(row);
+            }
+        }
+
+        @Override
+        void trim(final int rows) {
+            values = Arrays.copyOf(values, rows);
+        }
+
+        @Override
+        String getString(final int row) {
+            return isNull(row) ? null : Long.toString(values[row]);
+        }
+
+        @Override
+        Object getObject(final int row) {
+            return isNull(row) ? null : Long.valueOf(values[row]);
+        }
+
+        @Override
+        long getLong(final int row) {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(final int row) {
+            return values[row];
+        }
+
+        @Override
+        void appendTo(final StringBuilder sb, final int row) {
+            if (!isNull(row)) {
+                sb.append(values[row]);
+            }
+        }
+
+        @Override
+        int maxLength(final int rows) {
+            int max = 0;
+            for (int row = 0; row < rows; row++) {
+                if (!isNull(row)) {
+                    max = Math.max(max, stringSize(values[row]));
+                }
+            }
+            return max;
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+
+        private double[] values = new double[0];
+
+        /**
+         * The styles matching every sampled value's driver text, one bit per
+         * {@link DoubleStyle}, and the style picked once sampling is done.
+         */
+        private int styles = DoubleStyle.ALL;
+        private int sampled;
+        private DoubleStyle style;
+
+        /**
+         * The driver's text of the sampled values and, when no style matches
+         * the driver, of every value printed otherwise, such as MySQL's
+         * {@code 1e20}; null once a style is picked.
+         */
+        private String[] texts;
+
+        @Override
+        long estimateBytes() {
+            long bytes = bitmapBytes() + 16 + 8L * values.length;
+            if (texts != null) {
+                bytes += 16 + 4L * texts.length;
+                for (final String text : texts) {
+                    if (text != null) {
+                        bytes += 40 + 2L * text.length();
+                    }
+                }
+            }
+            return bytes;
+        }
+
+        @Override
+        void read(final ResultSet rs, final int index, final int row) throws SQLException {
+            values = row < values.length ? values : Arrays.copyOf(values, capacity(values.length, row));
+            values[row] = rs.getDouble(index);
+            if (values[row] == 0 && rs.wasNull()) {
+                setNull(row);
+                return;
+            }
+            if (style != null && texts == null) {
+                return;
+            }
+            final String text = rs.getString(index);
+            if (style == null) {
+                styles &= DoubleStyle.matching(values[row], text);
+                sampled++;
+            } else if (style.format(values[row]).equals(text)) {
+                return;
+            }
+            if (texts == null) {
+                texts = new String[values.length];
+            } else if (texts.length < values.length) {
+                texts = Arrays.copyOf(texts, values.length);
+            }
+            texts[row] = text;
+            if (style == null && (sampled == DoubleStyle.SAMPLE_VALUES || styles == 0)) {
+                pickStyle();
+            }
+        }
+
+        /**
+         * Keep the first style matching the sample, or the driver's text
+         * of every value if none does.
+         */
+        private void pickStyle() {
+            style = DoubleStyle.pick(styles);
+            if (style != null) {
+                texts = null;
+            } else {
+                style = DoubleStyle.PLAIN;
+            }
+        }
+
+        @Override
+        void trim(final int rows) {
+            values = Arrays.copyOf(values, rows);
+            if (style == null) {
+                pickStyle();
+            }
+            if (texts != null) {
+                texts = Arrays.copyOf(texts, rows);
+            }
+        }
+
+        @Override
+        String getString(final int row) {
+            if (isNull(row)) {
+                return null;
+            }
+            if (texts != null && row < texts.length && texts[row] != null) {
+                return texts[row];
+            }
+            return (style == null ? DoubleStyle.PLAIN : style).format(values[row]);
+        }
+
+        @Override
+        Object getObject(final int row) {
+            return isNull(row) ? null : Double.valueOf(values[row]);
+        }
+
+        @Override
+        long getLong(final int row) {
+            return (long) values[row];
+        }
+
+        @Override
+        double getDouble(final int row) {
+            return values[row];
+        }
+
+        @Override
+        void appendTo(final StringBuilder sb, final int row) {
+            if (!isNull(row)) {
+                sb.append(getString(row));
+            }
+        }
+
+        @Override
+        int maxLength(final int rows) {
+            int max = 0;
+            for (int row = 0; row < rows; row++) {
+                if (!isNull(row)) {
+                    max = Math.max(max, getString(row).length());
+                }
+            }
+            return max;
+        }
+    }
+
+    private static final class StringColumn extends Column {
+        private String[] values = new String[0];
+
+        @Override
+        long estimateBytes() {
+            long bytes = bitmapBytes() + 16 + 4L * values.length;
+            for (final String value : values) {
+                if (value != null) {
+                    bytes += 40 + 2L * value.length();
+                }
+            }
+            return bytes;
+        }
+
+        @Override
+        void read(final ResultSet rs, final int index, final int row) throws SQLException {
+            values = row < values.length ? values : Arrays.copyOf(values, capacity(values.length, row));
+            values[row] = rs.getString(index);
+        }
+
+        @Override
+        void trim(final int rows) {
+            values = Arrays.copyOf(values, rows);
+        }
+
+        @Override
+        boolean isNull(final int row) {
+            return values[row] == null;
+        }
+
+        @Override
+        String getString(final int row) {
+            return values[row];
+        }
+
+        @Override
+        Object getObject(final int row) {
+            return values[row];
+        }
+
+        @Override
+        void appendTo(final StringBuilder sb, final int row) {
+            if (values[row] != null) {
+                sb.append(values[row]);
+            }
+        }
+
+        @Override
+        int maxLength(final int rows) {
+            int max = 0;
+            for (int row = 0; row < rows; row++) {
+                if (values[row] != null) {
+                    max = Math.max(max, values[row].length());
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * How a driver prints a {@code DOUBLE}, so a column keeps one style
+     * rather than the text of every value.
+     */
+    enum DoubleStyle {
+        /** {@code 1.0} and {@code 12345678.9}. */
+        PLAIN,
+        /** {@code 1} and {@code 12345678.9}, as MySQL and PostgreSQL print them. */
+        WHOLE,
+        /** {@code 1.0} and {@code 1.23456789E7}, as H2 prints them. */
+        JAVA;
+
+        /**
+         * Values whose driver text picks a column's style.
+         */
+        static final int SAMPLE_VALUES = 32;
+
+        /**
+         * Every style, one bit per style.
+         */
+        static final int ALL = (1 << values().length) - 1;
+
+        String format(final double value) {
+            switch (this) {
+                case WHOLE: {
+                    final String plain = DetachedResult.format(value);
+                    return plain.endsWith(".0") ? plain.substring(0, plain.length() - 2) : plain;
+                }
+                case JAVA:
+                    return Double.toString(value);
+                default:
+                    return DetachedResult.format(value);
+            }
+        }
+
+        /**
+         * @return The styles printing {@code value} as {@code text}, one bit per style.
+         */
+        static int matching(final double value, final String text) {
+            int styles = 0;
+            for (final DoubleStyle style : values()) {
+                if (style.format(value).equals(text)) {
+                    styles |= 1 << style.ordinal();
+                }
+            }
+            return styles;
+        }
+
+        /**
+         * @return The first of the styles, one bit per style, or null if there are none.
+         */
+        static DoubleStyle pick(final int styles) {
+            for (final DoubleStyle style : values()) {
+                if ((styles & 1 << style.ordinal()) != 0) {
+                    return style;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Format a floating point value the way drivers print it, in plain
+     * notation: {@code 12345678.9}, not {@code Double.toString}'s
+     * {@code 1.23456789E7}.
+     */
+    static String format(final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return Double.toString(value);
+        }
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+
+    /**
+     * The length of a number's decimal text, sign included.
+     */
+    static int stringSize(final long value) {
+        long v = value;
+        int size = 1;
+        if (v < 0) {
+            if (v == Long.MIN_VALUE) {
+                return 20;
+            }
+            size++;
+            v = -v;
+        }
+        while (v >= 10) {
+            v /= 10;
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.util.Locale;
+
+/**
+ * The databases whose SQL differences {@code QueryRunner} knows about.
+ */
+public enum Dialect {
+    /**
+     * MySQL.  Connector/J sends client-side prepared statements with the
+     * values inlined, so a statement must fit in {@code max_allowed_packet}
+     * (4MB by default).
+     */
+    MYSQL(65535, 4 * 1024 * 1024),
+
+    /**
+     * Oracle.  Multi-row inserts use {@code INSERT ALL}, whose parse time
+     * grows quickly with its size, so statements are kept small.
+     */
+    ORACLE(1000, Integer.MAX_VALUE),
+
+    /**
+     * DB2 for Linux, UNIX and Windows.  Statement text is limited to 2MB.
+     */
+    DB2(32767, 2 * 1024 * 1024);
+
+    private final int maxParameters;
+    private final int maxStatementBytes;
+
+    Dialect(final int maxParameters, final int maxStatementBytes) {
+        this.maxParameters = maxParameters;
+        this.maxStatementBytes = maxStatementBytes;
+    }
+
+    /**
+     * Get the largest number of parameter markers worth putting in one statement.
+     *
+     * @return The parameter limit.
+     */
+    public int getMaxParameters() {
+        return maxParameters;
+    }
+
+    /**
+     * Get the largest statement, including inlined values where the driver
+     * inlines them, worth sending in one round trip.
+     *
+     * @return The size limit in bytes.
+     */
+    public int getMaxStatementBytes() {
+        return maxStatementBytes;
+    }
+
+    /**
+     * Limit a query to its first rows: {@code LIMIT} on MySQL, and
+     * {@code FETCH FIRST} on DB2 and Oracle, which needs Oracle 12c or later.
+     *
+     * @param sql The query, ending with its {@code ORDER BY} if it has one.
+     * @param rows The number of rows to return.
+     * @return The limited query.
+     */
+    public String limit(final String sql, final int rows) {
+        if (this == MYSQL) {
+            return sql + " LIMIT " + rows;
+        }
+        return sql + " FETCH FIRST " + rows + " ROWS ONLY";
+    }
+
+    /**
+     * Look up a dialect by name, ignoring case, as accepted by
+     * {@code MiniDBQuery}'s {@code ---db} option.
+     *
+     * @param name The dialect name: mysql, oracle or db2.
+     * @return The dialect.
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static Dialect of(final String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("dialect name can't be null");
+        }
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Guess the dialect from a JDBC url.
+     *
+     * @param url The JDBC url.
+     * @return The dialect, or {@code null} if the url is not for a known database.
+     */
+    public static Dialect fromUrl(final String url) {
+        if (url == null) {
+            return null;
+        }
+        final String lower = url.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("jdbc:mysql:") || lower.startsWith("jdbc:mariadb:")) {
+            return MYSQL;
+        }
+        if (lower.startsWith("jdbc:oracle:")) {
+            return ORACLE;
+        }
+        if (lower.startsWith("jdbc:db2:")) {
+            return DB2;
+        }
+        return null;
+    }
+}
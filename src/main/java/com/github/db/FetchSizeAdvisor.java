@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Learns a fetch size per SQL statement, used by {@link AbstractQueryRunner}
+ * when {@link StatementConfiguration#getFetchSizeAdvisor()} is set.
+ * <p>
+ * The fetch size is chosen so that one fetch holds about
+ * {@code targetBytesPerFetch} of row data and takes about
+ * {@code targetMillisPerFetch}, whichever allows fewer rows, within
+ * {@code [minFetchSize, maxFetchSize]}.  Before a statement has been seen,
+ * the row size is estimated from the columns' display sizes.  While its rows
+ * are read, the sizes of the values returned and the time spent in
+ * {@code next()} are measured, and the fetch size is corrected at each
+ * fetch boundary; when the result set is closed the learned size is kept
+ * for the next execution of the same SQL.
+ * <p>
+ * Value sizes are approximate: the length of strings and byte arrays, and
+ * eight bytes for other values.  The driver must honour
+ * {@link ResultSet#setFetchSize(int)}; Connector/J only does with
+ * {@code useCursorFetch=true}, and the runner leaves a fetch size of
+ * {@code Integer.MIN_VALUE} (MySQL row streaming) alone.  This class is
+ * thread safe and can be shared by several runners.
+ */
+public class FetchSizeAdvisor {
+
+    /**
+     * The default row data per fetch: 4MB.
+     */
+    public static final long DEFAULT_TARGET_BYTES_PER_FETCH = 4L * 1024 * 1024;
+
+    /**
+     * The default round trip time per fetch: 200ms.
+     */
+    public static final long DEFAULT_TARGET_MILLIS_PER_FETCH = 200;
+
+    /**
+     * The default smallest fetch size.
+     */
+    public static final int DEFAULT_MIN_FETCH_SIZE = 10;
+
+    /**
+     * The default largest fetch size.
+     */
+    public static final int DEFAULT_MAX_FETCH_SIZE = 50000;
+
+    /**
+     * The default number of statements remembered.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * Display sizes above this, e.g. of LOB columns, count as this.
+     */
+    private static final int MAX_ESTIMATED_COLUMN_BYTES = 4096;
+
+    private final long targetBytesPerFetch;
+    private final long targetMillisPerFetch;
+    private final int minFetchSize;
+    private final int maxFetchSize;
+    private final int maxEntries;
+
+    /**
+     * Learned fetch sizes, least recently used first.
+     */
+    private final LinkedHashMap<String, Integer> learned = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Constructor for {@code FetchSizeAdvisor} with the default targets and limits.
+     */
+    public FetchSizeAdvisor() {
+        this(DEFAULT_TARGET_BYTES_PER_FETCH, DEFAULT_TARGET_MILLIS_PER_FETCH, DEFAULT_MIN_FETCH_SIZE,
+                DEFAULT_MAX_FETCH_SIZE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Constructor for {@code FetchSizeAdvisor}.
+     *
+     * @param targetBytesPerFetch The row data one fetch should hold.
+     * @param targetMillisPerFetch The time one fetch should take.
+     * @param minFetchSize The smallest fetch size advised.
+     * @param maxFetchSize The largest fetch size advised.
+     * @param maxEntries The number of statements whose fetch size is remembered.
+     */
+    public FetchSizeAdvisor(final long targetBytesPerFetch, final long targetMillisPerFetch,
+                            final int minFetchSize, final int maxFetchSize, final int maxEntries) {
+        if (targetBytesPerFetch < 1 || targetMillisPerFetch < 1) {
+            throw new IllegalArgumentException("targets must be positive");
+        }
+        if (minFetchSize < 1 || maxFetchSize < minFetchSize) {
+            throw new IllegalArgumentException("fetch size limits must satisfy 1 <= min <= max");
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.targetBytesPerFetch = targetBytesPerFetch;
+        this.targetMillisPerFetch = targetMillisPerFetch;
+        this.minFetchSize = minFetchSize;
+        this.maxFetchSize = maxFetchSize;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the fetch size learned for a statement.
+     *
+     * @param sql The SQL of the statement.
+     * @return The fetch size, or 0 if the statement hasn't been read yet.
+     */
+    public synchronized int getFetchSize(final String sql) {
+        final Integer size = learned.get(sql);
+        return size == null ? 0 : size;
+    }
+
+    /**
+     * Get the number of statements whose fetch size is remembered.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return learned.size();
+    }
+
+    /**
+     * Forget all learned fetch sizes.
+     */
+    public synchronized void clear() {
+        learned.clear();
+    }
+
+    private synchronized void remember(final String sql, final int fetchSize) {
+        learned.put(sql, fetchSize);
+        if (learned.size() > maxEntries) {
+            final Iterator<String> eldest = learned.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Set the learned fetch size on a statement about to execute the SQL.
+     *
+     * @param stmt The statement.
+     * @param sql The SQL it will execute.
+     * @throws SQLException if the driver rejects the fetch size
+     */
+    void apply(final Statement stmt, final String sql) throws SQLException {
+        final int size = getFetchSize(sql);
+        if (size > 0) {
+            stmt.setFetchSize(size);
+        }
+    }
+
+    /**
+     * Measure the rows read from a result set and adjust its fetch size.
+     *
+     * @param sql The SQL the result set is for.
+     * @param rs The result set.
+     * @return A result set that measures its reads and records the fetch size on close.
+     */
+    ResultSet observe(final String sql, final ResultSet rs) {
+        return (ResultSet) Proxy.newProxyInstance(FetchSizeAdvisor.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, new Observer(sql, rs));
+    }
+
+    /**
+     * The fetch size for rows of the given size and fetch timing.
+     *
+     * @param rowBytes The average row size.
+     * @param rowsPerFetch The rows in the measured fetch, or 0 if not measured.
+     * @param millisPerFetch The time the measured fetch took.
+     * @return The fetch size, within the limits.
+     */
+    int fetchSize(final double rowBytes, final double rowsPerFetch, final double millisPerFetch) {
+        double rows = targetBytesPerFetch / Math.max(rowBytes, 1);
+        if (rowsPerFetch > 0 && millisPerFetch > 0) {
+            rows = Math.min(rows, rowsPerFetch * targetMillisPerFetch / millisPerFetch);
+        }
+        return (int) Math.max(minFetchSize, Math.min(maxFetchSize, rows));
+    }
+
+    /**
+     * Estimate the row size from the columns' display sizes.
+     */
+    static double estimateRowBytes(final ResultSetMetaData rsmd) throws SQLException {
+        long bytes = 0;
+        for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+            final int size = rsmd.getColumnDisplaySize(i);
+            bytes += size <= 0 ? 16 : Math.min(size, MAX_ESTIMATED_COLUMN_BYTES);
+        }
+        return Math.max(bytes, 1);
+    }
+
+    /**
+     * Invocation handler behind an observed result set.
+     */
+    private final class Observer implements InvocationHandler {
+        private final String sql;
+        private final ResultSet rs;
+
+        private int fetchSize;
+        private long nextBoundary;
+        private long rows;
+        private long bytes;
+        private long windowRows;
+        private long windowNanos;
+        private boolean recorded;
+
+        Observer(final String sql, final ResultSet rs) {
+            this.sql = sql;
+            this.rs = rs;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "next":
+                    return next();
+                case "close":
+                    record();
+                    break;
+                default:
+                    break;
+            }
+
+            final Object value;
+            try {
+                value = method.invoke(rs, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (rows > 0 && args != null && args.length == 1 && name.startsWith("get")) {
+                bytes += sizeOf(value);
+            }
+            return value;
+        }
+
+        private boolean next() throws SQLException {
+            if (rows == 0 && fetchSize == 0) {
+                start();
+            }
+            final long start = System.nanoTime();
+            final boolean more = rs.next();
+            windowNanos += System.nanoTime() - start;
+            if (!more) {
+                return false;
+            }
+            rows++;
+            windowRows++;
+            if (rows == nextBoundary) {
+                resize();
+            }
+            return true;
+        }
+
+        /**
+         * Size the fetches after the first from the learned or estimated row size.
+         */
+        private void start() throws SQLException {
+            // the first fetch ran with whatever size the statement had
+            final int first = rs.getFetchSize();
+            fetchSize = getFetchSize(sql);
+            if (fetchSize == 0) {
+                fetchSize = fetchSize(estimateRowBytes(rs.getMetaData()), 0, 0);
+                setFetchSize(fetchSize);
+            }
+            nextBoundary = first > 0 ? first : fetchSize;
+        }
+
+        /**
+         * Correct the fetch size from the fetch just finished, moving halfway
+         * to the advised size so one slow round trip doesn't swing it.
+         */
+        private void resize() {
+            adjust();
+            setFetchSize(fetchSize);
+            nextBoundary = rows + fetchSize;
+        }
+
+        private void adjust() {
+            final int advised = fetchSize((double) bytes / rows, windowRows, windowNanos / 1_000_000.0);
+            fetchSize = (int) (((long) fetchSize + advised) / 2);
+            windowRows = 0;
+            windowNanos = 0;
+        }
+
+        private void setFetchSize(final int size) {
+            try {
+                rs.setFetchSize(size);
+            } catch (final SQLException e) { // NOPMD
+                // the driver keeps its own size; the learned one still applies to the next execution
+            }
+        }
+
+        private void record() {
+            if (recorded) {
+                return;
+            }
+            recorded = true;
+            if (rows == 0) {
+                return;
+            }
+            if (windowRows > 0) {
+                adjust();
+            }
+            remember(sql, fetchSize);
+        }
+
+        private long sizeOf(final Object value) {
+            if (value == null) {
+                return 1;
+            }
+            if (value instanceof String) {
+                return ((String) value).length();
+            }
+            if (value instanceof byte[]) {
+                return ((byte[]) value).length;
+            }
+            return 8;
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.sql.DataSource;
+
+/**
+ * Reads the rows of a query page by page, continuing each page after the
+ * last key of the one before instead of with an {@code OFFSET}, so every
+ * page is an index range scan and no cursor stays open between pages.
+ * <p>
+ * The base query is wrapped as
+ * {@code SELECT * FROM (query) page_src WHERE key > ? ORDER BY key},
+ * limited to the page size with {@link Dialect#limit(String, int)}.  The
+ * key must be unique, not {@code NULL}, and one of the query's columns.
+ * Each page runs through
+ * {@link QueryRunner#query(Connection, String, ResultSetHandler, Object...)}
+ * on its own connection from the {@code DataSource}.  While the caller
+ * reads a page, the next one is fetched on a background thread.
+ * <p>
+ * A page that fails because of the connection or the server (SQLState
+ * class 08, or a transient or recoverable error) is retried on a new
+ * connection from the same key, so a reconnect doesn't lose or
+ * repeat rows.  {@link #getLastKey()} can be saved to resume in another
+ * process with {@link Builder#startAfter(Object)}.  SQLExceptions that
+ * can't be retried are wrapped in a {@code RuntimeException}, as in
+ * {@link RowIterator}.  Close the pager if it is not read to the end.  This
+ * class is not thread safe.
+ *
+ * @see Builder
+ */
+public class KeysetPager implements Iterator<Object[]>, AutoCloseable {
+
+    private final QueryRunner runner;
+    private final DataSource ds;
+    private final String firstPageSql;
+    private final String nextPageSql;
+    private final Object[] params;
+    private final String keyColumn;
+    private final int pageSize;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final ExecutorService prefetcher;
+
+    private int keyIndex = -1;
+    private Object lastKey;
+    private List<Object[]> page;
+    private int position;
+    private Future<List<Object[]>> next;
+    private boolean lastPage;
+    private boolean closed;
+    private int retries;
+
+    private KeysetPager(final Builder builder) {
+        this.runner = builder.runner;
+        this.ds = builder.ds;
+        this.params = builder.params;
+        // the outer query only sees page_src, so t.id is id there
+        this.keyColumn = builder.keyColumn.substring(builder.keyColumn.lastIndexOf('.') + 1);
+        this.pageSize = builder.pageSize;
+        this.maxRetries = builder.maxRetries;
+        this.retryBackoffMillis = builder.retryBackoffMillis;
+        this.lastKey = builder.startAfter;
+
+        final String base = "SELECT * FROM (" + builder.sql + ") page_src";
+        final String order = " ORDER BY " + keyColumn;
+        this.firstPageSql = builder.dialect.limit(base + order, pageSize);
+        this.nextPageSql = builder.dialect.limit(base + " WHERE " + keyColumn + " > ?" + order, pageSize);
+        this.prefetcher = Executors.newSingleThreadExecutor(r -> {
+            final Thread t = new Thread(r, "keyset-pager");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        while (page == null || position == page.size()) {
+            if (lastPage) {
+                close();
+                return false;
+            }
+            try {
+                nextPage();
+            } catch (final SQLException e) {
+                close();
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Object[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Object[] row = page.get(position++);
+        lastKey = row[keyIndex];
+        return row;
+    }
+
+    /**
+     * Take the prefetched page, or fetch it now, and start fetching the
+     * one after it.
+     */
+    private void nextPage() throws SQLException {
+        final Object after = page == null || page.isEmpty() ? lastKey : page.get(page.size() - 1)[keyIndex];
+        List<Object[]> rows;
+        if (next != null) {
+            try {
+                rows = next.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while fetching a page", e);
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                }
+                throw new SQLException(cause.getMessage(), cause);
+            } finally {
+                next = null;
+            }
+        } else {
+            try {
+                rows = fetch(after);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while fetching a page", e);
+            }
+        }
+
+        page = rows;
+        position = 0;
+        lastPage = rows.size() < pageSize;
+        if (!lastPage) {
+            final Object last = rows.get(rows.size() - 1)[keyIndex];
+            next = prefetcher.submit(() -> fetch(last));
+        }
+    }
+
+    /**
+     * Fetch the page after a key, retrying failures a new connection may fix.
+     */
+    private List<Object[]> fetch(final Object after) throws SQLException, InterruptedException {
+        final String sql = after == null ? firstPageSql : nextPageSql;
+        final Object[] pageParams;
+        if (after == null) {
+            pageParams = params;
+        } else {
+            pageParams = new Object[params.length + 1];
+            System.arraycopy(params, 0, pageParams, 0, params.length);
+            pageParams[params.length] = after;
+        }
+
+        int attempt = 0;
+        while (true) {
+            Connection conn = null;
+            try {
+                conn = ds.getConnection();
+                return runner.query(conn, sql, rs -> {
+                    final ResultSetMetaData rsmd = rs.getMetaData();
+                    final int cols = rsmd.getColumnCount();
+                    if (keyIndex < 0) {
+                        keyIndex = keyIndex(rsmd);
+                    }
+                    final List<Object[]> rows = new ArrayList<>(pageSize);
+                    while (rs.next()) {
+                        final Object[] row = new Object[cols];
+                        for (int i = 0; i < cols; i++) {
+                            row[i] = rs.getObject(i + 1);
+                        }
+                        rows.add(row);
+                    }
+                    return rows;
+                }, pageParams);
+            } catch (final SQLException e) {
+                if (attempt >= maxRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                attempt++;
+                synchronized (this) {
+                    retries++;
+                }
+                Thread.sleep(retryBackoffMillis * attempt);
+            } finally {
+                if (conn != null) {
+                    runner.closeQuietly(conn);
+                }
+            }
+        }
+    }
+
+    /**
+     * A page is only retried when the connection or the server failed: a
+     * connection exception (SQLState class 08) or a transient or recoverable
+     * error anywhere in the chain.  Bad SQL or a bad key fails the same way
+     * on every attempt.
+     */
+    static boolean isRetryable(final SQLException e) {
+        for (final SQLException link : BulkLoader.chain(e)) {
+            final String state = link.getSQLState();
+            if ((state != null && state.startsWith("08")) || link instanceof SQLTransientException
+                    || link instanceof SQLRecoverableException
+                    || link instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int keyIndex(final ResultSetMetaData rsmd) throws SQLException {
+        for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+            if (keyColumn.equalsIgnoreCase(rsmd.getColumnLabel(i))) {
+                return i - 1;
+            }
+        }
+        throw new SQLException("Key column " + keyColumn + " is not in the query's columns");
+    }
+
+    /**
+     * Get the key of the last row returned by {@link #next()}, or the
+     * {@code startAfter} key if no row has been returned yet.
+     *
+     * @return The key to resume after.
+     */
+    public Object getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * Get the number of page fetches that failed and were retried.
+     *
+     * @return The retry count.
+     */
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Wrap this pager in a sequential {@code Stream}; closing the stream
+     * closes the pager.
+     *
+     * @return A stream over the remaining rows.
+     */
+    public Stream<Object[]> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * Stop prefetching.  Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        page = null;
+        if (next != null) {
+            next.cancel(true);
+            next = null;
+        }
+        prefetcher.shutdownNow();
+    }
+
+    /**
+     * Builder class for {@code KeysetPager} for more flexible construction.
+     */
+    public static final class Builder {
+        private QueryRunner runner;
+        private DataSource ds;
+        private String sql;
+        private Object[] params = new Object[0];
+        private String keyColumn;
+        private Dialect dialect;
+        private int pageSize = 1000;
+        private int maxRetries = 3;
+        private long retryBackoffMillis = 1000;
+        private Object startAfter;
+
+        /**
+         * @param runner The runner to query with; its {@code StatementConfiguration} applies.
+         * @return This builder for chaining.
+         */
+        public Builder runner(final QueryRunner runner) {
+            this.runner = runner;
+            return this;
+        }
+
+        /**
+         * @param ds Where each page gets its connection.  Defaults to the
+         * runner's {@code DataSource}.
+         * @return This builder for chaining.
+         */
+        public Builder dataSource(final DataSource ds) {
+            this.ds = ds;
+            return this;
+        }
+
+        /**
+         * @param sql The base query, without {@code ORDER BY}.
+         * @param params Its replacement parameters.
+         * @return This builder for chaining.
+         */
+        public Builder query(final String sql, final Object... params) {
+            this.sql = sql;
+            this.params = params == null ? new Object[0] : params;
+            return this;
+        }
+
+        /**
+         * @param keyColumn The unique, non-null column to order and continue
+         * by, as labelled in the query's result.
+         * @return This builder for chaining.
+         */
+        public Builder keyColumn(final String keyColumn) {
+            this.keyColumn = keyColumn;
+            return this;
+        }
+
+        /**
+         * @param dialect How pages are limited.
+         * @return This builder for chaining.
+         */
+        public Builder dialect(final Dialect dialect) {
+            this.dialect = dialect;
+            return this;
+        }
+
+        /**
+         * @param pageSize The number of rows per page.  Defaults to 1000.
+         * @return This builder for chaining.
+         */
+        public Builder pageSize(final int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * @param maxRetries How many times a failed page is retried.  Defaults to 3.
+         * @return This builder for chaining.
+         */
+        public Builder maxRetries(final int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * @param retryBackoffMillis The wait before the first retry, growing
+         * linearly with each further retry.  Defaults to 1000.
+         * @return This builder for chaining.
+         */
+        public Builder retryBackoffMillis(final long retryBackoffMillis) {
+            this.retryBackoffMillis = retryBackoffMillis;
+            return this;
+        }
+
+        /**
+         * @param startAfter The key to resume after, from {@link KeysetPager#getLastKey()}.
+         * @return This builder for chaining.
+         */
+        public Builder startAfter(final Object startAfter) {
+            this.startAfter = startAfter;
+            return this;
+        }
+
+        /**
+         * @return A new pager; no query runs until it is read.
+         */
+        public KeysetPager build() {
+            if (runner == null || sql == null || keyColumn == null || dialect == null) {
+                throw new IllegalStateException("runner, query, keyColumn and dialect are required");
+            }
+            if (ds == null) {
+                ds = runner.getDataSource();
+                if (ds == null) {
+                    throw new IllegalStateException("a DataSource is required");
+                }
+            }
+            if (pageSize < 1 || maxRetries < 0 || retryBackoffMillis < 0) {
+                throw new IllegalArgumentException("pageSize must be positive, retries and backoff not negative");
+            }
+            return new KeysetPager(this);
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package com.github.db;
 
-import javax.sql.rowset.CachedRowSet;
-import javax.sql.rowset.RowSetFactory;
-import javax.sql.rowset.RowSetProvider;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
 
 /**
  * @author yusheng
@@ -17,18 +27,42 @@ import java.sql.SQLException;
 public class MiniDBQuery {
     private static final String LINE_SEPARATOR = System.getProperty("line.separator");
 
+    /**
+     * 二进制列式快照格式, 见{@link ResultSnapshot}.
+     * */
+    private static final String BIN_FORMAT = "bin";
+
+    /**
+     * Arrow IPC文件格式与流格式, 见{@link ArrowResultSetHandler}.
+     * */
+    private static final String ARROW_FORMAT = "arrow";
+    private static final String ARROW_STREAM_FORMAT = "arrow-stream";
+
     private static final String dbSampleDriverUrl = printDriverAndUrlSample();
 
     private static final String USAGE =
             "usage: " + LINE_SEPARATOR +
                     " java -jar mini-db-query-all.jar " + LINE_SEPARATOR +
+                    "    [---read file] (print a bin snapshot as a table, without the database; other params are ignored)" + LINE_SEPARATOR +
                     "    ---db mysql|oracle|db2" + LINE_SEPARATOR +
                     "    ---driver driver " + LINE_SEPARATOR +
                     "    ---url url " + LINE_SEPARATOR +
                     "    ---user user" + LINE_SEPARATOR +
                     "    ---password password " + LINE_SEPARATOR +
-                    "    ---operation select|insert|delete|update " + LINE_SEPARATOR +
-                    "    ---sql sql" + LINE_SEPARATOR +
+                    "    ---operation select|insert|delete|update|extract " + LINE_SEPARATOR +
+                    "    ---sql sql (not for extract)" + LINE_SEPARATOR +
+                    "    [---table table ---split-column column] (extract only: read the table in ranges of a numeric or date column)" + LINE_SEPARATOR +
+                    "    [---partitions n] (extract only: number of ranges and connections, default 4)" + LINE_SEPARATOR +
+                    "    [---where condition] (extract only: filter every range with this condition)" + LINE_SEPARATOR +
+                    "    [---ordered] (extract only: write rows in split column order, buffering partitions read ahead)" + LINE_SEPARATOR +
+                    "    [---stream] (select only: print rows as they are read, column widths from the first rows)" + LINE_SEPARATOR +
+                    "    [---format csv|tsv|jsonl|table|bin|arrow|arrow-stream] (select and extract: write rows as they are read in this format," + LINE_SEPARATOR +
+                    "        bin and arrow need ---output and select; arrow is the Arrow IPC file format, arrow-stream the IPC stream format)" + LINE_SEPARATOR +
+                    "        arrow on JDK 9+ outside the shaded jar: java --add-opens=java.base/java.nio=ALL-UNNAMED ..." + LINE_SEPARATOR +
+                    "    [---compress] (bin only: deflate each block of the snapshot)" + LINE_SEPARATOR +
+                    "    [---output file] (select and extract: write rows to file instead of the console, gzip if it ends with .gz)" + LINE_SEPARATOR +
+                    "    [---fetch-size auto|n] (rows per fetch; auto sizes fetches from the row size and fetch time measured while reading," + LINE_SEPARATOR +
+                    "        mysql needs useCursorFetch=true in the url)" + LINE_SEPARATOR +
                     "" + LINE_SEPARATOR +
                     "database sample driver and url:" + LINE_SEPARATOR +
                     dbSampleDriverUrl
@@ -130,7 +164,8 @@ public class MiniDBQuery {
             if(operation.equalsIgnoreCase("select") ||
                operation.equalsIgnoreCase("insert") ||
                operation.equalsIgnoreCase("delete") ||
-               operation.equalsIgnoreCase("update")){
+               operation.equalsIgnoreCase("update") ||
+               operation.equalsIgnoreCase("extract")){
                 // TODO
                 System.out.println("db operation is:" + operation);
             }else{
@@ -158,6 +193,139 @@ public class MiniDBQuery {
         return sql;
     }
 
+    /**
+     * 读取extract操作的必填参数, 如---table与---split-column.
+     * */
+    private static String getExtractParam(String[] args, String param){
+        String value = null;
+        int index = paramIndexSearch(args,param);
+        if(index != -1 && index + 1 < args.length && !args[index+1].trim().isEmpty()){
+            value = args[index+1];
+            System.out.println("db extract " + param.substring(3) + " is:" + value);
+        }else{
+            printUsageAndExit("error: " + param + " not found!");
+        }
+        return value;
+    }
+
+    private static String getWhereParam(String[] args){
+        String where = null;
+        int index = paramIndexSearch(args,"---where");
+        if(index != -1 && index + 1 < args.length){
+            where = args[index+1];
+            System.out.println("db extract where is:" + where);
+        }
+        return where;
+    }
+
+    private static int getPartitionsParam(String[] args){
+        int partitions = 4;
+        int index = paramIndexSearch(args,"---partitions");
+        if(index != -1){
+            try{
+                partitions = Integer.parseInt(args[index+1].trim());
+            }catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+                partitions = 0;
+            }
+            if(partitions < 1){
+                printUsageAndExit("error: partitions is invalid!");
+            }
+        }
+        System.out.println("db extract partitions is:" + partitions);
+        return partitions;
+    }
+
+    private static boolean getOrderedParam(String[] args){
+        boolean ordered = paramIndexSearch(args,"---ordered") != -1;
+        if(ordered){
+            System.out.println("db extract ordered is:" + ordered);
+        }
+        return ordered;
+    }
+
+    private static boolean getStreamParam(String[] args){
+        boolean stream = paramIndexSearch(args,"---stream") != -1;
+        if(stream){
+            System.out.println("db stream mode is:" + stream);
+        }
+        return stream;
+    }
+
+    /**
+     * fetch size参数: auto表示按SQL自适应调整, 否则为正整数; 未指定时返回null.
+     * */
+    private static String getFetchSizeParam(String[] args){
+        String fetchSize = null;
+        int index = paramIndexSearch(args,"---fetch-size");
+        if(index != -1){
+            if(index + 1 >= args.length){
+                printUsageAndExit("error: ---fetch-size value not found!");
+            }
+            fetchSize = args[index+1].trim().toLowerCase();
+            if(!fetchSize.equals("auto")){
+                int size;
+                try{
+                    size = Integer.parseInt(fetchSize);
+                }catch (NumberFormatException e){
+                    size = 0;
+                }
+                if(size < 1){
+                    printUsageAndExit("error: fetch size is invalid!");
+                }
+            }
+            System.out.println("db fetch size is:" + fetchSize);
+        }
+        return fetchSize;
+    }
+
+    private static String getFormatParam(String[] args){
+        String format = null;
+        int index = paramIndexSearch(args,"---format");
+        if(index != -1){
+            if(index + 1 >= args.length){
+                printUsageAndExit("error: ---format value not found!");
+            }
+            format = args[index+1].trim().toLowerCase();
+            if(!isBinaryFormat(format)){
+                try{
+                    ResultExporter.Format.of(format);
+                }catch (IllegalArgumentException e){
+                    printUsageAndExit("error: unsupported format:" + args[index+1]);
+                }
+            }
+            System.out.println("db export format is:" + format);
+        }
+        return format;
+    }
+
+    /**
+     * 二进制格式只能写入文件.
+     * */
+    private static boolean isBinaryFormat(String format){
+        return BIN_FORMAT.equals(format) || ARROW_FORMAT.equals(format) || ARROW_STREAM_FORMAT.equals(format);
+    }
+
+    private static boolean getCompressParam(String[] args){
+        boolean compress = paramIndexSearch(args,"---compress") != -1;
+        if(compress){
+            System.out.println("db export compress is:" + compress);
+        }
+        return compress;
+    }
+
+    private static String getOutputParam(String[] args){
+        String output = null;
+        int index = paramIndexSearch(args,"---output");
+        if(index != -1){
+            if(index + 1 >= args.length || args[index+1].trim().isEmpty()){
+                printUsageAndExit("error: output is invalid or empty!");
+            }
+            output = args[index+1];
+            System.out.println("db export output is:" + output);
+        }
+        return output;
+    }
+
     /**
      * 查找指定命令行参数的索引位置.
      * @param args 命令行参数数组.
@@ -177,6 +345,16 @@ public class MiniDBQuery {
 
     public static void main(String[] args){
         splitLine();
+        // 读取快照文件: 不连接数据库
+        int readIndex = paramIndexSearch(args,"---read");
+        if(readIndex != -1){
+            if(readIndex + 1 >= args.length || args[readIndex+1].trim().isEmpty()){
+                printUsageAndExit("error: read file is invalid or empty!");
+            }
+            readSnapshot(args[readIndex+1]);
+            return;
+        }
+
         // 参数解析
         final String dbType = getDBParam(args);
         final String driver = getDriverParam(args);
@@ -184,7 +362,27 @@ public class MiniDBQuery {
         final String user = getUserParam(args);
         final String password = getPasswordParam(args);
         final String operation = getOperationParam(args);
-        final String sql = getSQLParam(args);
+        final boolean extract = operation.equalsIgnoreCase("extract");
+        final String sql = extract ? null : getSQLParam(args);
+        final boolean stream = getStreamParam(args);
+        final String format = getFormatParam(args);
+        final String output = getOutputParam(args);
+        final boolean compress = getCompressParam(args);
+        final String fetchSize = getFetchSizeParam(args);
+        // 指定了导出格式或输出文件时, select结果边读边写出
+        final boolean export = format != null || output != null;
+        if(export && !operation.equalsIgnoreCase("select") && !extract){
+            printUsageAndExit("error: ---format and ---output only apply to select and extract!");
+        }
+        if(isBinaryFormat(format) && (output == null || extract)){
+            printUsageAndExit("error: ---format " + format + " needs ---output and select!");
+        }
+        // 分区抽取参数
+        final String table = extract ? getExtractParam(args, "---table") : null;
+        final String splitColumn = extract ? getExtractParam(args, "---split-column") : null;
+        final String where = extract ? getWhereParam(args) : null;
+        final int partitions = extract ? getPartitionsParam(args) : 0;
+        final boolean ordered = extract && getOrderedParam(args);
         splitLine();
 
         long globalStartTs = System.currentTimeMillis();
@@ -196,70 +394,83 @@ public class MiniDBQuery {
             System.exit(1);
         }
 
-        // 连接数据库
-        Connection connection = DbUtils.getConnection(url,user,password);
+        // 连接数据库: extract从连接池为每个分区取连接
+        Connection connection = extract ? null : DbUtils.getConnection(url,user,password);
         splitLine();
 
         // Statement对象参数配置
         StatementConfiguration.Builder builder = new StatementConfiguration.Builder();
         // query timeout seconds
         builder.queryTimeout(180);
+        if(stream || export || extract){
+            // 流式游标: 只读、只向前, MySQL逐行读取, Oracle/DB2按批读取, 客户端内存不随结果集增长
+            builder.streaming(Dialect.of(dbType));
+        }
+        FetchSizeAdvisor fetchSizeAdvisor = null;
+        if(fetchSize != null){
+            if(dbType.equalsIgnoreCase("mysql") && !url.contains("useCursorFetch=true")){
+                // Connector/J不开启useCursorFetch时忽略fetchSize
+                System.err.println("warning: ---fetch-size needs useCursorFetch=true in the mysql url, ignored!");
+            }else if(fetchSize.equals("auto")){
+                // 自适应: 首次按列显示宽度估算, 读取时按实际行大小与每次fetch耗时调整
+                fetchSizeAdvisor = new FetchSizeAdvisor();
+                builder.adaptiveFetchSize(fetchSizeAdvisor);
+                if(dbType.equalsIgnoreCase("mysql")){
+                    // 替换流式预设的Integer.MIN_VALUE, 改用服务端游标
+                    builder.fetchSize(StatementConfiguration.STREAMING_FETCH_SIZE);
+                }
+            }else{
+                builder.fetchSize(Integer.parseInt(fetchSize));
+            }
+        }
 
         // 创建执行器
         QueryRunner queryRunner = new QueryRunner(builder.build());
 
-        // 结果集解析
-        ResultSetHandler<TableListing> handler = new ResultSetHandler<TableListing>() {
-            @Override
-            public TableListing handle(ResultSet rs) throws SQLException {
-                RowSetFactory factory;
-                // 离线结果集(避免结果集检索过程中连接断开后数据中断)
-                CachedRowSet cachedRowSet = null;
-                try{
-                    factory = RowSetProvider.newFactory();
-                    if(factory != null){
-                        cachedRowSet = factory.createCachedRowSet();
-                        cachedRowSet.populate(rs);
-                    }
-                }catch (SQLException se){
-                    // ignore
-                }
-
-                if(cachedRowSet != null){
-                    // 离线ResultSet转TableListing
-                    return toTableListing(cachedRowSet);
-                }else{
-                    // 在线ResultSet转TableListing
-                    return toTableListing(rs);
-                }
-            }
-        };
-
         long queryStartTs = System.currentTimeMillis();
 
         switch (operation){
             case "select":
-            case "insert":
-                try{
-                    // 执行查询
-                    TableListing queryResultListing;
-                    if(operation.equalsIgnoreCase("select")){
-                        queryResultListing = queryRunner.query(connection,sql,handler);
-                    }else{
-                        queryResultListing = queryRunner.insert(connection,sql,handler);
+                if(stream || export){
+                    try{
+                        // 流式查询: 边读边写出, 不缓存结果集
+                        if(isBinaryFormat(format)){
+                            writeBinary(queryRunner, connection, sql, format, output, compress, queryStartTs);
+                        }else{
+                            exportRows(queryRunner, connection, sql,
+                                    format == null ? ResultExporter.Format.TABLE : ResultExporter.Format.of(format),
+                                    output, queryStartTs);
+                        }
+                    }catch (SQLException | IOException se){
+                        se.printStackTrace();
+                    }finally {
+                        // 关闭数据库连接
+                        queryRunner.closeQuietly(connection);
                     }
-
-                    long queryMillis = System.currentTimeMillis() - queryStartTs;
-                    System.out.println("query runner millis:" + queryMillis);
-                    splitLine();
-
-                    // 结果控制台打印
-                    System.out.println(queryResultListing.toString());
-                }catch (SQLException se){
+                }else{
+                    printQuery(queryRunner, connection, sql, true, queryStartTs);
+                }
+                break;
+            case "insert":
+                printQuery(queryRunner, connection, sql, false, queryStartTs);
+                break;
+            case "extract":
+                try(PooledDataSource dataSource = new PooledDataSource(url, user, password, partitions)){
+                    PartitionedExtractor extractor = new PartitionedExtractor.Builder()
+                            .runner(queryRunner)
+                            .dataSource(dataSource)
+                            .table(table)
+                            .splitColumn(splitColumn)
+                            .filter(where)
+                            .partitions(partitions)
+                            .parallelism(partitions)
+                            .ordered(ordered)
+                            .build();
+                    extractRows(extractor,
+                            format == null ? ResultExporter.Format.TABLE : ResultExporter.Format.of(format),
+                            output, queryStartTs);
+                }catch (SQLException | IOException se){
                     se.printStackTrace();
-                }finally {
-                    // 关闭数据库连接
-                    queryRunner.closeQuietly(connection);
                 }
                 break;
             case "delete":
@@ -281,41 +492,220 @@ public class MiniDBQuery {
                 break;
         }
 
+        if(fetchSizeAdvisor != null && sql != null){
+            splitLine();
+            System.out.println("db adaptive fetch size learned:" + fetchSizeAdvisor.getFetchSize(sql));
+        }
+
         splitLine();
         System.out.println(String.format("application total millis:%s",(System.currentTimeMillis() - globalStartTs)));
         splitLine();
     }
 
     /**
-     * ResultSet to TableListing.
-     * @param rs ResultSet.
+     * 非流式select与insert: 结果集一次性读入列式离线结果(连接关闭后仍可使用), 再打印到控制台
+     * @param queryRunner 执行器
+     * @param connection 数据库连接, 执行后关闭
+     * @param sql 待执行sql
+     * @param select true执行查询, false执行insert并打印生成的主键
+     * @param queryStartTs 开始执行时间戳
+     */
+    private static void printQuery(QueryRunner queryRunner, Connection connection, String sql,
+                                   boolean select, long queryStartTs){
+        try{
+            DetachedResult queryResult;
+            if(select){
+                queryResult = queryRunner.query(connection,sql,DetachedResult.handler());
+            }else{
+                queryResult = queryRunner.insert(connection,sql,DetachedResult.handler());
+            }
+
+            long queryMillis = System.currentTimeMillis() - queryStartTs;
+            System.out.println(String.format("query runner millis:%s, rows:%s",
+                    queryMillis, queryResult.getRowCount()));
+            splitLine();
+
+            // 结果控制台打印
+            printResult(queryResult);
+        }catch (SQLException | IOException se){
+            se.printStackTrace();
+        }finally {
+            // 关闭数据库连接
+            queryRunner.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Write the rows of a query while they are read from the cursor, to the
+     * console or to a file, and print the row and byte rates at the end.
+     * A table takes its column widths from the header and the first rows.
+     * @param output the file to write, gzip compressed if it ends with .gz; null for the console.
      * */
-    private static TableListing toTableListing(final ResultSet rs) throws SQLException {
-        final ResultSetMetaData rsmd = rs.getMetaData();
-        final int cols = rsmd.getColumnCount();
+    private static void exportRows(QueryRunner queryRunner, Connection connection, String sql,
+                                   ResultExporter.Format format, String output, long queryStartTs)
+            throws SQLException, IOException {
+        CountingOutputStream counter = openOutput(output);
+        long rows;
+        try(Writer out = newWriter(counter, output)){
+            rows = queryRunner.query(connection, sql, new ResultExporter(format, out));
+        }
 
-        TableListing.Builder builder = new TableListing.Builder();
+        long millis = Math.max(1, System.currentTimeMillis() - queryStartTs);
+        splitLine();
+        System.out.println(String.format("query runner millis:%s, rows:%s, bytes:%s, rows/sec:%.1f, bytes/sec:%.1f",
+                millis, rows, counter.getCount(), rows * 1000.0 / millis, counter.getCount() * 1000.0 / millis));
+    }
 
-        for (int i = 1; i <= cols; i++) {
-            String columnName = rsmd.getColumnLabel(i);
-            if (null == columnName || 0 == columnName.length()) {
-                columnName = rsmd.getColumnName(i);
-            }
-            builder.addField(columnName);
+    /**
+     * Extract a table over several connections, writing the rows of all
+     * partitions to one output as they are read, and print the timings of
+     * every partition and the row and byte rates at the end.
+     * @param output the file to write, gzip compressed if it ends with .gz; null for the console.
+     * */
+    private static void extractRows(PartitionedExtractor extractor, ResultExporter.Format format, String output,
+                                    long queryStartTs) throws SQLException, IOException {
+        CountingOutputStream counter = openOutput(output);
+        PartitionedExtractor.Result result;
+        try(Writer out = newWriter(counter, output)){
+            ResultExporter exporter = new ResultExporter(format, out);
+            result = extractor.extract(exporter);
+            exporter.finish();
+        }
+
+        long millis = Math.max(1, System.currentTimeMillis() - queryStartTs);
+        splitLine();
+        for (PartitionedExtractor.Partition partition : result.getPartitions()) {
+            System.out.println(partition);
+        }
+        System.out.println(String.format("extract millis:%s, rows:%s, bytes:%s, rows/sec:%.1f, bytes/sec:%.1f",
+                millis, result.getRows(), counter.getCount(), result.getRows() * 1000.0 / millis,
+                counter.getCount() * 1000.0 / millis));
+    }
+
+    /**
+     * 打开导出目标: 控制台或文件, 并统计写出字节数.
+     * */
+    private static CountingOutputStream openOutput(String output) throws IOException {
+        OutputStream target;
+        if(output == null){
+            // 控制台输出不关闭System.out
+            target = new FilterOutputStream(System.out){
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }else{
+            target = Channels.newOutputStream(FileChannel.open(Paths.get(output),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
         }
+        return new CountingOutputStream(target);
+    }
 
-        TableListing tableListing = builder.build();
+    /**
+     * 在导出目标上创建UTF-8缓冲写出器, 文件名以.gz结尾时gzip压缩.
+     * */
+    private static Writer newWriter(CountingOutputStream counter, String output) throws IOException {
+        OutputStream stream = counter;
+        if(output != null && output.toLowerCase().endsWith(".gz")){
+            stream = new GZIPOutputStream(counter, 64 * 1024);
+        }
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+    }
 
-        while(rs.next()){
-            String[] values = new String[cols];
-            for(int i = 1; i <= cols; i++){
-                String columnValue = rs.getString(i);
-                values[i-1] = columnValue;
+    /**
+     * Write the rows of a query to a binary file while they are read, as a
+     * columnar snapshot or as Arrow record batches, and print the row and
+     * byte rates at the end.
+     * */
+    private static void writeBinary(QueryRunner queryRunner, Connection connection, String sql, String format,
+                                    String output, boolean compress, long queryStartTs)
+            throws SQLException, IOException {
+        long rows;
+        long bytes;
+        try(FileChannel channel = FileChannel.open(Paths.get(output),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            if(BIN_FORMAT.equals(format)){
+                rows = queryRunner.query(connection, sql, ResultSnapshot.writer(channel,
+                        ResultSnapshot.DEFAULT_BLOCK_ROWS,
+                        compress ? ResultSnapshot.Compression.DEFLATE : ResultSnapshot.Compression.NONE));
+            }else{
+                // 向量在堆外分配, 每批复用
+                try(BufferAllocator allocator = new RootAllocator()){
+                    rows = queryRunner.query(connection, sql, new ArrowResultSetHandler(allocator, channel,
+                            ARROW_FORMAT.equals(format) ? ArrowResultSetHandler.Format.FILE
+                                    : ArrowResultSetHandler.Format.STREAM,
+                            ArrowResultSetHandler.DEFAULT_BATCH_SIZE));
+                }
             }
-            tableListing.addRow(values);
+            bytes = channel.size();
         }
 
-        return tableListing;
+        long millis = Math.max(1, System.currentTimeMillis() - queryStartTs);
+        splitLine();
+        System.out.println(String.format("query runner millis:%s, rows:%s, bytes:%s, rows/sec:%.1f, bytes/sec:%.1f",
+                millis, rows, bytes, rows * 1000.0 / millis, bytes * 1000.0 / millis));
+    }
+
+    /**
+     * Print a binary columnar snapshot file as a table.
+     * */
+    private static void readSnapshot(String file){
+        System.out.println("db snapshot file is:" + file);
+        splitLine();
+        long startTs = System.currentTimeMillis();
+        try(ResultSnapshot snapshot = ResultSnapshot.open(Paths.get(file))){
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+            long rows = snapshot.render(out);
+            splitLine();
+            System.out.println(String.format("snapshot read millis:%s, rows:%s, blocks:%s",
+                    (System.currentTimeMillis() - startTs), rows, snapshot.getBlockCount()));
+        }catch (IOException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+        splitLine();
+    }
+
+    /**
+     * Print a detached result as a table, without building the whole text in memory.
+     * */
+    private static void printResult(DetachedResult result) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+        result.render(out);
+        out.flush();
+    }
+
+    /**
+     * 统计写出字节数(压缩后)的输出流.
+     * */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
     }
 
     private static void splitLine(){
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A simple single-row {@code INSERT ... VALUES (...)} statement that can be
+ * repeated into one multi-row statement, so a batch of rows costs one round
+ * trip on drivers that otherwise send one per batched row.  Instances are
+ * made per batch call and are not thread safe.
+ */
+final class MultiRowInsert {
+
+    private static final Pattern SINGLE_ROW_INSERT = Pattern.compile(
+            "^\\s*INSERT\\s+(IGNORE\\s+)?INTO\\s+([^\\s(]+(?:\\s*\\([^()]*\\))?)\\s*VALUES\\s*(\\(.*\\))\\s*;?\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * Values Oracle computes once per statement, not once per row, in an
+     * {@code INSERT ALL}.
+     */
+    private static final Pattern PER_STATEMENT_VALUE = Pattern.compile(
+            "\\.\\s*NEXTVAL\\b|\\bSYS_GUID\\s*\\(", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+
+    private final Dialect dialect;
+    private final String insertInto;
+    private final String target;
+    private final String tuple;
+    private final int parametersPerRow;
+
+    /**
+     * The statement for a full group, which is the one asked for most.
+     */
+    private String lastSql;
+    private int lastRows;
+
+    private MultiRowInsert(final Dialect dialect, final boolean ignore, final String target, final String tuple,
+                           final int parametersPerRow) {
+        this.dialect = dialect;
+        this.insertInto = ignore ? "INSERT IGNORE INTO " : "INSERT INTO ";
+        this.target = target;
+        this.tuple = tuple;
+        this.parametersPerRow = parametersPerRow;
+    }
+
+    /**
+     * Check whether a statement can be rewritten for a dialect.
+     *
+     * @param sql The batch SQL.
+     * @param dialect The target database.
+     * @param generatedKeys Whether the caller needs generated keys back.
+     * @return The parsed statement, or {@code null} if it is not a simple
+     * single-row insert or the dialect can't run it as a multi-row insert,
+     * such as an Oracle insert taking {@code seq.NEXTVAL} or {@code SYS_GUID()}.
+     */
+    static MultiRowInsert parse(final String sql, final Dialect dialect, final boolean generatedKeys) {
+        final Matcher m = SINGLE_ROW_INSERT.matcher(sql);
+        if (!m.matches()) {
+            return null;
+        }
+        final boolean ignore = m.group(1) != null;
+        if (dialect == Dialect.ORACLE && (ignore || generatedKeys)) {
+            // INSERT ALL returns no keys
+            return null;
+        }
+        if (dialect == Dialect.DB2 && ignore) {
+            return null;
+        }
+        final String tuple = m.group(3);
+        if (dialect == Dialect.ORACLE && PER_STATEMENT_VALUE.matcher(
+                STRING_LITERAL.matcher(tuple).replaceAll("''")).find()) {
+            // every row would get the same sequence value or guid
+            return null;
+        }
+        final int params = countTupleParameters(tuple);
+        if (params <= 0) {
+            return null;
+        }
+        return new MultiRowInsert(dialect, ignore, m.group(2).trim(), tuple, params);
+    }
+
+    /**
+     * Count the parameter markers of a tuple, or return -1 unless the whole
+     * string is exactly one parenthesized tuple.
+     */
+    private static int countTupleParameters(final String tuple) {
+        int depth = 0;
+        int params = 0;
+        char quote = 0;
+        for (int i = 0; i < tuple.length(); i++) {
+            final char c = tuple.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            switch (c) {
+                case '\'':
+                case '"':
+                case '`':
+                    quote = c;
+                    break;
+                case '(':
+                    depth++;
+                    break;
+                case ')':
+                    depth--;
+                    if (depth == 0 && i != tuple.length() - 1) {
+                        // "(?, ?), (?, ?)" is already multi-row
+                        return -1;
+                    }
+                    break;
+                case '?':
+                    params++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return depth == 0 && quote == 0 ? params : -1;
+    }
+
+    int getParametersPerRow() {
+        return parametersPerRow;
+    }
+
+    /**
+     * Build the statement inserting {@code rows} rows.
+     */
+    String toSql(final int rows) {
+        if (rows == lastRows) {
+            return lastSql;
+        }
+        final StringBuilder sb = new StringBuilder(32 + target.length() + rows * (tuple.length() + target.length()));
+        if (dialect == Dialect.ORACLE) {
+            sb.append("INSERT ALL");
+            for (int i = 0; i < rows; i++) {
+                sb.append(" INTO ").append(target).append(" VALUES ").append(tuple);
+            }
+            sb.append(" SELECT 1 FROM DUAL");
+        } else {
+            sb.append(insertInto).append(target).append(" VALUES ");
+            for (int i = 0; i < rows; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(tuple);
+            }
+        }
+        final String sql = sb.toString();
+        lastSql = sql;
+        lastRows = rows;
+        return sql;
+    }
+
+    /**
+     * Estimate how many bytes a row adds to the statement: its tuple text,
+     * plus its values where the driver inlines them.
+     */
+    long estimateRowBytes(final Object[] row) {
+        long bytes = tuple.length() + 1;
+        if (dialect == Dialect.ORACLE) {
+            bytes += target.length() + 14;
+        }
+        if (dialect != Dialect.MYSQL) {
+            return bytes;
+        }
+        for (final Object value : row) {
+            if (value == null) {
+                bytes += 4;
+            } else if (value instanceof CharSequence) {
+                // utf8 worst case plus quotes and escapes
+                bytes += ((CharSequence) value).length() * 3L + 2;
+            } else if (value instanceof byte[]) {
+                // sent as a hex literal
+                bytes += ((byte[]) value).length * 2L + 3;
+            } else {
+                bytes += 32;
+            }
+        }
+        return bytes;
+    }
+}
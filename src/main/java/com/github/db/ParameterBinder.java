@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Binds a non-null parameter value with the typed setter for its class,
+ * so the driver doesn't have to dispatch on the type inside
+ * {@code setObject}.  Values of other classes are bound with
+ * {@code setObject} as before.
+ */
+enum ParameterBinder {
+
+    INT(Integer.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setInt(index, (Integer) value);
+        }
+    },
+
+    LONG(Long.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setLong(index, (Long) value);
+        }
+    },
+
+    SHORT(Short.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setShort(index, (Short) value);
+        }
+    },
+
+    BYTE(Byte.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setByte(index, (Byte) value);
+        }
+    },
+
+    DOUBLE(Double.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setDouble(index, (Double) value);
+        }
+    },
+
+    FLOAT(Float.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setFloat(index, (Float) value);
+        }
+    },
+
+    BOOLEAN(Boolean.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setBoolean(index, (Boolean) value);
+        }
+    },
+
+    STRING(String.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setString(index, (String) value);
+        }
+    },
+
+    BIG_DECIMAL(BigDecimal.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setBigDecimal(index, (BigDecimal) value);
+        }
+    },
+
+    TIMESTAMP(Timestamp.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setTimestamp(index, (Timestamp) value);
+        }
+    },
+
+    DATE(Date.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setDate(index, (Date) value);
+        }
+    },
+
+    TIME(Time.class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setTime(index, (Time) value);
+        }
+    },
+
+    BYTES(byte[].class) {
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setBytes(index, (byte[]) value);
+        }
+    },
+
+    OBJECT(null) {
+        @Override
+        boolean accepts(final Object value) {
+            return true;
+        }
+
+        @Override
+        void bind(final PreparedStatement stmt, final int index, final Object value) throws SQLException {
+            stmt.setObject(index, value);
+        }
+    };
+
+    private static final ParameterBinder[] TYPED = {
+        STRING, INT, LONG, BIG_DECIMAL, TIMESTAMP, DOUBLE, DATE, BOOLEAN, BYTES, SHORT, BYTE, FLOAT, TIME
+    };
+
+    private final Class<?> type;
+
+    ParameterBinder(final Class<?> type) {
+        this.type = type;
+    }
+
+    /**
+     * Find the binder for a value.
+     *
+     * @param value A non-null parameter value.
+     * @return The binder for the value's exact class, or {@link #OBJECT}.
+     */
+    static ParameterBinder forValue(final Object value) {
+        final Class<?> c = value.getClass();
+        for (final ParameterBinder binder : TYPED) {
+            if (binder.type == c) {
+                return binder;
+            }
+        }
+        return OBJECT;
+    }
+
+    /**
+     * Check whether a value planned for this binder still fits it.  Plans
+     * are a guess from earlier calls with the same SQL and must be checked
+     * on every value.
+     *
+     * @param value A non-null parameter value.
+     * @return True if {@link #bind} can take the value.
+     */
+    boolean accepts(final Object value) {
+        return value.getClass() == type;
+    }
+
+    /**
+     * Bind a non-null value.
+     *
+     * @param stmt The statement to fill.
+     * @param index The 1-based parameter index.
+     * @param value The value, of this binder's class.
+     * @throws SQLException if a database access error occurs
+     */
+    abstract void bind(PreparedStatement stmt, int index, Object value) throws SQLException;
+
+    /**
+     * Looks up the SQL type for binding a {@code null}.
+     */
+    interface NullTypes {
+        /**
+         * @param index The 1-based parameter index.
+         * @return The SQL type to pass to {@code setNull}.
+         */
+        int sqlType(int index);
+    }
+}
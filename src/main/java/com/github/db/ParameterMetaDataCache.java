@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers what {@link ParameterMetaData} said about each SQL string, so
+ * that {@link AbstractQueryRunner#fillStatement(String, PreparedStatement, Object...)}
+ * only asks the driver once per SQL, and which drivers don't support
+ * {@code ParameterMetaData} at all.  This class is thread safe.
+ */
+final class ParameterMetaDataCache {
+
+    /**
+     * Marks a parameter whose SQL type has not been asked for yet.
+     */
+    static final int UNKNOWN_TYPE = Integer.MIN_VALUE;
+
+    static final int DEFAULT_MAX_SIZE = 1024;
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Statement implementation classes, one per driver, whose
+     * {@code ParameterMetaData} is known not to work.
+     */
+    private final ConcurrentHashMap<Class<?>, Boolean> brokenDrivers = new ConcurrentHashMap<>();
+
+    ParameterMetaDataCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Look up the metadata for a statement, asking the driver on a miss.
+     *
+     * @param sql The SQL the statement was prepared with, or {@code null}
+     *            if unknown, in which case nothing is cached.
+     * @param stmt The statement being filled.
+     * @return The metadata, or {@code null} if the driver does not provide it.
+     * @throws SQLException if a database access error occurs
+     */
+    Entry lookup(final String sql, final PreparedStatement stmt) throws SQLException {
+        if (isBroken(stmt)) {
+            return null;
+        }
+        if (sql != null) {
+            final Entry cached = entries.get(sql);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final int parameterCount;
+        try {
+            final ParameterMetaData pmd = stmt.getParameterMetaData();
+            if (pmd == null) { // can be returned by implementations that don't support the method
+                markBroken(stmt);
+                return null;
+            }
+            parameterCount = pmd.getParameterCount();
+        } catch (final SQLFeatureNotSupportedException ex) {
+            markBroken(stmt);
+            return null;
+        }
+        // TODO see DBUTILS-117: would it make sense to catch any other SQLEx types here?
+
+        final Entry entry = new Entry(parameterCount);
+        if (sql != null) {
+            if (entries.size() >= maxSize) {
+                final Iterator<String> it = entries.keySet().iterator();
+                if (it.hasNext()) {
+                    it.next();
+                    it.remove();
+                }
+            }
+            entries.put(sql, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Get the SQL type of a parameter, asking the driver the first time.
+     *
+     * @return The SQL type, or {@code fallback} if the driver can't tell.
+     */
+    int parameterType(final Entry entry, final PreparedStatement stmt, final int index, final int fallback) {
+        int sqlType = entry.types[index];
+        if (sqlType != UNKNOWN_TYPE) {
+            return sqlType;
+        }
+        if (isBroken(stmt)) {
+            return fallback;
+        }
+        // TODO see DBUTILS-117: does it make sense to catch SQLEx here?
+        try {
+            final ParameterMetaData pmd = stmt.getParameterMetaData();
+            if (pmd == null) { // can be returned by implementations that don't support the method
+                markBroken(stmt);
+                return fallback;
+            }
+            sqlType = pmd.getParameterType(index + 1);
+        } catch (final SQLException e) {
+            markBroken(stmt);
+            return fallback;
+        }
+        entry.types[index] = sqlType;
+        return sqlType;
+    }
+
+    boolean isBroken(final PreparedStatement stmt) {
+        return brokenDrivers.containsKey(stmt.getClass());
+    }
+
+    void markBroken(final PreparedStatement stmt) {
+        brokenDrivers.put(stmt.getClass(), Boolean.TRUE);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Parameter count, lazily filled parameter types and the binder plan
+     * for one SQL string.  Concurrent fills of {@code types} write the same
+     * value, so plain int stores are enough; the plan is only a guess that
+     * is checked against every value, so racing writes to it are harmless.
+     */
+    static final class Entry {
+        private final int parameterCount;
+        private final int[] types;
+        private final ParameterBinder[] plan;
+
+        Entry(final int parameterCount) {
+            this.parameterCount = parameterCount;
+            this.types = new int[parameterCount];
+            this.plan = new ParameterBinder[parameterCount];
+            for (int i = 0; i < parameterCount; i++) {
+                types[i] = UNKNOWN_TYPE;
+            }
+        }
+
+        int getParameterCount() {
+            return parameterCount;
+        }
+
+        /**
+         * Get the binder for a parameter, reusing the one the last value
+         * at this position needed when it fits.
+         *
+         * @param index The 0-based parameter index.
+         * @param value A non-null parameter value.
+         * @return The binder for the value.
+         */
+        ParameterBinder binder(final int index, final Object value) {
+            final ParameterBinder planned = plan[index];
+            if (planned != null && planned.accepts(value)) {
+                return planned;
+            }
+            final ParameterBinder binder = ParameterBinder.forValue(value);
+            plan[index] = binder;
+            return binder;
+        }
+    }
+}
@@ -0,0 +1,1155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+/**
+ * Extracts a table over several connections at once by splitting it into
+ * ranges of a numeric or date/time column.
+ * <p>
+ * Unless the bounds are given, the range is found with
+ * {@code SELECT MIN(col), MAX(col)}.  It is cut into {@code partitions}
+ * equal ranges, plus one partition for rows where the column is
+ * {@code NULL}, and each range is read with its own query through
+ * {@link QueryRunner#query(Connection, String, ResultSetHandler, Object...)}
+ * on a connection from the {@code DataSource}, by up to
+ * {@code parallelism} threads, so the runner's
+ * {@code StatementConfiguration} applies.  Each query holds a permit of the
+ * {@link QueryExecutors#permits(DataSource) semaphore} of the
+ * {@code DataSource}, if it has one, while it holds its connection.
+ * <p>
+ * All rows go to one {@link RowHandler}, one call at a time.  Unordered,
+ * the partitions' rows are interleaved as they arrive, and the handler
+ * may be called from any of the worker threads.  Ordered, each query
+ * sorts by the split column and the workers still read their partitions
+ * at once, each into a buffer of up to {@code bufferRows} rows; the thread
+ * calling {@link #extract(RowHandler)} hands the buffered rows over in
+ * range order, with the {@code NULL} partition last.  A worker whose
+ * buffer is full waits for its partition's turn, so a cursor sits idle
+ * at most while the partitions before it are handed over; size the
+ * buffers to keep that short (MySQL drops idle streaming cursors after
+ * {@code net_write_timeout}).  A buffered row is read with
+ * {@code getObject} and {@code getString}, and handed over as a read-only
+ * {@code ResultSet} answering the getters from those values.
+ * <p>
+ * The table, column and filter are put into the SQL as given.
+ *
+ * @see Builder
+ */
+public class PartitionedExtractor {
+
+    /**
+     * The time and row count of one partition.
+     */
+    public static final class Partition {
+        private final int index;
+        private final String predicate;
+        private final long rows;
+        private final long firstRowMillis;
+        private final long elapsedMillis;
+
+        Partition(final int index, final String predicate, final long rows, final long firstRowMillis,
+                  final long elapsedMillis) {
+            this.index = index;
+            this.predicate = predicate;
+            this.rows = rows;
+            this.firstRowMillis = firstRowMillis;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return The zero-based index of the partition, in range order.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return The partition's range, as SQL with the bounds filled in.
+         */
+        public String getPredicate() {
+            return predicate;
+        }
+
+        /**
+         * @return The number of rows read.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return The time from starting the query to its first row, or
+         * to its end if it had none.
+         */
+        public long getFirstRowMillis() {
+            return firstRowMillis;
+        }
+
+        /**
+         * @return The time from starting the query to its last row.
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("partition %d [%s]: %d rows, first row %d ms, %d ms",
+                    index, predicate, rows, firstRowMillis, elapsedMillis);
+        }
+    }
+
+    /**
+     * The outcome of a completed extraction.
+     */
+    public static final class Result {
+        private final long rows;
+        private final List<Partition> partitions;
+        private final long elapsedMillis;
+
+        Result(final long rows, final List<Partition> partitions, final long elapsedMillis) {
+            this.rows = rows;
+            this.partitions = partitions;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return The number of rows extracted.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return The partitions in range order.
+         */
+        public List<Partition> getPartitions() {
+            return partitions;
+        }
+
+        /**
+         * @return The wall-clock duration of the extraction.
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return The average extraction rate.
+         */
+        public double getRowsPerSecond() {
+            return elapsedMillis <= 0 ? rows : rows * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows in %d partitions, %d ms, %.1f rows/sec",
+                    rows, partitions.size(), elapsedMillis, getRowsPerSecond());
+        }
+    }
+
+    private final QueryRunner runner;
+    private final DataSource ds;
+    private final String table;
+    private final String columns;
+    private final String splitColumn;
+    private final String filter;
+    private final int partitions;
+    private final int parallelism;
+    private final boolean ordered;
+    private final int bufferRows;
+    private final Object lowerBound;
+    private final Object upperBound;
+
+    private PartitionedExtractor(final Builder builder) {
+        this.runner = builder.runner;
+        this.ds = builder.ds;
+        this.table = builder.table;
+        this.columns = builder.columns;
+        this.splitColumn = builder.splitColumn;
+        this.filter = builder.filter;
+        this.partitions = builder.partitions;
+        this.parallelism = builder.parallelism;
+        this.ordered = builder.ordered;
+        this.bufferRows = builder.bufferRows;
+        this.lowerBound = builder.lowerBound;
+        this.upperBound = builder.upperBound;
+    }
+
+    /**
+     * Extract every row, passing each to the handler.  Returns once all
+     * partitions are read, or throws once one has failed and the workers
+     * have stopped.
+     *
+     * @param handler Receives the rows, one call at a time.
+     * @return The totals of the extraction.
+     * @throws SQLException if the range can't be found or a partition fails
+     */
+    public Result extract(final RowHandler handler) throws SQLException {
+        final long startMillis = System.currentTimeMillis();
+        final List<Object[]> ranges = ranges();
+        final Run run = new Run(handler, ranges.size(), ordered ? bufferRows : 0);
+        final AtomicInteger next = new AtomicInteger();
+        final int threads = Math.min(parallelism, ranges.size());
+        final ExecutorService workers = QueryExecutors.newExecutor("partitioned-extractor", threads);
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                // a permit is taken before a partition, so partitions get their permits, and are read, in
+                // range order: the one handed over next never waits behind one waiting for its turn
+                workers.execute(() -> {
+                    while (!run.isFailed()) {
+                        final Semaphore permits;
+                        try {
+                            permits = acquire();
+                        } catch (final SQLException e) {
+                            run.fail(e);
+                            return;
+                        }
+                        final int index = next.getAndIncrement();
+                        if (index >= ranges.size()) {
+                            release(permits);
+                            return;
+                        }
+                        read(index, ranges.get(index), run, permits);
+                    }
+                });
+            }
+            workers.shutdown();
+            if (ordered) {
+                run.emit();
+            }
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting; workers stop on their own once the partitions are read
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.fail(new SQLException("Interrupted while extracting", e));
+        } finally {
+            workers.shutdownNow();
+        }
+
+        return run.finish(startMillis);
+    }
+
+    /**
+     * Build each partition's predicate and parameters: a {@code String}
+     * followed by the bounds.
+     */
+    private List<Object[]> ranges() throws SQLException {
+        Object lower = lowerBound;
+        Object upper = upperBound;
+        if (lower == null || upper == null) {
+            final String sql = "SELECT MIN(" + splitColumn + "), MAX(" + splitColumn + ") FROM " + table
+                    + (filter == null ? "" : " WHERE " + filter);
+            final Object[] minMax;
+            final Semaphore permits = acquire();
+            try {
+                final Connection conn = ds.getConnection();
+                try {
+                    minMax = runner.query(conn, sql, rs -> rs.next()
+                            ? new Object[] {rs.getObject(1), rs.getObject(2)} : new Object[2]);
+                } finally {
+                    runner.closeQuietly(conn);
+                }
+            } finally {
+                release(permits);
+            }
+            lower = lower == null ? minMax[0] : lower;
+            upper = upper == null ? minMax[1] : upper;
+        }
+
+        final List<Object[]> ranges = new ArrayList<>(partitions + 1);
+        if (lower != null && upper != null) {
+            final Object[] bounds = bounds(lower, upper, partitions);
+            final int last = bounds.length - 2;
+            for (int i = 0; i <= last; i++) {
+                ranges.add(new Object[] {
+                    splitColumn + " >= ? AND " + splitColumn + (i == last ? " <= ?" : " < ?"),
+                    bounds[i], bounds[i + 1]});
+            }
+        }
+        ranges.add(new Object[] {splitColumn + " IS NULL"});
+        return ranges;
+    }
+
+    /**
+     * Cut {@code [lower, upper]} into at most {@code n} ranges of about the
+     * same width.  Integers are cut at integers, so a narrow range gives
+     * fewer partitions.
+     *
+     * @return The bounds, from {@code lower} to {@code upper}.
+     */
+    static Object[] bounds(final Object lower, final Object upper, final int n) throws SQLException {
+        final Kind kind = Kind.of(lower, upper);
+        final BigDecimal min = kind.toDecimal(lower);
+        final BigDecimal max = kind.toDecimal(upper);
+        if (min.compareTo(max) > 0) {
+            throw new SQLException("Split lower bound " + lower + " is above the upper bound " + upper);
+        }
+        final BigDecimal width = max.subtract(min);
+        final List<Object> bounds = new ArrayList<>(n + 1);
+        bounds.add(lower);
+        BigDecimal previous = min;
+        for (int i = 1; i < n; i++) {
+            BigDecimal bound = min.add(width.multiply(BigDecimal.valueOf(i))
+                    .divide(BigDecimal.valueOf(n), 10, RoundingMode.FLOOR));
+            if (kind.isIntegral()) {
+                bound = bound.setScale(0, RoundingMode.FLOOR);
+            }
+            if (bound.compareTo(previous) > 0 && bound.compareTo(max) < 0) {
+                bounds.add(kind.fromDecimal(bound));
+                previous = bound;
+            }
+        }
+        bounds.add(upper);
+        return bounds.toArray();
+    }
+
+    /**
+     * The split column types, with how their bounds are converted to and
+     * from numbers.
+     */
+    private enum Kind {
+        INTEGRAL {
+            @Override
+            BigDecimal toDecimal(final Object value) {
+                return value instanceof BigDecimal ? (BigDecimal) value
+                        : value instanceof BigInteger ? new BigDecimal((BigInteger) value)
+                        : BigDecimal.valueOf(((Number) value).longValue());
+            }
+
+            @Override
+            Object fromDecimal(final BigDecimal value) {
+                return value.toBigInteger().bitLength() < 64 ? (Object) value.longValueExact() : value;
+            }
+        },
+
+        DECIMAL {
+            @Override
+            BigDecimal toDecimal(final Object value) {
+                return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+            }
+
+            @Override
+            Object fromDecimal(final BigDecimal value) {
+                return value;
+            }
+        },
+
+        TEMPORAL {
+            @Override
+            BigDecimal toDecimal(final Object value) {
+                final long millis;
+                if (value instanceof LocalDateTime) {
+                    millis = Timestamp.valueOf((LocalDateTime) value).getTime();
+                } else if (value instanceof LocalDate) {
+                    millis = java.sql.Date.valueOf((LocalDate) value).getTime();
+                } else {
+                    millis = ((java.util.Date) value).getTime();
+                }
+                return BigDecimal.valueOf(millis);
+            }
+
+            @Override
+            Object fromDecimal(final BigDecimal value) {
+                return new Timestamp(value.longValue());
+            }
+        };
+
+        abstract BigDecimal toDecimal(Object value);
+
+        abstract Object fromDecimal(BigDecimal value);
+
+        boolean isIntegral() {
+            return this != DECIMAL;
+        }
+
+        /**
+         * The kind of both bounds: an unscaled Oracle {@code NUMBER} may
+         * give {@code 1} and {@code 10.5}, split as decimals.
+         */
+        static Kind of(final Object lower, final Object upper) throws SQLException {
+            final Kind kind = of(lower);
+            final Kind other = of(upper);
+            if (kind == other) {
+                return kind;
+            }
+            if (kind != TEMPORAL && other != TEMPORAL) {
+                return DECIMAL;
+            }
+            throw new SQLException("Split bounds " + lower + " and " + upper + " are of different types");
+        }
+
+        static Kind of(final Object value) throws SQLException {
+            if (value instanceof Long || value instanceof Integer || value instanceof Short
+                    || value instanceof Byte || value instanceof BigInteger) {
+                return INTEGRAL;
+            }
+            if (value instanceof BigDecimal && ((BigDecimal) value).scale() <= 0) {
+                return INTEGRAL;
+            }
+            if (value instanceof Number) {
+                return DECIMAL;
+            }
+            if (value instanceof java.util.Date || value instanceof LocalDateTime || value instanceof LocalDate) {
+                return TEMPORAL;
+            }
+            throw new SQLException("Can't split on values of " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Read one partition, giving the permit taken for it back when done.
+     */
+    private void read(final int index, final Object[] range, final Run run, final Semaphore permits) {
+        final String predicate = (String) range[0];
+        final Object[] params = new Object[range.length - 1];
+        System.arraycopy(range, 1, params, 0, params.length);
+        final String sql = "SELECT " + columns + " FROM " + table + " WHERE "
+                + (filter == null ? "" : "(" + filter + ") AND ") + predicate
+                + (ordered ? " ORDER BY " + splitColumn : "");
+
+        final long start = System.currentTimeMillis();
+        final long[] firstRow = {-1};
+        Connection conn = null;
+        try {
+            conn = ds.getConnection();
+            final long rows = runner.query(conn, sql, rs -> {
+                final RowBuffer buffer = ordered ? run.buffer(index, rs.getMetaData()) : null;
+                long n = 0;
+                while (!run.isFailed() && rs.next()) {
+                    if (n == 0) {
+                        firstRow[0] = System.currentTimeMillis() - start;
+                    }
+                    if (buffer == null) {
+                        run.handle(rs);
+                    } else {
+                        buffer.add(rs);
+                        if (buffer.chunk.size() == RowBuffer.CHUNK_ROWS) {
+                            run.put(buffer);
+                        }
+                    }
+                    n++;
+                }
+                if (buffer != null) {
+                    run.put(buffer);
+                }
+                return n;
+            }, params);
+            final long elapsed = System.currentTimeMillis() - start;
+            run.complete(index, new Partition(index, describe(predicate, params), rows,
+                    firstRow[0] < 0 ? elapsed : firstRow[0], elapsed));
+        } catch (final SQLException e) {
+            run.fail(e);
+        } catch (final RuntimeException e) {
+            run.fail(new SQLException(e.getMessage(), e));
+        } finally {
+            if (conn != null) {
+                runner.closeQuietly(conn);
+            }
+            release(permits);
+        }
+    }
+
+    /**
+     * Take a permit for a query's connection.
+     *
+     * @return The semaphore to give it back to, or null if there is none.
+     */
+    private Semaphore acquire() throws SQLException {
+        final Semaphore permits = QueryExecutors.permits(ds);
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+        }
+        return permits;
+    }
+
+    private static void release(final Semaphore permits) {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    private static String describe(final String predicate, final Object[] params) {
+        final StringBuilder sb = new StringBuilder(predicate.length() + 32);
+        int param = 0;
+        for (int i = 0; i < predicate.length(); i++) {
+            final char c = predicate.charAt(i);
+            if (c == '?' && param < params.length) {
+                sb.append(params[param++]);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Shared state of one {@link #extract(RowHandler)} call.  Guarded by a
+     * lock rather than a monitor, so a virtual thread waiting to hand over
+     * a row doesn't pin its carrier thread.
+     */
+    private static final class Run {
+        private final RowHandler handler;
+        private final Partition[] completed;
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Ordered: the rows read ahead per partition, at most {@code bufferRows} each.
+         */
+        private final RowBuffer[] buffers;
+        private final int bufferRows;
+        private final Condition added = lock.newCondition();
+        private final Condition taken = lock.newCondition();
+        // guarded by lock
+        private long rows = 0;
+        private volatile SQLException failure;
+
+        Run(final RowHandler handler, final int partitions, final int bufferRows) {
+            this.handler = handler;
+            this.completed = new Partition[partitions];
+            this.buffers = new RowBuffer[partitions];
+            this.bufferRows = bufferRows;
+        }
+
+        void handle(final ResultSet rs) throws SQLException {
+            lock.lock();
+            try {
+                handler.handleRow(rs);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        RowBuffer buffer(final int index, final ResultSetMetaData metaData) throws SQLException {
+            final RowBuffer buffer = new RowBuffer(metaData);
+            lock.lock();
+            try {
+                buffers[index] = buffer;
+            } finally {
+                lock.unlock();
+            }
+            return buffer;
+        }
+
+        /**
+         * Move a reader's chunk into its partition's buffer, waiting while
+         * the buffer is full.
+         */
+        void put(final RowBuffer buffer) throws SQLException {
+            if (buffer.chunk.isEmpty()) {
+                return;
+            }
+            lock.lock();
+            try {
+                while (failure == null && !buffer.rows.isEmpty()
+                        && buffer.rows.size() + buffer.chunk.size() > bufferRows) {
+                    taken.await();
+                }
+                buffer.rows.addAll(buffer.chunk);
+                added.signal();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while buffering rows", e);
+            } finally {
+                lock.unlock();
+            }
+            buffer.chunk.clear();
+        }
+
+        /**
+         * Hand the buffered rows over in range order, on the calling thread.
+         */
+        void emit() {
+            final RowView view = new RowView();
+            final ResultSet rs = (ResultSet) Proxy.newProxyInstance(PartitionedExtractor.class.getClassLoader(),
+                    new Class<?>[] {ResultSet.class}, view);
+            final List<BufferedRow> batch = new ArrayList<>();
+            for (int index = 0; index < completed.length; index++) {
+                boolean last = false;
+                while (!last) {
+                    final RowBuffer buffer;
+                    lock.lock();
+                    try {
+                        while (failure == null && completed[index] == null
+                                && (buffers[index] == null || buffers[index].rows.isEmpty())) {
+                            added.await();
+                        }
+                        if (failure != null) {
+                            return;
+                        }
+                        buffer = buffers[index];
+                        if (buffer != null) {
+                            batch.addAll(buffer.rows);
+                            buffer.rows.clear();
+                            taken.signalAll();
+                        }
+                        last = completed[index] != null;
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        fail(new SQLException("Interrupted while extracting", e));
+                        return;
+                    } finally {
+                        lock.unlock();
+                    }
+                    try {
+                        for (final BufferedRow row : batch) {
+                            view.show(buffer, row);
+                            handler.handleRow(rs);
+                        }
+                    } catch (final SQLException e) {
+                        fail(e);
+                        return;
+                    } catch (final RuntimeException e) {
+                        fail(new SQLException(e.getMessage(), e));
+                        return;
+                    }
+                    batch.clear();
+                }
+            }
+        }
+
+        void complete(final int index, final Partition partition) {
+            lock.lock();
+            try {
+                completed[index] = partition;
+                rows += partition.getRows();
+                added.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void fail(final SQLException e) {
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = e;
+                } else if (failure != e) {
+                    failure.addSuppressed(e);
+                }
+                added.signalAll();
+                taken.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isFailed() {
+            return failure != null;
+        }
+
+        Result finish(final long startMillis) throws SQLException {
+            lock.lock();
+            try {
+                if (failure != null) {
+                    throw failure;
+                }
+                final List<Partition> partitions = new ArrayList<>(completed.length);
+                Collections.addAll(partitions, completed);
+                return new Result(rows, Collections.unmodifiableList(partitions),
+                        System.currentTimeMillis() - startMillis);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * One row read ahead: its values and the driver's text of them.
+     */
+    private static final class BufferedRow {
+        private final Object[] values;
+        private final String[] texts;
+
+        BufferedRow(final Object[] values, final String[] texts) {
+            this.values = values;
+            this.texts = texts;
+        }
+    }
+
+    /**
+     * The rows of one partition read ahead of its turn.
+     */
+    private static final class RowBuffer {
+        /**
+         * Rows a reader collects before taking the lock to hand them over.
+         */
+        static final int CHUNK_ROWS = 256;
+
+        private final ResultSetMetaData metaData;
+        private final int columns;
+        private Map<String, Integer> labels;
+        // guarded by the run's lock
+        private final ArrayDeque<BufferedRow> rows = new ArrayDeque<>();
+        // the reader's own
+        private final List<BufferedRow> chunk = new ArrayList<>(CHUNK_ROWS);
+
+        RowBuffer(final ResultSetMetaData metaData) throws SQLException {
+            this.columns = metaData.getColumnCount();
+            this.metaData = (ResultSetMetaData) Proxy.newProxyInstance(PartitionedExtractor.class.getClassLoader(),
+                    new Class<?>[] {ResultSetMetaData.class}, new MetaDataCopy(metaData, columns));
+        }
+
+        void add(final ResultSet rs) throws SQLException {
+            final Object[] values = new Object[columns];
+            final String[] texts = new String[columns];
+            for (int i = 0; i < columns; i++) {
+                Object value = rs.getObject(i + 1);
+                // LOB locators don't outlive the cursor position
+                if (value instanceof Clob) {
+                    value = ((Clob) value).getSubString(1, (int) ((Clob) value).length());
+                    texts[i] = (String) value;
+                } else if (value instanceof Blob) {
+                    value = ((Blob) value).getBytes(1, (int) ((Blob) value).length());
+                    texts[i] = rs.getString(i + 1);
+                } else {
+                    texts[i] = value == null ? null : rs.getString(i + 1);
+                }
+                values[i] = value;
+            }
+            chunk.add(new BufferedRow(values, texts));
+        }
+
+        /**
+         * @return The 0-based column with a label, as {@code findColumn} finds it.
+         */
+        int column(final String label) throws SQLException {
+            if (labels == null) {
+                labels = new HashMap<>();
+                for (int i = columns; i > 0; i--) {
+                    // the first of equal labels wins
+                    labels.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i - 1);
+                }
+            }
+            final Integer column = labels.get(label.toLowerCase(Locale.ROOT));
+            if (column == null) {
+                throw new SQLException("Column '" + label + "' not found");
+            }
+            return column;
+        }
+    }
+
+    /**
+     * The answers of a {@code ResultSetMetaData}, which drivers close with
+     * their cursor, for each column.
+     */
+    private static final class MetaDataCopy implements InvocationHandler {
+        private final int columns;
+        private final Map<String, Object[]> answers = new HashMap<>();
+
+        MetaDataCopy(final ResultSetMetaData metaData, final int columns) throws SQLException {
+            this.columns = columns;
+            for (final Method method : ResultSetMetaData.class.getMethods()) {
+                final Class<?>[] params = method.getParameterTypes();
+                if (params.length != 1 || params[0] != int.class) {
+                    continue;
+                }
+                final Object[] column = new Object[columns];
+                for (int i = 0; i < columns; i++) {
+                    try {
+                        column[i] = method.invoke(metaData, i + 1);
+                    } catch (final ReflectiveOperationException e) {
+                        // asked for again, it fails the same way
+                        column[i] = e.getCause() == null ? e : e.getCause();
+                    }
+                }
+                answers.put(method.getName(), column);
+            }
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "BufferedMetaData";
+                case "getColumnCount":
+                    return columns;
+                default:
+                    break;
+            }
+            final Object[] column = answers.get(method.getName());
+            if (column == null || args == null || args.length != 1) {
+                throw new SQLFeatureNotSupportedException("Buffered metadata doesn't support " + method.getName());
+            }
+            final int index = (Integer) args[0];
+            if (index < 1 || index > columns) {
+                throw new SQLException("Column index out of range: " + index);
+            }
+            final Object answer = column[index - 1];
+            if (answer instanceof Throwable) {
+                throw (Throwable) answer;
+            }
+            return answer;
+        }
+    }
+
+    /**
+     * The read-only {@code ResultSet} a buffered row is handed over as.
+     */
+    private static final class RowView implements InvocationHandler {
+        private RowBuffer buffer;
+        private BufferedRow row;
+        private boolean wasNull;
+
+        void show(final RowBuffer rowBuffer, final BufferedRow bufferedRow) {
+            this.buffer = rowBuffer;
+            this.row = bufferedRow;
+            this.wasNull = false;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "BufferedRow";
+                case "getMetaData":
+                    return buffer.metaData;
+                case "findColumn":
+                    return buffer.column((String) args[0]) + 1;
+                case "wasNull":
+                    return wasNull;
+                case "isClosed":
+                    return Boolean.FALSE;
+                default:
+                    break;
+            }
+            if (!name.startsWith("get") || args == null || args.length == 0
+                    || !(args[0] instanceof Integer || args[0] instanceof String)) {
+                throw new SQLFeatureNotSupportedException("A buffered row doesn't support " + name);
+            }
+            final int column = args[0] instanceof Integer ? (Integer) args[0] - 1 : buffer.column((String) args[0]);
+            if (column < 0 || column >= buffer.columns) {
+                throw new SQLException("Column index out of range: " + args[0]);
+            }
+            final Object value = row.values[column];
+            wasNull = value == null;
+            return get(name, method.getReturnType(), value, row.texts[column], args);
+        }
+
+        private static Object get(final String name, final Class<?> type, final Object value, final String text,
+                                  final Object[] args) throws SQLException {
+            switch (name) {
+                case "getString":
+                case "getNString":
+                    return text;
+                case "getObject":
+                    if (args.length == 2 && args[1] instanceof Class) {
+                        final Class<?> target = (Class<?>) args[1];
+                        if (value == null || target.isInstance(value)) {
+                            return value;
+                        }
+                        if (target == String.class) {
+                            return text;
+                        }
+                        throw new SQLFeatureNotSupportedException("A buffered row can't convert "
+                                + value.getClass().getName() + " to " + target.getName());
+                    }
+                    return value;
+                case "getBytes":
+                    if (value == null || value instanceof byte[]) {
+                        return value;
+                    }
+                    break;
+                case "getBoolean":
+                    if (value == null) {
+                        return Boolean.FALSE;
+                    }
+                    if (value instanceof Boolean) {
+                        return value;
+                    }
+                    if (value instanceof Number) {
+                        return ((Number) value).doubleValue() != 0;
+                    }
+                    return "true".equalsIgnoreCase(text.trim()) || "1".equals(text.trim());
+                case "getBigDecimal":
+                    return value == null ? null : decimal(value, text);
+                case "getTimestamp":
+                case "getDate":
+                case "getTime":
+                    return value == null ? null : temporal(type, value, text);
+                default:
+                    if (type.isPrimitive()) {
+                        return number(type, value, text);
+                    }
+                    break;
+            }
+            throw new SQLFeatureNotSupportedException("A buffered row doesn't support " + name);
+        }
+
+        private static BigDecimal decimal(final Object value, final String text) {
+            if (value instanceof BigDecimal) {
+                return (BigDecimal) value;
+            }
+            if (value instanceof Boolean) {
+                return (Boolean) value ? BigDecimal.ONE : BigDecimal.ZERO;
+            }
+            return new BigDecimal(value instanceof Number ? value.toString() : text.trim());
+        }
+
+        private static Object number(final Class<?> type, final Object value, final String text)
+                throws SQLException {
+            if (type == double.class || type == float.class) {
+                final double d = value == null ? 0 : value instanceof Number ? ((Number) value).doubleValue()
+                        : decimal(value, text).doubleValue();
+                return type == double.class ? (Object) d : (Object) (float) d;
+            }
+            final long l = value == null ? 0 : value instanceof Number && !(value instanceof BigDecimal)
+                    ? ((Number) value).longValue() : decimal(value, text).longValue();
+            if (type == long.class) {
+                return l;
+            }
+            if (type == int.class) {
+                return (int) l;
+            }
+            if (type == short.class) {
+                return (short) l;
+            }
+            if (type == byte.class) {
+                return (byte) l;
+            }
+            throw new SQLFeatureNotSupportedException("A buffered row can't return " + type.getName());
+        }
+
+        private static Object temporal(final Class<?> type, final Object value, final String text)
+                throws SQLException {
+            if (type.isInstance(value)) {
+                return value;
+            }
+            final Timestamp timestamp;
+            if (value instanceof java.util.Date) {
+                timestamp = new Timestamp(((java.util.Date) value).getTime());
+            } else if (value instanceof LocalDateTime) {
+                timestamp = Timestamp.valueOf((LocalDateTime) value);
+            } else if (value instanceof LocalDate) {
+                timestamp = Timestamp.valueOf(((LocalDate) value).atStartOfDay());
+            } else if (value instanceof LocalTime) {
+                timestamp = Timestamp.valueOf(((LocalTime) value).atDate(LocalDate.of(1970, 1, 1)));
+            } else {
+                throw new SQLFeatureNotSupportedException("A buffered row can't convert "
+                        + value.getClass().getName() + " to " + type.getName());
+            }
+            if (type == Timestamp.class) {
+                return timestamp;
+            }
+            if (type == java.sql.Date.class) {
+                return new java.sql.Date(timestamp.getTime());
+            }
+            return new Time(timestamp.getTime());
+        }
+    }
+
+    /**
+     * Builder class for {@code PartitionedExtractor} for more flexible construction.
+     */
+    public static final class Builder {
+        private QueryRunner runner;
+        private DataSource ds;
+        private String table;
+        private String columns = "*";
+        private String splitColumn;
+        private String filter;
+        private Integer partitions;
+        private int parallelism = 4;
+        private boolean ordered = false;
+        private int bufferRows = 10000;
+        private Object lowerBound;
+        private Object upperBound;
+
+        /**
+         * @param runner The runner to query with; its {@code StatementConfiguration} applies.
+         * @return This builder for chaining.
+         */
+        public Builder runner(final QueryRunner runner) {
+            this.runner = runner;
+            return this;
+        }
+
+        /**
+         * @param ds The connections for the partitions, usually a {@link PooledDataSource}.
+         * Defaults to the runner's {@code DataSource}.
+         * @return This builder for chaining.
+         */
+        public Builder dataSource(final DataSource ds) {
+            this.ds = ds;
+            return this;
+        }
+
+        /**
+         * @param table The table to extract.
+         * @return This builder for chaining.
+         */
+        public Builder table(final String table) {
+            this.table = table;
+            return this;
+        }
+
+        /**
+         * @param columns The select list.  Defaults to {@code *}.
+         * @return This builder for chaining.
+         */
+        public Builder columns(final String columns) {
+            this.columns = columns;
+            return this;
+        }
+
+        /**
+         * @param splitColumn The numeric or date/time column to split on,
+         * ideally indexed.
+         * @return This builder for chaining.
+         */
+        public Builder splitColumn(final String splitColumn) {
+            this.splitColumn = splitColumn;
+            return this;
+        }
+
+        /**
+         * @param filter A condition every partition adds to its
+         * {@code WHERE} clause, or null.
+         * @return This builder for chaining.
+         */
+        public Builder filter(final String filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        /**
+         * @param partitions The number of ranges to cut.  Defaults to the parallelism.
+         * @return This builder for chaining.
+         */
+        public Builder partitions(final int partitions) {
+            this.partitions = partitions;
+            return this;
+        }
+
+        /**
+         * @param parallelism The number of partitions read at once.  Defaults to 4.
+         * @return This builder for chaining.
+         */
+        public Builder parallelism(final int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param ordered Whether rows are handed over in split column order,
+         * buffering the partitions read ahead of their turn.  Defaults to false.
+         * @return This builder for chaining.
+         */
+        public Builder ordered(final boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        /**
+         * @param bufferRows The rows each partition read ahead of its turn
+         * may buffer when ordered.  Defaults to 10000.
+         * @return This builder for chaining.
+         */
+        public Builder bufferRows(final int bufferRows) {
+            this.bufferRows = bufferRows;
+            return this;
+        }
+
+        /**
+         * Set the range to split instead of querying MIN and MAX.  Rows
+         * outside it are not extracted.
+         *
+         * @param lower The lowest value, inclusive.
+         * @param upper The highest value, inclusive.
+         * @return This builder for chaining.
+         */
+        public Builder bounds(final Object lower, final Object upper) {
+            this.lowerBound = lower;
+            this.upperBound = upper;
+            return this;
+        }
+
+        /**
+         * @return A new extractor.
+         */
+        public PartitionedExtractor build() {
+            if (runner == null || table == null || splitColumn == null) {
+                throw new IllegalStateException("runner, table and splitColumn are required");
+            }
+            if (ds == null) {
+                ds = runner.getDataSource();
+                if (ds == null) {
+                    throw new IllegalStateException("a DataSource is required");
+                }
+            }
+            if (partitions == null) {
+                partitions = parallelism;
+            }
+            if (partitions < 1 || parallelism < 1 || bufferRows < 1) {
+                throw new IllegalArgumentException("partitions, parallelism and bufferRows must be positive");
+            }
+            if ((lowerBound == null) != (upperBound == null)) {
+                throw new IllegalArgumentException("set both bounds or neither");
+            }
+            return new PartitionedExtractor(this);
+        }
+    }
+}
@@ -0,0 +1,665 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * A bounded pool of physical connections exposed as a {@code DataSource},
+ * so that {@link QueryRunner#QueryRunner(DataSource)} can run its
+ * connection-less {@code query}/{@code update} overloads without paying a
+ * full connect handshake per statement.
+ * <p>
+ * Connections handed out by {@link #getConnection()} are proxies; calling
+ * {@code close()} on them returns the physical connection to the pool.
+ * A returned connection is rolled back and gets its auto-commit, read-only,
+ * transaction isolation, catalog and schema reset to the values it was
+ * opened with; the last three only when they were changed through the
+ * connection's setters, not by SQL such as {@code USE}.  A borrowed
+ * connection doesn't unwrap to the driver's connection, but
+ * {@code Statement.getConnection()} and {@code DatabaseMetaData.getConnection()}
+ * return it: closing that bypasses the pool and leaves the slot taken until
+ * the borrowed connection is closed too.  Idle connections are validated on borrow, evicted after
+ * {@code maxIdleMillis} down to {@code minIdle} warm connections, and
+ * borrowers wait at most {@code borrowTimeoutMillis} for a free slot.
+ * This class is thread safe.
+ *
+ * @see Builder
+ */
+public class PooledDataSource implements DataSource, AutoCloseable {
+
+    private static final long RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final String url;
+    private final Properties info;
+    private final int maxSize;
+    private final int minIdle;
+    private final long maxIdleMillis;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final String validationQuery;
+
+    /**
+     * Idle connections, most recently returned first so that the warm end
+     * of the deque is reused and the cold end ages out.
+     */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    /**
+     * Physical connections currently open, idle or borrowed.
+     */
+    private final AtomicInteger total = new AtomicInteger();
+
+    private final ScheduledExecutorService evictor;
+
+    private volatile boolean closed = false;
+
+    private volatile PrintWriter logWriter;
+
+    private volatile int loginTimeout;
+
+    /**
+     * Constructor for {@code PooledDataSource}.  For more flexibility, use {@link Builder}.
+     *
+     * @param url The JDBC url of the target database.
+     * @param user The database user on whose behalf connections are made.
+     * @param password The user's password.
+     * @param maxSize The maximum number of physical connections.
+     */
+    public PooledDataSource(final String url, final String user, final String password, final int maxSize) {
+        this(new Builder().url(url).user(user).password(password).maxSize(maxSize));
+    }
+
+    private PooledDataSource(final Builder builder) {
+        if (builder.url == null) {
+            throw new IllegalArgumentException("url can't be null");
+        }
+        if (builder.maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + builder.maxSize);
+        }
+        if (builder.minIdle < 0 || builder.minIdle > builder.maxSize) {
+            throw new IllegalArgumentException("minIdle must be between 0 and maxSize: " + builder.minIdle);
+        }
+        if (builder.evictionIntervalMillis < 1) {
+            throw new IllegalArgumentException("evictionIntervalMillis must be positive: "
+                    + builder.evictionIntervalMillis);
+        }
+        this.url = builder.url;
+        this.info = new Properties();
+        this.info.putAll(builder.info);
+        if (builder.user != null) {
+            this.info.setProperty("user", builder.user);
+        }
+        if (builder.password != null) {
+            this.info.setProperty("password", builder.password);
+        }
+        this.maxSize = builder.maxSize;
+        this.minIdle = builder.minIdle;
+        this.maxIdleMillis = builder.maxIdleMillis;
+        this.borrowTimeoutMillis = builder.borrowTimeoutMillis;
+        this.validationTimeoutSeconds = builder.validationTimeoutSeconds;
+        this.validationQuery = builder.validationQuery;
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "mini-db-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        final long period = builder.evictionIntervalMillis;
+        this.evictor.scheduleWithFixedDelay(this::evictAndFill, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection from the pool, opening a new physical connection
+     * if none is idle and the pool is not at {@code maxSize}.
+     *
+     * @return A pooled connection; closing it returns it to the pool.
+     * @throws SQLTransientConnectionException if no connection became
+     * available within the borrow timeout
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        while (true) {
+            if (closed) {
+                throw new SQLException("PooledDataSource is closed");
+            }
+
+            PooledConnection pooled = idle.pollFirst();
+            if (pooled == null && reserve()) {
+                try {
+                    pooled = open();
+                } catch (final SQLException e) {
+                    total.decrementAndGet();
+                    throw e;
+                }
+                return pooled.borrow();
+            }
+
+            if (pooled == null) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SQLTransientConnectionException("Timed out after " + borrowTimeoutMillis
+                            + "ms waiting for a connection, pool size " + maxSize);
+                }
+                try {
+                    // wake up now and then: a discarded connection frees a slot without an offer
+                    pooled = idle.pollFirst(Math.min(remaining, RECHECK_NANOS), TimeUnit.NANOSECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection", e);
+                }
+                if (pooled == null) {
+                    continue;
+                }
+            }
+
+            if (validate(pooled)) {
+                return pooled.borrow();
+            }
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Pooled connections are always made with the credentials given when the
+     * pool was built.
+     *
+     * @throws SQLFeatureNotSupportedException always
+     */
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("PooledDataSource does not support per-call credentials");
+    }
+
+    /**
+     * Close every idle connection and stop the evictor.  Connections that
+     * are borrowed at this point are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Get the largest number of physical connections the pool opens.
+     *
+     * @return The maximum pool size.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of physical connections currently open.
+     *
+     * @return The number of idle and borrowed connections.
+     */
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    /**
+     * Get the number of connections waiting in the pool.
+     *
+     * @return The number of idle connections.
+     */
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    /**
+     * Get the number of connections currently handed out.
+     *
+     * @return The number of borrowed connections.
+     */
+    public int getActiveConnections() {
+        return Math.max(0, total.get() - idle.size());
+    }
+
+    /**
+     * Claim a slot for a new physical connection if the pool has room.
+     */
+    private boolean reserve() {
+        while (true) {
+            final int current = total.get();
+            if (current >= maxSize) {
+                return false;
+            }
+            if (total.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Open a physical connection for a slot already claimed by {@link #reserve()}.
+     */
+    private PooledConnection open() throws SQLException {
+        final Connection physical = DriverManager.getConnection(url, info);
+        try {
+            return new PooledConnection(physical);
+        } catch (final SQLException | RuntimeException e) {
+            DbUtils.closeQuietly(physical);
+            throw e;
+        }
+    }
+
+    private boolean validate(final PooledConnection pooled) {
+        try {
+            if (validationQuery == null) {
+                return pooled.physical.isValid(validationTimeoutSeconds);
+            }
+            try (Statement stmt = pooled.physical.createStatement()) {
+                stmt.setQueryTimeout(validationTimeoutSeconds);
+                stmt.execute(validationQuery);
+            }
+            return true;
+        } catch (final SQLException | AbstractMethodError e) { // NOPMD
+            // AbstractMethodError: pre-JDBC4 drivers without isValid
+            return false;
+        }
+    }
+
+    private void discard(final PooledConnection pooled) {
+        total.decrementAndGet();
+        DbUtils.closeQuietly(pooled.physical);
+    }
+
+    /**
+     * Take back a connection closed by its borrower, resetting the state a
+     * borrower is likely to have changed.
+     */
+    private void giveBack(final PooledConnection pooled) {
+        if (closed) {
+            discard(pooled);
+            return;
+        }
+        try {
+            if (pooled.physical.isClosed()) {
+                discard(pooled);
+                return;
+            }
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (pooled.physical.isReadOnly()) {
+                pooled.physical.setReadOnly(false);
+            }
+            pooled.restore();
+            pooled.physical.clearWarnings();
+        } catch (final SQLException e) {
+            discard(pooled);
+            return;
+        }
+        pooled.lastUsedMillis = System.currentTimeMillis();
+        idle.offerFirst(pooled);
+    }
+
+    /**
+     * Close connections idle for longer than {@code maxIdleMillis}, oldest
+     * first, while more than {@code minIdle} remain; then top the pool back
+     * up to {@code minIdle} idle connections.
+     */
+    private void evictAndFill() {
+        if (closed) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext() && idle.size() > minIdle) {
+            final PooledConnection pooled = oldestFirst.next();
+            if (now - pooled.lastUsedMillis > maxIdleMillis && idle.removeLastOccurrence(pooled)) {
+                discard(pooled);
+            }
+        }
+
+        while (!closed && idle.size() < minIdle && reserve()) {
+            try {
+                final PooledConnection pooled = open();
+                pooled.lastUsedMillis = now;
+                idle.offerLast(pooled);
+            } catch (final SQLException e) {
+                total.decrementAndGet();
+                // the database is unreachable; the next run tries again
+                break;
+            }
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("PooledDataSource is not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * One physical connection owned by the pool.
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private final int isolation;
+        private final String catalog;
+        private final String schema;
+        private volatile long lastUsedMillis;
+
+        /**
+         * Set by a borrower calling {@code setTransactionIsolation},
+         * {@code setCatalog} or {@code setSchema}.
+         */
+        private volatile boolean dirty;
+
+        PooledConnection(final Connection physical) throws SQLException {
+            this.physical = physical;
+            this.isolation = physical.getTransactionIsolation();
+            this.catalog = physical.getCatalog();
+            String opened;
+            try {
+                opened = physical.getSchema();
+            } catch (final SQLException | AbstractMethodError e) { // NOPMD
+                // pre-JDBC 4.1 drivers: schema is never restored
+                opened = null;
+            }
+            this.schema = opened;
+            this.lastUsedMillis = System.currentTimeMillis();
+        }
+
+        /**
+         * Undo a borrower's changes to the isolation level, catalog and schema.
+         */
+        void restore() throws SQLException {
+            if (!dirty) {
+                return;
+            }
+            if (physical.getTransactionIsolation() != isolation) {
+                physical.setTransactionIsolation(isolation);
+            }
+            if (catalog != null && !catalog.equals(physical.getCatalog())) {
+                physical.setCatalog(catalog);
+            }
+            if (schema != null && !schema.equals(physical.getSchema())) {
+                physical.setSchema(schema);
+            }
+            dirty = false;
+        }
+
+        /**
+         * Hand out a fresh proxy so that a stale reference kept by a previous
+         * borrower can't touch the connection once it has been returned.
+         */
+        Connection borrow() {
+            return (Connection) Proxy.newProxyInstance(PooledDataSource.class.getClassLoader(),
+                    new Class<?>[] {Connection.class}, new Handle(this));
+        }
+    }
+
+    /**
+     * Invocation handler behind a borrowed connection.
+     */
+    private final class Handle implements InvocationHandler {
+        private PooledConnection pooled;
+
+        Handle(final PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + (pooled == null ? "returned" : pooled.physical.toString()) + "]";
+                case "close":
+                    release();
+                    return null;
+                case "isClosed":
+                    synchronized (this) {
+                        return pooled == null || pooled.physical.isClosed();
+                    }
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                case "unwrap":
+                    // the physical connection would bypass the pool when closed
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    throw new SQLException("A pooled connection is not a wrapper for "
+                            + ((Class<?>) args[0]).getName());
+                default:
+                    break;
+            }
+
+            final PooledConnection current;
+            synchronized (this) {
+                current = pooled;
+            }
+            if (current == null) {
+                throw new SQLException("Connection is closed");
+            }
+            if (name.equals("setTransactionIsolation") || name.equals("setCatalog") || name.equals("setSchema")) {
+                current.dirty = true;
+            }
+            try {
+                return method.invoke(current.physical, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void release() {
+            final PooledConnection returned;
+            synchronized (this) {
+                returned = pooled;
+                pooled = null;
+            }
+            if (returned != null) {
+                giveBack(returned);
+            }
+        }
+    }
+
+    /**
+     * Builder class for {@code PooledDataSource} for more flexible construction.
+     */
+    public static final class Builder {
+        private String url;
+        private String user;
+        private String password;
+        private final Properties info = new Properties();
+        private int maxSize = 8;
+        private int minIdle = 0;
+        private long maxIdleMillis = TimeUnit.MINUTES.toMillis(10);
+        private long evictionIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+        private long borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+        private int validationTimeoutSeconds = 5;
+        private String validationQuery;
+
+        /**
+         * @param url The JDBC url of the target database.
+         * @return This builder for chaining.
+         */
+        public Builder url(final String url) {
+            this.url = url;
+            return this;
+        }
+
+        /**
+         * @param user The database user on whose behalf connections are made.
+         * @return This builder for chaining.
+         */
+        public Builder user(final String user) {
+            this.user = user;
+            return this;
+        }
+
+        /**
+         * @param password The user's password.
+         * @return This builder for chaining.
+         */
+        public Builder password(final String password) {
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * @param key A driver connection property.
+         * @param value The property value.
+         * @return This builder for chaining.
+         */
+        public Builder property(final String key, final String value) {
+            this.info.setProperty(key, value);
+            return this;
+        }
+
+        /**
+         * @param maxSize The maximum number of physical connections, idle or borrowed. Defaults to 8.
+         * @return This builder for chaining.
+         */
+        public Builder maxSize(final int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * @param minIdle The number of warm connections kept open while the pool is quiet. Defaults to 0.
+         * @return This builder for chaining.
+         */
+        public Builder minIdle(final int minIdle) {
+            this.minIdle = minIdle;
+            return this;
+        }
+
+        /**
+         * @param maxIdleMillis How long a connection may sit idle before it is evicted. Defaults to 10 minutes.
+         * @return This builder for chaining.
+         */
+        public Builder maxIdleMillis(final long maxIdleMillis) {
+            this.maxIdleMillis = maxIdleMillis;
+            return this;
+        }
+
+        /**
+         * @param evictionIntervalMillis How often idle connections are checked. Defaults to 30 seconds.
+         * @return This builder for chaining.
+         */
+        public Builder evictionIntervalMillis(final long evictionIntervalMillis) {
+            this.evictionIntervalMillis = evictionIntervalMillis;
+            return this;
+        }
+
+        /**
+         * @param borrowTimeoutMillis How long {@code getConnection()} waits for a free connection.
+         * Defaults to 30 seconds.
+         * @return This builder for chaining.
+         */
+        public Builder borrowTimeoutMillis(final long borrowTimeoutMillis) {
+            this.borrowTimeoutMillis = borrowTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param validationTimeoutSeconds The timeout for validating an idle connection on borrow.
+         * Defaults to 5 seconds.
+         * @return This builder for chaining.
+         */
+        public Builder validationTimeoutSeconds(final int validationTimeoutSeconds) {
+            this.validationTimeoutSeconds = validationTimeoutSeconds;
+            return this;
+        }
+
+        /**
+         * @param validationQuery A query run to validate an idle connection on borrow, for drivers
+         * whose {@code Connection.isValid(int)} is missing or unreliable.  When not set
+         * {@code isValid} is used.
+         * @return This builder for chaining.
+         */
+        public Builder validationQuery(final String validationQuery) {
+            this.validationQuery = validationQuery;
+            return this;
+        }
+
+        /**
+         * @return A new and started {@link PooledDataSource}.
+         */
+        public PooledDataSource build() {
+            return new PooledDataSource(this);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+/**
+ * Executors for the classes that run statements on several threads, such as
+ * {@link AsyncQueryRunner}, {@link PartitionedExtractor} and
+ * {@link BulkLoader}.
+ * <p>
+ * On Java 21 and later each task runs on its own virtual thread, so many
+ * concurrent calls that mostly wait on the database cost little memory.
+ * The library is built for Java 8, so the virtual thread API is looked up
+ * by reflection; on older runtimes a pool of platform daemon threads is
+ * used instead.
+ * <p>
+ * A virtual thread that blocks inside a {@code synchronized} block, which
+ * JDBC drivers use widely, pins its carrier thread until it returns.  To
+ * keep the number of pinned carriers bounded, calls that borrow connections
+ * take a permit from the {@link #permits(DataSource) semaphore} of their
+ * {@code DataSource} first, if it has one.  Waiting for a permit doesn't
+ * pin.  A {@link PooledDataSource} has one by default; other data sources
+ * only once {@link #setPermits(DataSource, int)} gives them one, and are
+ * bounded by each caller's own limit until then.
+ */
+public final class QueryExecutors {
+
+    /**
+     * {@code Thread.ofVirtual()}, or null before Java 21.
+     */
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method perTask = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            // look the methods up on the public interface, not the JDK's implementation class
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (final ReflectiveOperationException | LinkageError e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = perTask;
+    }
+
+    /**
+     * Permits per {@code DataSource}, dropped with it.
+     */
+    private static final Map<DataSource, Semaphore> PERMITS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private QueryExecutors() {
+    }
+
+    /**
+     * Whether this runtime has virtual threads.
+     *
+     * @return true on Java 21 and later, false otherwise.
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create an executor that runs each task on a new virtual thread, or on
+     * a fixed pool of platform daemon threads where virtual threads are not
+     * available.
+     *
+     * @param name The prefix of the threads' names.
+     * @param platformThreads The size of the platform pool, if one is used.
+     * @return The executor; shut it down when done.
+     */
+    public static ExecutorService newExecutor(final String name, final int platformThreads) {
+        final ExecutorService virtual = newVirtualExecutor(name);
+        if (virtual != null) {
+            return virtual;
+        }
+        return Executors.newFixedThreadPool(platformThreads, daemonThreads(name));
+    }
+
+    /**
+     * Create an executor that runs each task on a new virtual thread, or on
+     * a cached pool of platform daemon threads where virtual threads are not
+     * available.  For tasks that hold their thread for long, such as
+     * streaming a result set to a slow consumer.
+     *
+     * @param name The prefix of the threads' names.
+     * @return The executor; shut it down when done.
+     */
+    public static ExecutorService newCachedExecutor(final String name) {
+        final ExecutorService virtual = newVirtualExecutor(name);
+        if (virtual != null) {
+            return virtual;
+        }
+        return Executors.newCachedThreadPool(daemonThreads(name));
+    }
+
+    private static ExecutorService newVirtualExecutor(final String name) {
+        if (OF_VIRTUAL == null) {
+            return null;
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER_NAME.invoke(builder, name + "-", 1L);
+            final ThreadFactory factory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (final ReflectiveOperationException e) {
+            // fall back to platform threads
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        final AtomicInteger threadIds = new AtomicInteger();
+        return r -> {
+            final Thread t = new Thread(r, name + "-" + threadIds.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Get the semaphore that bounds the calls using a {@code DataSource} at
+     * once.  Unless {@link #setPermits(DataSource, int)} set it first, it
+     * has as many permits as a {@link PooledDataSource} has connections, and
+     * other data sources have none: their size is unknown here, and a
+     * guess would override the callers' own limits.
+     *
+     * @param ds The data source.
+     * @return Its semaphore, the same for every call, or null if it has none.
+     */
+    public static Semaphore permits(final DataSource ds) {
+        synchronized (PERMITS) {
+            Semaphore permits = PERMITS.get(ds);
+            if (permits == null && ds instanceof PooledDataSource) {
+                permits = new Semaphore(((PooledDataSource) ds).getMaxSize(), true);
+                PERMITS.put(ds, permits);
+            }
+            return permits;
+        }
+    }
+
+    /**
+     * Set the number of calls that can use a {@code DataSource} at once.
+     * Calls already holding permits of an earlier semaphore keep them.
+     *
+     * @param ds The data source.
+     * @param permits The number of calls.
+     */
+    public static void setPermits(final DataSource ds, final int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be positive: " + permits);
+        }
+        PERMITS.put(ds, new Semaphore(permits, true));
+    }
+}
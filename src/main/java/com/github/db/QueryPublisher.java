@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Publishes the rows of a query, one {@code Object[]} per row, to Reactive
+ * Streams subscribers.
+ * <p>
+ * Each subscription runs the query once, when the subscriber first requests
+ * rows, through the same lifecycle as
+ * {@link QueryRunner#query(Connection, String, ResultSetHandler, Object...)}:
+ * the statement, result set and, for a publisher from
+ * {@link QueryRunner#publish(String, Object...)}, the connection are closed
+ * when the last row has been sent, when the subscription is cancelled, or
+ * when reading fails, before {@code onComplete} or {@code onError} is
+ * signalled.
+ * <p>
+ * Rows are read only as they are requested.  The fetch size follows the
+ * outstanding demand, up to {@value #MAX_FETCH_SIZE} rows, unless the
+ * statement streams rows one at a time ({@code Integer.MIN_VALUE} on MySQL).
+ * While rows are not requested the cursor stays open on a thread from
+ * {@link QueryExecutors#newCachedExecutor(String)}, a virtual thread where
+ * the runtime has them.  A publisher for a given connection should have one
+ * subscriber at a time.
+ *
+ * @see QueryRunner#publish(Connection, String, Object...)
+ */
+public class QueryPublisher implements Publisher<Object[]> {
+
+    /**
+     * The largest fetch size set from the demand.
+     */
+    static final int MAX_FETCH_SIZE = 10000;
+
+    private static final class Workers {
+        static final Executor EXECUTOR = QueryExecutors.newCachedExecutor("query-publisher");
+    }
+
+    private final QueryRunner runner;
+    private final Connection conn;
+    private final String sql;
+    private final Object[] params;
+
+    /**
+     * Constructor for QueryPublisher.
+     *
+     * @param runner The runner to query with.
+     * @param conn The connection to query, left open; or null to take one
+     * from the runner's {@code DataSource} per subscription and close it.
+     * @param sql The query.
+     * @param params Its replacement parameters.
+     */
+    QueryPublisher(final QueryRunner runner, final Connection conn, final String sql, final Object[] params) {
+        this.runner = runner;
+        this.conn = conn;
+        this.sql = sql;
+        this.params = params;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super Object[]> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber can't be null");
+        }
+        subscriber.onSubscribe(new RowSubscription(subscriber));
+    }
+
+    /**
+     * The subscription of one subscriber.  Signals after {@code onSubscribe}
+     * all come from the thread running the query, except an error found
+     * before it starts.
+     */
+    private final class RowSubscription implements Subscription {
+        private final Subscriber<? super Object[]> subscriber;
+
+        /**
+         * Guards the fields below; a lock rather than a monitor, so a query
+         * waiting for demand on a virtual thread doesn't pin its carrier.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition requested = lock.newCondition();
+        private long demand;
+        private boolean started;
+        private boolean cancelled;
+        private Throwable badRequest;
+
+        RowSubscription(final Subscriber<? super Object[]> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            final boolean start;
+            final Throwable failure;
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    badRequest = new IllegalArgumentException("request must be positive: " + n);
+                    cancelled = true;
+                    // once the query runs, its thread signals the error
+                    failure = started ? null : badRequest;
+                    start = false;
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    failure = null;
+                    start = !started;
+                }
+                started = true;
+                requested.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (failure != null) {
+                subscriber.onError(failure);
+            } else if (start) {
+                try {
+                    Workers.EXECUTOR.execute(this::run);
+                } catch (final RejectedExecutionException e) {
+                    lock.lock();
+                    try {
+                        cancelled = true;
+                    } finally {
+                        lock.unlock();
+                    }
+                    subscriber.onError(new SQLException("Can't start the query", e));
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                requested.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void run() {
+            Throwable failure = null;
+            try {
+                if (conn == null) {
+                    runner.query(runner.prepareConnection(), true, sql, this::emit, params);
+                } else {
+                    runner.query(conn, false, sql, this::emit, params);
+                }
+            } catch (final SQLException | RuntimeException e) {
+                failure = e;
+            }
+            lock.lock();
+            try {
+                if (badRequest != null) {
+                    failure = badRequest;
+                } else if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+            } finally {
+                lock.unlock();
+            }
+            if (failure != null) {
+                subscriber.onError(failure);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        /**
+         * Send rows as they are requested; returning closes the cursor.
+         */
+        private Void emit(final ResultSet rs) throws SQLException {
+            final int columns = rs.getMetaData().getColumnCount();
+            final boolean sizeFetches = rs.getFetchSize() != Integer.MIN_VALUE;
+            int fetchSize = 0;
+            while (true) {
+                final long requested = awaitDemand();
+                if (requested == 0) {
+                    return null;
+                }
+                if (sizeFetches) {
+                    // follow the demand, without resetting it for every row sent
+                    final int size = (int) Math.min(requested, MAX_FETCH_SIZE);
+                    if (size > fetchSize || size < fetchSize / 2) {
+                        fetchSize = size;
+                        setFetchSize(rs, size);
+                    }
+                }
+                if (!rs.next()) {
+                    return null;
+                }
+                final Object[] row = new Object[columns];
+                for (int i = 0; i < columns; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                lock.lock();
+                try {
+                    if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    subscriber.onNext(row);
+                } catch (final RuntimeException e) {
+                    // a subscriber that throws has cancelled
+                    cancel();
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Wait until rows are requested.
+         *
+         * @return The demand, or 0 if the subscription is cancelled.
+         */
+        private long awaitDemand() throws SQLException {
+            lock.lock();
+            try {
+                while (demand == 0 && !cancelled) {
+                    requested.await();
+                }
+                return cancelled ? 0 : demand;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for demand", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void setFetchSize(final ResultSet rs, final int size) {
+            try {
+                rs.setFetchSize(size);
+            } catch (final SQLException e) { // NOPMD
+                // the driver keeps its own size
+            }
+        }
+    }
+}
@@ -22,10 +22,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import javax.sql.DataSource;
 
+import com.github.db.ParameterBinder.NullTypes;
+
 /**
  * Executes SQL queries with pluggable strategies for handling
  * {@code ResultSet}s.  This class is thread safe.
@@ -185,7 +189,7 @@ public class QueryRunner extends AbstractQueryRunner {
             stmt = this.prepareStatement(conn, sql);
 
             for (final Object[] param : params) {
-                this.fillStatement(stmt, param);
+                this.fillStatement(sql, stmt, param);
                 stmt.addBatch();
             }
             rows = stmt.executeBatch();
@@ -193,7 +197,8 @@ public class QueryRunner extends AbstractQueryRunner {
         } catch (final SQLException e) {
             this.rethrow(e, sql, (Object[])params);
         } finally {
-            close(stmt);
+            this.invalidateResults(sql);
+            release(stmt);
             if (closeConn) {
                 close(conn);
             }
@@ -202,6 +207,443 @@ public class QueryRunner extends AbstractQueryRunner {
         return rows;
     }
 
+    /**
+     * Execute a batch of SQL INSERT, UPDATE, or DELETE queries in chunks,
+     * reading the replacement parameters from an iterator so that only one
+     * chunk is ever held in memory.  A {@code Stream<Object[]>} can be
+     * passed as {@code stream.iterator()}.
+     *
+     * @param conn The Connection to use to run the query.  The caller is
+     * responsible for closing this Connection.
+     * @param sql The SQL to execute.
+     * @param params The query replacement parameters, one array per row.
+     * @param config The chunk size and commit policy.
+     * @return The aggregated update counts.
+     * @throws SQLException if a database access error occurs
+     */
+    public BatchResult<Void> batch(final Connection conn, final String sql, final Iterator<Object[]> params,
+                                   final BatchConfiguration config) throws SQLException {
+        return this.<Void>batch(conn, false, sql, null, params, null, config);
+    }
+
+    /**
+     * Execute a batch of SQL INSERT, UPDATE, or DELETE queries in chunks.
+     * The {@code Connection} is retrieved from the {@code DataSource} set in
+     * the constructor.  This {@code Connection} must be in auto-commit mode
+     * or the update will not be saved.
+     *
+     * @param sql The SQL to execute.
+     * @param params The query replacement parameters, one array per row.
+     * @param config The chunk size and commit policy.
+     * @return The aggregated update counts.
+     * @throws SQLException if a database access error occurs
+     */
+    public BatchResult<Void> batch(final String sql, final Iterator<Object[]> params,
+                                   final BatchConfiguration config) throws SQLException {
+        final Connection conn = this.prepareConnection();
+
+        return this.<Void>batch(conn, true, sql, null, params, null, config);
+    }
+
+    /**
+     * Execute a batch of SQL INSERT, UPDATE, or DELETE queries in chunks,
+     * filling each row's replacement parameters from a bean's properties.
+     * The getters are resolved once per bean class, not once per row.
+     *
+     * @param conn The Connection to use to run the query.  The caller is
+     * responsible for closing this Connection.
+     * @param sql The SQL to execute.
+     * @param beans The beans, one per row.
+     * @param config The chunk size and commit policy.  Bean batches are not
+     * rewritten into multi-row inserts.
+     * @param propertyNames The property names, in parameter order.
+     * @return The aggregated update counts.
+     * @throws SQLException if a database access error occurs
+     */
+    public BatchResult<Void> batchBeans(final Connection conn, final String sql, final Iterator<?> beans,
+                                        final BatchConfiguration config, final String... propertyNames)
+            throws SQLException {
+        return this.<Void>batch(conn, false, sql, null, beans, beanProperties(propertyNames), config);
+    }
+
+    /**
+     * Execute a batch of SQL INSERT, UPDATE, or DELETE queries in chunks,
+     * filling each row's replacement parameters from a bean's properties.
+     * The {@code Connection} is retrieved from the {@code DataSource} set in
+     * the constructor.  This {@code Connection} must be in auto-commit mode
+     * or the update will not be saved.
+     *
+     * @param sql The SQL to execute.
+     * @param beans The beans, one per row.
+     * @param config The chunk size and commit policy.
+     * @param propertyNames The property names, in parameter order.
+     * @return The aggregated update counts.
+     * @throws SQLException if a database access error occurs
+     */
+    public BatchResult<Void> batchBeans(final String sql, final Iterator<?> beans,
+                                        final BatchConfiguration config, final String... propertyNames)
+            throws SQLException {
+        final String[] properties = beanProperties(propertyNames);
+        final Connection conn = this.prepareConnection();
+
+        return this.<Void>batch(conn, true, sql, null, beans, properties, config);
+    }
+
+    /**
+     * Execute a batch of SQL INSERT, UPDATE, or DELETE queries in chunks,
+     * reading the replacement parameters column by column.  Primitive
+     * columns are bound without boxing.
+     *
+     * @param conn The Connection to use to run the query.  The caller is
+     * responsible for closing this Connection.
+     * @param sql The SQL to execute.
+     * @param columns The replacement parameters, one column per parameter.
+     * @param config The chunk size and commit policy.  Column batches are
+     * not rewritten into multi-row inserts.
+     * @return The aggregated update counts.
+     * @throws SQLException if a database access error occurs
+     */
+    public BatchResult<Void> batch(final Connection conn, final String sql, final ColumnBatch columns,
+                                   final BatchConfiguration config) throws SQLException {
+        return this.batch(conn, false, sql, columns, config);
+    }
+
+    /**
+     * Execute a batch of SQL INSERT, UPDATE, or DELETE queries in chunks,
+     * reading the replacement parameters column by column.  The
+     * {@code Connection} is retrieved from the {@code DataSource} set in the
+     * constructor.  This {@code Connection} must be in auto-commit mode or
+     * the update will not be saved.
+     *
+     * @param sql The SQL to execute.
+     * @param columns The replacement parameters, one column per parameter.
+     * @param config The chunk size and commit policy.
+     * @return The aggregated update counts.
+     * @throws SQLException if a database access error occurs
+     */
+    public BatchResult<Void> batch(final String sql, final ColumnBatch columns,
+                                   final BatchConfiguration config) throws SQLException {
+        final Connection conn = this.prepareConnection();
+
+        return this.batch(conn, true, sql, columns, config);
+    }
+
+    /**
+     * Runs a chunked column batch after checking the parameters to ensure nothing is null.
+     * @param conn The connection to use for the batch call.
+     * @param closeConn True if the connection should be closed, false otherwise.
+     * @param sql The SQL statement to execute.
+     * @param columns The query replacement parameters, one column per parameter.
+     * @param config The chunk size and commit policy.
+     * @return The aggregated update counts.
+     * @throws SQLException If there are database or parameter errors.
+     */
+    private BatchResult<Void> batch(final Connection conn, final boolean closeConn, final String sql,
+                                    final ColumnBatch columns, final BatchConfiguration config)
+            throws SQLException {
+        if (conn == null) {
+            throw new SQLException("Null connection");
+        }
+
+        if (sql == null) {
+            if (closeConn) {
+                close(conn);
+            }
+            throw new SQLException("Null SQL statement");
+        }
+
+        if (columns == null || config == null) {
+            if (closeConn) {
+                close(conn);
+            }
+            throw new SQLException("Null parameters. If parameters aren't need, pass an empty ColumnBatch.");
+        }
+
+        final BatchResult<Void> result = new BatchResult<>();
+        final int chunkSize = config.getChunkSize();
+        int chunkStart = 0;
+        int row = 0;
+        boolean commit = false;
+        PreparedStatement stmt = null;
+        try {
+            commit = config.isCommitPerChunk() && !conn.getAutoCommit();
+            stmt = this.prepareStatement(conn, sql);
+            final NullTypes nullTypes = this.prepareFill(sql, stmt, columns.getColumnCount());
+
+            for (; row < columns.getRowCount(); row++) {
+                columns.bind(stmt, row, nullTypes);
+                stmt.addBatch();
+
+                if (row + 1 - chunkStart == chunkSize) {
+                    this.executeChunk(conn, stmt, commit, null, chunkSize, result);
+                    chunkStart = row + 1;
+                }
+            }
+            if (row > chunkStart) {
+                this.executeChunk(conn, stmt, commit, null, row - chunkStart, result);
+            }
+
+        } catch (final SQLException e) {
+            if (commit) {
+                try {
+                    DbUtils.rollback(conn);
+                } catch (final SQLException re) {
+                    e.addSuppressed(re);
+                }
+            }
+            // box the failed chunk only now, for the message
+            final int end = Math.min(columns.getRowCount(), Math.max(row + 1, chunkStart));
+            final Object[] failed = new Object[end - chunkStart];
+            for (int i = 0; i < failed.length; i++) {
+                failed[i] = columns.row(chunkStart + i);
+            }
+            this.rethrow(e, sql, failed);
+        } finally {
+            this.invalidateResults(sql);
+            release(stmt);
+            if (closeConn) {
+                close(conn);
+            }
+        }
+
+        return result;
+    }
+
+    private static String[] beanProperties(final String[] propertyNames) throws SQLException {
+        if (propertyNames == null) {
+            throw new SQLException("Null property names");
+        }
+        return propertyNames;
+    }
+
+    /**
+     * Runs a chunked batch after checking the parameters to ensure nothing is null.
+     * @param conn The connection to use for the batch call.
+     * @param closeConn True if the connection should be closed, false otherwise.
+     * @param sql The SQL statement to execute.
+     * @param rsh The handler for the generated keys of each chunk, or
+     * {@code null} if keys are not needed.
+     * @param params The query replacement parameters, one array per row, or
+     * one bean per row if {@code propertyNames} is set.
+     * @param propertyNames The bean properties to bind, or {@code null} if
+     * the rows are parameter arrays.
+     * @param config The chunk size and commit policy.
+     * @return The aggregated update counts and generated keys.
+     * @throws SQLException If there are database or parameter errors.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> BatchResult<T> batch(final Connection conn, final boolean closeConn, final String sql,
+                                     final ResultSetHandler<T> rsh, final Iterator<?> params,
+                                     final String[] propertyNames, final BatchConfiguration config)
+            throws SQLException {
+        if (conn == null) {
+            throw new SQLException("Null connection");
+        }
+
+        if (sql == null) {
+            if (closeConn) {
+                close(conn);
+            }
+            throw new SQLException("Null SQL statement");
+        }
+
+        if (params == null || config == null) {
+            if (closeConn) {
+                close(conn);
+            }
+            throw new SQLException("Null parameters. If parameters aren't need, pass an empty iterator.");
+        }
+
+        if (config.getRewriteDialect() != null && propertyNames == null) {
+            final MultiRowInsert insert = MultiRowInsert.parse(sql, config.getRewriteDialect(), rsh != null);
+            if (insert != null) {
+                return this.multiRowBatch(conn, closeConn, sql, rsh, (Iterator<Object[]>) params, config, insert);
+            }
+        }
+
+        final BatchResult<T> result = new BatchResult<>();
+        // the rows of the current chunk, kept only to report them if it fails
+        final Object[] chunk = new Object[config.getChunkSize()];
+        int pending = 0;
+        BeanBinder binder = null;
+        boolean commit = false;
+        PreparedStatement stmt = null;
+        try {
+            commit = config.isCommitPerChunk() && !conn.getAutoCommit();
+            stmt = rsh == null ? this.prepareStatement(conn, sql)
+                    : this.prepareStatement(conn, sql, Statement.RETURN_GENERATED_KEYS);
+
+            while (params.hasNext()) {
+                final Object param = params.next();
+                if (propertyNames == null) {
+                    this.fillStatement(sql, stmt, (Object[]) param);
+                } else {
+                    if (param == null) {
+                        throw new SQLException("Null bean");
+                    }
+                    if (binder == null || param.getClass() != binder.getBeanClass()) {
+                        binder = BeanBinder.of(param.getClass(), propertyNames);
+                    }
+                    this.fillStatementWithBean(sql, stmt, param, binder);
+                }
+                stmt.addBatch();
+                chunk[pending++] = param;
+
+                if (pending == chunk.length) {
+                    this.executeChunk(conn, stmt, commit, rsh, pending, result);
+                    Arrays.fill(chunk, null);
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                this.executeChunk(conn, stmt, commit, rsh, pending, result);
+            }
+
+        } catch (final SQLException e) {
+            if (commit) {
+                try {
+                    DbUtils.rollback(conn);
+                } catch (final SQLException re) {
+                    e.addSuppressed(re);
+                }
+            }
+            this.rethrow(e, sql, Arrays.copyOf(chunk, pending));
+        } finally {
+            this.invalidateResults(sql);
+            release(stmt);
+            if (closeConn) {
+                close(conn);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs a chunked batch of a simple INSERT as multi-row INSERT statements.
+     * @param conn The connection to use for the batch call.
+     * @param closeConn True if the connection should be closed, false otherwise.
+     * @param sql The single-row SQL statement, for error messages.
+     * @param rsh The handler for the generated keys of each statement, or
+     * {@code null} if keys are not needed.
+     * @param params The query replacement parameters, one array per row.
+     * @param config The chunk size, limits and commit policy.
+     * @param insert The parsed single-row insert.
+     * @return The aggregated update counts and generated keys.
+     * @throws SQLException If there are database or parameter errors.
+     */
+    private <T> BatchResult<T> multiRowBatch(final Connection conn, final boolean closeConn, final String sql,
+                                             final ResultSetHandler<T> rsh, final Iterator<Object[]> params,
+                                             final BatchConfiguration config, final MultiRowInsert insert)
+            throws SQLException {
+        final int perRow = insert.getParametersPerRow();
+        final int maxRows = Math.max(1, Math.min(config.getChunkSize(), config.getMaxParameters() / perRow));
+        final long maxBytes = config.getMaxStatementBytes();
+
+        final BatchResult<T> result = new BatchResult<>();
+        // the parameters of the statement being built, row after row
+        final Object[] flat = new Object[maxRows * perRow];
+        int rows = 0;
+        long bytes = 0;
+        boolean commit = false;
+        String multiSql = sql;
+        try {
+            commit = config.isCommitPerChunk() && !conn.getAutoCommit();
+
+            while (params.hasNext()) {
+                final Object[] param = params.next();
+                final int paramsCount = param == null ? 0 : param.length;
+                if (paramsCount != perRow) {
+                    throw new SQLException("Wrong number of parameters: expected "
+                            + perRow + ", was given " + paramsCount);
+                }
+                final long rowBytes = insert.estimateRowBytes(param);
+                if (rows > 0 && bytes + rowBytes > maxBytes) {
+                    multiSql = insert.toSql(rows);
+                    this.executeMultiRow(conn, multiSql, flat, rows, perRow, commit, rsh, result);
+                    rows = 0;
+                    bytes = 0;
+                }
+                System.arraycopy(param, 0, flat, rows * perRow, perRow);
+                rows++;
+                bytes += rowBytes;
+
+                if (rows == maxRows) {
+                    multiSql = insert.toSql(rows);
+                    this.executeMultiRow(conn, multiSql, flat, rows, perRow, commit, rsh, result);
+                    rows = 0;
+                    bytes = 0;
+                }
+            }
+            if (rows > 0) {
+                multiSql = insert.toSql(rows);
+                this.executeMultiRow(conn, multiSql, flat, rows, perRow, commit, rsh, result);
+            }
+
+        } catch (final SQLException e) {
+            if (commit) {
+                try {
+                    DbUtils.rollback(conn);
+                } catch (final SQLException re) {
+                    e.addSuppressed(re);
+                }
+            }
+            this.rethrow(e, multiSql, Arrays.copyOf(flat, rows * perRow));
+        } finally {
+            this.invalidateResults(sql);
+            if (closeConn) {
+                close(conn);
+            }
+        }
+
+        return result;
+    }
+
+    private <T> void executeMultiRow(final Connection conn, final String multiSql, final Object[] flat,
+                                     final int rows, final int perRow, final boolean commit,
+                                     final ResultSetHandler<T> rsh, final BatchResult<T> result)
+            throws SQLException {
+        final PreparedStatement stmt = rsh == null ? this.prepareStatement(conn, multiSql)
+                : this.prepareStatement(conn, multiSql, Statement.RETURN_GENERATED_KEYS);
+        try {
+            this.fillStatement(multiSql, stmt, rows * perRow == flat.length ? flat : Arrays.copyOf(flat, rows * perRow));
+            final int updated = stmt.executeUpdate();
+            if (rsh != null) {
+                final ResultSet rs = stmt.getGeneratedKeys();
+                try {
+                    result.addGeneratedKeys(rsh.handle(rs));
+                } finally {
+                    close(rs);
+                }
+            }
+            if (commit) {
+                conn.commit();
+            }
+            result.addChunk(rows, new int[] {updated});
+        } finally {
+            release(stmt);
+        }
+        Arrays.fill(flat, null);
+    }
+
+    private <T> void executeChunk(final Connection conn, final PreparedStatement stmt, final boolean commit,
+                                  final ResultSetHandler<T> rsh, final int rows, final BatchResult<T> result)
+            throws SQLException {
+        final int[] counts = stmt.executeBatch();
+        if (rsh != null) {
+            final ResultSet rs = stmt.getGeneratedKeys();
+            try {
+                result.addGeneratedKeys(rsh.handle(rs));
+            } finally {
+                close(rs);
+            }
+        }
+        if (commit) {
+            conn.commit();
+        }
+        result.addChunk(rows, counts);
+    }
+
     /**
      * Execute an SQL SELECT query with a single replacement parameter. The
      * caller is responsible for closing the connection.
@@ -216,7 +658,7 @@ public class QueryRunner extends AbstractQueryRunner {
      */
     @Deprecated
     public <T> T query(final Connection conn, final String sql, final Object param, final ResultSetHandler<T> rsh) throws SQLException {
-        return this.<T>query(conn, false, sql, rsh, param);
+        return this.<T>cachedQuery(conn, sql, rsh, param);
     }
 
     /**
@@ -233,7 +675,7 @@ public class QueryRunner extends AbstractQueryRunner {
      */
     @Deprecated
     public <T> T query(final Connection conn, final String sql, final Object[] params, final ResultSetHandler<T> rsh) throws SQLException {
-        return this.<T>query(conn, false, sql, rsh, params);
+        return this.<T>cachedQuery(conn, sql, rsh, params);
     }
 
     /**
@@ -248,7 +690,7 @@ public class QueryRunner extends AbstractQueryRunner {
      * @throws SQLException if a database access error occurs
      */
     public <T> T query(final Connection conn, final String sql, final ResultSetHandler<T> rsh, final Object... params) throws SQLException {
-        return this.<T>query(conn, false, sql, rsh, params);
+        return this.<T>cachedQuery(conn, sql, rsh, params);
     }
 
     /**
@@ -262,7 +704,7 @@ public class QueryRunner extends AbstractQueryRunner {
      * @throws SQLException if a database access error occurs
      */
     public <T> T query(final Connection conn, final String sql, final ResultSetHandler<T> rsh) throws SQLException {
-        return this.<T>query(conn, false, sql, rsh, (Object[]) null);
+        return this.<T>cachedQuery(conn, sql, rsh, (Object[]) null);
     }
 
     /**
@@ -281,9 +723,7 @@ public class QueryRunner extends AbstractQueryRunner {
      */
     @Deprecated
     public <T> T query(final String sql, final Object param, final ResultSetHandler<T> rsh) throws SQLException {
-        final Connection conn = this.prepareConnection();
-
-        return this.<T>query(conn, true, sql, rsh, param);
+        return this.<T>cachedQuery(sql, rsh, param);
     }
 
     /**
@@ -304,9 +744,7 @@ public class QueryRunner extends AbstractQueryRunner {
      */
     @Deprecated
     public <T> T query(final String sql, final Object[] params, final ResultSetHandler<T> rsh) throws SQLException {
-        final Connection conn = this.prepareConnection();
-
-        return this.<T>query(conn, true, sql, rsh, params);
+        return this.<T>cachedQuery(sql, rsh, params);
     }
 
     /**
@@ -323,9 +761,7 @@ public class QueryRunner extends AbstractQueryRunner {
      * @throws SQLException if a database access error occurs
      */
     public <T> T query(final String sql, final ResultSetHandler<T> rsh, final Object... params) throws SQLException {
-        final Connection conn = this.prepareConnection();
-
-        return this.<T>query(conn, true, sql, rsh, params);
+        return this.<T>cachedQuery(sql, rsh, params);
     }
 
     /**
@@ -341,9 +777,45 @@ public class QueryRunner extends AbstractQueryRunner {
      * @throws SQLException if a database access error occurs
      */
     public <T> T query(final String sql, final ResultSetHandler<T> rsh) throws SQLException {
-        final Connection conn = this.prepareConnection();
+        return this.<T>cachedQuery(sql, rsh, (Object[]) null);
+    }
+
+    /**
+     * Calls query, or returns the result cached for the same SQL,
+     * parameters and handler when a {@link ResultCache} is configured and
+     * the connection is in auto-commit mode; a transaction may read rows
+     * it hasn't committed.
+     * @param conn The connection to use for the query call, left open.
+     * @param sql The SQL statement to execute.
+     * @param params The query replacement parameters.
+     * @return The results of the query.
+     * @throws SQLException If there are database or parameter errors.
+     */
+    private <T> T cachedQuery(final Connection conn, final String sql, final ResultSetHandler<T> rsh,
+                              final Object... params) throws SQLException {
+        final ResultCache cache = this.resultCache();
+        if (cache == null || conn == null || sql == null || rsh == null || !conn.getAutoCommit()) {
+            return this.<T>query(conn, false, sql, rsh, params);
+        }
+        return cache.get(sql, params, rsh, () -> this.<T>query(conn, false, sql, rsh, params));
+    }
 
-        return this.<T>query(conn, true, sql, rsh, (Object[]) null);
+    /**
+     * Calls query with a connection from the {@code DataSource}, or returns
+     * the result cached for the same SQL, parameters and handler when a
+     * {@link ResultCache} is configured; a hit doesn't take a connection.
+     * @param sql The SQL statement to execute.
+     * @param params The query replacement parameters.
+     * @return The results of the query.
+     * @throws SQLException If there are database or parameter errors.
+     */
+    private <T> T cachedQuery(final String sql, final ResultSetHandler<T> rsh, final Object... params)
+            throws SQLException {
+        final ResultCache cache = this.resultCache();
+        if (cache == null || sql == null || rsh == null) {
+            return this.<T>query(this.prepareConnection(), true, sql, rsh, params);
+        }
+        return cache.get(sql, params, rsh, () -> this.<T>query(this.prepareConnection(), true, sql, rsh, params));
     }
 
     /**
@@ -356,7 +828,7 @@ public class QueryRunner extends AbstractQueryRunner {
      * @return The results of the query.
      * @throws SQLException If there are database or parameter errors.
      */
-    private <T> T query(final Connection conn, final boolean closeConn, final String sql, final ResultSetHandler<T> rsh, final Object... params)
+    <T> T query(final Connection conn, final boolean closeConn, final String sql, final ResultSetHandler<T> rsh, final Object... params)
             throws SQLException {
         if (conn == null) {
             throw new SQLException("Null connection");
@@ -384,11 +856,13 @@ public class QueryRunner extends AbstractQueryRunner {
             if (params != null && params.length > 0) {
                 final PreparedStatement ps = this.prepareStatement(conn, sql);
                 stmt = ps;
-                this.fillStatement(ps, params);
-                rs = this.wrap(ps.executeQuery());
+                this.fillStatement(sql, ps, params);
+                this.adviseFetchSize(ps, sql);
+                rs = this.wrap(this.observeFetches(sql, ps.executeQuery()));
             } else {
-                stmt = conn.createStatement();
-                rs = this.wrap(stmt.executeQuery(sql));
+                stmt = this.createStatement(conn);
+                this.adviseFetchSize(stmt, sql);
+                rs = this.wrap(this.observeFetches(sql, stmt.executeQuery(sql)));
             }
             result = rsh.handle(rs);
 
@@ -397,7 +871,7 @@ public class QueryRunner extends AbstractQueryRunner {
 
         } finally {
             closeQuietly(rs);
-            closeQuietly(stmt);
+            releaseQuietly(stmt);
             if (closeConn) {
                 close(conn);
             }
@@ -406,6 +880,169 @@ public class QueryRunner extends AbstractQueryRunner {
         return result;
     }
 
+    /**
+     * Execute an SQL SELECT query and pass every row to a {@code RowHandler}
+     * as it is read, without building a result object.  The caller is
+     * responsible for closing the connection.
+     * @param conn The connection to execute the query in.
+     * @param sql The query to execute.
+     * @param handler The handler called once per row.
+     * @param params The replacement parameters.
+     * @return The number of rows handled.
+     * @throws SQLException if a database access error occurs
+     */
+    public long queryRows(final Connection conn, final String sql, final RowHandler handler, final Object... params)
+            throws SQLException {
+        return this.query(conn, false, sql, rowsHandler(handler), params);
+    }
+
+    /**
+     * Executes the given SELECT SQL query and passes every row to a
+     * {@code RowHandler} as it is read.  The {@code Connection} is retrieved
+     * from the {@code DataSource} set in the constructor.
+     * @param sql The SQL statement to execute.
+     * @param handler The handler called once per row.
+     * @param params Initialize the PreparedStatement's IN parameters with
+     * this array.
+     * @return The number of rows handled.
+     * @throws SQLException if a database access error occurs
+     */
+    public long queryRows(final String sql, final RowHandler handler, final Object... params) throws SQLException {
+        final Connection conn = this.prepareConnection();
+
+        return this.query(conn, true, sql, rowsHandler(handler), params);
+    }
+
+    private static ResultSetHandler<Long> rowsHandler(final RowHandler handler) {
+        if (handler == null) {
+            return null;
+        }
+        return rs -> {
+            long rows = 0;
+            while (rs.next()) {
+                handler.handleRow(rs);
+                rows++;
+            }
+            return rows;
+        };
+    }
+
+    /**
+     * Execute an SQL SELECT query and return an iterator over its open
+     * cursor, so rows are read one at a time as the caller consumes them.
+     * The caller is responsible for closing the connection, and for closing
+     * the iterator if it is not read to the end.
+     * @param conn The connection to execute the query in.
+     * @param sql The query to execute.
+     * @param params The replacement parameters.
+     * @return An iterator over the rows, one {@code Object[]} per row.
+     * @throws SQLException if a database access error occurs
+     */
+    public RowIterator iterate(final Connection conn, final String sql, final Object... params) throws SQLException {
+        return this.iterate(conn, false, sql, params);
+    }
+
+    /**
+     * Executes the given SELECT SQL query and returns an iterator over its
+     * open cursor.  The {@code Connection} is retrieved from the
+     * {@code DataSource} set in the constructor and is closed together with
+     * the iterator.
+     * @param sql The SQL statement to execute.
+     * @param params Initialize the PreparedStatement's IN parameters with
+     * this array.
+     * @return An iterator over the rows, one {@code Object[]} per row.
+     * @throws SQLException if a database access error occurs
+     */
+    public RowIterator iterate(final String sql, final Object... params) throws SQLException {
+        final Connection conn = this.prepareConnection();
+
+        return this.iterate(conn, true, sql, params);
+    }
+
+    /**
+     * Publish the rows of an SQL SELECT query to Reactive Streams
+     * subscribers, reading them as they are requested.  The query runs once
+     * per subscription.  The caller is responsible for closing the
+     * connection once the subscription is done.
+     * @param conn The connection to execute the query in.
+     * @param sql The query to execute.
+     * @param params The replacement parameters.
+     * @return A publisher of the rows, one {@code Object[]} per row.
+     */
+    public QueryPublisher publish(final Connection conn, final String sql, final Object... params) {
+        if (conn == null) {
+            throw new IllegalArgumentException("Null connection");
+        }
+        return new QueryPublisher(this, conn, sql, params);
+    }
+
+    /**
+     * Publish the rows of an SQL SELECT query to Reactive Streams
+     * subscribers, reading them as they are requested.  Each subscription
+     * takes a {@code Connection} from the {@code DataSource} set in the
+     * constructor and closes it when done.
+     * @param sql The query to execute.
+     * @param params The replacement parameters.
+     * @return A publisher of the rows, one {@code Object[]} per row.
+     */
+    public QueryPublisher publish(final String sql, final Object... params) {
+        return new QueryPublisher(this, null, sql, params);
+    }
+
+    /**
+     * Opens a cursor after checking the parameters to ensure nothing is null.
+     * On success the statement, result set and, if {@code closeConn} is set,
+     * the connection are owned by the returned iterator.
+     * @param conn The connection to use for the query call.
+     * @param closeConn True if the connection should be closed with the iterator, false otherwise.
+     * @param sql The SQL statement to execute.
+     * @param params The query replacement parameters.
+     * @return An iterator over the open cursor.
+     * @throws SQLException If there are database or parameter errors.
+     */
+    private RowIterator iterate(final Connection conn, final boolean closeConn, final String sql, final Object... params)
+            throws SQLException {
+        if (conn == null) {
+            throw new SQLException("Null connection");
+        }
+
+        if (sql == null) {
+            if (closeConn) {
+                close(conn);
+            }
+            throw new SQLException("Null SQL statement");
+        }
+
+        Statement stmt = null;
+        ResultSet rs = null;
+        RowIterator iterator = null;
+
+        try {
+            if (params != null && params.length > 0) {
+                final PreparedStatement ps = this.prepareStatement(conn, sql);
+                stmt = ps;
+                this.fillStatement(sql, ps, params);
+                this.adviseFetchSize(ps, sql);
+                rs = this.wrap(this.observeFetches(sql, ps.executeQuery()));
+            } else {
+                stmt = this.createStatement(conn);
+                this.adviseFetchSize(stmt, sql);
+                rs = this.wrap(this.observeFetches(sql, stmt.executeQuery(sql)));
+            }
+            iterator = new RowIterator(this, conn, closeConn, stmt, rs);
+
+        } catch (final SQLException e) {
+            closeQuietly(rs);
+            releaseQuietly(stmt);
+            if (closeConn) {
+                closeQuietly(conn);
+            }
+            this.rethrow(e, sql, params);
+        }
+
+        return iterator;
+    }
+
     /**
      * Execute an SQL INSERT, UPDATE, or DELETE query without replacement
      * parameters.
@@ -528,7 +1165,7 @@ public class QueryRunner extends AbstractQueryRunner {
             if (params != null && params.length > 0) {
                 final PreparedStatement ps = this.prepareStatement(conn, sql);
                 stmt = ps;
-                this.fillStatement(ps, params);
+                this.fillStatement(sql, ps, params);
                 rows = ps.executeUpdate();
             } else {
                 stmt = conn.createStatement();
@@ -539,7 +1176,8 @@ public class QueryRunner extends AbstractQueryRunner {
             this.rethrow(e, sql, params);
 
         } finally {
-            close(stmt);
+            this.invalidateResults(sql);
+            release(stmt);
             if (closeConn) {
                 close(conn);
             }
@@ -650,20 +1288,25 @@ public class QueryRunner extends AbstractQueryRunner {
 
         try {
             if (params != null && params.length > 0) {
-                final PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                final PreparedStatement ps = this.prepareStatement(conn, sql, Statement.RETURN_GENERATED_KEYS);
                 stmt = ps;
-                this.fillStatement(ps, params);
+                this.fillStatement(sql, ps, params);
                 ps.executeUpdate();
             } else {
                 stmt = conn.createStatement();
                 stmt.executeUpdate(sql, Statement.RETURN_GENERATED_KEYS);
             }
             final ResultSet resultSet = stmt.getGeneratedKeys();
-            generatedKeys = rsh.handle(resultSet);
+            try {
+                generatedKeys = rsh.handle(resultSet);
+            } finally {
+                close(resultSet);
+            }
         } catch (final SQLException e) {
             this.rethrow(e, sql, params);
         } finally {
-            close(stmt);
+            this.invalidateResults(sql);
+            release(stmt);
             if (closeConn) {
                 close(conn);
             }
@@ -744,17 +1387,22 @@ public class QueryRunner extends AbstractQueryRunner {
             stmt = this.prepareStatement(conn, sql, Statement.RETURN_GENERATED_KEYS);
 
             for (final Object[] param : params) {
-                this.fillStatement(stmt, param);
+                this.fillStatement(sql, stmt, param);
                 stmt.addBatch();
             }
             stmt.executeBatch();
             final ResultSet rs = stmt.getGeneratedKeys();
-            generatedKeys = rsh.handle(rs);
+            try {
+                generatedKeys = rsh.handle(rs);
+            } finally {
+                close(rs);
+            }
 
         } catch (final SQLException e) {
             this.rethrow(e, sql, (Object[])params);
         } finally {
-            close(stmt);
+            this.invalidateResults(sql);
+            release(stmt);
             if (closeConn) {
                 close(conn);
             }
@@ -763,6 +1411,51 @@ public class QueryRunner extends AbstractQueryRunner {
         return generatedKeys;
     }
 
+    /**
+     * Executes the given batch of INSERT SQL statements in chunks, reading
+     * the replacement parameters from an iterator.
+     * @param <T> The type of object that the handler returns
+     * @param conn The connection to use to run the query.
+     * @param sql The SQL to execute.
+     * @param rsh The handler used to create the result object from
+     * the {@code ResultSet} of auto-generated keys of each chunk.
+     * @param params The query replacement parameters, one array per row.
+     * @param config The chunk size and commit policy.
+     * @return The aggregated update counts and the generated keys of every chunk.
+     * @throws SQLException if a database access error occurs
+     */
+    public <T> BatchResult<T> insertBatch(final Connection conn, final String sql, final ResultSetHandler<T> rsh,
+                                          final Iterator<Object[]> params, final BatchConfiguration config)
+            throws SQLException {
+        if (rsh == null) {
+            throw new SQLException("Null ResultSetHandler");
+        }
+        return this.batch(conn, false, sql, rsh, params, null, config);
+    }
+
+    /**
+     * Executes the given batch of INSERT SQL statements in chunks.  The
+     * {@code Connection} is retrieved from the {@code DataSource} set in the
+     * constructor.  This {@code Connection} must be in auto-commit mode or
+     * the insert will not be saved.
+     * @param <T> The type of object that the handler returns
+     * @param sql The SQL statement to execute.
+     * @param rsh The handler used to create the result object from
+     * the {@code ResultSet} of auto-generated keys of each chunk.
+     * @param params The query replacement parameters, one array per row.
+     * @param config The chunk size and commit policy.
+     * @return The aggregated update counts and the generated keys of every chunk.
+     * @throws SQLException if a database access error occurs
+     */
+    public <T> BatchResult<T> insertBatch(final String sql, final ResultSetHandler<T> rsh,
+                                          final Iterator<Object[]> params, final BatchConfiguration config)
+            throws SQLException {
+        if (rsh == null) {
+            throw new SQLException("Null ResultSetHandler");
+        }
+        return this.batch(this.prepareConnection(), true, sql, rsh, params, null, config);
+    }
+
     /**
      * Execute an SQL statement, including a stored procedure call, which does
      * not return any result sets.
@@ -895,7 +1588,7 @@ public class QueryRunner extends AbstractQueryRunner {
 
         try {
             stmt = this.prepareCall(conn, sql);
-            this.fillStatement(stmt, params);
+            this.fillStatement(sql, stmt, params);
             stmt.execute();
             rows = stmt.getUpdateCount();
             this.retrieveOutParameters(stmt, params);
@@ -904,6 +1597,7 @@ public class QueryRunner extends AbstractQueryRunner {
             this.rethrow(e, sql, params);
 
         } finally {
+            this.invalidateResults(sql);
             close(stmt);
             if (closeConn) {
                 close(conn);
@@ -949,7 +1643,7 @@ public class QueryRunner extends AbstractQueryRunner {
 
         try {
             stmt = this.prepareCall(conn, sql);
-            this.fillStatement(stmt, params);
+            this.fillStatement(sql, stmt, params);
             boolean moreResultSets = stmt.execute();
             // Handle multiple result sets by passing them through the handler
             // retaining the final result
@@ -970,6 +1664,7 @@ public class QueryRunner extends AbstractQueryRunner {
             this.rethrow(e, sql, params);
 
         } finally {
+            this.invalidateResults(sql);
             close(stmt);
             if (closeConn) {
                 close(conn);
@@ -0,0 +1,864 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.lang.reflect.Array;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A cache of query results, used by {@link QueryRunner}'s {@code query}
+ * methods when {@link StatementConfiguration#getResultCache()} is set.
+ * <p>
+ * Results are keyed by SQL, parameters and the identity of the
+ * {@code ResultSetHandler}, so callers must share handler instances, such
+ * as {@link DetachedResult#handler()}, to get hits; a lambda written at the
+ * call site is usually a new instance on every call.  Cached results are
+ * handed to every caller as they are, so handlers should return results
+ * that are not modified afterwards.
+ * <p>
+ * Entries expire {@code ttlMillis} after they were loaded.  The cache keeps
+ * the estimated size of its results within {@code maxBytes}, dropping the
+ * least recently used first.  Sizes are estimated: exactly for
+ * {@code DetachedResult}, and by walking arrays, collections, maps, strings
+ * and boxed values otherwise, with 64 bytes for any other object.
+ * Concurrent misses for the same key run the query once; the others wait
+ * for its result, unless it started before a write they saw.
+ * <p>
+ * Updates, batches, inserts and executes through a runner using the cache
+ * drop the entries whose SQL reads a table the statement writes.  Table
+ * names are found on the SQL text, ignoring schema and case: for reads, the
+ * tables after every {@code FROM}, {@code JOIN} and {@code STRAIGHT_JOIN},
+ * in subqueries, derived tables and common table expressions too; for
+ * writes, {@code INSERT INTO}, {@code UPDATE}, {@code DELETE FROM},
+ * {@code MERGE INTO} and DDL, after any common table expressions.  A query reading something other than plain
+ * tables, such as a table function, is dropped on any write; a write whose
+ * tables can't be found, such as a procedure call, clears the whole cache.
+ * A result loaded while any write was invalidating is not cached.  Writes
+ * made outside the runner, and writes in a transaction committed after the
+ * invalidation, are not seen; use {@link #invalidateTable(String)} or
+ * {@link #clear()} for those.
+ * <p>
+ * Queries on a connection the caller passes in are only cached while it is
+ * in auto-commit mode, as a transaction may read its own uncommitted
+ * writes; the runner's {@code DataSource} is expected to hand out
+ * connections in auto-commit mode.  This class is thread safe.
+ */
+public class ResultCache {
+
+    /**
+     * Loads a result on a miss.
+     *
+     * @param <T> The type of the result.
+     */
+    interface Loader<T> {
+
+        /**
+         * @return The result.
+         * @throws SQLException if a database access error occurs
+         */
+        T load() throws SQLException;
+    }
+
+    private static final String IDENTIFIER = "([\\w$#.\"`\\[\\]]+)";
+
+    /**
+     * Words ending a {@code FROM} list, after which a comma separates
+     * something other than tables.
+     */
+    private static final Set<String> CLAUSES = new HashSet<>(Arrays.asList("WHERE", "GROUP", "ORDER", "HAVING",
+            "LIMIT", "OFFSET", "FETCH", "FOR", "UNION", "EXCEPT", "INTERSECT", "MINUS", "WINDOW", "QUALIFY",
+            "CONNECT", "START", "SELECT", "INTO", "VALUES", "SET", "RETURNING"));
+
+    /**
+     * Words after {@code FROM} or {@code JOIN} that don't start a table name.
+     */
+    private static final Set<String> NOT_TABLES = new HashSet<>(Arrays.asList("LATERAL", "ONLY", "TABLE",
+            "UNNEST", "SELECT"));
+
+    private static final Pattern WRITE_INTO = Pattern.compile("\\bINTO\\s+" + IDENTIFIER, Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern WRITE_UPDATE = Pattern.compile(
+            "^UPDATE\\s+(?:(?:LOW_PRIORITY|IGNORE)\\s+)*" + IDENTIFIER, Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern WRITE_DELETE = Pattern.compile(
+            "^DELETE\\s+(?:(?:LOW_PRIORITY|QUICK|IGNORE)\\s+)*(?:FROM\\s+)?" + IDENTIFIER, Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern WRITE_DDL = Pattern.compile(
+            "^(?:TRUNCATE|DROP|ALTER|CREATE|RENAME)\\s+(?:TABLE\\s+)?(?:IF\\s+(?:NOT\\s+)?EXISTS\\s+)?" + IDENTIFIER,
+            Pattern.CASE_INSENSITIVE);
+
+    private final long maxBytes;
+    private final long ttlMillis;
+
+    /**
+     * All cached results, least recently used first.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Loads in progress, for concurrent misses of the same key to share.
+     */
+    private final ConcurrentHashMap<Key, Load> loading = new ConcurrentHashMap<>();
+
+    private long bytes;
+    private long writes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Constructor for {@code ResultCache}.
+     *
+     * @param maxBytes The estimated size the cached results may take.
+     * @param ttlMillis How long a result is served after it was loaded, or 0 to keep it until evicted.
+     */
+    public ResultCache(final long maxBytes, final long ttlMillis) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis can't be negative: " + ttlMillis);
+        }
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Get the cached result for a query, or load and cache it.
+     *
+     * @param sql The query.
+     * @param params Its replacement parameters.
+     * @param rsh The handler that builds the result.
+     * @param loader Runs the query on a miss.
+     * @return The result.
+     * @throws SQLException if the load fails
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(final String sql, final Object[] params, final ResultSetHandler<T> rsh, final Loader<T> loader)
+            throws SQLException {
+        final Key key = new Key(sql, params, rsh);
+        final long version;
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry != null) {
+                if (System.currentTimeMillis() < entry.expiresMillis) {
+                    hits++;
+                    return (T) entry.value;
+                }
+                remove(key, entry);
+            }
+            misses++;
+            version = writes;
+        }
+
+        final Load mine = new Load(version);
+        while (true) {
+            final Load other = loading.putIfAbsent(key, mine);
+            if (other == null) {
+                break;
+            }
+            if (other.version >= version) {
+                return (T) await(other.result);
+            }
+            // it may have read the rows before a write this caller saw; later callers share ours
+            if (loading.replace(key, other, mine)) {
+                break;
+            }
+        }
+        try {
+            final T value = loader.load();
+            store(key, value, version);
+            mine.result.complete(value);
+            return value;
+        } catch (final SQLException | RuntimeException | Error e) {
+            mine.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    private static Object await(final CompletableFuture<Object> load) throws SQLException {
+        try {
+            return load.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a cached query", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SQLException(cause.getMessage(), cause);
+        }
+    }
+
+    private synchronized void store(final Key key, final Object value, final long version) {
+        if (writes != version) {
+            // a write may have changed the rows after they were read
+            return;
+        }
+        final long size = estimateBytes(value, 0);
+        if (size > maxBytes) {
+            return;
+        }
+        final Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+        final long expires = ttlMillis == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + ttlMillis;
+        entries.put(key, new Entry(value, size, expires, readTables(key.sql)));
+        bytes += size;
+        final Iterator<Map.Entry<Key, Entry>> lru = entries.entrySet().iterator();
+        while (bytes > maxBytes && lru.hasNext()) {
+            final Entry evicted = lru.next().getValue();
+            lru.remove();
+            bytes -= evicted.bytes;
+            evictions++;
+        }
+    }
+
+    private void remove(final Key key, final Entry entry) {
+        entries.remove(key);
+        bytes -= entry.bytes;
+    }
+
+    /**
+     * Drop the results that read a table written by a statement.
+     *
+     * @param sql The statement that was run.
+     */
+    void invalidate(final String sql) {
+        final Set<String> tables = writtenTables(sql);
+        if (tables == null) {
+            clear();
+        } else if (!tables.isEmpty()) {
+            invalidateTables(tables);
+        }
+    }
+
+    /**
+     * Drop the results that read a table.
+     *
+     * @param table The table name, with or without its schema.
+     */
+    public void invalidateTable(final String table) {
+        invalidateTables(Collections.singleton(normalize(table)));
+    }
+
+    private synchronized void invalidateTables(final Set<String> tables) {
+        writes++;
+        final Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next().getValue();
+            if (entry.tables == null || !Collections.disjoint(entry.tables, tables)) {
+                it.remove();
+                bytes -= entry.bytes;
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Drop every cached result.
+     */
+    public synchronized void clear() {
+        writes++;
+        invalidations += entries.size();
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Get the number of lookups served from the cache.
+     *
+     * @return The hit count.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups that ran the query or waited for another
+     * caller running it.
+     *
+     * @return The miss count.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the share of lookups served from the cache.
+     *
+     * @return The hit rate between 0 and 1, or 0 before the first lookup.
+     */
+    public synchronized double getHitRate() {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0d : (double) hits / lookups;
+    }
+
+    /**
+     * Get the number of results pushed out to stay within the memory budget.
+     *
+     * @return The eviction count.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the number of results dropped because a table they read was written.
+     *
+     * @return The invalidation count.
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Get the estimated size of the cached results.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the memory budget.
+     *
+     * @return The maximum estimated size in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the number of results currently cached.
+     *
+     * @return The cache size.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResultCache[size=" + entries.size() + ", bytes=" + bytes + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", invalidations=" + invalidations + "]";
+    }
+
+    /**
+     * The tables a query reads, or null if it reads something else too.
+     */
+    static Set<String> readTables(final String sql) {
+        final List<String> tokens = tokenize(sql);
+        final Set<String> tables = new HashSet<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            final String word = tokens.get(i).toUpperCase(Locale.ROOT);
+            final boolean from = word.equals("FROM");
+            if (!from && !word.equals("JOIN") && !word.equals("STRAIGHT_JOIN")) {
+                continue;
+            }
+            final String next = token(tokens, i + 1);
+            if (next.startsWith("'") || !next.isEmpty() && Character.isDigit(next.charAt(0))) {
+                // SUBSTRING(s FROM 2), TRIM('x' FROM s)
+                continue;
+            }
+            // nested FROM and JOIN are read when the loop gets to them
+            if ((from ? readList(tokens, i + 1, tables) : readTable(tokens, i + 1, tables)) < 0) {
+                return null;
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Read the comma separated tables starting at a token.
+     *
+     * @return The token after the first table, or -1 if a table can't be told.
+     */
+    private static int readList(final List<String> tokens, final int start, final Set<String> tables) {
+        final int end = readTable(tokens, start, tables);
+        int next = end < 0 ? -1 : nextItem(tokens, end);
+        while (next >= 0) {
+            final int item = readTable(tokens, next, tables);
+            if (item < 0) {
+                return -1;
+            }
+            next = nextItem(tokens, item);
+        }
+        return end;
+    }
+
+    /**
+     * Read the table at a token: a name, a derived table, whose own tables
+     * are read later, or a parenthesised join.
+     *
+     * @return The token after it, or -1 if it isn't a table.
+     */
+    private static int readTable(final List<String> tokens, final int start, final Set<String> tables) {
+        final String token = token(tokens, start);
+        if (token.equals("(")) {
+            final String inner = token(tokens, start + 1).toUpperCase(Locale.ROOT);
+            if (!inner.equals("SELECT") && !inner.equals("WITH") && !inner.equals("VALUES")
+                    && readList(tokens, start + 1, tables) < 0) {
+                return -1;
+            }
+            return close(tokens, start);
+        }
+        if (token.isEmpty() || !isName(token) || NOT_TABLES.contains(token.toUpperCase(Locale.ROOT))
+                || token(tokens, start + 1).equals("(")) {
+            // a table function, LATERAL and the like
+            return -1;
+        }
+        tables.add(normalize(token));
+        return start + 1;
+    }
+
+    /**
+     * Skip an alias, hints and join conditions up to the comma before the
+     * next table in a {@code FROM} list.
+     *
+     * @return The token after the comma, or -1 at the end of the list.
+     */
+    private static int nextItem(final List<String> tokens, final int start) {
+        int depth = 0;
+        for (int i = start; i < tokens.size(); i++) {
+            final String token = tokens.get(i);
+            if (token.equals("(")) {
+                depth++;
+            } else if (token.equals(")")) {
+                if (depth == 0) {
+                    return -1;
+                }
+                depth--;
+            } else if (depth == 0) {
+                if (token.equals(",")) {
+                    return i + 1;
+                }
+                if (token.equals(";") || CLAUSES.contains(token.toUpperCase(Locale.ROOT))) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The token after the parenthesis closing the one at {@code start}.
+     */
+    private static int close(final List<String> tokens, final int start) {
+        int depth = 0;
+        for (int i = start; i < tokens.size(); i++) {
+            final String token = tokens.get(i);
+            if (token.equals("(")) {
+                depth++;
+            } else if (token.equals(")") && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return tokens.size();
+    }
+
+    private static String token(final List<String> tokens, final int i) {
+        return i < tokens.size() ? tokens.get(i) : "";
+    }
+
+    private static boolean isName(final String token) {
+        final char c = token.charAt(0);
+        return Character.isLetter(c) || c == '_' || c == '"' || c == '`' || c == '[';
+    }
+
+    /**
+     * Split SQL into names, possibly quoted and qualified, numbers and single
+     * characters; a string literal is a lone {@code '} and comments are
+     * dropped.
+     */
+    private static List<String> tokenize(final String sql) {
+        final List<String> tokens = new ArrayList<>();
+        final int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            final char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (sql.startsWith("--", i)) {
+                final int eol = sql.indexOf('\n', i);
+                i = eol < 0 ? length : eol + 1;
+            } else if (sql.startsWith("/*", i)) {
+                final int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '\'') {
+                int end = i + 1;
+                while (end < length && (sql.charAt(end) != '\'' || sql.startsWith("''", end))) {
+                    end += sql.startsWith("''", end) ? 2 : 1;
+                }
+                tokens.add("'");
+                i = end + 1;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '"' || c == '`' || c == '[') {
+                int end = i;
+                while (end < length) {
+                    final char d = sql.charAt(end);
+                    if (d == '"' || d == '`' || d == '[') {
+                        final int quote = sql.indexOf(d == '[' ? ']' : d, end + 1);
+                        end = quote < 0 ? length : quote + 1;
+                    } else if (Character.isLetterOrDigit(d) || d == '_' || d == '$' || d == '#' || d == '.') {
+                        end++;
+                    } else {
+                        break;
+                    }
+                }
+                tokens.add(sql.substring(i, end));
+                i = end;
+            } else {
+                tokens.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * The tables a statement writes: empty for a query, null if they can't be told.
+     */
+    static Set<String> writtenTables(final String sql) {
+        final String statement = sql.trim();
+        final String verb = firstWord(statement);
+        switch (verb) {
+            case "SELECT":
+            case "VALUES":
+                return Collections.emptySet();
+            case "WITH": {
+                // the statement after the common table expressions: WITH x AS (...) UPDATE emp ...
+                final int body = skipCommonTableExpressions(statement);
+                return body < 0 ? null : writtenTables(statement.substring(body));
+            }
+            case "INSERT":
+            case "REPLACE":
+            case "MERGE": {
+                // Oracle's INSERT ALL has one INTO per row
+                final Set<String> tables = new HashSet<>();
+                final Matcher into = WRITE_INTO.matcher(statement);
+                while (into.find()) {
+                    tables.add(normalize(into.group(1)));
+                }
+                return tables.isEmpty() ? null : tables;
+            }
+            case "UPDATE":
+                return single(WRITE_UPDATE.matcher(statement));
+            case "DELETE":
+                return single(WRITE_DELETE.matcher(statement));
+            case "TRUNCATE":
+            case "DROP":
+            case "ALTER":
+            case "CREATE":
+            case "RENAME":
+                return single(WRITE_DDL.matcher(statement));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Skip the common table expressions of a statement starting with
+     * {@code WITH}.
+     *
+     * @return The offset of the statement they belong to, or -1 if they
+     * can't be told or one of them isn't a query.
+     */
+    private static int skipCommonTableExpressions(final String sql) {
+        int i = skipSpace(sql, "WITH".length());
+        if (firstWord(sql.substring(i)).equals("RECURSIVE")) {
+            i = skipSpace(sql, i + "RECURSIVE".length());
+        }
+        while (true) {
+            final int name = skipName(sql, i);
+            if (name == i) {
+                return -1;
+            }
+            i = skipSpace(sql, name);
+            if (i < sql.length() && sql.charAt(i) == '(') {
+                // the column list
+                i = skipParentheses(sql, i);
+                if (i < 0) {
+                    return -1;
+                }
+                i = skipSpace(sql, i);
+            }
+            if (!firstWord(sql.substring(i)).equals("AS")) {
+                return -1;
+            }
+            i = skipSpace(sql, i + "AS".length());
+            String word = firstWord(sql.substring(i));
+            if (word.equals("NOT")) {
+                i = skipSpace(sql, i + "NOT".length());
+                word = firstWord(sql.substring(i));
+            }
+            if (word.equals("MATERIALIZED")) {
+                i = skipSpace(sql, i + "MATERIALIZED".length());
+            }
+            if (i >= sql.length() || sql.charAt(i) != '(') {
+                return -1;
+            }
+            final String query = firstWord(sql.substring(skipSpace(sql, i + 1)));
+            if (!query.equals("SELECT") && !query.equals("VALUES") && !query.equals("WITH")) {
+                // PostgreSQL's WITH x AS (DELETE ... RETURNING *)
+                return -1;
+            }
+            i = skipParentheses(sql, i);
+            if (i < 0) {
+                return -1;
+            }
+            i = skipSpace(sql, i);
+            if (i >= sql.length() || sql.charAt(i) != ',') {
+                return i;
+            }
+            i = skipSpace(sql, i + 1);
+        }
+    }
+
+    /**
+     * @return The offset of the first character at or after {@code start}
+     * that isn't white space or in a comment.
+     */
+    private static int skipSpace(final String sql, final int start) {
+        int i = start;
+        while (i < sql.length()) {
+            if (Character.isWhitespace(sql.charAt(i))) {
+                i++;
+            } else if (sql.startsWith("--", i)) {
+                final int eol = sql.indexOf('\n', i);
+                i = eol < 0 ? sql.length() : eol + 1;
+            } else if (sql.startsWith("/*", i)) {
+                final int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? sql.length() : end + 2;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @return The offset after the name, possibly quoted, at {@code start},
+     * or {@code start} if there is none.
+     */
+    private static int skipName(final String sql, final int start) {
+        if (start >= sql.length()) {
+            return start;
+        }
+        final char c = sql.charAt(start);
+        if (c == '"' || c == '`' || c == '[') {
+            final int quote = sql.indexOf(c == '[' ? ']' : c, start + 1);
+            return quote < 0 ? start : quote + 1;
+        }
+        int i = start;
+        while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_'
+                || sql.charAt(i) == '$')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return The offset after the parenthesis closing the one at
+     * {@code start}, skipping literals, quoted names and comments, or -1 if
+     * it isn't closed.
+     */
+    private static int skipParentheses(final String sql, final int start) {
+        int depth = 0;
+        int i = start;
+        while (i < sql.length()) {
+            final char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                // a doubled quote just ends one literal and starts the next
+                final int end = sql.indexOf(c, i + 1);
+                if (end < 0) {
+                    return -1;
+                }
+                i = end + 1;
+            } else if (sql.startsWith("--", i) || sql.startsWith("/*", i)) {
+                i = skipSpace(sql, i);
+            } else {
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')' && --depth == 0) {
+                    return i + 1;
+                }
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static Set<String> single(final Matcher matcher) {
+        return matcher.find() ? Collections.singleton(normalize(matcher.group(1))) : null;
+    }
+
+    private static String firstWord(final String sql) {
+        int end = 0;
+        while (end < sql.length() && Character.isLetter(sql.charAt(end))) {
+            end++;
+        }
+        return sql.substring(0, end).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Strip quotes and schema, and fold case: {@code "HR"."EMP"} is {@code emp}.
+     */
+    static String normalize(final String table) {
+        final String unquoted = table.replaceAll("[\"`\\[\\]]", "");
+        return unquoted.substring(unquoted.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Estimate the heap a result takes.
+     */
+    static long estimateBytes(final Object value, final int depth) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof DetachedResult) {
+            return ((DetachedResult) value).estimateBytes();
+        }
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character
+                || value instanceof java.util.Date) {
+            return 24;
+        }
+        if (depth > 4) {
+            return 64;
+        }
+        if (value instanceof Object[]) {
+            long bytes = 16 + 4L * ((Object[]) value).length;
+            for (final Object element : (Object[]) value) {
+                bytes += estimateBytes(element, depth + 1);
+            }
+            return bytes;
+        }
+        if (value.getClass().isArray()) {
+            // primitive array
+            return 16 + 8L * Array.getLength(value);
+        }
+        if (value instanceof Collection) {
+            long bytes = 40;
+            for (final Object element : (Collection<?>) value) {
+                bytes += 16 + estimateBytes(element, depth + 1);
+            }
+            return bytes;
+        }
+        if (value instanceof Map) {
+            long bytes = 48;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                bytes += 32 + estimateBytes(entry.getKey(), depth + 1) + estimateBytes(entry.getValue(), depth + 1);
+            }
+            return bytes;
+        }
+        return 64;
+    }
+
+    /**
+     * A load in progress and the write count it started at.
+     */
+    private static final class Load {
+        private final long version;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        Load(final long version) {
+            this.version = version;
+        }
+    }
+
+    /**
+     * A query, its parameters and its handler.
+     */
+    private static final class Key {
+        private final String sql;
+        private final Object[] params;
+        private final ResultSetHandler<?> rsh;
+        private final int hash;
+
+        Key(final String sql, final Object[] params, final ResultSetHandler<?> rsh) {
+            this.sql = sql;
+            this.params = params == null ? new Object[0] : params.clone();
+            this.rsh = rsh;
+            this.hash = (sql.hashCode() * 31 + Arrays.deepHashCode(this.params)) * 31
+                    + System.identityHashCode(rsh);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return rsh == other.rsh && sql.equals(other.sql) && Arrays.deepEquals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    private static final class Entry {
+        private final Object value;
+        private final long bytes;
+        private final long expiresMillis;
+        private final Set<String> tables;
+
+        Entry(final Object value, final long bytes, final long expiresMillis, final Set<String> tables) {
+            this.value = value;
+            this.bytes = bytes;
+            this.expiresMillis = expiresMillis;
+            this.tables = tables;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Locale;
+
+/**
+ * A {@code ResultSetHandler} that writes every row to a {@code Writer} as
+ * it is read, in one of the {@link Format}s, and returns the number of
+ * rows written.  Nothing is kept in memory besides the current row, so it
+ * can export results of any size when the statement streams its rows.
+ * <p>
+ * As a {@code RowHandler}, for rows from several cursors, the header is
+ * written before the first row, from that row's metadata, and
+ * {@link #finish()} must be called after the last row.  The writer is
+ * flushed at the end but not closed.  This class is not thread safe.
+ */
+public class ResultExporter implements ResultSetHandler<Long>, RowHandler {
+
+    /**
+     * The output formats.
+     */
+    public enum Format {
+        /**
+         * Comma separated values with a header line, quoted as in RFC 4180.
+         * {@code NULL} is an empty field.
+         */
+        CSV,
+
+        /**
+         * Tab separated values with a header line.  Tabs, line breaks and
+         * backslashes in values are escaped as {@code \t}, {@code \n},
+         * {@code \r} and {@code \\}, and {@code NULL} is written as
+         * {@code \N}, as MySQL's {@code LOAD DATA} and PostgreSQL's
+         * {@code COPY} expect.
+         */
+        TSV,
+
+        /**
+         * One JSON object per line, keyed by column label.  Numeric columns
+         * are JSON numbers, boolean columns JSON booleans, and {@code NULL}
+         * is {@code null}.
+         */
+        JSONL,
+
+        /**
+         * A {@link TableListing}, written with a {@link TableListing.RowWriter}.
+         */
+        TABLE;
+
+        /**
+         * Look up a format by name, ignoring case.
+         *
+         * @param name The format name.
+         * @return The format.
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Format of(final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final Format format;
+    private final Writer out;
+    private String[] labels;
+    private int[] types;
+    private TableListing.RowWriter table;
+    private String[] row;
+    private long rows;
+
+    /**
+     * Constructor for {@code ResultExporter}.
+     *
+     * @param format The output format.
+     * @param out Where to write; buffer it, as values are written piecewise.
+     */
+    public ResultExporter(final Format format, final Writer out) {
+        if (format == null || out == null) {
+            throw new NullPointerException("format and out can't be null");
+        }
+        this.format = format;
+        this.out = out;
+    }
+
+    /**
+     * Write the header and every remaining row.
+     *
+     * @param rs The {@code ResultSet} to export.
+     * @return The number of rows written.
+     * @throws SQLException if a database access error occurs, or if writing
+     * fails, with the {@code IOException} as its cause
+     */
+    @Override
+    public Long handle(final ResultSet rs) throws SQLException {
+        start(rs.getMetaData());
+        while (rs.next()) {
+            handleRow(rs);
+        }
+        return finish();
+    }
+
+    /**
+     * Write the current row, after the header if it is the first.
+     *
+     * @param rs The {@code ResultSet}, positioned on the row to write.
+     * @throws SQLException if a database access error occurs, or if writing
+     * fails, with the {@code IOException} as its cause
+     */
+    @Override
+    public void handleRow(final ResultSet rs) throws SQLException {
+        if (labels == null) {
+            start(rs.getMetaData());
+        }
+        try {
+            switch (format) {
+                case TABLE:
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = rs.getString(i + 1);
+                    }
+                    table.addRow(row);
+                    break;
+                case JSONL:
+                    writeJsonRow(rs, labels, types);
+                    break;
+                default:
+                    writeDelimitedRow(rs, labels.length);
+                    break;
+            }
+        } catch (final IOException e) {
+            throw failed(e);
+        }
+        rows++;
+    }
+
+    /**
+     * Flush the output after the last row.
+     *
+     * @return The number of rows written.
+     * @throws SQLException if writing fails, with the {@code IOException} as
+     * its cause
+     */
+    public long finish() throws SQLException {
+        try {
+            if (table != null) {
+                table.close();
+                table = null;
+            }
+            out.flush();
+        } catch (final IOException e) {
+            throw failed(e);
+        }
+        return rows;
+    }
+
+    private void start(final ResultSetMetaData rsmd) throws SQLException {
+        final int cols = rsmd.getColumnCount();
+        labels = new String[cols];
+        types = new int[cols];
+        for (int i = 0; i < cols; i++) {
+            String label = rsmd.getColumnLabel(i + 1);
+            if (null == label || 0 == label.length()) {
+                label = rsmd.getColumnName(i + 1);
+            }
+            labels[i] = label;
+            types[i] = rsmd.getColumnType(i + 1);
+        }
+
+        if (format == Format.TABLE) {
+            final TableListing.Builder builder = new TableListing.Builder();
+            for (final String label : labels) {
+                builder.addField(label, true);
+            }
+            table = builder.build().writer(out);
+            row = new String[cols];
+            return;
+        }
+        try {
+            writeHeader(labels);
+        } catch (final IOException e) {
+            throw failed(e);
+        }
+    }
+
+    private SQLException failed(final IOException e) {
+        return new SQLException("Couldn't write " + format + " export: " + e.getMessage(), e);
+    }
+
+    private void writeHeader(final String[] labels) throws IOException {
+        if (format == Format.JSONL) {
+            return;
+        }
+        for (int i = 0; i < labels.length; i++) {
+            if (i > 0) {
+                out.write(format == Format.CSV ? ',' : '\t');
+            }
+            if (format == Format.CSV) {
+                writeCsv(labels[i]);
+            } else {
+                writeTsv(labels[i]);
+            }
+        }
+        out.write('\n');
+    }
+
+    private void writeDelimitedRow(final ResultSet rs, final int cols) throws SQLException, IOException {
+        for (int i = 1; i <= cols; i++) {
+            final String value = rs.getString(i);
+            if (format == Format.CSV) {
+                if (i > 1) {
+                    out.write(',');
+                }
+                if (value != null) {
+                    writeCsv(value);
+                }
+            } else {
+                if (i > 1) {
+                    out.write('\t');
+                }
+                if (value == null) {
+                    out.write("\\N");
+                } else {
+                    writeTsv(value);
+                }
+            }
+        }
+        out.write('\n');
+    }
+
+    private void writeCsv(final String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            final char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '"') {
+                out.write(value, start, i + 1 - start);
+                out.write('"');
+                start = i + 1;
+            }
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+
+    private void writeTsv(final String value) throws IOException {
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            final char escape;
+            switch (c) {
+                case '\t':
+                    escape = 't';
+                    break;
+                case '\n':
+                    escape = 'n';
+                    break;
+                case '\r':
+                    escape = 'r';
+                    break;
+                case '\\':
+                    escape = '\\';
+                    break;
+                default:
+                    continue;
+            }
+            out.write(value, start, i - start);
+            out.write('\\');
+            out.write(escape);
+            start = i + 1;
+        }
+        out.write(value, start, value.length() - start);
+    }
+
+    private void writeJsonRow(final ResultSet rs, final String[] labels, final int[] types)
+            throws SQLException, IOException {
+        out.write('{');
+        for (int i = 0; i < labels.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeJsonString(labels[i]);
+            out.write(':');
+            switch (types[i]) {
+                case Types.BIT:
+                case Types.BOOLEAN: {
+                    final boolean value = rs.getBoolean(i + 1);
+                    out.write(rs.wasNull() ? "null" : value ? "true" : "false");
+                    break;
+                }
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE: {
+                    final String value = rs.getString(i + 1);
+                    if (value == null) {
+                        out.write("null");
+                    } else if (isJsonNumber(value)) {
+                        out.write(value);
+                    } else {
+                        // NaN, Infinity
+                        writeJsonString(value);
+                    }
+                    break;
+                }
+                default: {
+                    final String value = rs.getString(i + 1);
+                    if (value == null) {
+                        out.write("null");
+                    } else {
+                        writeJsonString(value);
+                    }
+                    break;
+                }
+            }
+        }
+        out.write("}\n");
+    }
+
+    /**
+     * Check that a driver's number text is valid JSON: an optional minus,
+     * digits without a leading zero, an optional fraction and exponent.
+     */
+    static boolean isJsonNumber(final String s) {
+        int i = 0;
+        final int n = s.length();
+        if (i < n && s.charAt(i) == '-') {
+            i++;
+        }
+        final int intStart = i;
+        while (i < n && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+        if (i == intStart || (s.charAt(intStart) == '0' && i - intStart > 1)) {
+            return false;
+        }
+        if (i < n && s.charAt(i) == '.') {
+            final int fracStart = ++i;
+            while (i < n && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                i++;
+            }
+            if (i == fracStart) {
+                return false;
+            }
+        }
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                i++;
+            }
+            final int expStart = i;
+            while (i < n && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                i++;
+            }
+            if (i == expStart) {
+                return false;
+            }
+        }
+        return i == n;
+    }
+
+    private void writeJsonString(final String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            out.write(value, start, i - start);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write(String.format("\\u%04x", (int) c));
+                    break;
+            }
+            start = i + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
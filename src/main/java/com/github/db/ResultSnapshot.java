@@ -0,0 +1,1177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A query result saved in a binary columnar file, so that it can be read
+ * again without running the query.  {@link #writer} returns a handler that
+ * streams a {@code ResultSet} into the file block by block; {@link #open}
+ * maps the file for reading.
+ * <p>
+ * A file holds a header with the column labels, SQL types and storage
+ * types, then blocks of up to {@link #DEFAULT_BLOCK_ROWS} rows, then an
+ * index of the blocks.  In a block every column is stored contiguously:
+ * a null bitmap if the block has nulls, then the values as 4 or 8 byte
+ * numbers, or as UTF-8 strings with an offset array, either plain or as a
+ * per-block dictionary of distinct values and a code per row.  A floating
+ * point column also stores its text style and the driver's text of the
+ * values the style doesn't print the same, so it reads back as
+ * {@link DetachedResult} prints it.  Blocks may be deflated.  Integer and
+ * floating point columns follow the same rules as {@link DetachedResult};
+ * all other columns are stored as the strings {@code getString} returned.
+ * <p>
+ * Uncompressed blocks are read straight from the mapped file.  The
+ * mappings are released when they are garbage collected, not by
+ * {@link #close()}.  A snapshot is not thread safe; use one
+ * {@link Cursor} at a time.
+ */
+public final class ResultSnapshot implements Closeable {
+
+    /**
+     * The default number of rows in a block.
+     */
+    public static final int DEFAULT_BLOCK_ROWS = 64 * 1024;
+
+    /**
+     * How blocks are compressed.
+     */
+    public enum Compression {
+        /**
+         * Blocks are stored as they are and read without copying.
+         */
+        NONE,
+
+        /**
+         * Blocks are compressed with {@link Deflater#BEST_SPEED}.
+         */
+        DEFLATE
+    }
+
+    private static final int MAGIC = 0x4D444253;
+    /**
+     * Version 2 adds a {@code DOUBLE} column's text style and exceptions to each block.
+     */
+    private static final int VERSION = 2;
+    /**
+     * Long index offset, long row count, int magic.
+     */
+    private static final int TAIL_BYTES = 20;
+    /**
+     * Long offset, int row count, int stored length, int raw length, byte compression.
+     */
+    private static final int INDEX_ENTRY_BYTES = 21;
+
+    /**
+     * Blocks end early when their values reach this size, so a block always
+     * fits in a buffer.
+     */
+    private static final int MAX_BLOCK_BYTES = 64 * 1024 * 1024;
+    private static final int MAX_DICTIONARY_SIZE = 4096;
+
+    private static final byte STORAGE_INT = 0;
+    private static final byte STORAGE_LONG = 1;
+    private static final byte STORAGE_DOUBLE = 2;
+    private static final byte STORAGE_STRING = 3;
+
+    private static final byte STRINGS_PLAIN = 0;
+    private static final byte STRINGS_DICTIONARY = 1;
+
+    private final FileChannel channel;
+    private final int version;
+    private final String[] labels;
+    private final int[] sqlTypes;
+    private final byte[] storage;
+    private final long rowCount;
+    private final long[] blockOffsets;
+    private final int[] blockRows;
+    private final int[] blockStoredLengths;
+    private final int[] blockRawLengths;
+    private final Compression[] blockCompressions;
+
+    private ResultSnapshot(final FileChannel channel) throws IOException {
+        this.channel = channel;
+        final long size = channel.size();
+        if (size < TAIL_BYTES + 14) {
+            throw new IOException("Not a result snapshot: too short");
+        }
+        final ByteBuffer tail = read(size - TAIL_BYTES, TAIL_BYTES);
+        final long indexOffset = tail.getLong();
+        this.rowCount = tail.getLong();
+        if (tail.getInt() != MAGIC || indexOffset < 0 || indexOffset > size - TAIL_BYTES - 4) {
+            throw new IOException("Not a result snapshot: bad trailer");
+        }
+
+        final ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset,
+                size - TAIL_BYTES - indexOffset);
+        final int blocks = index.getInt();
+        this.blockOffsets = new long[blocks];
+        this.blockRows = new int[blocks];
+        this.blockStoredLengths = new int[blocks];
+        this.blockRawLengths = new int[blocks];
+        this.blockCompressions = new Compression[blocks];
+        for (int i = 0; i < blocks; i++) {
+            blockOffsets[i] = index.getLong();
+            blockRows[i] = index.getInt();
+            blockStoredLengths[i] = index.getInt();
+            blockRawLengths[i] = index.getInt();
+            blockCompressions[i] = Compression.values()[index.get()];
+        }
+
+        final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                blocks > 0 ? blockOffsets[0] : indexOffset);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a result snapshot: bad magic number");
+        }
+        this.version = header.getShort();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported result snapshot version " + version);
+        }
+        final int cols = header.getInt();
+        this.labels = new String[cols];
+        this.sqlTypes = new int[cols];
+        this.storage = new byte[cols];
+        for (int i = 0; i < cols; i++) {
+            final byte[] label = new byte[header.getInt()];
+            header.get(label);
+            labels[i] = new String(label, StandardCharsets.UTF_8);
+            sqlTypes[i] = header.getInt();
+            storage[i] = header.get();
+        }
+    }
+
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of result snapshot");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Open a snapshot file for reading.
+     *
+     * @param file The file written by a {@link #writer} handler.
+     * @return The snapshot; close it when done.
+     * @throws IOException if the file can't be read or isn't a snapshot
+     */
+    public static ResultSnapshot open(final Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new ResultSnapshot(channel);
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get a handler that writes a {@code ResultSet} to a channel as an
+     * uncompressed snapshot, with blocks of {@link #DEFAULT_BLOCK_ROWS} rows.
+     *
+     * @param channel Where to write, at the start of an empty file; it is not closed.
+     * @return The handler, which returns the number of rows written.
+     */
+    public static ResultSetHandler<Long> writer(final WritableByteChannel channel) {
+        return writer(channel, DEFAULT_BLOCK_ROWS, Compression.NONE);
+    }
+
+    /**
+     * Get a handler that writes a {@code ResultSet} to a channel as a
+     * snapshot.
+     *
+     * @param channel Where to write, at the start of an empty file; it is not closed.
+     * @param blockRows The maximum number of rows in a block.
+     * @param compression How to compress blocks.
+     * @return The handler, which returns the number of rows written.
+     */
+    public static ResultSetHandler<Long> writer(final WritableByteChannel channel, final int blockRows,
+                                                final Compression compression) {
+        if (channel == null || compression == null) {
+            throw new NullPointerException("channel and compression can't be null");
+        }
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("blockRows must be positive: " + blockRows);
+        }
+        return rs -> new BlockWriter(channel, blockRows, compression).write(rs);
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return The row count.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the number of blocks.
+     *
+     * @return The block count.
+     */
+    public int getBlockCount() {
+        return blockRows.length;
+    }
+
+    /**
+     * Get the number of columns.
+     *
+     * @return The column count.
+     */
+    public int getColumnCount() {
+        return labels.length;
+    }
+
+    /**
+     * Get a column's label, or its name if it had no label.
+     *
+     * @param column The 0-based column.
+     * @return The label.
+     */
+    public String getColumnLabel(final int column) {
+        return labels[column];
+    }
+
+    /**
+     * Get a column's SQL type as reported by the driver that wrote it.
+     *
+     * @param column The 0-based column.
+     * @return The type from {@link java.sql.Types}.
+     */
+    public int getColumnType(final int column) {
+        return sqlTypes[column];
+    }
+
+    /**
+     * Get a cursor positioned before the first row.
+     *
+     * @return A new cursor.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Render the snapshot as a table while it is read, with column widths
+     * from the header and the first rows.
+     *
+     * @param out Where to write; it is flushed but not closed.
+     * @return The number of rows written.
+     * @throws IOException if the snapshot can't be read or writing fails
+     */
+    public long render(final Writer out) throws IOException {
+        final TableListing.Builder builder = new TableListing.Builder();
+        for (final String label : labels) {
+            builder.addField(label, true);
+        }
+        final String[] row = new String[labels.length];
+        final Cursor cursor = cursor();
+        try (TableListing.RowWriter writer = builder.build().writer(out)) {
+            while (cursor.next()) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = cursor.getString(i);
+                }
+                writer.addRow(row);
+            }
+            writer.flush();
+            return writer.getRowCount();
+        }
+    }
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads a snapshot row by row, one block at a time.  Values are read
+     * from the block's buffer when they are asked for.
+     */
+    public final class Cursor {
+        private final int[] nullsAt = new int[labels.length];
+        private final int[] valuesAt = new int[labels.length];
+        /**
+         * For strings: the offsets of the value or dictionary bytes, -1 when
+         * the column isn't dictionary encoded in this block, and the bytes.
+         */
+        private final int[] codesAt = new int[labels.length];
+        private final int[] bytesAt = new int[labels.length];
+        private final String[][] dictionaries = new String[labels.length][];
+        /**
+         * For doubles: the style of the block and the rows it doesn't print
+         * as the driver did, with the driver's text.
+         */
+        private final DetachedResult.DoubleStyle[] styles = new DetachedResult.DoubleStyle[labels.length];
+        private final int[][] textRows = new int[labels.length][];
+        private final String[][] texts = new String[labels.length][];
+        private final Inflater inflater = new Inflater();
+        private byte[] inflated;
+        private byte[] scratch = new byte[64];
+        private ByteBuffer data;
+        private int block = -1;
+        private int rows;
+        private int row;
+
+        private Cursor() {
+        }
+
+        /**
+         * Move to the next row.
+         *
+         * @return False if there are no more rows.
+         * @throws IOException if the next block can't be read
+         */
+        public boolean next() throws IOException {
+            if (++row < rows) {
+                return true;
+            }
+            while (++block < blockRows.length) {
+                load(block);
+                if (rows > 0) {
+                    row = 0;
+                    return true;
+                }
+            }
+            block = blockRows.length;
+            return false;
+        }
+
+        private void load(final int b) throws IOException {
+            if (blockCompressions[b] == Compression.NONE) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets[b], blockStoredLengths[b]);
+            } else {
+                final ByteBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets[b],
+                        blockStoredLengths[b]);
+                if (scratch.length < blockStoredLengths[b]) {
+                    scratch = new byte[blockStoredLengths[b]];
+                }
+                stored.get(scratch, 0, blockStoredLengths[b]);
+                if (inflated == null || inflated.length < blockRawLengths[b]) {
+                    inflated = new byte[blockRawLengths[b]];
+                }
+                inflater.reset();
+                inflater.setInput(scratch, 0, blockStoredLengths[b]);
+                try {
+                    int n = 0;
+                    while (n < blockRawLengths[b] && !inflater.finished()) {
+                        final int read = inflater.inflate(inflated, n, blockRawLengths[b] - n);
+                        if (read == 0 && inflater.needsInput()) {
+                            break;
+                        }
+                        n += read;
+                    }
+                    if (n != blockRawLengths[b]) {
+                        throw new IOException("Truncated block " + b + " in result snapshot");
+                    }
+                } catch (final DataFormatException e) {
+                    throw new IOException("Corrupt block " + b + " in result snapshot", e);
+                }
+                data = ByteBuffer.wrap(inflated, 0, blockRawLengths[b]);
+            }
+
+            rows = blockRows[b];
+            int pos = 0;
+            for (int i = 0; i < labels.length; i++) {
+                if (data.get(pos++) != 0) {
+                    nullsAt[i] = pos;
+                    pos += words(rows) * 8;
+                } else {
+                    nullsAt[i] = -1;
+                }
+                valuesAt[i] = pos;
+                dictionaries[i] = null;
+                switch (storage[i]) {
+                    case STORAGE_INT:
+                        pos += rows * 4;
+                        break;
+                    case STORAGE_LONG:
+                        pos += rows * 8;
+                        break;
+                    case STORAGE_DOUBLE:
+                        pos = loadDoubles(i, pos);
+                        break;
+                    default:
+                        final byte encoding = data.get(pos++);
+                        final int count;
+                        if (encoding == STRINGS_DICTIONARY) {
+                            count = data.getInt(pos);
+                            pos += 4;
+                            dictionaries[i] = new String[count];
+                        } else {
+                            count = rows;
+                        }
+                        valuesAt[i] = pos;
+                        final int bytes = data.getInt(pos + count * 4);
+                        pos += (count + 1) * 4;
+                        bytesAt[i] = pos;
+                        pos += bytes;
+                        if (encoding == STRINGS_DICTIONARY) {
+                            codesAt[i] = pos;
+                            pos += rows * 4;
+                        } else {
+                            codesAt[i] = -1;
+                        }
+                        break;
+                }
+            }
+        }
+
+        private int loadDoubles(final int column, final int start) {
+            int pos = start;
+            textRows[column] = null;
+            texts[column] = null;
+            if (version == 1) {
+                styles[column] = DetachedResult.DoubleStyle.PLAIN;
+                return pos + rows * 8;
+            }
+            styles[column] = DetachedResult.DoubleStyle.values()[data.get(pos++)];
+            valuesAt[column] = pos;
+            pos += rows * 8;
+            final int count = data.getInt(pos);
+            pos += 4;
+            if (count > 0) {
+                textRows[column] = new int[count];
+                texts[column] = new String[count];
+                for (int t = 0; t < count; t++) {
+                    textRows[column][t] = data.getInt(pos);
+                    final int length = data.getInt(pos + 4);
+                    final byte[] utf8 = new byte[length];
+                    for (int j = 0; j < length; j++) {
+                        utf8[j] = data.get(pos + 8 + j);
+                    }
+                    texts[column][t] = new String(utf8, StandardCharsets.UTF_8);
+                    pos += 8 + length;
+                }
+            }
+            return pos;
+        }
+
+        private void checkRow() {
+            if (block < 0 || block >= blockRows.length) {
+                throw new IllegalStateException("Cursor is not on a row");
+            }
+        }
+
+        /**
+         * Check whether a value in the current row is SQL {@code NULL}.
+         *
+         * @param column The 0-based column.
+         * @return True if the value is {@code NULL}.
+         */
+        public boolean isNull(final int column) {
+            checkRow();
+            final int at = nullsAt[column];
+            return at >= 0 && (data.getLong(at + (row >>> 6) * 8) & (1L << row)) != 0;
+        }
+
+        /**
+         * Get a value in the current row as a {@code long}.  String columns
+         * are parsed.
+         *
+         * @param column The 0-based column.
+         * @return The value, or 0 for SQL {@code NULL}.
+         */
+        public long getLong(final int column) {
+            if (isNull(column)) {
+                return 0;
+            }
+            switch (storage[column]) {
+                case STORAGE_INT:
+                    return data.getInt(valuesAt[column] + row * 4);
+                case STORAGE_LONG:
+                    return data.getLong(valuesAt[column] + row * 8);
+                case STORAGE_DOUBLE:
+                    return (long) data.getDouble(valuesAt[column] + row * 8);
+                default:
+                    return Long.parseLong(string(column).trim());
+            }
+        }
+
+        /**
+         * Get a value in the current row as a {@code double}.  String
+         * columns are parsed.
+         *
+         * @param column The 0-based column.
+         * @return The value, or 0 for SQL {@code NULL}.
+         */
+        public double getDouble(final int column) {
+            if (isNull(column)) {
+                return 0;
+            }
+            switch (storage[column]) {
+                case STORAGE_INT:
+                    return data.getInt(valuesAt[column] + row * 4);
+                case STORAGE_LONG:
+                    return data.getLong(valuesAt[column] + row * 8);
+                case STORAGE_DOUBLE:
+                    return data.getDouble(valuesAt[column] + row * 8);
+                default:
+                    return Double.parseDouble(string(column).trim());
+            }
+        }
+
+        /**
+         * Get a value in the current row as a string: the text the driver
+         * returned, or for numeric columns the number formatted by Java,
+         * floating point values as {@link DetachedResult#getString(int, int)}
+         * prints them.
+         *
+         * @param column The 0-based column.
+         * @return The value, or {@code null} for SQL {@code NULL}.
+         */
+        public String getString(final int column) {
+            if (isNull(column)) {
+                return null;
+            }
+            switch (storage[column]) {
+                case STORAGE_INT:
+                    return Integer.toString(data.getInt(valuesAt[column] + row * 4));
+                case STORAGE_LONG:
+                    return Long.toString(data.getLong(valuesAt[column] + row * 8));
+                case STORAGE_DOUBLE: {
+                    if (textRows[column] != null) {
+                        final int t = Arrays.binarySearch(textRows[column], row);
+                        if (t >= 0) {
+                            return texts[column][t];
+                        }
+                    }
+                    return styles[column].format(data.getDouble(valuesAt[column] + row * 8));
+                }
+                default:
+                    return string(column);
+            }
+        }
+
+        private String string(final int column) {
+            if (codesAt[column] < 0) {
+                return decode(column, row);
+            }
+            final int code = data.getInt(codesAt[column] + row * 4);
+            final String[] dictionary = dictionaries[column];
+            String value = dictionary[code];
+            if (value == null) {
+                value = decode(column, code);
+                dictionary[code] = value;
+            }
+            return value;
+        }
+
+        private String decode(final int column, final int i) {
+            final int start = data.getInt(valuesAt[column] + i * 4);
+            final int length = data.getInt(valuesAt[column] + (i + 1) * 4) - start;
+            final int at = bytesAt[column] + start;
+            if (data.hasArray()) {
+                return new String(data.array(), data.arrayOffset() + at, length, StandardCharsets.UTF_8);
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            for (int j = 0; j < length; j++) {
+                scratch[j] = data.get(at + j);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int words(final int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    /**
+     * Writes one {@code ResultSet} as a snapshot.
+     */
+    private static final class BlockWriter {
+        private final WritableByteChannel channel;
+        private final int blockRows;
+        private final Compression compression;
+        private Deflater deflater;
+        private byte[] compressed;
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private long position;
+        private long[] offsets = new long[16];
+        private int[] rowCounts = new int[16];
+        private int[] storedLengths = new int[16];
+        private int[] rawLengths = new int[16];
+        private Compression[] compressions = new Compression[16];
+        private int blocks;
+
+        BlockWriter(final WritableByteChannel channel, final int blockRows, final Compression compression) {
+            this.channel = channel;
+            this.blockRows = blockRows;
+            this.compression = compression;
+        }
+
+        long write(final ResultSet rs) throws SQLException {
+            try {
+                return writeSnapshot(rs);
+            } catch (final IOException e) {
+                throw new SQLException("Couldn't write result snapshot: " + e.getMessage(), e);
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+        }
+
+        private long writeSnapshot(final ResultSet rs) throws SQLException, IOException {
+            final ResultSetMetaData rsmd = rs.getMetaData();
+            final int cols = rsmd.getColumnCount();
+            final Values[] columns = new Values[cols];
+            buffer.putInt(MAGIC).putShort((short) VERSION).putInt(cols);
+            for (int i = 0; i < cols; i++) {
+                String label = rsmd.getColumnLabel(i + 1);
+                if (null == label || 0 == label.length()) {
+                    label = rsmd.getColumnName(i + 1);
+                }
+                final int sqlType = rsmd.getColumnType(i + 1);
+                columns[i] = newValues(sqlType, rsmd.isSigned(i + 1), Math.min(blockRows, 1024));
+                final byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+                ensure(bytes.length + 9);
+                buffer.putInt(bytes.length).put(bytes).putInt(sqlType).put(columns[i].storage());
+            }
+            flushBuffer();
+
+            long total = 0;
+            int rows = 0;
+            long bytes = 0;
+            while (rs.next()) {
+                for (int i = 0; i < cols; i++) {
+                    bytes += columns[i].read(rs, i + 1, rows);
+                }
+                rows++;
+                if (rows == blockRows || bytes >= MAX_BLOCK_BYTES) {
+                    writeBlock(columns, rows);
+                    total += rows;
+                    rows = 0;
+                    bytes = 0;
+                }
+            }
+            if (rows > 0) {
+                writeBlock(columns, rows);
+                total += rows;
+            }
+
+            final long indexOffset = position;
+            ensure(4 + blocks * INDEX_ENTRY_BYTES + TAIL_BYTES);
+            buffer.putInt(blocks);
+            for (int b = 0; b < blocks; b++) {
+                buffer.putLong(offsets[b]).putInt(rowCounts[b]).putInt(storedLengths[b]).putInt(rawLengths[b])
+                        .put((byte) compressions[b].ordinal());
+            }
+            buffer.putLong(indexOffset).putLong(total).putInt(MAGIC);
+            flushBuffer();
+            return total;
+        }
+
+        private void writeBlock(final Values[] columns, final int rows) throws IOException {
+            int size = 0;
+            for (final Values column : columns) {
+                size += 1 + (column.hasNulls() ? words(rows) * 8 : 0) + column.size(rows);
+            }
+            ensure(size);
+            for (final Values column : columns) {
+                if (column.hasNulls()) {
+                    buffer.put((byte) 1);
+                    for (int w = 0; w < words(rows); w++) {
+                        buffer.putLong(w < column.nulls.length ? column.nulls[w] : 0L);
+                    }
+                } else {
+                    buffer.put((byte) 0);
+                }
+                column.write(buffer, rows);
+                column.reset(rows);
+            }
+
+            if (blocks == offsets.length) {
+                final int n = blocks * 2;
+                offsets = Arrays.copyOf(offsets, n);
+                rowCounts = Arrays.copyOf(rowCounts, n);
+                storedLengths = Arrays.copyOf(storedLengths, n);
+                rawLengths = Arrays.copyOf(rawLengths, n);
+                compressions = Arrays.copyOf(compressions, n);
+            }
+            offsets[blocks] = position;
+            rowCounts[blocks] = rows;
+            rawLengths[blocks] = size;
+            if (compression == Compression.DEFLATE) {
+                final int stored = deflate(size);
+                // Incompressible blocks are kept as they are
+                if (stored < size) {
+                    buffer.clear();
+                    write(ByteBuffer.wrap(compressed, 0, stored));
+                    storedLengths[blocks] = stored;
+                    compressions[blocks++] = Compression.DEFLATE;
+                    return;
+                }
+            }
+            storedLengths[blocks] = size;
+            compressions[blocks++] = Compression.NONE;
+            flushBuffer();
+        }
+
+        private int deflate(final int size) {
+            if (deflater == null) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+            }
+            if (compressed == null || compressed.length < size) {
+                compressed = new byte[size];
+            }
+            deflater.reset();
+            deflater.setInput(buffer.array(), 0, size);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished() && n < size) {
+                n += deflater.deflate(compressed, n, size - n);
+            }
+            return deflater.finished() ? n : size;
+        }
+
+        private void ensure(final int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            if (buffer.position() > 0 && buffer.capacity() >= bytes) {
+                flushBuffer();
+                return;
+            }
+            final ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.position() + bytes, buffer.capacity() * 2));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+
+        private void flushBuffer() throws IOException {
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+
+        private void write(final ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                position += channel.write(src);
+            }
+        }
+    }
+
+    private static Values newValues(final int sqlType, final boolean signed, final int capacity) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+                return new IntValues(capacity);
+            case Types.INTEGER:
+                // MySQL's INT UNSIGNED doesn't fit in an int
+                return signed ? new IntValues(capacity) : new LongValues(capacity);
+            case Types.BIGINT:
+                return signed ? new LongValues(capacity) : new StringValues(capacity);
+            case Types.DOUBLE:
+            case Types.FLOAT:
+                return new DoubleValues(capacity);
+            default:
+                return new StringValues(capacity);
+        }
+    }
+
+    /**
+     * One column of the block being written.
+     */
+    private abstract static class Values {
+        long[] nulls;
+        private boolean anyNull;
+
+        Values(final int capacity) {
+            nulls = new long[words(capacity)];
+        }
+
+        abstract byte storage();
+
+        /**
+         * Read a value and return roughly how many bytes it takes.
+         */
+        abstract int read(ResultSet rs, int index, int row) throws SQLException;
+
+        abstract int size(int rows);
+
+        abstract void write(ByteBuffer out, int rows);
+
+        void setNull(final int row) {
+            if (row >>> 6 >= nulls.length) {
+                nulls = Arrays.copyOf(nulls, Math.max(nulls.length * 2, (row >>> 6) + 1));
+            }
+            nulls[row >>> 6] |= 1L << row;
+            anyNull = true;
+        }
+
+        boolean hasNulls() {
+            return anyNull;
+        }
+
+        void reset(final int rows) {
+            if (anyNull) {
+                Arrays.fill(nulls, 0, Math.min(words(rows), nulls.length), 0L);
+                anyNull = false;
+            }
+        }
+
+        static int capacity(final int length, final int row) {
+            return row < length ? length : Math.max(length * 2, row + 1);
+        }
+    }
+
+    private static final class IntValues extends Values {
+        private int[] values;
+
+        IntValues(final int capacity) {
+            super(capacity);
+            values = new int[capacity];
+        }
+
+        @Override
+        byte storage() {
+            return STORAGE_INT;
+        }
+
+        @Override
+        int read(final ResultSet rs, final int index, final int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, capacity(values.length, row));
+            }
+            values[row] = rs.getInt(index);
+            if (rs.wasNull()) {
+                setNull(row);
+            }
+            return 4;
+        }
+
+        @Override
+        int size(final int rows) {
+            return rows * 4;
+        }
+
+        @Override
+        void write(final ByteBuffer out, final int rows) {
+            for (int i = 0; i < rows; i++) {
+                out.putInt(values[i]);
+            }
+        }
+    }
+
+    private static final class LongValues extends Values {
+        private long[] values;
+
+        LongValues(final int capacity) {
+            super(capacity);
+            values = new long[capacity];
+        }
+
+        @Override
+        byte storage() {
+            return STORAGE_LONG;
+        }
+
+        @Override
+        int read(final ResultSet rs, final int index, final int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, capacity(values.length, row));
+            }
+            values[row] = rs.getLong(index);
+            if (rs.wasNull()) {
+                setNull(row);
+            }
+            return 8;
+        }
+
+        @Override
+        int size(final int rows) {
+            return rows * 8;
+        }
+
+        @Override
+        void write(final ByteBuffer out, final int rows) {
+            for (int i = 0; i < rows; i++) {
+                out.putLong(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Doubles, with the text style the driver's first values show, and the
+     * driver's text of the values the style doesn't print the same.
+     */
+    private static final class DoubleValues extends Values {
+        private double[] values;
+        private int styles = DetachedResult.DoubleStyle.ALL;
+        private int sampled;
+        private DetachedResult.DoubleStyle style;
+        private boolean keepTexts;
+        private int[] textRows = new int[16];
+        private byte[][] texts = new byte[16][];
+        private int textCount;
+        private int textBytes;
+
+        DoubleValues(final int capacity) {
+            super(capacity);
+            values = new double[capacity];
+        }
+
+        @Override
+        byte storage() {
+            return STORAGE_DOUBLE;
+        }
+
+        @Override
+        int read(final ResultSet rs, final int index, final int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, capacity(values.length, row));
+            }
+            values[row] = rs.getDouble(index);
+            if (rs.wasNull()) {
+                setNull(row);
+                return 8;
+            }
+            if (style != null && !keepTexts) {
+                return 8;
+            }
+            final String text = rs.getString(index);
+            if (style == null) {
+                styles &= DetachedResult.DoubleStyle.matching(values[row], text);
+                sampled++;
+            } else if (style.format(values[row]).equals(text)) {
+                return 8;
+            }
+            final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            if (textCount == textRows.length) {
+                textRows = Arrays.copyOf(textRows, textCount * 2);
+                texts = Arrays.copyOf(texts, textCount * 2);
+            }
+            textRows[textCount] = row;
+            texts[textCount++] = utf8;
+            textBytes += utf8.length;
+            if (style == null && (sampled == DetachedResult.DoubleStyle.SAMPLE_VALUES || styles == 0)) {
+                pickStyle();
+            }
+            return 16 + utf8.length;
+        }
+
+        /**
+         * Keep the first style matching the sample, or the driver's text
+         * of the values printed otherwise if none does.
+         */
+        private void pickStyle() {
+            style = DetachedResult.DoubleStyle.pick(styles);
+            if (style != null) {
+                textCount = 0;
+                textBytes = 0;
+                return;
+            }
+            style = DetachedResult.DoubleStyle.PLAIN;
+            keepTexts = true;
+            int kept = 0;
+            textBytes = 0;
+            for (int t = 0; t < textCount; t++) {
+                final String text = new String(texts[t], StandardCharsets.UTF_8);
+                if (!style.format(values[textRows[t]]).equals(text)) {
+                    textRows[kept] = textRows[t];
+                    texts[kept++] = texts[t];
+                    textBytes += texts[t].length;
+                }
+            }
+            textCount = kept;
+        }
+
+        @Override
+        int size(final int rows) {
+            return 1 + rows * 8 + 4 + textCount * 8 + textBytes;
+        }
+
+        @Override
+        void write(final ByteBuffer out, final int rows) {
+            // a block written while sampling has the text of every value
+            out.put((byte) (style == null ? DetachedResult.DoubleStyle.PLAIN : style).ordinal());
+            for (int i = 0; i < rows; i++) {
+                out.putDouble(values[i]);
+            }
+            out.putInt(textCount);
+            for (int t = 0; t < textCount; t++) {
+                out.putInt(textRows[t]).putInt(texts[t].length).put(texts[t]);
+            }
+        }
+
+        @Override
+        void reset(final int rows) {
+            super.reset(rows);
+            textCount = 0;
+            textBytes = 0;
+        }
+    }
+
+    /**
+     * UTF-8 strings, kept both plain and, until there are too many distinct
+     * values, as dictionary codes; the smaller encoding is written.
+     */
+    private static final class StringValues extends Values {
+        private byte[] bytes = new byte[1024];
+        private int length;
+        private int[] ends;
+        private Map<String, Integer> dictionary = new HashMap<>();
+        private int[] dictionaryEnds = new int[64];
+        private int dictionaryLength;
+        private int[] codes;
+
+        StringValues(final int capacity) {
+            super(capacity);
+            ends = new int[capacity];
+            codes = new int[capacity];
+        }
+
+        @Override
+        byte storage() {
+            return STORAGE_STRING;
+        }
+
+        @Override
+        int read(final ResultSet rs, final int index, final int row) throws SQLException {
+            if (row == ends.length) {
+                ends = Arrays.copyOf(ends, capacity(ends.length, row));
+                codes = Arrays.copyOf(codes, ends.length);
+            }
+            final String value = rs.getString(index);
+            if (value == null) {
+                setNull(row);
+                ends[row] = length;
+                codes[row] = 0;
+                return 4;
+            }
+            final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            append(utf8);
+            ends[row] = length;
+            if (dictionary != null) {
+                Integer code = dictionary.get(value);
+                if (code == null) {
+                    if (dictionary.size() == MAX_DICTIONARY_SIZE) {
+                        dictionary = null;
+                        return utf8.length + 4;
+                    }
+                    code = dictionary.size();
+                    dictionary.put(value, code);
+                    if (code + 1 == dictionaryEnds.length) {
+                        dictionaryEnds = Arrays.copyOf(dictionaryEnds, dictionaryEnds.length * 2);
+                    }
+                    dictionaryLength += utf8.length;
+                    dictionaryEnds[code + 1] = dictionaryLength;
+                }
+                codes[row] = code;
+            }
+            return utf8.length + 4;
+        }
+
+        private void append(final byte[] utf8) {
+            if (length + utf8.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + utf8.length));
+            }
+            System.arraycopy(utf8, 0, bytes, length, utf8.length);
+            length += utf8.length;
+        }
+
+        private boolean useDictionary(final int rows) {
+            return dictionary != null
+                    && 4 + (dictionary.size() + 1) * 4 + dictionaryLength + rows * 4 < (rows + 1) * 4 + length;
+        }
+
+        @Override
+        int size(final int rows) {
+            if (useDictionary(rows)) {
+                return 1 + 4 + (dictionary.size() + 1) * 4 + dictionaryLength + rows * 4;
+            }
+            return 1 + (rows + 1) * 4 + length;
+        }
+
+        @Override
+        void write(final ByteBuffer out, final int rows) {
+            if (!useDictionary(rows)) {
+                out.put(STRINGS_PLAIN);
+                out.putInt(0);
+                for (int i = 0; i < rows; i++) {
+                    out.putInt(ends[i]);
+                }
+                out.put(bytes, 0, length);
+                return;
+            }
+            out.put(STRINGS_DICTIONARY);
+            final int size = dictionary.size();
+            out.putInt(size);
+            for (int i = 0; i <= size; i++) {
+                out.putInt(dictionaryEnds[i]);
+            }
+            // The first row with each code holds the code's bytes
+            final int start = out.position();
+            final boolean[] written = new boolean[size];
+            for (int i = 0; i < rows; i++) {
+                final int code = codes[i];
+                if (!isNull(i) && !written[code]) {
+                    written[code] = true;
+                    final int from = i == 0 ? 0 : ends[i - 1];
+                    out.position(start + dictionaryEnds[code]);
+                    out.put(bytes, from, ends[i] - from);
+                }
+            }
+            out.position(start + dictionaryLength);
+            for (int i = 0; i < rows; i++) {
+                out.putInt(codes[i]);
+            }
+        }
+
+        private boolean isNull(final int row) {
+            return row >>> 6 < nulls.length && (nulls[row >>> 6] & (1L << row)) != 0;
+        }
+
+        @Override
+        void reset(final int rows) {
+            super.reset(rows);
+            length = 0;
+            dictionary = new HashMap<>();
+            dictionaryLength = 0;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Implementations of this interface process a {@code ResultSet} one row at
+ * a time, so that results of any size can be handled in constant memory.
+ *
+ * @see QueryRunner#queryRows(java.sql.Connection, String, RowHandler, Object...)
+ */
+public interface RowHandler {
+
+    /**
+     * Process the current row of the {@code ResultSet}.
+     *
+     * @param rs The {@code ResultSet}, positioned on the row to handle.
+     * Implementations must not move the cursor or close it.
+     *
+     * @throws SQLException if a database access error occurs
+     */
+    void handleRow(ResultSet rs) throws SQLException;
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the rows of an open cursor, one {@code Object[]} per row.
+ * <p>
+ * The statement, result set and, if the iterator was opened by
+ * {@link QueryRunner#iterate(String, Object...)}, the connection are closed
+ * as soon as the last row has been read, when {@link #close()} is called, or
+ * when reading fails.  Callers that may stop early must close the iterator,
+ * ideally with try-with-resources.  SQLExceptions thrown while iterating
+ * are wrapped in a {@code RuntimeException}.  This class is not thread safe.
+ *
+ * @see QueryRunner#iterate(Connection, String, Object...)
+ */
+public class RowIterator implements Iterator<Object[]>, AutoCloseable {
+
+    private final AbstractQueryRunner runner;
+    private final Connection conn;
+    private final boolean closeConn;
+    private final Statement stmt;
+    private final ResultSet rs;
+    private final int columnCount;
+
+    private boolean fetched = false;
+    private boolean hasRow = false;
+    private boolean closed = false;
+
+    /**
+     * Constructor for RowIterator.  Takes ownership of the statement and
+     * result set, and of the connection if {@code closeConn} is set.
+     *
+     * @throws SQLException if the result set metadata can't be read
+     */
+    RowIterator(final AbstractQueryRunner runner, final Connection conn, final boolean closeConn,
+                final Statement stmt, final ResultSet rs) throws SQLException {
+        this.runner = runner;
+        this.conn = conn;
+        this.closeConn = closeConn;
+        this.stmt = stmt;
+        this.rs = rs;
+        this.columnCount = rs.getMetaData().getColumnCount();
+    }
+
+    /**
+     * Get the metadata of the underlying result set, for column labels and types.
+     *
+     * @return The result set metadata.
+     * @throws SQLException if a database access error occurs
+     */
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return rs.getMetaData();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!fetched) {
+            try {
+                hasRow = rs.next();
+            } catch (final SQLException e) {
+                close();
+                throw new RuntimeException(e.getMessage(), e);
+            }
+            fetched = true;
+            if (!hasRow) {
+                close();
+            }
+        }
+        return hasRow;
+    }
+
+    @Override
+    public Object[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        final Object[] row = new Object[columnCount];
+        try {
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = rs.getObject(i + 1);
+            }
+        } catch (final SQLException e) {
+            close();
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return row;
+    }
+
+    /**
+     * Wrap this iterator in a sequential {@code Stream}; closing the stream
+     * closes the iterator.
+     *
+     * @return A stream over the remaining rows.
+     */
+    public Stream<Object[]> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * Release the cursor and, if owned, the connection.  Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        hasRow = false;
+        try {
+            runner.closeQuietly(rs);
+        } finally {
+            try {
+                runner.releaseQuietly(stmt);
+            } finally {
+                if (closeConn) {
+                    runner.closeQuietly(conn);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of prepared statements keyed by connection, SQL and
+ * generated-keys flag, used by {@link AbstractQueryRunner} when
+ * {@link StatementConfiguration#getStatementCacheSize()} is set.
+ * <p>
+ * A cached statement is handed to one caller at a time.  When the caller is
+ * done its parameters and batch are cleared instead of closing it; when it
+ * falls out of the cache, or its connection is closed through the runner or
+ * passed to {@link #evict(Connection)}, it is closed.  This class is thread
+ * safe.
+ */
+public class StatementCache {
+
+    /**
+     * Key used for statements prepared without a generated-keys flag.
+     */
+    static final int NO_GENERATED_KEYS_FLAG = -1;
+
+    private final int maxSize;
+
+    /**
+     * All cached statements, least recently used first.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Cached statements currently handed out, by identity.
+     */
+    private final Map<Statement, Entry> checkedOut = new IdentityHashMap<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructor for {@code StatementCache}.
+     *
+     * @param maxSize The maximum number of statements kept open, over all connections.
+     */
+    public StatementCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Hand out the cached statement for the given key if it is not in use.
+     *
+     * @param conn The connection the statement was prepared on.
+     * @param sql The SQL of the statement.
+     * @param returnedKeys The generated-keys flag, or {@link #NO_GENERATED_KEYS_FLAG}.
+     * @return The cached statement, or {@code null} on a miss.
+     */
+    synchronized PreparedStatement take(final Connection conn, final String sql, final int returnedKeys) {
+        final Entry entry = entries.get(new Key(conn, sql, returnedKeys));
+        if (entry == null || entry.inUse) {
+            misses++;
+            return null;
+        }
+        entry.inUse = true;
+        checkedOut.put(entry.stmt, entry);
+        hits++;
+        return entry.stmt;
+    }
+
+    /**
+     * Start caching a statement that was just prepared after a miss.  The
+     * statement counts as handed out until it is {@link #release released}.
+     * If another caller already holds a cached statement for the same key
+     * the new one stays uncached.
+     *
+     * @param conn The connection the statement was prepared on.
+     * @param sql The SQL of the statement.
+     * @param returnedKeys The generated-keys flag, or {@link #NO_GENERATED_KEYS_FLAG}.
+     * @param stmt The prepared and configured statement.
+     */
+    void put(final Connection conn, final String sql, final int returnedKeys, final PreparedStatement stmt) {
+        final List<Statement> toClose = new ArrayList<>();
+        synchronized (this) {
+            final Key key = new Key(conn, sql, returnedKeys);
+            if (entries.containsKey(key)) {
+                return;
+            }
+            final Entry entry = new Entry(key, stmt);
+            entry.inUse = true;
+            entries.put(key, entry);
+            checkedOut.put(stmt, entry);
+
+            final Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxSize && eldest.hasNext()) {
+                final Entry evicted = eldest.next();
+                eldest.remove();
+                evictions++;
+                retire(evicted, toClose);
+            }
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Take back a statement handed out by this cache, clearing its
+     * parameters for the next caller.
+     *
+     * @param stmt The statement the caller is done with.
+     * @return {@code true} if the statement belongs to the cache, in which
+     * case the caller must not close it; {@code false} if the caller still
+     * owns it.
+     */
+    boolean release(final Statement stmt) {
+        final Entry entry;
+        synchronized (this) {
+            entry = checkedOut.remove(stmt);
+        }
+        if (entry == null) {
+            return false;
+        }
+
+        boolean reusable = true;
+        try {
+            entry.stmt.clearParameters();
+            entry.stmt.clearBatch();
+        } catch (final SQLException e) {
+            reusable = false;
+        }
+
+        synchronized (this) {
+            if (reusable && !entry.evicted) {
+                entry.inUse = false;
+                return true;
+            }
+            if (!entry.evicted) {
+                entries.remove(entry.key);
+                entry.evicted = true;
+            }
+        }
+        DbUtils.closeQuietly(entry.stmt);
+        return true;
+    }
+
+    /**
+     * Close every statement cached for a connection that is being released.
+     * Statements currently handed out are closed when they are returned.
+     *
+     * @param conn The connection whose statements are dropped.
+     */
+    public void evict(final Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        final List<Statement> toClose = new ArrayList<>();
+        synchronized (this) {
+            final Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                final Entry entry = it.next();
+                if (entry.key.conn == conn) {
+                    it.remove();
+                    retire(entry, toClose);
+                }
+            }
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Close every cached statement.
+     */
+    public void clear() {
+        final List<Statement> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (final Entry entry : entries.values()) {
+                retire(entry, toClose);
+            }
+            entries.clear();
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Get the number of lookups that were served by a cached statement.
+     *
+     * @return The hit count.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups that had to prepare a new statement.
+     *
+     * @return The miss count.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of statements pushed out of the cache by newer ones.
+     *
+     * @return The eviction count.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the number of statements currently cached.
+     *
+     * @return The cache size.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the maximum number of statements kept open.
+     *
+     * @return The cache capacity.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StatementCache[size=" + entries.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "]";
+    }
+
+    /**
+     * Mark an entry that left the map as dead; idle statements are closed
+     * right away, handed-out ones on release.
+     */
+    private void retire(final Entry entry, final List<Statement> toClose) {
+        entry.evicted = true;
+        if (!entry.inUse) {
+            toClose.add(entry.stmt);
+        }
+    }
+
+    private static void closeAll(final List<Statement> statements) {
+        for (final Statement stmt : statements) {
+            DbUtils.closeQuietly(stmt);
+        }
+    }
+
+    private static final class Key {
+        private final Connection conn;
+        private final String sql;
+        private final int returnedKeys;
+
+        Key(final Connection conn, final String sql, final int returnedKeys) {
+            this.conn = conn;
+            this.sql = sql;
+            this.returnedKeys = returnedKeys;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return conn == other.conn && returnedKeys == other.returnedKeys && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(conn) * 31 + sql.hashCode()) * 31 + returnedKeys;
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private final PreparedStatement stmt;
+        private boolean inUse;
+        private boolean evicted;
+
+        Entry(final Key key, final PreparedStatement stmt) {
+            this.key = key;
+            this.stmt = stmt;
+        }
+    }
+}
@@ -16,15 +16,29 @@
  */
 package com.github.db;
 
+import java.sql.ResultSet;
+
 /**
  * Configuration options for a {@link java.sql.Statement} when preparing statements in {@code QueryRunner}.
  */
 public class StatementConfiguration {
+    /**
+     * The fetch size {@link Builder#streaming(Dialect)} uses where the driver
+     * fetches a batch of rows at a time.
+     */
+    static final int STREAMING_FETCH_SIZE = 1000;
+
     private final Integer fetchDirection;
     private final Integer fetchSize;
     private final Integer maxFieldSize;
     private final Integer maxRows;
     private final Integer queryTimeout;
+    private final Integer statementCacheSize;
+    private final Integer resultSetType;
+    private final Integer resultSetConcurrency;
+    private final Integer resultSetHoldability;
+    private final FetchSizeAdvisor fetchSizeAdvisor;
+    private final ResultCache resultCache;
 
     /**
      * Constructor for {@code StatementConfiguration}.  For more flexibility, use {@link Builder}.
@@ -38,11 +52,102 @@ public class StatementConfiguration {
     public StatementConfiguration(final Integer fetchDirection, final Integer fetchSize,
                                   final Integer maxFieldSize, final Integer maxRows,
                                   final Integer queryTimeout) {
+        this(fetchDirection, fetchSize, maxFieldSize, maxRows, queryTimeout, null);
+    }
+
+    /**
+     * Constructor for {@code StatementConfiguration}.  For more flexibility, use {@link Builder}.
+     *
+     * @param fetchDirection The direction for fetching rows from database tables.
+     * @param fetchSize The number of rows that should be fetched from the database when more rows are needed.
+     * @param maxFieldSize The maximum number of bytes that can be returned for character and binary column values.
+     * @param maxRows The maximum number of rows that a {@code ResultSet} can produce.
+     * @param queryTimeout The number of seconds the driver will wait for execution.
+     * @param statementCacheSize The number of prepared statements the runner keeps open for reuse.
+     */
+    public StatementConfiguration(final Integer fetchDirection, final Integer fetchSize,
+                                  final Integer maxFieldSize, final Integer maxRows,
+                                  final Integer queryTimeout, final Integer statementCacheSize) {
+        this(fetchDirection, fetchSize, maxFieldSize, maxRows, queryTimeout, statementCacheSize, null, null, null);
+    }
+
+    /**
+     * Constructor for {@code StatementConfiguration}.  For more flexibility, use {@link Builder}.
+     *
+     * @param fetchDirection The direction for fetching rows from database tables.
+     * @param fetchSize The number of rows that should be fetched from the database when more rows are needed.
+     * @param maxFieldSize The maximum number of bytes that can be returned for character and binary column values.
+     * @param maxRows The maximum number of rows that a {@code ResultSet} can produce.
+     * @param queryTimeout The number of seconds the driver will wait for execution.
+     * @param statementCacheSize The number of prepared statements the runner keeps open for reuse.
+     * @param resultSetType The {@code ResultSet} type, e.g. {@link ResultSet#TYPE_FORWARD_ONLY}.
+     * @param resultSetConcurrency The {@code ResultSet} concurrency, e.g. {@link ResultSet#CONCUR_READ_ONLY}.
+     * @param resultSetHoldability The {@code ResultSet} holdability, e.g. {@link ResultSet#CLOSE_CURSORS_AT_COMMIT}.
+     */
+    public StatementConfiguration(final Integer fetchDirection, final Integer fetchSize,
+                                  final Integer maxFieldSize, final Integer maxRows,
+                                  final Integer queryTimeout, final Integer statementCacheSize,
+                                  final Integer resultSetType, final Integer resultSetConcurrency,
+                                  final Integer resultSetHoldability) {
+        this(fetchDirection, fetchSize, maxFieldSize, maxRows, queryTimeout, statementCacheSize,
+                resultSetType, resultSetConcurrency, resultSetHoldability, null);
+    }
+
+    /**
+     * Constructor for {@code StatementConfiguration}.  For more flexibility, use {@link Builder}.
+     *
+     * @param fetchDirection The direction for fetching rows from database tables.
+     * @param fetchSize The number of rows that should be fetched from the database when more rows are needed.
+     * @param maxFieldSize The maximum number of bytes that can be returned for character and binary column values.
+     * @param maxRows The maximum number of rows that a {@code ResultSet} can produce.
+     * @param queryTimeout The number of seconds the driver will wait for execution.
+     * @param statementCacheSize The number of prepared statements the runner keeps open for reuse.
+     * @param resultSetType The {@code ResultSet} type, e.g. {@link ResultSet#TYPE_FORWARD_ONLY}.
+     * @param resultSetConcurrency The {@code ResultSet} concurrency, e.g. {@link ResultSet#CONCUR_READ_ONLY}.
+     * @param resultSetHoldability The {@code ResultSet} holdability, e.g. {@link ResultSet#CLOSE_CURSORS_AT_COMMIT}.
+     * @param fetchSizeAdvisor The advisor that sizes fetches per SQL, or null for the fixed fetch size.
+     */
+    public StatementConfiguration(final Integer fetchDirection, final Integer fetchSize,
+                                  final Integer maxFieldSize, final Integer maxRows,
+                                  final Integer queryTimeout, final Integer statementCacheSize,
+                                  final Integer resultSetType, final Integer resultSetConcurrency,
+                                  final Integer resultSetHoldability, final FetchSizeAdvisor fetchSizeAdvisor) {
+        this(fetchDirection, fetchSize, maxFieldSize, maxRows, queryTimeout, statementCacheSize,
+                resultSetType, resultSetConcurrency, resultSetHoldability, fetchSizeAdvisor, null);
+    }
+
+    /**
+     * Constructor for {@code StatementConfiguration}.  For more flexibility, use {@link Builder}.
+     *
+     * @param fetchDirection The direction for fetching rows from database tables.
+     * @param fetchSize The number of rows that should be fetched from the database when more rows are needed.
+     * @param maxFieldSize The maximum number of bytes that can be returned for character and binary column values.
+     * @param maxRows The maximum number of rows that a {@code ResultSet} can produce.
+     * @param queryTimeout The number of seconds the driver will wait for execution.
+     * @param statementCacheSize The number of prepared statements the runner keeps open for reuse.
+     * @param resultSetType The {@code ResultSet} type, e.g. {@link ResultSet#TYPE_FORWARD_ONLY}.
+     * @param resultSetConcurrency The {@code ResultSet} concurrency, e.g. {@link ResultSet#CONCUR_READ_ONLY}.
+     * @param resultSetHoldability The {@code ResultSet} holdability, e.g. {@link ResultSet#CLOSE_CURSORS_AT_COMMIT}.
+     * @param fetchSizeAdvisor The advisor that sizes fetches per SQL, or null for the fixed fetch size.
+     * @param resultCache The cache of query results, or null to run every query.
+     */
+    public StatementConfiguration(final Integer fetchDirection, final Integer fetchSize,
+                                  final Integer maxFieldSize, final Integer maxRows,
+                                  final Integer queryTimeout, final Integer statementCacheSize,
+                                  final Integer resultSetType, final Integer resultSetConcurrency,
+                                  final Integer resultSetHoldability, final FetchSizeAdvisor fetchSizeAdvisor,
+                                  final ResultCache resultCache) {
         this.fetchDirection = fetchDirection;
         this.fetchSize = fetchSize;
         this.maxFieldSize = maxFieldSize;
         this.maxRows = maxRows;
         this.queryTimeout = queryTimeout;
+        this.statementCacheSize = statementCacheSize;
+        this.resultSetType = resultSetType;
+        this.resultSetConcurrency = resultSetConcurrency;
+        this.resultSetHoldability = resultSetHoldability;
+        this.fetchSizeAdvisor = fetchSizeAdvisor;
+        this.resultCache = resultCache;
     }
 
     /**
@@ -135,6 +240,91 @@ public class StatementConfiguration {
         return queryTimeout != null;
     }
 
+    /**
+     * Get the statement cache size.
+     *
+     * @return The number of prepared statements cached for reuse or null if not set.
+     * @see StatementCache
+     */
+    public Integer getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Whether statement caching is enabled.
+     *
+     * @return true if a positive statement cache size is set, false otherwise.
+     */
+    public boolean isStatementCacheSizeSet() {
+        return statementCacheSize != null && statementCacheSize > 0;
+    }
+
+    /**
+     * Get the result set type.
+     *
+     * @return The {@code ResultSet} type or null if not set.
+     */
+    public Integer getResultSetType() {
+        return resultSetType;
+    }
+
+    /**
+     * Get the result set concurrency.
+     *
+     * @return The {@code ResultSet} concurrency or null if not set.
+     */
+    public Integer getResultSetConcurrency() {
+        return resultSetConcurrency;
+    }
+
+    /**
+     * Get the result set holdability.
+     *
+     * @return The {@code ResultSet} holdability or null if not set.
+     */
+    public Integer getResultSetHoldability() {
+        return resultSetHoldability;
+    }
+
+    /**
+     * Whether any of the result set type, concurrency or holdability is set,
+     * so statements must be created with them instead of the driver's defaults.
+     *
+     * @return true if set, false otherwise.
+     */
+    public boolean isResultSetOptionsSet() {
+        return resultSetType != null || resultSetConcurrency != null || resultSetHoldability != null;
+    }
+
+    /**
+     * Get the fetch size advisor.
+     *
+     * @return The advisor that sizes fetches per SQL or null if not set.
+     */
+    public FetchSizeAdvisor getFetchSizeAdvisor() {
+        return fetchSizeAdvisor;
+    }
+
+    /**
+     * Whether fetches are sized adaptively.  A fetch size of
+     * {@code Integer.MIN_VALUE}, which makes Connector/J stream rows one at
+     * a time, turns it off.
+     *
+     * @return true if an advisor is set and the fetch size allows it, false otherwise.
+     */
+    public boolean isAdaptiveFetchSizeSet() {
+        return fetchSizeAdvisor != null && (fetchSize == null || fetchSize != Integer.MIN_VALUE);
+    }
+
+    /**
+     * Get the result cache.
+     *
+     * @return The cache of query results or null if not set.
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
     /**
      * Builder class for {@code StatementConfiguration} for more flexible construction.
      */
@@ -144,6 +334,12 @@ public class StatementConfiguration {
         private Integer maxRows;
         private Integer queryTimeout;
         private Integer maxFieldSize;
+        private Integer statementCacheSize;
+        private Integer resultSetType;
+        private Integer resultSetConcurrency;
+        private Integer resultSetHoldability;
+        private FetchSizeAdvisor fetchSizeAdvisor;
+        private ResultCache resultCache;
 
         /**
          * @param fetchDirection The direction for fetching rows from database tables.
@@ -195,11 +391,119 @@ public class StatementConfiguration {
             return this;
         }
 
+        /**
+         * Enable the statement cache.  Cached statements stay open until they
+         * are evicted or their connection is closed through the runner; callers
+         * that close connections themselves should pass them to
+         * {@link StatementCache#evict(java.sql.Connection)} first.
+         *
+         * @param statementCacheSize The number of prepared statements the runner keeps open for reuse.
+         * @return This builder for chaining.
+         * @see StatementConfiguration#getStatementCacheSize()
+         */
+        public Builder statementCacheSize(final Integer statementCacheSize) {
+            this.statementCacheSize = statementCacheSize;
+            return this;
+        }
+
+        /**
+         * @param resultSetType The {@code ResultSet} type; defaults to
+         * {@link ResultSet#TYPE_FORWARD_ONLY} when only the concurrency or
+         * holdability is set.
+         * @return This builder for chaining.
+         * @see StatementConfiguration#getResultSetType()
+         */
+        public Builder resultSetType(final Integer resultSetType) {
+            this.resultSetType = resultSetType;
+            return this;
+        }
+
+        /**
+         * @param resultSetConcurrency The {@code ResultSet} concurrency; defaults
+         * to {@link ResultSet#CONCUR_READ_ONLY} when only the type or
+         * holdability is set.
+         * @return This builder for chaining.
+         * @see StatementConfiguration#getResultSetConcurrency()
+         */
+        public Builder resultSetConcurrency(final Integer resultSetConcurrency) {
+            this.resultSetConcurrency = resultSetConcurrency;
+            return this;
+        }
+
+        /**
+         * @param resultSetHoldability The {@code ResultSet} holdability; the
+         * connection's holdability is used when it is not set.
+         * @return This builder for chaining.
+         * @see StatementConfiguration#getResultSetHoldability()
+         */
+        public Builder resultSetHoldability(final Integer resultSetHoldability) {
+            this.resultSetHoldability = resultSetHoldability;
+            return this;
+        }
+
+        /**
+         * Size fetches per SQL from the row size and fetch latency measured
+         * while reading, instead of with one fixed fetch size.  A fetch size
+         * set as well is used for a statement's first fetch.  Share the
+         * advisor between runners to share what it learns.
+         *
+         * @param fetchSizeAdvisor The advisor, or null for the fixed fetch size.
+         * @return This builder for chaining.
+         * @see StatementConfiguration#getFetchSizeAdvisor()
+         */
+        public Builder adaptiveFetchSize(final FetchSizeAdvisor fetchSizeAdvisor) {
+            this.fetchSizeAdvisor = fetchSizeAdvisor;
+            return this;
+        }
+
+        /**
+         * Serve repeated queries from a cache, and drop cached results when
+         * updates through the runner write the tables they read.  Share the
+         * cache between runners on the same database to share its results.
+         *
+         * @param resultCache The cache, or null to run every query.
+         * @return This builder for chaining.
+         * @see StatementConfiguration#getResultCache()
+         */
+        public Builder resultCache(final ResultCache resultCache) {
+            this.resultCache = resultCache;
+            return this;
+        }
+
+        /**
+         * Configure forward-only, read-only cursors that the driver reads from
+         * the server as the caller moves through them, so a large select holds
+         * only a bounded number of rows in client memory:
+         * <ul>
+         * <li>MySQL: Connector/J reads the whole result into memory unless the
+         * fetch size is {@code Integer.MIN_VALUE}, which streams it row by row.
+         * The connection can run no other statement until the result set is
+         * closed.  With {@code useCursorFetch=true} on the url, a positive
+         * fetch size uses a server-side cursor instead.</li>
+         * <li>Oracle and DB2: the drivers fetch a batch at a time; the preset
+         * raises the fetch size from the drivers' small defaults to
+         * {@value StatementConfiguration#STREAMING_FETCH_SIZE} rows.</li>
+         * </ul>
+         * Other options, such as the query timeout, can be set after this.
+         *
+         * @param dialect The database the statements run against.
+         * @return This builder for chaining.
+         */
+        public Builder streaming(final Dialect dialect) {
+            this.resultSetType = ResultSet.TYPE_FORWARD_ONLY;
+            this.resultSetConcurrency = ResultSet.CONCUR_READ_ONLY;
+            this.fetchDirection = ResultSet.FETCH_FORWARD;
+            this.fetchSize = dialect == Dialect.MYSQL ? Integer.MIN_VALUE : STREAMING_FETCH_SIZE;
+            return this;
+        }
+
         /**
          * @return A new and configured {@link StatementConfiguration}.
          */
         public StatementConfiguration build() {
-            return new StatementConfiguration(fetchDirection, fetchSize, maxFieldSize, maxRows, queryTimeout);
+            return new StatementConfiguration(fetchDirection, fetchSize, maxFieldSize, maxRows, queryTimeout,
+                    statementCacheSize, resultSetType, resultSetConcurrency, resultSetHoldability, fetchSizeAdvisor,
+                    resultCache);
         }
     }
 }
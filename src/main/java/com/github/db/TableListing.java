@@ -1,6 +1,16 @@
 package com.github.db;
 
-import java.util.ArrayList;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 
 /**
@@ -13,6 +23,10 @@ import java.util.LinkedList;
  * pool2  andrew  andrew  rwxr-xr-x     100
  * pool3  andrew  andrew  rwxr-xr-x     100
  *
+ * A table can also be written row by row with {@link #writer(Writer)}, which
+ * sizes the columns from the header and the first rows and then streams the
+ * rest without keeping them.
+ *
  */
 public class TableListing {
     public enum Justification {
@@ -20,16 +34,57 @@ public class TableListing {
         RIGHT;
     }
 
+    /**
+     * The cells of one column, header first. Cell text is stored back to back
+     * in one char buffer with an end offset per cell, so a cell costs a few
+     * bytes besides its chars instead of a String object. Columns with few
+     * distinct values store each distinct value once and a code per cell.
+     */
     private static class Column {
-        private final ArrayList<String> rows;
+        /**
+         * A column with more distinct values than this stops dictionary
+         * encoding and stores every cell's text.
+         */
+        private static final int MAX_DICTIONARY_SIZE = 1024;
+
+        private static final int LENGTH_HISTOGRAM_SIZE = 256;
+
         private final Justification justification;
         private final boolean wrap;
 
         private int wrapWidth = Integer.MAX_VALUE;
         private int maxWidth;
 
+        /**
+         * Number of cells of each length, for lengths below
+         * LENGTH_HISTOGRAM_SIZE; longer cells are only counted, along with
+         * the longest of them.
+         */
+        private final int[] lengthCounts = new int[LENGTH_HISTOGRAM_SIZE];
+        private int longCells;
+        private int longestCell;
+
+        /**
+         * Text of the stored values; value i ends at ends[i] and starts where
+         * value i-1 ends. The values are the cells, or the dictionary entries
+         * while the column is dictionary encoded.
+         */
+        private char[] chars = new char[64];
+        private int[] ends = new int[16];
+        private int numValues;
+        private int numCells;
+        /**
+         * The dictionary entry of each cell, and the entry of each distinct
+         * value; both null once the column stores its cells directly.
+         */
+        private int[] codes = new int[16];
+        private HashMap<String, Integer> dictionary = new HashMap<>();
+        /**
+         * A view of chars, moved over the cell being rendered.
+         */
+        private CharBuffer view = CharBuffer.wrap(chars);
+
         Column(String title, Justification justification, boolean wrap) {
-            this.rows = new ArrayList<>();
             this.justification = justification;
             this.wrap = wrap;
             this.maxWidth = 0;
@@ -47,7 +102,108 @@ public class TableListing {
             if (maxWidth > wrapWidth) {
                 maxWidth = wrapWidth;
             }
-            rows.add(val);
+            if (val.length() < LENGTH_HISTOGRAM_SIZE) {
+                lengthCounts[val.length()]++;
+            } else {
+                longCells++;
+                longestCell = Math.max(longestCell, val.length());
+            }
+            store(val);
+        }
+
+        private void store(String val) {
+            if (dictionary != null) {
+                Integer code = dictionary.get(val);
+                if (code == null && dictionary.size() >= MAX_DICTIONARY_SIZE) {
+                    decode();
+                } else {
+                    if (code == null) {
+                        code = numValues;
+                        appendValue(val);
+                        dictionary.put(val, code);
+                    }
+                    if (numCells == codes.length) {
+                        codes = Arrays.copyOf(codes, codes.length * 2);
+                    }
+                    codes[numCells++] = code;
+                    return;
+                }
+            }
+            appendValue(val);
+            numCells++;
+        }
+
+        private void appendValue(CharSequence val) {
+            int start = valueEnd(numValues - 1);
+            int end = start + val.length();
+            if (end > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(end, chars.length * 2));
+            }
+            if (val instanceof String) {
+                ((String) val).getChars(0, val.length(), chars, start);
+            } else {
+                for (int i = 0; i < val.length(); i++) {
+                    chars[start + i] = val.charAt(i);
+                }
+            }
+            if (numValues == ends.length) {
+                ends = Arrays.copyOf(ends, ends.length * 2);
+            }
+            ends[numValues++] = end;
+        }
+
+        private int valueEnd(int value) {
+            return value < 0 ? 0 : ends[value];
+        }
+
+        /**
+         * Stop dictionary encoding: store every cell's text.
+         */
+        private void decode() {
+            char[] dictChars = chars;
+            int[] dictEnds = ends;
+            int total = 0;
+            for (int i = 0; i < numCells; i++) {
+                total += dictEnds[codes[i]] - (codes[i] == 0 ? 0 : dictEnds[codes[i] - 1]);
+            }
+            chars = new char[Math.max(64, total * 2)];
+            ends = new int[Math.max(16, numCells * 2)];
+            numValues = 0;
+            for (int i = 0; i < numCells; i++) {
+                int start = codes[i] == 0 ? 0 : dictEnds[codes[i] - 1];
+                int end = dictEnds[codes[i]];
+                int to = valueEnd(numValues - 1);
+                System.arraycopy(dictChars, start, chars, to, end - start);
+                ends[numValues++] = to + end - start;
+            }
+            codes = null;
+            dictionary = null;
+        }
+
+        private int size() {
+            return numCells;
+        }
+
+        private int valueOf(int idx) {
+            return codes == null ? idx : codes[idx];
+        }
+
+        private int length(int idx) {
+            int value = valueOf(idx);
+            return ends[value] - valueEnd(value - 1);
+        }
+
+        /**
+         * Drop all cells but the first count ones.
+         */
+        private void truncate(int count) {
+            if (count >= numCells) {
+                return;
+            }
+            if (codes == null) {
+                numValues = count;
+            }
+            numCells = count;
         }
 
         private int getMaxWidth() {
@@ -60,37 +216,88 @@ public class TableListing {
             if (maxWidth > wrapWidth) {
                 maxWidth = wrapWidth;
             }
-            // Else we need to traverse through and find the real maxWidth
+            // Else the real maxWidth is the longest cell
             else {
-                maxWidth = 0;
-                for (int i=0; i<rows.size(); i++) {
-                    int length = rows.get(i).length();
-                    if (length > maxWidth) {
-                        maxWidth = length;
-                    }
+                maxWidth = longestLength();
+            }
+        }
+
+        /**
+         * The length of the longest cell added, from the length histogram.
+         */
+        private int longestLength() {
+            if (longCells > 0) {
+                return longestCell;
+            }
+            for (int length = LENGTH_HISTOGRAM_SIZE - 1; length > 0; length--) {
+                if (lengthCounts[length] > 0) {
+                    return length;
                 }
             }
+            return 0;
         }
 
         /**
-         * Return the ith row of the column as a set of wrapped strings, each at
-         * most wrapWidth in length.
+         * The cell being rendered and the offsets of its lines, as laid out
+         * by {@link Utils#wrapOffsets}.
+         */
+        private CharSequence cell = "";
+        private int[] lines = new int[9];
+
+        /**
+         * Make the ith row of the column the cell being rendered.
+         *
+         * @return the number of lines it takes, each at most wrapWidth in
+         * length.
+         */
+        int prepareRow(int idx) {
+            int value = valueOf(idx);
+            if (view.array() != chars) {
+                view = CharBuffer.wrap(chars);
+            }
+            view.clear();
+            view.limit(ends[value]);
+            view.position(valueEnd(value - 1));
+            cell = view;
+            return layoutCell();
+        }
+
+        /**
+         * Make a value the cell being rendered. Values of unwrapped columns
+         * that don't fit, which only happens to rows streamed after the
+         * widths were fixed, are truncated.
+         *
+         * @return the number of lines it takes.
          */
-        String[] getRow(int idx) {
-            String raw = rows.get(idx);
+        int prepare(String raw) {
+            cell = raw == null ? "" : raw;
+            return layoutCell();
+        }
+
+        private int layoutCell() {
             // Line-wrap if it's too long
-            String[] lines = new String[] {raw};
             if (wrap) {
-                lines = Utils.wrap(lines[0], wrapWidth, "\n", true).split("\n");
+                lines = Utils.wrapOffsets(cell, wrapWidth, true, lines);
+            } else {
+                lines[0] = 1;
+                lines[1] = 0;
+                lines[2] = cell.length() > maxWidth ? Math.max(1, maxWidth - 1) : cell.length();
             }
-            for (int i=0; i<lines.length; i++) {
-                if (justification == Justification.LEFT) {
-                    lines[i] = Utils.rightPad(lines[i], maxWidth);
-                } else if (justification == Justification.RIGHT) {
-                    lines[i] = Utils.leftPad(lines[i], maxWidth);
-                }
+            return lines[0];
+        }
+
+        /**
+         * Append one line of the cell being rendered, padded to maxWidth;
+         * blank if the cell has fewer lines.
+         */
+        void appendLine(Appendable out, int line) throws IOException {
+            if (line >= lines[0]) {
+                Utils.appendRepeat(out, ' ', maxWidth);
+            } else if (justification == Justification.RIGHT) {
+                Utils.appendLeftPad(out, cell, lines[2 * line + 1], lines[2 * line + 2], maxWidth);
+            } else {
+                Utils.appendRightPad(out, cell, lines[2 * line + 1], lines[2 * line + 2], maxWidth);
             }
-            return lines;
         }
     }
 
@@ -98,6 +305,7 @@ public class TableListing {
         private final LinkedList<Column> columns = new LinkedList<Column>();
         private boolean showHeader = true;
         private int wrapWidth = Integer.MAX_VALUE;
+        private int sampleRows = DEFAULT_SAMPLE_ROWS;
 
         /**
          * Create a new Builder.
@@ -157,26 +365,50 @@ public class TableListing {
             return this;
         }
 
+        /**
+         * Set how many rows a {@link RowWriter} reads before it fixes the
+         * column widths and starts writing. Defaults to 1000.
+         */
+        public Builder sampleRows(int rows) {
+            if (rows < 1) {
+                throw new IllegalArgumentException("sampleRows must be positive: " + rows);
+            }
+            this.sampleRows = rows;
+            return this;
+        }
+
         /**
          * Create a new TableListing.
          */
         public TableListing build() {
             return new TableListing(columns.toArray(new Column[0]), showHeader,
-                    wrapWidth);
+                    wrapWidth, sampleRows);
         }
     }
 
+    /**
+     * Rows a {@link RowWriter} buffers to size the columns, unless set.
+     */
+    public static final int DEFAULT_SAMPLE_ROWS = 1000;
+
+    /**
+     * Rows a {@link RowWriter} writes between flushes once streaming.
+     */
+    private static final int FLUSH_ROWS = 1024;
+
     private final Column columns[];
 
     private int numRows;
     private final boolean showHeader;
     private final int wrapWidth;
+    private final int sampleRows;
 
-    TableListing(Column columns[], boolean showHeader, int wrapWidth) {
+    TableListing(Column columns[], boolean showHeader, int wrapWidth, int sampleRows) {
         this.columns = columns;
         this.numRows = 0;
         this.showHeader = showHeader;
         this.wrapWidth = wrapWidth;
+        this.sampleRows = sampleRows;
     }
 
     /**
@@ -198,65 +430,243 @@ public class TableListing {
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        // Calculate the widths of each column based on their maxWidths and
-        // the wrapWidth for the entire table
-        int width = (columns.length-1)*2; // inter-column padding
+        layout();
+
+        int startrow = 0;
+        if (!showHeader) {
+            startrow = 1;
+        }
+        try {
+            for (int i = startrow; i < numRows + 1; i++) {
+                appendRow(builder, i);
+            }
+        } catch (IOException e) {
+            // StringBuilder doesn't throw
+            throw new UncheckedIOException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Calculate the widths of each column based on their maxWidths and the
+     * wrapWidth for the entire table.
+     *
+     * Wrappable columns wider than 4 give up one character each, in column
+     * order, pass after pass, until the goal width is reached or none can
+     * shrink any more. Rather than running those passes one character at a
+     * time, find how many full passes are needed and apply them at once.
+     */
+    private void layout() {
+        long width = (columns.length-1)*2; // inter-column padding
         for (int i=0; i<columns.length; i++) {
             width += columns[i].maxWidth;
         }
-        // Decrease the column size of wrappable columns until the goal width
-        // is reached, or we can't decrease anymore
-        while (width > wrapWidth) {
-            boolean modified = false;
-            for (int i=0; i<columns.length; i++) {
-                Column column = columns[i];
-                if (column.wrap) {
-                    int maxWidth = column.getMaxWidth();
-                    if (maxWidth > 4) {
-                        column.setWrapWidth(maxWidth-1);
-                        modified = true;
-                        width -= 1;
-                        if (width <= wrapWidth) {
-                            break;
-                        }
-                    }
+        long excess = width - wrapWidth;
+        if (excess <= 0) {
+            return;
+        }
+
+        int passes = 0;
+        for (Column column : columns) {
+            if (column.wrap) {
+                passes = Math.max(passes, column.getMaxWidth() - 4);
+            }
+        }
+        if (passes <= 0) {
+            return;
+        }
+        if (shrinkable(passes) > excess) {
+            // the last pass stops part way: find it
+            int lo = 1;
+            int hi = passes;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (shrinkable(mid) >= excess) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
                 }
             }
-            if (!modified) {
-                break;
+            passes = lo;
+        }
+
+        // columns taking part in the last pass, from the left, until the
+        // goal width is reached
+        long rest = excess - shrinkable(passes - 1);
+        for (Column column : columns) {
+            if (column.wrap) {
+                int maxWidth = column.getMaxWidth();
+                int shrink = Math.min(passes - 1, Math.max(0, maxWidth - 4));
+                if (rest > 0 && maxWidth - 4 >= passes) {
+                    shrink++;
+                    rest--;
+                }
+                if (shrink > 0) {
+                    column.setWrapWidth(maxWidth - shrink);
+                }
             }
         }
+    }
 
-        int startrow = 0;
-        if (!showHeader) {
-            startrow = 1;
+    /**
+     * The number of characters the given number of full shrinking passes
+     * take from the wrappable columns.
+     */
+    private long shrinkable(int passes) {
+        long total = 0;
+        for (Column column : columns) {
+            if (column.wrap) {
+                total += Math.min(passes, Math.max(0, column.getMaxWidth() - 4));
+            }
         }
-        String[][] columnLines = new String[columns.length][];
-        for (int i = startrow; i < numRows + 1; i++) {
-            int maxColumnLines = 0;
+        return total;
+    }
+
+    /**
+     * Append the lines of a stored row.
+     */
+    private void appendRow(Appendable out, int idx) throws IOException {
+        int maxColumnLines = 0;
+        for (int j = 0; j < columns.length; j++) {
+            maxColumnLines = Math.max(maxColumnLines, columns[j].prepareRow(idx));
+        }
+        appendLines(out, maxColumnLines);
+    }
+
+    /**
+     * Append the lines of the row whose cells the columns have prepared.
+     */
+    private void appendLines(Appendable out, int maxColumnLines) throws IOException {
+        for (int c = 0; c < maxColumnLines; c++) {
             for (int j = 0; j < columns.length; j++) {
-                columnLines[j] = columns[j].getRow(i);
-                if (columnLines[j].length > maxColumnLines) {
-                    maxColumnLines = columnLines[j].length;
+                // First column gets no left-padding
+                if (j > 0) {
+                    out.append(' ');
                 }
+                columns[j].appendLine(out, c);
             }
+            out.append('\n');
+        }
+    }
 
-            for (int c = 0; c < maxColumnLines; c++) {
-                // First column gets no left-padding
-                String prefix = "";
-                for (int j = 0; j < columns.length; j++) {
-                    // Prepend padding
-                    builder.append(prefix);
-                    prefix = " ";
-                    if (columnLines[j].length > c) {
-                        builder.append(columnLines[j][c]);
-                    } else {
-                        builder.append(Utils.repeat(" ", columns[j].maxWidth));
-                    }
+    /**
+     * Write this table row by row instead of building it in memory. The
+     * table must not have rows yet, and should not be used on its own
+     * afterwards.
+     *
+     * @param out Where to write; it is flushed but not closed.
+     * @return A writer to add the rows to.
+     */
+    public RowWriter writer(Writer out) {
+        if (numRows != 0) {
+            throw new IllegalStateException("table already has " + numRows + " rows");
+        }
+        return new RowWriter(out);
+    }
+
+    /**
+     * Write this table row by row to a stream, as UTF-8.
+     *
+     * @param out Where to write; it is flushed but not closed.
+     * @return A writer to add the rows to.
+     */
+    public RowWriter writer(OutputStream out) {
+        return writer(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024));
+    }
+
+    /**
+     * Writes a table as its rows arrive. The first sampleRows rows are kept
+     * to size the columns together with the header; they are then written
+     * and every later row is written as soon as it is added, so memory does
+     * not grow with the number of rows. Later values wider than their
+     * column are wrapped in wrappable columns and truncated in the others.
+     */
+    public class RowWriter implements Closeable {
+        private final Writer out;
+        private boolean streaming;
+        private long written;
+
+        private RowWriter(Writer out) {
+            this.out = out;
+        }
+
+        /**
+         * Add a new row.
+         *
+         * @param row    The row of objects to add-- one per column.
+         * @throws IOException if writing fails
+         */
+        public void addRow(String... row) throws IOException {
+            if (!streaming) {
+                TableListing.this.addRow(row);
+                if (numRows >= sampleRows) {
+                    writeSample();
                 }
-                builder.append("\n");
+                return;
+            }
+            if (row.length != columns.length) {
+                throw new RuntimeException("trying to add a row with " + row.length +
+                        " columns, but we have " + columns.length + " columns.");
+            }
+            int maxColumnLines = 0;
+            for (int j = 0; j < columns.length; j++) {
+                maxColumnLines = Math.max(maxColumnLines, columns[j].prepare(row[j]));
+            }
+            appendLines(out, maxColumnLines);
+            written++;
+            if (written % FLUSH_ROWS == 0) {
+                out.flush();
             }
         }
-        return builder.toString();
+
+        /**
+         * Fix the column widths from the rows seen so far, write them and
+         * drop them.
+         */
+        private void writeSample() throws IOException {
+            layout();
+            for (Column column : columns) {
+                // re-flow later outliers instead of widening the column
+                if (column.wrap && column.wrapWidth == Integer.MAX_VALUE) {
+                    column.wrapWidth = Math.max(1, column.maxWidth - 1);
+                }
+            }
+
+            int startrow = showHeader ? 0 : 1;
+            for (int i = startrow; i < numRows + 1; i++) {
+                appendRow(out, i);
+            }
+            for (Column column : columns) {
+                column.truncate(1);
+            }
+            written = numRows;
+            streaming = true;
+            out.flush();
+        }
+
+        /**
+         * Get the number of rows added.
+         */
+        public long getRowCount() {
+            return streaming ? written : numRows;
+        }
+
+        /**
+         * Write any rows still held back to size the columns, and flush.
+         */
+        public void flush() throws IOException {
+            if (!streaming) {
+                writeSample();
+            }
+            out.flush();
+        }
+
+        /**
+         * Flush; the underlying writer is left open.
+         */
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
     }
 }
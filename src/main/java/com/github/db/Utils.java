@@ -1,5 +1,9 @@
 package com.github.db;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
 /**
  * @author yusheng
  * @version 1.0.0
@@ -10,6 +14,7 @@ public final class Utils {
     private static final String EMPTY = "";
     private static final int PAD_LIMIT = 8192;
     private static final String SPACE = " ";
+    private static final String SPACES = "                                                                ";
 
     private Utils(){
         // no instance.
@@ -75,6 +80,108 @@ public final class Utils {
         }
     }
 
+    /**
+     * Same line breaks as {@link #wrap(String, int, String, boolean)} with
+     * {@code "\n"} as the new line string followed by {@code split("\n")},
+     * but returned as offsets into {@code str} instead of new strings.
+     *
+     * @param str  the text to be word wrapped, not null
+     * @param wrapLength  the column to wrap the words at, less than 1 is treated
+     *                   as 1
+     * @param wrapLongWords  true if long words (such as URLs) should be wrapped
+     * @param offsets  an array to reuse for the result, may be null
+     * @return {@code offsets}, or a larger array if it was too small, holding
+     *  the number of lines at index 0 followed by the start and end offset of
+     *  each line
+     */
+    public static int[] wrapOffsets(CharSequence str, int wrapLength, boolean wrapLongWords, int[] offsets) {
+        if(wrapLength < 1) {
+            wrapLength = 1;
+        }
+        int[] lines = offsets == null || offsets.length < 3 ? new int[9] : offsets;
+        lines[0] = 0;
+
+        int inputLineLength = str.length();
+        int offset = 0;
+        // start of the line being built, which may already hold text that
+        // was not followed by a line break
+        int lineStart = 0;
+        while(inputLineLength - offset > wrapLength) {
+            if(str.charAt(offset) == 32) {
+                ++offset;
+                lineStart = offset;
+            } else {
+                int spaceToWrapAt = lastIndexOf(str, ' ', wrapLength + offset);
+                if(spaceToWrapAt >= offset) {
+                    lines = addLines(lines, str, lineStart, spaceToWrapAt);
+                    offset = spaceToWrapAt + 1;
+                } else if(wrapLongWords) {
+                    lines = addLines(lines, str, lineStart, wrapLength + offset);
+                    offset += wrapLength;
+                } else {
+                    spaceToWrapAt = indexOf(str, ' ', wrapLength + offset);
+                    if(spaceToWrapAt >= 0) {
+                        lines = addLines(lines, str, lineStart, spaceToWrapAt);
+                        offset = spaceToWrapAt + 1;
+                    } else {
+                        offset = inputLineLength;
+                        break;
+                    }
+                }
+                lineStart = offset;
+            }
+        }
+        lines = addLines(lines, str, lineStart, inputLineLength);
+
+        // split() drops trailing empty lines, unless there was nothing to split
+        if(lines[0] > 1) {
+            while(lines[0] > 0 && lines[2 * lines[0]] == lines[2 * lines[0] - 1]) {
+                lines[0]--;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Add the text between two offsets, split at any line breaks it holds.
+     */
+    private static int[] addLines(int[] lines, CharSequence str, int start, int end) {
+        int lineStart = start;
+        for (int i = start; i <= end; i++) {
+            if(i == end || str.charAt(i) == '\n') {
+                int count = lines[0];
+                if(2 * count + 2 >= lines.length) {
+                    int[] grown = new int[lines.length * 2 + 1];
+                    System.arraycopy(lines, 0, grown, 0, lines.length);
+                    lines = grown;
+                }
+                lines[2 * count + 1] = lineStart;
+                lines[2 * count + 2] = i;
+                lines[0] = count + 1;
+                lineStart = i + 1;
+            }
+        }
+        return lines;
+    }
+
+    private static int lastIndexOf(CharSequence str, char ch, int fromIndex) {
+        for (int i = Math.min(fromIndex, str.length() - 1); i >= 0; i--) {
+            if(str.charAt(i) == ch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence str, char ch, int fromIndex) {
+        for (int i = Math.max(fromIndex, 0); i < str.length(); i++) {
+            if(str.charAt(i) == ch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private static boolean isEmpty(final CharSequence cs) {
         return cs == null || cs.length() == 0;
     }
@@ -177,6 +284,97 @@ public final class Utils {
         }
     }
 
+    /**
+     * Append {@code str.subSequence(start, end)} right padded with spaces to
+     * {@code size}, without creating intermediate strings.
+     *
+     * @param out  where to append
+     * @param str  the text to pad, not null
+     * @param start  the offset of the first char to append
+     * @param end  the offset after the last char to append
+     * @param size  the width to pad to
+     * @return {@code out}
+     * @throws IOException if appending fails
+     */
+    public static <A extends Appendable> A appendRightPad(final A out, final CharSequence str, final int start,
+                                                          final int end, final int size) throws IOException {
+        appendRange(out, str, start, end);
+        appendRepeat(out, ' ', size - (end - start));
+        return out;
+    }
+
+    /**
+     * Append {@code str.subSequence(start, end)} left padded with spaces to
+     * {@code size}, without creating intermediate strings.
+     *
+     * @param out  where to append
+     * @param str  the text to pad, not null
+     * @param start  the offset of the first char to append
+     * @param end  the offset after the last char to append
+     * @param size  the width to pad to
+     * @return {@code out}
+     * @throws IOException if appending fails
+     */
+    public static <A extends Appendable> A appendLeftPad(final A out, final CharSequence str, final int start,
+                                                         final int end, final int size) throws IOException {
+        appendRepeat(out, ' ', size - (end - start));
+        appendRange(out, str, start, end);
+        return out;
+    }
+
+    /**
+     * Append a character {@code repeat} times.
+     *
+     * @param out  where to append
+     * @param ch  the character to repeat
+     * @param repeat  how many times; nothing is appended if not positive
+     * @return {@code out}
+     * @throws IOException if appending fails
+     */
+    public static <A extends Appendable> A appendRepeat(final A out, final char ch, final int repeat)
+            throws IOException {
+        if (ch == ' ') {
+            for (int left = repeat; left > 0; left -= SPACES.length()) {
+                appendRange(out, SPACES, 0, Math.min(left, SPACES.length()));
+            }
+        } else {
+            for (int i = 0; i < repeat; i++) {
+                out.append(ch);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Append part of a char sequence, avoiding the substring
+     * {@link Appendable#append(CharSequence, int, int)} makes on a {@code Writer}.
+     */
+    private static void appendRange(final Appendable out, final CharSequence str, final int start, final int end)
+            throws IOException {
+        if (end <= start) {
+            return;
+        }
+        if (str instanceof CharBuffer && ((CharBuffer) str).hasArray()) {
+            // a view of a char array, like TableListing's cell storage
+            final CharBuffer buffer = (CharBuffer) str;
+            final int offset = buffer.arrayOffset() + buffer.position() + start;
+            if (out instanceof StringBuilder) {
+                ((StringBuilder) out).append(buffer.array(), offset, end - start);
+                return;
+            } else if (out instanceof Writer) {
+                ((Writer) out).write(buffer.array(), offset, end - start);
+                return;
+            }
+        }
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(str, start, end);
+        } else if (out instanceof Writer && str instanceof String) {
+            ((Writer) out).write((String) str, start, end - start);
+        } else {
+            out.append(str, start, end);
+        }
+    }
+
     public static String repeat(final String str, final int repeat) {
         if (str == null) {
             return null;
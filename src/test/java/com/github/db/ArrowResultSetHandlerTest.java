@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSetMetaData;
+import java.sql.Time;
+import java.sql.Types;
+import java.time.LocalTime;
+
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ArrowResultSetHandler}.
+ */
+public class ArrowResultSetHandlerTest {
+
+    @Test
+    public void testTimeKeepsMilliseconds() {
+        final Time time = new Time(Time.valueOf(LocalTime.of(12, 34, 56)).getTime() + 789);
+        assertEquals(((12 * 60 + 34) * 60 + 56) * 1000 + 789, ArrowResultSetHandler.millisOfDay(time));
+    }
+
+    @Test
+    public void testMidnightAndLastMillisecond() {
+        assertEquals(0, ArrowResultSetHandler.millisOfDay(Time.valueOf(LocalTime.MIDNIGHT)));
+        final Time last = new Time(Time.valueOf(LocalTime.of(23, 59, 59)).getTime() + 999);
+        assertEquals(24 * 60 * 60 * 1000 - 1, ArrowResultSetHandler.millisOfDay(last));
+    }
+
+    @Test
+    public void testUnsignedSmallIntegersWiden() throws Exception {
+        final Schema schema = ArrowResultSetHandler.schema(metaData(
+                new int[] {Types.TINYINT, Types.TINYINT, Types.SMALLINT, Types.SMALLINT, Types.INTEGER},
+                new boolean[] {true, false, true, false, false}));
+        assertEquals(new ArrowType.Int(8, true), schema.getFields().get(0).getType());
+        assertEquals(new ArrowType.Int(16, true), schema.getFields().get(1).getType());
+        assertEquals(new ArrowType.Int(16, true), schema.getFields().get(2).getType());
+        assertEquals(new ArrowType.Int(32, true), schema.getFields().get(3).getType());
+        assertEquals(new ArrowType.Int(64, true), schema.getFields().get(4).getType());
+    }
+
+    /**
+     * Metadata for columns c1, c2, ... of the given types and signedness.
+     */
+    private static ResultSetMetaData metaData(final int[] types, final boolean[] signed) {
+        return (ResultSetMetaData) Proxy.newProxyInstance(ArrowResultSetHandlerTest.class.getClassLoader(),
+                new Class<?>[] {ResultSetMetaData.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return types.length;
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return "c" + args[0];
+                        case "getColumnType":
+                            return types[(Integer) args[0] - 1];
+                        case "isSigned":
+                            return signed[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AsyncQueryRunner}.
+ */
+public class AsyncQueryRunnerTest {
+
+    /**
+     * A pool that takes its time to hand out a connection.
+     */
+    static final class SlowDataSource extends PooledDataSource {
+        private final long delayMillis;
+
+        SlowDataSource(final String url, final long delayMillis) {
+            super(url, "sa", "", 2);
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getConnection();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testTimeoutWhileBorrowingSkipsTheStatement() throws Exception {
+        try (SlowDataSource ds = new SlowDataSource("jdbc:h2:mem:asyncBorrow;DB_CLOSE_DELAY=-1", 300);
+             AsyncQueryRunner async = new AsyncQueryRunner.Builder().runner(new QueryRunner(ds))
+                     .timeoutMillis(50).build()) {
+            new QueryRunner(ds).update("CREATE TABLE t (id INT)");
+
+            final CompletableFuture<Integer> future = async.update("INSERT INTO t VALUES (1)");
+            try {
+                future.get();
+                fail("the call should time out");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof SQLTimeoutException);
+            }
+            awaitIdle(async);
+
+            assertEquals(0, async.getQueued());
+            assertEquals(0, ds.getActiveConnections());
+            assertEquals(ds.getMaxSize(), QueryExecutors.permits(ds).availablePermits());
+            final Number rows = new QueryRunner(ds).query("SELECT COUNT(*) FROM t", rs -> {
+                rs.next();
+                return (Number) rs.getObject(1);
+            });
+            assertEquals(0, rows.intValue());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testErrorCompletesTheFuture() throws Exception {
+        try (PooledDataSource ds = new PooledDataSource("jdbc:h2:mem:asyncError", "sa", "", 2);
+             AsyncQueryRunner async = new AsyncQueryRunner.Builder().runner(new QueryRunner(ds)).build()) {
+            final CompletableFuture<Object> future = async.submit((runner, conn) -> {
+                throw new AssertionError("boom");
+            });
+            try {
+                future.get();
+                fail("the call should fail");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof AssertionError);
+            }
+            awaitIdle(async);
+
+            assertEquals(0, ds.getActiveConnections());
+            assertEquals(ds.getMaxSize(), QueryExecutors.permits(ds).availablePermits());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testMaxInFlightBoundsOtherDataSources() throws Exception {
+        final JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:asyncUnpooled;DB_CLOSE_DELAY=-1");
+        assertNull(QueryExecutors.permits(ds));
+
+        // more calls than processors, each waiting for all the others
+        final int calls = Runtime.getRuntime().availableProcessors() + 2;
+        final CountDownLatch running = new CountDownLatch(calls);
+        try (AsyncQueryRunner async = new AsyncQueryRunner.Builder().runner(new QueryRunner(ds))
+                .maxInFlight(calls).build()) {
+            final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < calls; i++) {
+                futures.add(async.submit((runner, conn) -> {
+                    running.countDown();
+                    try {
+                        return running.await(5, TimeUnit.SECONDS);
+                    } catch (final InterruptedException e) {
+                        throw new SQLException(e);
+                    }
+                }));
+            }
+            for (final CompletableFuture<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        }
+    }
+
+    private static void awaitIdle(final AsyncQueryRunner async) throws InterruptedException {
+        // the future completes before the call gives its slot back
+        while (async.getInFlight() > 0) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link DetachedResult}: every value reads back as the driver's
+ * {@code getString} text, which the CLI printed before results were
+ * detached.
+ */
+public class DetachedResultTest {
+
+    private static final String TABLE = "CREATE TABLE t (i INT, s SMALLINT, b BIGINT, d DOUBLE, f FLOAT,"
+            + " n DECIMAL(12, 3), v VARCHAR(20), dt DATE)";
+
+    private static final String[] ROWS = {
+        "(1, 2, 3, 12345678.9, 0.1, 1.5, 'a', DATE '2024-01-31')",
+        "(-1, -2, 9223372036854775807, 1.0, 1E20, -0.125, 'b,c', NULL)",
+        "(NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL)",
+        "(0, 0, 0, -0.000123, 123456789012.5, 0, '', DATE '1970-01-01')",
+    };
+
+    @Test
+    public void testGetStringMatchesDriver() throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:detachedEquivalence")) {
+            final QueryRunner runner = new QueryRunner();
+            runner.update(conn, TABLE);
+            for (final String row : ROWS) {
+                runner.update(conn, "INSERT INTO t VALUES " + row);
+            }
+            final DetachedResult result = runner.query(conn, "SELECT * FROM t ORDER BY i", DetachedResult.handler());
+            final List<String[]> expected = runner.query(conn, "SELECT * FROM t ORDER BY i",
+                    DetachedResultTest::driverStrings);
+            assertEquals(expected.size(), result.getRowCount());
+            for (int row = 0; row < expected.size(); row++) {
+                for (int col = 0; col < result.getColumnCount(); col++) {
+                    assertEquals("row " + row + " column " + result.getColumnLabel(col),
+                            expected.get(row)[col], result.getString(row, col));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testExportMatchesDriver() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:detachedExport")) {
+            final QueryRunner runner = new QueryRunner();
+            runner.update(conn, "CREATE TABLE t (d DOUBLE, v VARCHAR(20))");
+            runner.update(conn, "INSERT INTO t VALUES (12345678.9, 'x'), (NULL, 'y'), (2.5E-7, NULL)");
+            final StringBuilder out = new StringBuilder();
+            runner.query(conn, "SELECT * FROM t", DetachedResult.handler()).export(out, ',');
+            final StringBuilder expected = new StringBuilder("D,V\n");
+            for (final String[] row : runner.query(conn, "SELECT * FROM t", DetachedResultTest::driverStrings)) {
+                expected.append(row[0] == null ? "" : row[0]).append(',')
+                        .append(row[1] == null ? "" : row[1]).append('\n');
+            }
+            assertEquals(expected.toString(), out.toString());
+        }
+    }
+
+    /**
+     * Drivers differ in how they print doubles: MySQL prints {@code 1} and
+     * {@code 12345678.9}, where {@code Double.toString} gives {@code 1.0} and
+     * {@code 1.23456789E7}.  The driver's text wins.
+     */
+    @Test
+    public void testDoubleKeepsDriverText() throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:detachedMysqlText");
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE t (d DOUBLE)");
+            stmt.execute("INSERT INTO t VALUES (1.0), (12345678.9), (1E20), (NULL)");
+            try (ResultSet rs = stmt.executeQuery("SELECT d FROM t")) {
+                final DetachedResult result = DetachedResult.read(mysqlStyle(rs));
+                assertEquals("1", result.getString(0, 0));
+                assertEquals("12345678.9", result.getString(1, 0));
+                assertEquals("1e20", result.getString(2, 0));
+                assertEquals(null, result.getString(3, 0));
+                assertEquals(12345678.9, result.getDouble(1, 0), 0);
+                assertTrue(result.toString().contains("12345678.9"));
+            }
+        }
+    }
+
+    @Test
+    public void testDoubleStyleIsPickedOnce() throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:detachedStyle");
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE t (id INT, d DOUBLE)");
+            stmt.execute("INSERT INTO t SELECT X, X / 2.0 FROM SYSTEM_RANGE(1, 1000)");
+            try (ResultSet rs = stmt.executeQuery("SELECT d FROM t ORDER BY id")) {
+                final int[] reads = new int[1];
+                final DetachedResult result = DetachedResult.read(counting(mysqlStyle(rs), reads));
+                assertEquals(32, reads[0]);
+                assertEquals("0.5", result.getString(0, 0));
+                assertEquals("1", result.getString(1, 0));
+                assertEquals("500", result.getString(999, 0));
+                // a double per row, no text
+                assertTrue(result.estimateBytes() < 8 * 1000 + 1024);
+            }
+        }
+    }
+
+    @Test
+    public void testFormatIsPlain() {
+        assertEquals("12345678.9", DetachedResult.format(12345678.9));
+        assertEquals("0.000123", DetachedResult.format(0.000123));
+        assertEquals("-1.5", DetachedResult.format(-1.5));
+        assertEquals("NaN", DetachedResult.format(Double.NaN));
+    }
+
+    private static List<String[]> driverStrings(final ResultSet rs) throws SQLException {
+        final int cols = rs.getMetaData().getColumnCount();
+        final List<String[]> rows = new ArrayList<>();
+        while (rs.next()) {
+            final String[] row = new String[cols];
+            for (int i = 0; i < cols; i++) {
+                row[i] = rs.getString(i + 1);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Count the calls to {@code getString}.
+     */
+    private static ResultSet counting(final ResultSet rs, final int[] reads) {
+        return (ResultSet) Proxy.newProxyInstance(DetachedResultTest.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getString")) {
+                        reads[0]++;
+                    }
+                    return method.invoke(rs, args);
+                });
+    }
+
+    /**
+     * Print doubles the way Connector/J does.
+     */
+    static ResultSet mysqlStyle(final ResultSet rs) {
+        return (ResultSet) Proxy.newProxyInstance(DetachedResultTest.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getString")
+                            && rs.getMetaData().getColumnType((Integer) args[0]) == Types.DOUBLE) {
+                        final String text = rs.getString((Integer) args[0]);
+                        if (text == null) {
+                            return null;
+                        }
+                        final BigDecimal value = new BigDecimal(text);
+                        return value.compareTo(BigDecimal.valueOf(1e20)) == 0 ? "1e20"
+                                : value.stripTrailingZeros().toPlainString();
+                    }
+                    return method.invoke(rs, args);
+                });
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link MultiRowInsert}.
+ */
+public class MultiRowInsertTest {
+
+    @Test
+    public void testRewritesSimpleInsert() {
+        final MultiRowInsert insert = MultiRowInsert.parse("INSERT INTO emp (id, name) VALUES (?, ?)",
+                Dialect.ORACLE, false);
+        assertNotNull(insert);
+        assertEquals(2, insert.getParametersPerRow());
+        assertEquals("INSERT ALL INTO emp (id, name) VALUES (?, ?) INTO emp (id, name) VALUES (?, ?)"
+                + " SELECT 1 FROM DUAL", insert.toSql(2));
+    }
+
+    @Test
+    public void testOracleSequenceIsNotRewritten() {
+        assertNull(MultiRowInsert.parse("INSERT INTO emp (id, name) VALUES (emp_seq.NEXTVAL, ?)",
+                Dialect.ORACLE, false));
+        assertNull(MultiRowInsert.parse("insert into emp (id, name) values (hr.emp_seq . nextval, ?)",
+                Dialect.ORACLE, false));
+    }
+
+    @Test
+    public void testOracleSysGuidIsNotRewritten() {
+        assertNull(MultiRowInsert.parse("INSERT INTO emp (id, name) VALUES (SYS_GUID(), ?)",
+                Dialect.ORACLE, false));
+    }
+
+    @Test
+    public void testSequenceNameInLiteralIsRewritten() {
+        assertNotNull(MultiRowInsert.parse("INSERT INTO emp (id, name) VALUES (?, 'x.NEXTVAL')",
+                Dialect.ORACLE, false));
+    }
+
+    @Test
+    public void testMultiRowValuesKeepsSequence() {
+        // VALUES (...), (...) evaluates NEXT VALUE FOR once per row
+        assertNotNull(MultiRowInsert.parse("INSERT INTO emp (id, name) VALUES (NEXT VALUE FOR emp_seq, ?)",
+                Dialect.DB2, false));
+    }
+
+    @Test
+    public void testOracleSequenceFallsBackToPlainBatch() throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:multiRowSequence;MODE=Oracle")) {
+            final QueryRunner runner = new QueryRunner();
+            runner.update(conn, "CREATE SEQUENCE emp_seq");
+            runner.update(conn, "CREATE TABLE emp (id INT PRIMARY KEY, name VARCHAR(20))");
+            final List<Object[]> rows = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                rows.add(new Object[] {"n" + i});
+            }
+            final BatchConfiguration config = new BatchConfiguration.Builder()
+                    .chunkSize(5)
+                    .rewriteInserts(Dialect.ORACLE)
+                    .build();
+            // H2 has no INSERT ALL, so this only passes as a plain batch
+            final BatchResult<Void> result = runner.batch(conn,
+                    "INSERT INTO emp (id, name) VALUES (emp_seq.NEXTVAL, ?)", rows.iterator(), config);
+            assertEquals(10, result.getRowCount());
+            final long keys = runner.query(conn, "SELECT COUNT(DISTINCT id) FROM emp", rs -> {
+                rs.next();
+                return rs.getLong(1);
+            });
+            assertEquals(10, keys);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link PartitionedExtractor}.
+ */
+public class PartitionedExtractorTest {
+
+    @Test
+    public void testBoundsOfMixedScaleDecimals() throws SQLException {
+        // an unscaled Oracle NUMBER column: MIN is 1, MAX is 10.5
+        final Object[] bounds = PartitionedExtractor.bounds(new BigDecimal("1"), new BigDecimal("10.5"), 4);
+        assertEquals(5, bounds.length);
+        assertEquals(new BigDecimal("1"), bounds[0]);
+        assertEquals(new BigDecimal("10.5"), bounds[4]);
+        for (int i = 1; i < bounds.length; i++) {
+            assertTrue(((BigDecimal) bounds[i - 1]).compareTo((BigDecimal) bounds[i]) < 0);
+        }
+    }
+
+    @Test(expected = SQLException.class)
+    public void testBoundsOfNumberAndDate() throws SQLException {
+        PartitionedExtractor.bounds(1L, new java.sql.Date(0), 4);
+    }
+
+    /**
+     * A pool that counts the connections borrowed.
+     */
+    static final class CountingDataSource extends PooledDataSource {
+        final AtomicInteger borrowed = new AtomicInteger();
+
+        CountingDataSource(final String url, final int maxSize) {
+            super(url, "sa", "", maxSize);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            borrowed.incrementAndGet();
+            return super.getConnection();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testOrderedReadsPartitionsInParallel() throws Exception {
+        try (CountingDataSource ds = new CountingDataSource("jdbc:h2:mem:extractOrdered;DB_CLOSE_DELAY=-1", 8)) {
+            try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE t (id INT, name VARCHAR(20))");
+                // inserted out of order, with a few NULLs
+                stmt.execute("INSERT INTO t SELECT MOD(X * 7919, 2003), 'n' || X FROM SYSTEM_RANGE(1, 2000)");
+                stmt.execute("INSERT INTO t VALUES (NULL, 'a'), (NULL, 'b')");
+            }
+            final PartitionedExtractor extractor = new PartitionedExtractor.Builder()
+                    .runner(new QueryRunner(ds))
+                    .dataSource(ds)
+                    .table("t")
+                    .columns("id, name")
+                    .splitColumn("id")
+                    .partitions(4)
+                    .parallelism(4)
+                    .bufferRows(100)
+                    .ordered(true)
+                    .build();
+
+            final int before = ds.borrowed.get();
+            final List<Long> ids = new ArrayList<>();
+            final PartitionedExtractor.Result result = extractor.extract(rs -> {
+                if (ids.isEmpty()) {
+                    // the other partitions are read ahead while the first is handed over
+                    final long deadline = System.currentTimeMillis() + 5000;
+                    while (ds.borrowed.get() - before < 1 + 4 && System.currentTimeMillis() < deadline) {
+                        Thread.yield();
+                    }
+                    assertTrue(ds.borrowed.get() - before >= 1 + 4);
+                }
+                final long id = rs.getLong("ID");
+                ids.add(rs.wasNull() ? null : id);
+                assertEquals(rs.getString(2), rs.getObject("name"));
+            });
+
+            assertEquals(2002, result.getRows());
+            assertEquals(2002, ids.size());
+            for (int i = 1; i < 2000; i++) {
+                assertTrue(ids.get(i - 1) <= ids.get(i));
+            }
+            assertNull(ids.get(2000));
+            assertNull(ids.get(2001));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testOrderedWithFewerConnectionsThanWorkers() throws Exception {
+        try (CountingDataSource ds = new CountingDataSource("jdbc:h2:mem:extractFewer;DB_CLOSE_DELAY=-1", 2)) {
+            new QueryRunner(ds).update("CREATE TABLE t AS SELECT X AS id FROM SYSTEM_RANGE(1, 5000)");
+            final PartitionedExtractor extractor = new PartitionedExtractor.Builder()
+                    .runner(new QueryRunner(ds))
+                    .dataSource(ds)
+                    .table("t")
+                    .columns("id")
+                    .splitColumn("id")
+                    .partitions(8)
+                    .parallelism(4)
+                    .bufferRows(10)
+                    .ordered(true)
+                    .build();
+
+            final long[] last = {0};
+            final PartitionedExtractor.Result result = extractor.extract(rs -> {
+                assertEquals(last[0] + 1, rs.getLong(1));
+                last[0]++;
+            });
+
+            assertEquals(5000, result.getRows());
+            assertEquals(ds.getMaxSize(), QueryExecutors.permits(ds).availablePermits());
+            assertEquals(0, ds.getActiveConnections());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link PooledDataSource}.
+ */
+public class PooledDataSourceTest {
+
+    @Test
+    public void testReturnedConnectionIsReset() throws SQLException {
+        try (PooledDataSource ds = new PooledDataSource("jdbc:h2:mem:poolReset;DB_CLOSE_DELAY=-1", "sa", "", 1)) {
+            final int isolation;
+            final String schema;
+            try (Connection conn = ds.getConnection()) {
+                isolation = conn.getTransactionIsolation();
+                schema = conn.getSchema();
+                conn.createStatement().execute("CREATE SCHEMA other");
+                conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+                conn.setSchema("OTHER");
+                conn.setReadOnly(true);
+                conn.setAutoCommit(false);
+            }
+            try (Connection conn = ds.getConnection()) {
+                assertEquals(isolation, conn.getTransactionIsolation());
+                assertEquals(schema, conn.getSchema());
+                assertFalse(conn.isReadOnly());
+                assertTrue(conn.getAutoCommit());
+            }
+            assertEquals(1, ds.getTotalConnections());
+        }
+    }
+
+    @Test
+    public void testUnwrapKeepsThePool() throws SQLException {
+        try (PooledDataSource ds = new PooledDataSource("jdbc:h2:mem:poolUnwrap", "sa", "", 1)) {
+            try (Connection conn = ds.getConnection()) {
+                assertSame(conn, conn.unwrap(Connection.class));
+                assertTrue(conn.isWrapperFor(Connection.class));
+                assertFalse(conn.isWrapperFor(org.h2.jdbc.JdbcConnection.class));
+                try {
+                    conn.unwrap(org.h2.jdbc.JdbcConnection.class);
+                    fail("the physical connection should not be handed out");
+                } catch (final SQLException e) { // NOPMD
+                    // expected
+                }
+            }
+            assertEquals(0, ds.getActiveConnections());
+            assertEquals(1, ds.getIdleConnections());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ResultCache}.
+ */
+public class ResultCacheTest {
+
+    private static final ResultSetHandler<Integer> COUNT = rs -> {
+        rs.next();
+        return ((Number) rs.getObject(1)).intValue();
+    };
+
+    /**
+     * A pool counting the connections it hands out.
+     */
+    static final class CountingDataSource extends PooledDataSource {
+        private int borrowed;
+
+        CountingDataSource(final String url) {
+            super(url, "sa", "", 2);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            borrowed++;
+            return super.getConnection();
+        }
+    }
+
+    private static Set<String> tables(final String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    @Test
+    public void testReadTables() {
+        assertEquals(tables("emp"), ResultCache.readTables("SELECT * FROM HR.\"EMP\" WHERE id = ?"));
+        assertEquals(tables("emp", "dept"), ResultCache.readTables("SELECT * FROM emp e, dept d WHERE e.d = d.id"));
+        assertEquals(tables("emp", "dept", "loc"), ResultCache.readTables(
+                "SELECT * FROM emp e LEFT JOIN dept d ON e.d = d.id, loc WHERE d.name = 'x FROM y'"));
+        assertEquals(tables("emp", "dept"), ResultCache.readTables("SELECT * FROM emp STRAIGHT_JOIN dept"));
+    }
+
+    @Test
+    public void testReadTablesOfSubqueries() {
+        assertEquals(tables("emp"), ResultCache.readTables("SELECT * FROM (SELECT id, name FROM emp) e"));
+        assertEquals(tables("emp", "dept"),
+                ResultCache.readTables("SELECT * FROM (SELECT * FROM emp) x JOIN dept ON x.d = dept.id"));
+        assertEquals(tables("emp", "dept"),
+                ResultCache.readTables("SELECT * FROM (SELECT * FROM emp WHERE id > 1) x, dept"));
+        assertEquals(tables("emp", "dept"), ResultCache.readTables(
+                "SELECT name, (SELECT COUNT(*) FROM dept) FROM emp WHERE id IN (SELECT id FROM dept)"));
+        assertEquals(tables("emp", "dept"), ResultCache.readTables("SELECT * FROM (emp JOIN dept ON emp.d = dept.id)"));
+    }
+
+    @Test
+    public void testReadTablesOfCommonTableExpressions() {
+        final Set<String> read = ResultCache.readTables(
+                "WITH a AS (SELECT * FROM emp), b AS (SELECT * FROM dept) SELECT * FROM a JOIN b ON a.d = b.id");
+        assertEquals(tables("emp", "dept", "a", "b"), read);
+    }
+
+    @Test
+    public void testWrittenTablesAfterCommonTableExpressions() {
+        assertEquals(tables(), ResultCache.writtenTables("WITH x AS (SELECT * FROM emp) SELECT * FROM x"));
+        assertEquals(tables("emp"), ResultCache.writtenTables(
+                "WITH x AS (SELECT id FROM dept WHERE name = ')') UPDATE emp SET d = 1 WHERE d IN (SELECT id FROM x)"));
+        assertEquals(tables("emp"), ResultCache.writtenTables(
+                "WITH RECURSIVE x (n) AS MATERIALIZED (SELECT 1), y AS NOT MATERIALIZED (VALUES (2))\n"
+                        + "-- a comment\nDELETE FROM emp WHERE id IN (SELECT n FROM x)"));
+        assertEquals(tables("emp"), ResultCache.writtenTables(
+                "WITH x AS (SELECT 1 AS id) INSERT INTO emp SELECT * FROM x"));
+        assertNull(ResultCache.writtenTables("WITH x AS (DELETE FROM emp RETURNING *) SELECT * FROM x"));
+        assertNull(ResultCache.writtenTables("WITH x AS (SELECT 1"));
+    }
+
+    @Test
+    public void testReadTablesOfFunctionsIsUnknown() {
+        assertNull(ResultCache.readTables("SELECT * FROM generate_series(1, 10)"));
+        assertNull(ResultCache.readTables("SELECT * FROM emp, LATERAL (SELECT * FROM dept) d"));
+        assertEquals(tables("emp"), ResultCache.readTables("SELECT SUBSTRING(name FROM 2) FROM emp"));
+    }
+
+    @Test
+    public void testDerivedTableIsInvalidated() throws SQLException {
+        final ResultCache cache = new ResultCache(1 << 20, 0);
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:resultCacheDerived")) {
+            final QueryRunner runner = new QueryRunner(
+                    new StatementConfiguration.Builder().resultCache(cache).build());
+            runner.update(conn, "CREATE TABLE emp (id INT, name VARCHAR(20))");
+            runner.update(conn, "CREATE TABLE dept (id INT)");
+            runner.update(conn, "INSERT INTO dept VALUES (1)");
+            final String[] queries = {
+                "SELECT COUNT(*) FROM (SELECT id, name FROM emp) e",
+                "SELECT COUNT(*) FROM (SELECT * FROM emp) x JOIN dept ON 1 = 1",
+                "WITH e AS (SELECT * FROM emp) SELECT COUNT(*) FROM e",
+                "SELECT COUNT(*) FROM dept WHERE id IN (SELECT id FROM emp)",
+            };
+            for (final String sql : queries) {
+                assertEquals(sql, 0, (int) runner.query(conn, sql, COUNT));
+                assertEquals(sql, 0, (int) runner.query(conn, sql, COUNT));
+            }
+            assertEquals(queries.length, cache.getHits());
+
+            runner.update(conn, "INSERT INTO emp VALUES (1, 'a')");
+            for (final String sql : queries) {
+                assertEquals(sql, 1, (int) runner.query(conn, sql, COUNT));
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownTablesAreInvalidatedByAnyWrite() throws SQLException {
+        final ResultCache cache = new ResultCache(1 << 20, 0);
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:resultCacheUnknown")) {
+            final QueryRunner runner = new QueryRunner(
+                    new StatementConfiguration.Builder().resultCache(cache).build());
+            runner.update(conn, "CREATE TABLE other (id INT)");
+            runner.query(conn, "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 3)", COUNT);
+            assertEquals(1, cache.size());
+            runner.update(conn, "INSERT INTO other VALUES (1)");
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void testTransactionBypassesCache() throws SQLException {
+        final ResultCache cache = new ResultCache(1 << 20, 0);
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:resultCacheTransaction")) {
+            final QueryRunner runner = new QueryRunner(
+                    new StatementConfiguration.Builder().resultCache(cache).build());
+            runner.update(conn, "CREATE TABLE emp (id INT)");
+            conn.setAutoCommit(false);
+            runner.update(conn, "INSERT INTO emp VALUES (1)");
+            assertEquals(1, (int) runner.query(conn, "SELECT COUNT(*) FROM emp", COUNT));
+            conn.rollback();
+            assertEquals(0, (int) runner.query(conn, "SELECT COUNT(*) FROM emp", COUNT));
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.getHits() + cache.getMisses());
+        }
+    }
+
+    @Test
+    public void testHitTakesNoConnection() throws SQLException {
+        final ResultCache cache = new ResultCache(1 << 20, 0);
+        try (CountingDataSource ds = new CountingDataSource("jdbc:h2:mem:resultCacheHit;DB_CLOSE_DELAY=-1")) {
+            final QueryRunner runner = new QueryRunner(ds,
+                    new StatementConfiguration.Builder().resultCache(cache).build());
+            runner.update("CREATE TABLE emp (id INT)");
+            final int before = ds.borrowed;
+            assertEquals(0, (int) runner.query("SELECT COUNT(*) FROM emp", COUNT));
+            assertEquals(0, (int) runner.query("SELECT COUNT(*) FROM emp", COUNT));
+            assertEquals(1, cache.getHits());
+            assertEquals(before + 1, ds.borrowed);
+            assertEquals(0, ds.getActiveConnections());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testLoadStartedBeforeAWriteIsNotJoined() throws Exception {
+        final ResultCache cache = new ResultCache(1 << 20, 0);
+        try (CountingDataSource ds = new CountingDataSource("jdbc:h2:mem:resultCacheInFlight;DB_CLOSE_DELAY=-1")) {
+            final QueryRunner runner = new QueryRunner(ds,
+                    new StatementConfiguration.Builder().resultCache(cache).build());
+            runner.update("CREATE TABLE emp (id INT)");
+
+            final CountDownLatch inside = new CountDownLatch(1);
+            final CountDownLatch resume = new CountDownLatch(1);
+            final Thread main = Thread.currentThread();
+            final ResultSetHandler<Integer> paused = rs -> {
+                if (Thread.currentThread() != main) {
+                    inside.countDown();
+                    try {
+                        resume.await();
+                    } catch (final InterruptedException e) {
+                        throw new SQLException(e);
+                    }
+                }
+                return COUNT.handle(rs);
+            };
+            final CompletableFuture<Integer> before = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return runner.query("SELECT COUNT(*) FROM emp", paused);
+                } catch (final SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            try {
+                inside.await();
+                runner.update("INSERT INTO emp VALUES (1)");
+                assertEquals(1, (int) runner.query("SELECT COUNT(*) FROM emp", paused));
+            } finally {
+                resume.countDown();
+            }
+            assertEquals(0, (int) before.get());
+            assertEquals(1, (int) runner.query("SELECT COUNT(*) FROM emp", paused));
+        }
+    }
+}
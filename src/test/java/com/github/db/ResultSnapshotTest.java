@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ResultSnapshot}.
+ */
+public class ResultSnapshotTest {
+
+    @Test
+    public void testDoublesReadBackAsDetachedResult() throws IOException, SQLException {
+        for (final ResultSnapshot.Compression compression : ResultSnapshot.Compression.values()) {
+            try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:snapshotDoubles" + compression)) {
+                final QueryRunner runner = new QueryRunner();
+                runner.update(conn, "CREATE TABLE t (id INT, d DOUBLE, v VARCHAR(10))");
+                runner.update(conn, "INSERT INTO t VALUES (1, 12345678.9, 'a'), (2, NULL, NULL), (3, 0.000123, 'b'),"
+                        + " (4, 1.0, 'c'), (5, 1E20, 'd')");
+                for (final boolean mysql : new boolean[] {false, true}) {
+                    final DetachedResult expected = read(conn, mysql, DetachedResult.handler());
+                    final Path file = Files.createTempFile("snapshot", ".bin");
+                    try {
+                        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                            assertEquals(5L, read(conn, mysql, ResultSnapshot.writer(out, 2, compression))
+                                    .longValue());
+                        }
+                        try (ResultSnapshot snapshot = ResultSnapshot.open(file)) {
+                            final ResultSnapshot.Cursor cursor = snapshot.cursor();
+                            for (int row = 0; row < expected.getRowCount(); row++) {
+                                assertTrue(cursor.next());
+                                for (int col = 0; col < expected.getColumnCount(); col++) {
+                                    assertEquals(compression + " mysql=" + mysql + " row " + row,
+                                            expected.getString(row, col), cursor.getString(col));
+                                }
+                            }
+                            assertFalse(cursor.next());
+                        }
+                    } finally {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMysqlDoublesKeepDriverText() throws IOException, SQLException {
+        final Path file = Files.createTempFile("snapshot", ".bin");
+        try {
+            try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:snapshotMysqlDoubles")) {
+                final QueryRunner runner = new QueryRunner();
+                runner.update(conn, "CREATE TABLE t (id INT, d DOUBLE)");
+                runner.update(conn, "INSERT INTO t VALUES (1, 1.0), (2, 2.5), (3, NULL), (4, 0.000123)");
+                try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    read(conn, true, ResultSnapshot.writer(out, 3, ResultSnapshot.Compression.NONE));
+                }
+            }
+            try (ResultSnapshot snapshot = ResultSnapshot.open(file)) {
+                final ResultSnapshot.Cursor cursor = snapshot.cursor();
+                assertTrue(cursor.next());
+                assertEquals("1", cursor.getString(1));
+                assertTrue(cursor.next());
+                assertEquals("2.5", cursor.getString(1));
+                assertTrue(cursor.next());
+                assertNull(cursor.getString(1));
+                assertTrue(cursor.next());
+                assertEquals("0.000123", cursor.getString(1));
+                assertEquals(0.000123, cursor.getDouble(1), 0);
+                assertFalse(cursor.next());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static <T> T read(final Connection conn, final boolean mysql, final ResultSetHandler<T> rsh)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM t ORDER BY id")) {
+            return rsh.handle(mysql ? DetachedResultTest.mysqlStyle(rs) : rs);
+        }
+    }
+}
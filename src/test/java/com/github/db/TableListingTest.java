@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link TableListing}: random tables render exactly as with the
+ * original implementation, kept as {@link ReferenceTableListing}.
+ */
+public class TableListingTest {
+
+    private static final String ALPHABET = "abcdefghij     -./:XYZ0123456789";
+
+    @Test
+    public void testWrapOffsetsMatchesWrapAndSplit() {
+        final Random random = new Random(12);
+        int[] offsets = null;
+        for (int n = 0; n < 20000; n++) {
+            final String text = randomText(random, random.nextInt(80));
+            final int wrapLength = random.nextInt(30);
+            final boolean wrapLongWords = random.nextBoolean();
+            final String[] expected = Utils.wrap(text, wrapLength, "\n", wrapLongWords).split("\n");
+            offsets = Utils.wrapOffsets(text, wrapLength, wrapLongWords, offsets);
+            final String[] actual = new String[offsets[0]];
+            for (int line = 0; line < actual.length; line++) {
+                actual[line] = text.substring(offsets[1 + 2 * line], offsets[2 + 2 * line]);
+            }
+            assertEquals("wrap(\"" + text + "\", " + wrapLength + ", " + wrapLongWords + ")",
+                    Arrays.asList(expected), Arrays.asList(actual));
+        }
+    }
+
+    @Test
+    public void testRenderMatchesReference() {
+        final Random random = new Random(34);
+        for (int n = 0; n < 2000; n++) {
+            assertSameTable(random, 1 + random.nextInt(6), random.nextInt(20), 30, random.nextInt(100));
+        }
+    }
+
+    @Test
+    public void testLayoutMatchesReference() {
+        final Random random = new Random(56);
+        for (int n = 0; n < 2000; n++) {
+            assertSameTable(random, 1 + random.nextInt(8), random.nextInt(12), 60, random.nextInt(121));
+        }
+    }
+
+    @Test
+    public void testLayoutOfLongCellsMatchesReference() {
+        // cells of 256 characters and more are kept out of the length histogram
+        final Random random = new Random(78);
+        for (int n = 0; n < 200; n++) {
+            assertSameTable(random, 1 + random.nextInt(4), random.nextInt(6), 400, random.nextInt(500));
+        }
+    }
+
+    @Test
+    public void testHiddenHeadersMatchReference() {
+        final TableListing actual = new TableListing.Builder().addField("A").addField("B", true)
+                .hideHeaders().build();
+        final ReferenceTableListing expected = new ReferenceTableListing.Builder().addField("A")
+                .addField("B", true).hideHeaders().build();
+        actual.addRow("1", "a long line of text");
+        expected.addRow("1", "a long line of text");
+        actual.addRow(null, "");
+        expected.addRow(null, "");
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    /**
+     * Fill a table and its reference with the same random columns and rows
+     * and compare their text.
+     */
+    static void assertSameTable(final Random random, final int columns, final int rows, final int maxCell,
+                                final int wrapWidth) {
+        final TableListing.Builder builder = new TableListing.Builder();
+        final ReferenceTableListing.Builder reference = new ReferenceTableListing.Builder();
+        for (int c = 0; c < columns; c++) {
+            final String title = randomText(random, 1 + random.nextInt(8));
+            final boolean right = random.nextInt(3) == 0;
+            final boolean wrap = random.nextBoolean();
+            builder.addField(title, right ? TableListing.Justification.RIGHT : TableListing.Justification.LEFT,
+                    wrap);
+            reference.addField(title, right ? ReferenceTableListing.Justification.RIGHT
+                    : ReferenceTableListing.Justification.LEFT, wrap);
+        }
+        if (random.nextInt(4) == 0) {
+            builder.hideHeaders();
+            reference.hideHeaders();
+        }
+        builder.wrapWidth(wrapWidth);
+        reference.wrapWidth(wrapWidth);
+        final TableListing actual = builder.build();
+        final ReferenceTableListing expected = reference.build();
+        for (int r = 0; r < rows; r++) {
+            final String[] row = new String[columns];
+            for (int c = 0; c < columns; c++) {
+                row[c] = random.nextInt(10) == 0 ? null : randomText(random, random.nextInt(maxCell + 1));
+            }
+            actual.addRow(row);
+            expected.addRow(row.clone());
+        }
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    static String randomText(final Random random, final int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return new String(chars);
+    }
+}